@@ -1,6 +1,79 @@
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 
 /**
  * Sistema de Controle de EPIs (Equipamentos de Proteção Individual)
@@ -32,12 +105,164 @@ class ControleEPI {
     private static final String AMARELO = "\u001B[33m";
     private static final String CIANO = "\u001B[36m";
 
+    // Mecanismo de armazenamento: "mysql" (padrão), "arquivo" (embutido, sem servidor; pasta em
+    // -Depi.dados.dir) ou "memoria"; ex.: -Depi.armazenamento=arquivo
+    private static final Armazenamento ARMAZENAMENTO = criarArmazenamento(System.getProperty("epi.armazenamento", "mysql"));
+
+    // Prazo padrão, em dias, para devolução de um empréstimo
+    private static final int PRAZO_DEVOLUCAO_DIAS = 30;
+
+    // Empréstimo, devolução e kit via stored procedures (uma ida ao banco por operação);
+    // requer as procedures do script do banco. Ex.: -Depi.procedures=true
+    private static final boolean USAR_PROCEDURES = Boolean.getBoolean("epi.procedures");
+
+    // Quantidade máxima de resultados exibidos nas buscas por nome/CPF
+    private static final int LIMITE_RESULTADOS_BUSCA = 10;
+
+    // Índices de busca em memória (nome/CPF de funcionários e nome/descrição de EPIs)
+    private static final IndiceBusca INDICE_FUNCIONARIOS = new IndiceBusca();
+    private static final IndiceBusca INDICE_EPIS = new IndiceBusca();
+
+    // Empréstimos ativos por funcionário/EPI (MySQL), para verificações sem ida ao banco
+    private static final IndiceEmprestimosAtivos INDICE_EMPRESTIMOS_ATIVOS = new IndiceEmprestimosAtivos();
+
+    // Taxa de falsos positivos do filtro de CPFs (MySQL); ex.: -Depi.cpf.falsos.positivos=0.001
+    private static final double TAXA_FALSOS_POSITIVOS_CPF =
+            Double.parseDouble(System.getProperty("epi.cpf.falsos.positivos", "0.01"));
+
+    // Filtro de CPFs já cadastrados: evita consultar o banco para CPFs novos (null = não carregado)
+    private static volatile FiltroBloom filtroCpfs;
+
+    // Ponto de reposição = consumo líquido médio por dia na janela x prazo de entrega do fornecedor;
+    // ex.: -Depi.reposicao.janela=28 -Depi.reposicao.prazo=10 (dias)
+    private static final int JANELA_CONSUMO_DIAS = Integer.getInteger("epi.reposicao.janela", 28);
+    private static final int PRAZO_ENTREGA_DIAS = Integer.getInteger("epi.reposicao.prazo", 7);
+
+    // Arquivamento (MySQL): devolvidos há mais de N dias vão para emprestimo_historico, em lotes
+    // pequenos com pausa entre eles; ex.: -Depi.arquivamento.dias=365 -Depi.arquivamento.lote=500
+    private static final int DIAS_ARQUIVAMENTO = Integer.getInteger("epi.arquivamento.dias", 730);
+    private static final int LOTE_ARQUIVAMENTO = Integer.getInteger("epi.arquivamento.lote", 500);
+    private static final String SELECT_LOTE_ARQUIVAMENTO = "SELECT id FROM emprestimo " +
+            "WHERE status IN ('Devolvido', 'Extraviado') AND data_devolucao_real < ? LIMIT " + LOTE_ARQUIVAMENTO;
+    private static final long PAUSA_ARQUIVAMENTO_MS = Long.getLong("epi.arquivamento.pausa", 200);
+
+    // Quarentena de vencidos (MySQL): EPIs por transação e pausa entre lotes;
+    // ex.: -Depi.quarentena.lote=100 -Depi.quarentena.pausa=500
+    private static final int LOTE_QUARENTENA = Integer.getInteger("epi.quarentena.lote", 200);
+    private static final long PAUSA_QUARENTENA_MS = Long.getLong("epi.quarentena.pausa", 200);
+    private static final String SELECT_LOTE_QUARENTENA = "SELECT id FROM epi " +
+            "WHERE validade < ? AND quantidade > 0 ORDER BY id LIMIT " + LOTE_QUARENTENA;
+
+    // Histórico frio: anos anteriores a (ano atual - N) saem do MySQL para arquivos colunares
+    // compactados; ex.: -Depi.frio.anos=5 -Depi.frio.dir=/srv/epi/historico
+    private static final int ANOS_HISTORICO_FRIO = Integer.getInteger("epi.frio.anos", 5);
+    private static final HistoricoFrio HISTORICO_FRIO =
+            new HistoricoFrio(Paths.get(System.getProperty("epi.frio.dir", "historico-frio")));
+
+    // Linhas por página nas listagens (0 = sem paginação); ex.: -Depi.paginacao=40
+    private static final int LINHAS_POR_PAGINA = Integer.getInteger("epi.paginacao", 0);
+
+    // Tempo limite (s) das consultas de relatório, 0 = sem limite;
+    // por relatório: -Depi.relatorio.timeout.historico-epi=600
+    private static final int TEMPO_LIMITE_RELATORIO = Integer.getInteger("epi.relatorio.timeout", 120);
+
+    // Pacote de relatórios: seções consultadas ao mesmo tempo e diretório do arquivo gerado;
+    // ex.: -Depi.pacote.paralelismo=4 -Depi.pacote.dir=/srv/epi/relatorios
+    private static final int PARALELISMO_PACOTE = Integer.getInteger("epi.pacote.paralelismo", 4);
+    private static final Path DIRETORIO_PACOTE = Paths.get(System.getProperty("epi.pacote.dir", "."));
+
+    // Sincronização com o RH: alterações por transação e fração máxima dos ativos que pode ser
+    // desligada de uma vez (acima disso o arquivo é tratado como incompleto); ex.: -Depi.rh.limite.desligamentos=0.05
+    private static final int LOTE_SINCRONIZACAO_RH = 500;
+    private static final double LIMITE_DESLIGAMENTOS_RH =
+            Double.parseDouble(System.getProperty("epi.rh.limite.desligamentos", "0.1"));
+
+    // Devoluções em lote: itens por commit e espera máxima (ms) para completar um lote
+    private static final int TAMANHO_LOTE_DEVOLUCOES = 50;
+    private static final long INTERVALO_LOTE_DEVOLUCOES_MS = 20;
+
+    // Fila local (modo offline) usada quando o MySQL está inacessível e intervalo (ms) em que o retrato
+    // local é regravado durante a sessão online (0 = só ao iniciar e ao reconectar);
+    // ex.: -Depi.offline.dir=/var/lib/epi -Depi.offline.retrato.intervalo=600000
+    private static final ModoOffline MODO_OFFLINE = new ModoOffline(Paths.get(System.getProperty("epi.offline.dir", ".")),
+            Long.getLong("epi.offline.retrato.intervalo", 300_000));
+
+    // Saída e checkpoint do job de notificações de atraso; ex.: -Depi.notificacoes.dir=/var/spool/epi
+    private static final NotificacoesAtraso NOTIFICACOES_ATRASO =
+            new NotificacoesAtraso(Paths.get(System.getProperty("epi.notificacoes.dir", ".")));
+
+    // Tempo (ms) durante o qual o resumo do menu principal é reaproveitado sem consultar o banco
+    private static final long VALIDADE_CACHE_PAINEL_MS = 15_000;
+
+    // Resultados de relatórios mantidos em memória até a próxima escrita nas tabelas que leem;
+    // ex.: -Depi.cache.relatorios=64 (0 desliga)
+    private static final CacheRelatorios CACHE_RELATORIOS =
+            new CacheRelatorios(Integer.getInteger("epi.cache.relatorios", 64));
+
+    // Intervalo (ms) de leitura das alterações feitas por outras instâncias; 0 desliga
+    private static final MonitorAlteracoes MONITOR_ALTERACOES =
+            new MonitorAlteracoes(Long.getLong("epi.alteracoes.intervalo", 2000));
+
+    // EPIs e funcionários com mais empréstimos nos últimos 90 dias (contagem aproximada em memória)
+    private static final MaisEmprestados MAIS_EMPRESTADOS = new MaisEmprestados();
+
+    // Amostragem da saúde do banco a cada N ms (0 desliga) e porta HTTP das sondas (0 = sem HTTP,
+    // só em 127.0.0.1 salvo -Depi.saude.host); ex.: -Depi.saude.intervalo=5000 -Depi.saude.porta=8081
+    private static final SaudeBanco SAUDE_BANCO =
+            new SaudeBanco(Long.getLong("epi.saude.intervalo", 5000), Integer.getInteger("epi.saude.porta", 0));
+
+    // Último resumo calculado para o menu principal (null = precisa recalcular)
+    private static ResumoPainel resumoPainel;
+
     /**
      * Método principal que inicia o sistema
      */
     public static void main(String[] args) {
         exibirBannerInicial();
-        testarConexao();
+        boolean conectado = testarConexao();
+
+        // Execução agendada, sem menu: java ... epis.java --notificar-atrasos
+        if (args.length > 0 && args[0].equals("--notificar-atrasos")) {
+            System.exit(conectado && gerarNotificacoesAtraso() ? 0 : 1);
+        }
+        if (args.length > 0 && args[0].equals("--arquivar-emprestimos")) {
+            System.exit(conectado && arquivarEmprestimosDevolvidos() ? 0 : 1);
+        }
+        if (args.length > 0 && args[0].equals("--exportar-historico-frio")) {
+            System.exit(conectado && exportarHistoricoFrio() ? 0 : 1);
+        }
+        if (args.length > 0 && args[0].equals("--quarentena-vencidos")) {
+            System.exit(conectado && quarentenarEPIsVencidos() ? 0 : 1);
+        }
+        if (args.length > 0 && args[0].equals("--pacote-relatorios")) {
+            System.exit(conectado && gerarPacoteRelatorios() ? 0 : 1);
+        }
+        if (args.length > 0 && args[0].equals("--verificar-planos")) {
+            System.exit(conectado && verificarPlanosConsulta() ? 0 : 1);
+        }
+        if (args.length > 0 && args[0].equals("--saude")) {
+            System.exit(conectado && exibirSaudeBanco() ? 0 : 1);
+        }
+        if (args.length > 0 && args[0].equals("--sincronizar-rh")) {
+            if (args.length < 2) {
+                System.err.println(VERMELHO + "Uso: --sincronizar-rh <arquivo do RH>" + RESET);
+                System.exit(1);
+            }
+            System.exit(conectado && sincronizarRH(Paths.get(args[1])) ? 0 : 1);
+        }
+
+        if (conectado && usandoMySQL()) {
+            sincronizarModoOffline();
+            carregarIndiceEmprestimosAtivos();
+            carregarFiltroCpfs();
+        }
+        carregarIndicesBusca();
+        if (conectado) {
+            MAIS_EMPRESTADOS.carregar();
+            MONITOR_ALTERACOES.iniciar();
+        }
+        SAUDE_BANCO.iniciar();
+        MODO_OFFLINE.iniciarAtualizacao();
         menuPrincipal();
     }
 
@@ -55,19 +280,41 @@ class ControleEPI {
     }
 
     /**
-     * Testa a conexão com o banco de dados
-     * Exibe mensagem de sucesso ou erro e encerra o sistema em caso de falha
+     * Testa a conexão com o banco de dados (ou o armazenamento escolhido)
+     * Exibe mensagem de sucesso ou erro. Em caso de falha entra no modo offline
+     * (se houver um retrato local dos dados) ou encerra o sistema
+     * @return true se conectou, false se o sistema está no modo offline
      */
-    public static void testarConexao() {
-        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA)) {
-            System.out.println(VERDE + "\n✅ Conexão com o banco de dados estabelecida com sucesso!" + RESET);
+    public static boolean testarConexao() {
+        try {
+            ARMAZENAMENTO.verificarDisponibilidade();
+            if (usandoMySQL()) {
+                System.out.println(VERDE + "\n✅ Conexão com o banco de dados estabelecida com sucesso!" + RESET);
+            } else {
+                System.out.println(VERDE + "\n✅ Armazenamento em uso: " + ARMAZENAMENTO.descricao() + RESET);
+            }
+            return true;
         } catch (SQLException e) {
+            if (!usandoMySQL()) {
+                System.err.println(VERMELHO + "\n❌ Falha ao abrir o armazenamento: " + e.getMessage() + RESET);
+                System.exit(1);
+                return false;
+            }
+
             System.err.println(VERMELHO + "\n❌ Falha na conexão com o banco de dados: " + e.getMessage() + RESET);
+
+            if (MODO_OFFLINE.ativar()) {
+                System.out.println(AMARELO + "⚠️ Iniciando no MODO OFFLINE: empréstimos e devoluções serão guardados " +
+                        "localmente e enviados quando o banco voltar." + RESET);
+                return false;
+            }
+
             System.err.println("Verifique se:");
             System.err.println("1. O MySQL está rodando");
             System.err.println("2. O banco 'controle_epi' existe");
             System.err.println("3. As credenciais estão corretas no código");
             System.exit(1); // Encerra o programa com código de erro
+            return false;
         }
     }
 
@@ -75,9 +322,18 @@ class ControleEPI {
      * Menu principal do sistema com opções numeradas
      */
     public static void menuPrincipal() {
-        Scanner scanner = new Scanner(System.in);
+        EntradaConsole entrada = new EntradaConsole(System.in);
+        Scanner scanner = new Scanner(entrada);
+        TabelaConsole.configurarPaginacao(scanner, LINHAS_POR_PAGINA);
+        ExecucaoRelatorio.configurar(scanner, entrada);
 
         while (true) {
+            if (MODO_OFFLINE.ativo()) {
+                verificarModoOffline();
+            } else {
+                avisarSaudeBanco();
+                exibirPainel();
+            }
             System.out.println("\n" + AZUL + "===== MENU PRINCIPAL =====" + RESET);
             System.out.println("1. 📦 Gerenciar EPIs");
             System.out.println("2. 👥 Gerenciar Funcionários");
@@ -85,6 +341,8 @@ class ControleEPI {
             System.out.println("4. ↩️ Registrar Devolução");
             System.out.println("5. 📊 Relatórios");
             System.out.println("6. ⏳ Verificar EPIs próximos da validade");
+            System.out.println("7. 📥 Leitura de devoluções em lote");
+            System.out.println("8. 🩺 Saúde do banco de dados");
             System.out.println("0. 🚪 Sair");
             System.out.print(AMARELO + "Escolha uma opção: " + RESET);
 
@@ -111,6 +369,12 @@ class ControleEPI {
                     case 6:
                         verificarEPIsProximosValidade();
                         break;
+                    case 7:
+                        modoLeituraDevolucoes(scanner);
+                        break;
+                    case 8:
+                        exibirSaudeBanco();
+                        break;
                     case 0:
                         System.out.println(VERDE + "\nSaindo do sistema... Obrigado por utilizar!" + RESET);
                         scanner.close();
@@ -188,6 +452,8 @@ class ControleEPI {
             System.out.println("3. 🔍 Buscar funcionário por ID");
             System.out.println("4. ✏️ Atualizar funcionário");
             System.out.println("5. ❌ Remover funcionário");
+            System.out.println("6. 🔄 Sincronizar com o arquivo do RH");
+            System.out.println("7. 🚪 Desligar funcionário (encerra todos os empréstimos)");
             System.out.println("0. ↩️ Voltar ao menu principal");
             System.out.print(AMARELO + "Escolha uma opção: " + RESET);
 
@@ -211,6 +477,13 @@ class ControleEPI {
                     case 5:
                         removerFuncionario(scanner);
                         break;
+                    case 6:
+                        System.out.print("Caminho do arquivo do RH: ");
+                        sincronizarRH(Paths.get(scanner.nextLine().trim()));
+                        break;
+                    case 7:
+                        desligarFuncionario(scanner);
+                        break;
                     case 0:
                         return;
                     default:
@@ -235,6 +508,7 @@ class ControleEPI {
             System.out.println("3. 🔍 Buscar empréstimo por ID");
             System.out.println("4. ✅ Listar empréstimos ativos");
             System.out.println("5. ⏳ Listar empréstimos próximos do vencimento");
+            System.out.println("6. 🧰 Registrar kit de EPIs");
             System.out.println("0. ↩️ Voltar ao menu principal");
             System.out.print(AMARELO + "Escolha uma opção: " + RESET);
 
@@ -258,6 +532,9 @@ class ControleEPI {
                     case 5:
                         listarEmprestimosProximosVencimento();
                         break;
+                    case 6:
+                        registrarKitEmprestimo(scanner);
+                        break;
                     case 0:
                         return;
                     default:
@@ -282,6 +559,16 @@ class ControleEPI {
             System.out.println("3. 👤 Histórico de empréstimos por funcionário");
             System.out.println("4. 📦 Histórico de empréstimos por EPI");
             System.out.println("5. ⏳ EPIs com validade expirando em 30 dias");
+            System.out.println("6. 🔔 Gerar notificações de atraso");
+            System.out.println("7. 📈 Consumo e ponto de reposição");
+            System.out.println("8. 🏢 Consumo por departamento");
+            System.out.println("9. 🗄️ Arquivar empréstimos devolvidos antigos");
+            System.out.println("10. 🧊 Exportar histórico antigo para arquivos compactados");
+            System.out.println("11. 📑 Pacote completo de relatórios (arquivo)");
+            System.out.println("12. 🚮 Mover EPIs vencidos para a quarentena");
+            System.out.println("13. 🧾 Relatório de descarte");
+            System.out.println("14. 🏆 Mais emprestados (EPIs e funcionários)");
+            System.out.println("15. 🧮 Cubo de consumo (departamento x EPI x mês)");
             System.out.println("0. ↩️ Voltar ao menu principal");
             System.out.print(AMARELO + "Escolha uma opção: " + RESET);
 
@@ -305,6 +592,36 @@ class ControleEPI {
                     case 5:
                         verificarEPIsProximosValidade();
                         break;
+                    case 6:
+                        gerarNotificacoesAtraso();
+                        break;
+                    case 7:
+                        relatorioConsumoReposicao();
+                        break;
+                    case 8:
+                        relatorioConsumoPorDepartamento();
+                        break;
+                    case 9:
+                        arquivarEmprestimosDevolvidos();
+                        break;
+                    case 10:
+                        exportarHistoricoFrio();
+                        break;
+                    case 11:
+                        gerarPacoteRelatorios();
+                        break;
+                    case 12:
+                        quarentenarEPIsVencidos();
+                        break;
+                    case 13:
+                        relatorioDescarte(scanner);
+                        break;
+                    case 14:
+                        relatorioMaisEmprestados(scanner);
+                        break;
+                    case 15:
+                        relatorioCuboConsumo(scanner);
+                        break;
                     case 0:
                         return;
                     default:
@@ -370,25 +687,12 @@ class ControleEPI {
                 }
             }
 
-            String sql = "INSERT INTO epi (nome, descricao, validade, quantidade) VALUES (?, ?, ?, ?)";
-
-            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-                 PreparedStatement stmt = conexao.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-
-                stmt.setString(1, nome);
-                stmt.setString(2, descricao);
-                stmt.setString(3, validade);
-                stmt.setInt(4, quantidade);
-                stmt.executeUpdate();
-
-                // Recupera o ID gerado
-                try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
-                    if (generatedKeys.next()) {
-                        System.out.println(VERDE + "EPI cadastrado com sucesso! ID: " + generatedKeys.getInt(1) + RESET);
-                    } else {
-                        System.out.println(VERDE + "EPI cadastrado com sucesso!" + RESET);
-                    }
-                }
+            try {
+                int idGerado = ARMAZENAMENTO.epis().inserir(nome, descricao, LocalDate.parse(validade), quantidade);
+                indexarEPI(idGerado, nome, descricao);
+                invalidarPainel();
+                CACHE_RELATORIOS.alterou("epi");
+                System.out.println(VERDE + "EPI cadastrado com sucesso! ID: " + idGerado + RESET);
             } catch (SQLException e) {
                 System.err.println(VERMELHO + "Erro ao cadastrar EPI: " + e.getMessage() + RESET);
             }
@@ -403,30 +707,24 @@ class ControleEPI {
      */
     public static void listarEPIs() {
         System.out.println("\n" + AZUL + "--- LISTA DE EPIs ---" + RESET);
-        String sql = "SELECT * FROM epi ORDER BY nome";
 
-        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-             Statement stmt = conexao.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-
-            System.out.printf("%-5s %-30s %-20s %-15s %-10s%n", "ID", "Nome", "Descrição", "Validade", "Quantidade");
-            System.out.println("--------------------------------------------------------------------------------");
+        try (TabelaConsole tabela = new TabelaConsole()) {
+            tabela.coluna("ID", 5).coluna("Nome", 30).coluna("Descrição", 20)
+                    .coluna("Validade", 15).coluna("Quantidade", 10).coluna("", 0)
+                    .cabecalho();
 
-            while (rs.next()) {
-                int id = rs.getInt("id");
-                String nome = rs.getString("nome");
-                String descricao = rs.getString("descricao");
-                Date validade = rs.getDate("validade");
-                int quantidade = rs.getInt("quantidade");
+            LocalDate hoje = LocalDate.now();
 
+            // Percorrido sem montar a lista: parar a paginação para a leitura do banco
+            ARMAZENAMENTO.epis().percorrer(epi -> {
                 // Verifica se o EPI está vencido
-                LocalDate hoje = LocalDate.now();
-                LocalDate dataValidade = validade.toLocalDate();
-                String statusValidade = dataValidade.isBefore(hoje) ? VERMELHO + "VENCIDO" + RESET : VERDE + "OK" + RESET;
+                Object statusValidade = epi.vencido(hoje)
+                        ? TabelaConsole.colorido(VERMELHO, "VENCIDO")
+                        : TabelaConsole.colorido(VERDE, "OK");
 
-                System.out.printf("%-5d %-30s %-20s %-15s %-10d %s%n",
-                        id, nome, descricao, validade, quantidade, statusValidade);
-            }
+                tabela.linha(epi.id, epi.nome, epi.descricao, epi.validade, epi.quantidade, statusValidade);
+                return !tabela.interrompida();
+            });
         } catch (SQLException e) {
             System.err.println(VERMELHO + "Erro ao listar EPIs: " + e.getMessage() + RESET);
         }
@@ -444,40 +742,31 @@ class ControleEPI {
             int id = scanner.nextInt();
             scanner.nextLine(); // Limpar buffer
 
-            String sql = "SELECT * FROM epi WHERE id = ?";
-
-            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-                 PreparedStatement stmt = conexao.prepareStatement(sql)) {
-
-                stmt.setInt(1, id);
-                ResultSet rs = stmt.executeQuery();
-
-                if (rs.next()) {
-                    System.out.println("\n" + AZUL + "DETALHES DO EPI:" + RESET);
-                    System.out.println("ID: " + rs.getInt("id"));
-                    System.out.println("Nome: " + rs.getString("nome"));
-                    System.out.println("Descrição: " + rs.getString("descricao"));
+            Epi epi = ARMAZENAMENTO.epis().buscarPorId(id);
 
-                    Date validade = rs.getDate("validade");
-                    LocalDate hoje = LocalDate.now();
-                    LocalDate dataValidade = validade.toLocalDate();
-
-                    if (dataValidade.isBefore(hoje)) {
-                        System.out.println("Validade: " + validade + " " + VERMELHO + "(VENCIDO)" + RESET);
-                    } else if (dataValidade.isBefore(hoje.plusDays(30))) {
-                        System.out.println("Validade: " + validade + " " + AMARELO + "(PRÓXIMO DO VENCIMENTO)" + RESET);
-                    } else {
-                        System.out.println("Validade: " + validade + " " + VERDE + "(DENTRO DO PRAZO)" + RESET);
-                    }
+            if (epi != null) {
+                System.out.println("\n" + AZUL + "DETALHES DO EPI:" + RESET);
+                System.out.println("ID: " + epi.id);
+                System.out.println("Nome: " + epi.nome);
+                System.out.println("Descrição: " + epi.descricao);
 
-                    System.out.println("Quantidade: " + rs.getInt("quantidade"));
+                LocalDate hoje = LocalDate.now();
 
-                    // Mostra histórico de empréstimos para este EPI
-                    System.out.println("\n" + AZUL + "ÚLTIMOS EMPRÉSTIMOS:" + RESET);
-                    historicoEmprestimosPorEPI(id);
+                if (epi.vencido(hoje)) {
+                    System.out.println("Validade: " + epi.validade + " " + VERMELHO + "(VENCIDO)" + RESET);
+                } else if (epi.validade.isBefore(hoje.plusDays(30))) {
+                    System.out.println("Validade: " + epi.validade + " " + AMARELO + "(PRÓXIMO DO VENCIMENTO)" + RESET);
                 } else {
-                    System.out.println(VERMELHO + "EPI não encontrado com o ID: " + id + RESET);
+                    System.out.println("Validade: " + epi.validade + " " + VERDE + "(DENTRO DO PRAZO)" + RESET);
                 }
+
+                System.out.println("Quantidade: " + epi.quantidade);
+
+                // Mostra histórico de empréstimos para este EPI
+                System.out.println("\n" + AZUL + "ÚLTIMOS EMPRÉSTIMOS:" + RESET);
+                historicoEmprestimosPorEPI(id);
+            } else {
+                System.out.println(VERMELHO + "EPI não encontrado com o ID: " + id + RESET);
             }
         } catch (Exception e) {
             System.out.println(VERMELHO + "ID inválido! Digite um número." + RESET);
@@ -511,77 +800,38 @@ class ControleEPI {
 
             System.out.print("Nova data de validade (AAAA-MM-DD) (deixe em branco para não alterar): ");
             String validadeStr = scanner.nextLine();
-            Date validade = null;
+            LocalDate validade = null;
 
             if (!validadeStr.isEmpty()) {
                 if (!validadeStr.matches("\\d{4}-\\d{2}-\\d{2}")) {
                     System.out.println(VERMELHO + "Formato de data inválido! Use AAAA-MM-DD." + RESET);
                     return;
                 }
-                validade = Date.valueOf(validadeStr);
+                validade = LocalDate.parse(validadeStr);
             }
 
             System.out.print("Nova quantidade em estoque (digite -1 para não alterar): ");
             int quantidade = scanner.nextInt();
             scanner.nextLine();
 
-            // Construir a query dinamicamente com base nos campos que serão atualizados
-            StringBuilder sql = new StringBuilder("UPDATE epi SET ");
-            boolean temCampoParaAtualizar = false;
-
-            if (!nome.isEmpty()) {
-                sql.append("nome = ?, ");
-                temCampoParaAtualizar = true;
-            }
-            if (!descricao.isEmpty()) {
-                sql.append("descricao = ?, ");
-                temCampoParaAtualizar = true;
-            }
-            if (validade != null) {
-                sql.append("validade = ?, ");
-                temCampoParaAtualizar = true;
-            }
-            if (quantidade != -1) {
-                sql.append("quantidade = ?, ");
-                temCampoParaAtualizar = true;
-            }
-
-            if (!temCampoParaAtualizar) {
+            if (nome.isEmpty() && descricao.isEmpty() && validade == null && quantidade == -1) {
                 System.out.println(AMARELO + "Nenhum campo foi alterado." + RESET);
                 return;
             }
 
-            // Remove a última vírgula e espaço
-            sql.delete(sql.length() - 2, sql.length());
-            sql.append(" WHERE id = ?");
-
-            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-                 PreparedStatement stmt = conexao.prepareStatement(sql.toString())) {
-
-                int paramIndex = 1;
-
-                if (!nome.isEmpty()) {
-                    stmt.setString(paramIndex++, nome);
-                }
-                if (!descricao.isEmpty()) {
-                    stmt.setString(paramIndex++, descricao);
-                }
-                if (validade != null) {
-                    stmt.setDate(paramIndex++, validade);
-                }
-                if (quantidade != -1) {
-                    stmt.setInt(paramIndex++, quantidade);
-                }
-
-                stmt.setInt(paramIndex, id);
-
-                int linhasAfetadas = stmt.executeUpdate();
-
-                if (linhasAfetadas > 0) {
-                    System.out.println(VERDE + "EPI atualizado com sucesso!" + RESET);
-                } else {
-                    System.out.println(VERMELHO + "Nenhum EPI foi atualizado." + RESET);
-                }
+            boolean atualizado = ARMAZENAMENTO.epis().atualizar(id,
+                    nome.isEmpty() ? null : nome,
+                    descricao.isEmpty() ? null : descricao,
+                    validade,
+                    quantidade == -1 ? null : quantidade);
+
+            if (atualizado) {
+                reindexarEPI(id);
+                invalidarPainel();
+                CACHE_RELATORIOS.alterou("epi");
+                System.out.println(VERDE + "EPI atualizado com sucesso!" + RESET);
+            } else {
+                System.out.println(VERMELHO + "Nenhum EPI foi atualizado." + RESET);
             }
         } catch (Exception e) {
             System.out.println(VERMELHO + "Erro ao atualizar EPI: " + e.getMessage() + RESET);
@@ -621,19 +871,13 @@ class ControleEPI {
                 return;
             }
 
-            String sql = "DELETE FROM epi WHERE id = ?";
-
-            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-                 PreparedStatement stmt = conexao.prepareStatement(sql)) {
-
-                stmt.setInt(1, id);
-                int linhasAfetadas = stmt.executeUpdate();
-
-                if (linhasAfetadas > 0) {
-                    System.out.println(VERDE + "EPI removido com sucesso!" + RESET);
-                } else {
-                    System.out.println(VERMELHO + "Nenhum EPI foi removido." + RESET);
-                }
+            if (ARMAZENAMENTO.epis().remover(id)) {
+                INDICE_EPIS.remover(id);
+                invalidarPainel();
+                CACHE_RELATORIOS.alterou("epi");
+                System.out.println(VERDE + "EPI removido com sucesso!" + RESET);
+            } else {
+                System.out.println(VERMELHO + "Nenhum EPI foi removido." + RESET);
             }
         } catch (Exception e) {
             System.out.println(VERMELHO + "Erro ao remover EPI: " + e.getMessage() + RESET);
@@ -646,23 +890,19 @@ class ControleEPI {
      */
     public static void listarEPIsVencidos() {
         System.out.println("\n" + AZUL + "--- EPIs VENCIDOS ---" + RESET);
-        String sql = "SELECT * FROM epi WHERE validade < CURDATE() ORDER BY validade";
 
-        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-             Statement stmt = conexao.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-
-            System.out.printf("%-5s %-30s %-15s %-10s%n", "ID", "Nome", "Validade", "Quantidade");
-            System.out.println("------------------------------------------------");
+        try (TabelaConsole tabela = new TabelaConsole()) {
+            List<Epi> epis = ARMAZENAMENTO.epis().listarVencidos(LocalDate.now());
 
-            while (rs.next()) {
-                int id = rs.getInt("id");
-                String nome = rs.getString("nome");
-                Date validade = rs.getDate("validade");
-                int quantidade = rs.getInt("quantidade");
+            tabela.coluna("ID", 5).coluna("Nome", 30).coluna("Validade", 15)
+                    .coluna("Quantidade", 10).coluna("", 0)
+                    .cabecalho();
 
-                System.out.printf("%-5d %-30s %-15s %-10d %s%n",
-                        id, nome, validade, quantidade, VERMELHO + "VENCIDO" + RESET);
+            for (Epi epi : epis) {
+                if (tabela.interrompida()) {
+                    break;
+                }
+                tabela.linha(epi.id, epi.nome, epi.validade, epi.quantidade, TabelaConsole.colorido(VERMELHO, "VENCIDO"));
             }
         } catch (SQLException e) {
             System.err.println(VERMELHO + "Erro ao listar EPIs vencidos: " + e.getMessage() + RESET);
@@ -675,15 +915,8 @@ class ControleEPI {
      * @return true se existe, false caso contrário
      */
     private static boolean epiExiste(int id) {
-        String sql = "SELECT 1 FROM epi WHERE id = ?";
-
-        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-             PreparedStatement stmt = conexao.prepareStatement(sql)) {
-
-            stmt.setInt(1, id);
-            try (ResultSet rs = stmt.executeQuery()) {
-                return rs.next();
-            }
+        try {
+            return ARMAZENAMENTO.epis().buscarPorId(id) != null;
         } catch (SQLException e) {
             System.err.println(VERMELHO + "Erro ao verificar EPI: " + e.getMessage() + RESET);
             return false;
@@ -696,15 +929,8 @@ class ControleEPI {
      * @return true se existe, false caso contrário
      */
     private static boolean epiExiste(String nome) {
-        String sql = "SELECT 1 FROM epi WHERE nome = ?";
-
-        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-             PreparedStatement stmt = conexao.prepareStatement(sql)) {
-
-            stmt.setString(1, nome);
-            try (ResultSet rs = stmt.executeQuery()) {
-                return rs.next();
-            }
+        try {
+            return ARMAZENAMENTO.epis().buscarPorNome(nome) != null;
         } catch (SQLException e) {
             System.err.println(VERMELHO + "Erro ao verificar EPI: " + e.getMessage() + RESET);
             return false;
@@ -717,15 +943,8 @@ class ControleEPI {
      * @return true se há empréstimos ativos, false caso contrário
      */
     private static boolean temEmprestimosAtivos(int idEpi) {
-        String sql = "SELECT 1 FROM emprestimo WHERE id_epi = ? AND status = 'Ativo'";
-
-        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-             PreparedStatement stmt = conexao.prepareStatement(sql)) {
-
-            stmt.setInt(1, idEpi);
-            try (ResultSet rs = stmt.executeQuery()) {
-                return rs.next();
-            }
+        try {
+            return ARMAZENAMENTO.emprestimos().existeAtivoPorEPI(idEpi);
         } catch (SQLException e) {
             System.err.println(VERMELHO + "Erro ao verificar empréstimos: " + e.getMessage() + RESET);
             return true; // Assume que há empréstimos para evitar remoção acidental
@@ -738,16 +957,10 @@ class ControleEPI {
      * @param quantidade Quantidade a ser adicionada
      */
     private static void adicionarEstoqueEPI(String nome, int quantidade) {
-        String sql = "UPDATE epi SET quantidade = quantidade + ? WHERE nome = ?";
-
-        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-             PreparedStatement stmt = conexao.prepareStatement(sql)) {
-
-            stmt.setInt(1, quantidade);
-            stmt.setString(2, nome);
-            int linhasAfetadas = stmt.executeUpdate();
-
-            if (linhasAfetadas > 0) {
+        try {
+            if (ARMAZENAMENTO.epis().ajustarQuantidadePorNome(nome, quantidade)) {
+                invalidarPainel();
+                CACHE_RELATORIOS.alterou("epi");
                 System.out.println(VERDE + "Estoque atualizado com sucesso!" + RESET);
             } else {
                 System.out.println(VERMELHO + "Falha ao atualizar estoque." + RESET);
@@ -796,25 +1009,11 @@ class ControleEPI {
             System.out.print("Departamento: ");
             String departamento = scanner.nextLine();
 
-            String sql = "INSERT INTO funcionario (nome, cpf, cargo, departamento) VALUES (?, ?, ?, ?)";
-
-            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-                 PreparedStatement stmt = conexao.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-
-                stmt.setString(1, nome);
-                stmt.setString(2, cpf);
-                stmt.setString(3, cargo);
-                stmt.setString(4, departamento);
-                stmt.executeUpdate();
-
-                // Recupera o ID gerado
-                try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
-                    if (generatedKeys.next()) {
-                        System.out.println(VERDE + "Funcionário cadastrado com sucesso! ID: " + generatedKeys.getInt(1) + RESET);
-                    } else {
-                        System.out.println(VERDE + "Funcionário cadastrado com sucesso!" + RESET);
-                    }
-                }
+            try {
+                int idGerado = ARMAZENAMENTO.funcionarios().inserir(nome, cpf, cargo, departamento);
+                indexarFuncionario(idGerado, nome, cpf, cargo);
+                CACHE_RELATORIOS.alterou("funcionario");
+                System.out.println(VERDE + "Funcionário cadastrado com sucesso! ID: " + idGerado + RESET);
             } catch (SQLException e) {
                 System.err.println(VERMELHO + "Erro ao cadastrar funcionário: " + e.getMessage() + RESET);
             }
@@ -829,27 +1028,19 @@ class ControleEPI {
      */
     public static void listarFuncionarios() {
         System.out.println("\n" + AZUL + "--- LISTA DE FUNCIONÁRIOS ---" + RESET);
-        String sql = "SELECT * FROM funcionario ORDER BY nome";
 
-        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-             Statement stmt = conexao.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-
-            System.out.printf("%-5s %-30s %-15s %-20s %-15s%n", "ID", "Nome", "CPF", "Cargo", "Departamento");
-            System.out.println("--------------------------------------------------------------------------------");
-
-            while (rs.next()) {
-                int id = rs.getInt("id");
-                String nome = rs.getString("nome");
-                String cpf = rs.getString("cpf");
-                String cargo = rs.getString("cargo");
-                String departamento = rs.getString("departamento");
+        try (TabelaConsole tabela = new TabelaConsole()) {
+            tabela.coluna("ID", 5).coluna("Nome", 30).coluna("CPF", 15)
+                    .coluna("Cargo", 20).coluna("Departamento", 15)
+                    .cabecalho();
 
+            ARMAZENAMENTO.funcionarios().percorrer(funcionario -> {
                 // Formata o CPF para exibição
-                String cpfFormatado = cpf.replaceFirst("(\\d{3})(\\d{3})(\\d{3})(\\d{2})", "$1.$2.$3-$4");
+                String cpfFormatado = funcionario.cpf.replaceFirst("(\\d{3})(\\d{3})(\\d{3})(\\d{2})", "$1.$2.$3-$4");
 
-                System.out.printf("%-5d %-30s %-15s %-20s %-15s%n", id, nome, cpfFormatado, cargo, departamento);
-            }
+                tabela.linha(funcionario.id, funcionario.nome, cpfFormatado, funcionario.cargo, funcionario.departamento);
+                return !tabela.interrompida();
+            });
         } catch (SQLException e) {
             System.err.println(VERMELHO + "Erro ao listar funcionários: " + e.getMessage() + RESET);
         }
@@ -867,33 +1058,25 @@ class ControleEPI {
             int id = scanner.nextInt();
             scanner.nextLine(); // Limpar buffer
 
-            String sql = "SELECT * FROM funcionario WHERE id = ?";
-
-            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-                 PreparedStatement stmt = conexao.prepareStatement(sql)) {
-
-                stmt.setInt(1, id);
-                ResultSet rs = stmt.executeQuery();
+            Funcionario funcionario = ARMAZENAMENTO.funcionarios().buscarPorId(id);
 
-                if (rs.next()) {
-                    System.out.println("\n" + AZUL + "DETALHES DO FUNCIONÁRIO:" + RESET);
-                    System.out.println("ID: " + rs.getInt("id"));
-                    System.out.println("Nome: " + rs.getString("nome"));
+            if (funcionario != null) {
+                System.out.println("\n" + AZUL + "DETALHES DO FUNCIONÁRIO:" + RESET);
+                System.out.println("ID: " + funcionario.id);
+                System.out.println("Nome: " + funcionario.nome);
 
-                    // Formata o CPF para exibição
-                    String cpf = rs.getString("cpf");
-                    String cpfFormatado = cpf.replaceFirst("(\\d{3})(\\d{3})(\\d{3})(\\d{2})", "$1.$2.$3-$4");
-                    System.out.println("CPF: " + cpfFormatado);
+                // Formata o CPF para exibição
+                String cpfFormatado = funcionario.cpf.replaceFirst("(\\d{3})(\\d{3})(\\d{3})(\\d{2})", "$1.$2.$3-$4");
+                System.out.println("CPF: " + cpfFormatado);
 
-                    System.out.println("Cargo: " + rs.getString("cargo"));
-                    System.out.println("Departamento: " + rs.getString("departamento"));
+                System.out.println("Cargo: " + funcionario.cargo);
+                System.out.println("Departamento: " + funcionario.departamento);
 
-                    // Mostra histórico de empréstimos para este funcionário
-                    System.out.println("\n" + AZUL + "ÚLTIMOS EMPRÉSTIMOS:" + RESET);
-                    historicoEmprestimosPorFuncionario(id);
-                } else {
-                    System.out.println(VERMELHO + "Funcionário não encontrado com o ID: " + id + RESET);
-                }
+                // Mostra histórico de empréstimos para este funcionário
+                System.out.println("\n" + AZUL + "ÚLTIMOS EMPRÉSTIMOS:" + RESET);
+                historicoEmprestimosPorFuncionario(id);
+            } else {
+                System.out.println(VERMELHO + "Funcionário não encontrado com o ID: " + id + RESET);
             }
         } catch (Exception e) {
             System.out.println(VERMELHO + "ID inválido! Digite um número." + RESET);
@@ -936,63 +1119,23 @@ class ControleEPI {
             System.out.print("Novo departamento (deixe em branco para não alterar): ");
             String departamento = scanner.nextLine();
 
-            // Construir a query dinamicamente com base nos campos que serão atualizados
-            StringBuilder sql = new StringBuilder("UPDATE funcionario SET ");
-            boolean temCampoParaAtualizar = false;
-
-            if (!nome.isEmpty()) {
-                sql.append("nome = ?, ");
-                temCampoParaAtualizar = true;
-            }
-            if (!cpf.isEmpty()) {
-                sql.append("cpf = ?, ");
-                temCampoParaAtualizar = true;
-            }
-            if (!cargo.isEmpty()) {
-                sql.append("cargo = ?, ");
-                temCampoParaAtualizar = true;
-            }
-            if (!departamento.isEmpty()) {
-                sql.append("departamento = ?, ");
-                temCampoParaAtualizar = true;
-            }
-
-            if (!temCampoParaAtualizar) {
+            if (nome.isEmpty() && cpf.isEmpty() && cargo.isEmpty() && departamento.isEmpty()) {
                 System.out.println(AMARELO + "Nenhum campo foi alterado." + RESET);
                 return;
             }
 
-            // Remove a última vírgula e espaço
-            sql.delete(sql.length() - 2, sql.length());
-            sql.append(" WHERE id = ?");
-
-            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-                 PreparedStatement stmt = conexao.prepareStatement(sql.toString())) {
-
-                int paramIndex = 1;
-
-                if (!nome.isEmpty()) {
-                    stmt.setString(paramIndex++, nome);
-                }
-                if (!cpf.isEmpty()) {
-                    stmt.setString(paramIndex++, cpf);
-                }
-                if (!cargo.isEmpty()) {
-                    stmt.setString(paramIndex++, cargo);
-                }
-                if (!departamento.isEmpty()) {
-                    stmt.setString(paramIndex++, departamento);
-                }
-
-                stmt.setInt(paramIndex, id);
-
-                int linhasAfetadas = stmt.executeUpdate();
+            boolean atualizado = ARMAZENAMENTO.funcionarios().atualizar(id,
+                    nome.isEmpty() ? null : nome,
+                    cpf.isEmpty() ? null : cpf,
+                    cargo.isEmpty() ? null : cargo,
+                    departamento.isEmpty() ? null : departamento);
 
-                if (linhasAfetadas > 0) {
-                    System.out.println(VERDE + "Funcionário atualizado com sucesso!" + RESET);
-                } else {
-                    System.out.println(VERMELHO + "Nenhum funcionário foi atualizado." + RESET);
-                }
+            if (atualizado) {
+                reindexarFuncionario(id);
+                CACHE_RELATORIOS.alterou("funcionario");
+                System.out.println(VERDE + "Funcionário atualizado com sucesso!" + RESET);
+            } else {
+                System.out.println(VERMELHO + "Nenhum funcionário foi atualizado." + RESET);
             }
         } catch (Exception e) {
             System.out.println(VERMELHO + "Erro ao atualizar funcionário: " + e.getMessage() + RESET);
@@ -1021,6 +1164,7 @@ class ControleEPI {
             // Verifica se há empréstimos ativos para este funcionário
             if (temEmprestimosAtivosFuncionario(id)) {
                 System.out.println(VERMELHO + "Não é possível remover este funcionário pois existem empréstimos ativos relacionados a ele." + RESET);
+                System.out.println("Para encerrar todos de uma vez use \"Desligar funcionário\".");
                 return;
             }
 
@@ -1032,19 +1176,12 @@ class ControleEPI {
                 return;
             }
 
-            String sql = "DELETE FROM funcionario WHERE id = ?";
-
-            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-                 PreparedStatement stmt = conexao.prepareStatement(sql)) {
-
-                stmt.setInt(1, id);
-                int linhasAfetadas = stmt.executeUpdate();
-
-                if (linhasAfetadas > 0) {
-                    System.out.println(VERDE + "Funcionário removido com sucesso!" + RESET);
-                } else {
-                    System.out.println(VERMELHO + "Nenhum funcionário foi removido." + RESET);
-                }
+            if (ARMAZENAMENTO.funcionarios().remover(id)) {
+                INDICE_FUNCIONARIOS.remover(id);
+                CACHE_RELATORIOS.alterou("funcionario");
+                System.out.println(VERDE + "Funcionário removido com sucesso!" + RESET);
+            } else {
+                System.out.println(VERMELHO + "Nenhum funcionário foi removido." + RESET);
             }
         } catch (Exception e) {
             System.out.println(VERMELHO + "Erro ao remover funcionário: " + e.getMessage() + RESET);
@@ -1053,62 +1190,206 @@ class ControleEPI {
     }
 
     /**
-     * Verifica se um funcionário existe pelo ID
-     * @param id ID do funcionário
-     * @return true se existe, false caso contrário
+     * Desliga um funcionário de uma vez (só MySQL): todos os empréstimos ativos são
+     * encerrados como devolvidos ou extraviados, o estoque dos devolvidos volta e o
+     * funcionário fica "Desligado" em funcionario_rh, sem perder o histórico
+     * @param scanner Objeto Scanner para entrada de dados
      */
-    private static boolean funcionarioExiste(int id) {
-        String sql = "SELECT 1 FROM funcionario WHERE id = ?";
+    public static void desligarFuncionario(Scanner scanner) {
+        System.out.println("\n" + AZUL + "--- DESLIGAR FUNCIONÁRIO ---" + RESET);
 
-        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-             PreparedStatement stmt = conexao.prepareStatement(sql)) {
+        if (!usandoMySQL() || MODO_OFFLINE.ativo()) {
+            System.out.println(AMARELO + "O desligamento só está disponível com o MySQL conectado." + RESET);
+            return;
+        }
 
-            stmt.setInt(1, id);
-            try (ResultSet rs = stmt.executeQuery()) {
-                return rs.next();
+        try {
+            buscarFuncionariosInterativo(scanner);
+
+            System.out.print("\nDigite o ID do funcionário: ");
+            int id = scanner.nextInt();
+            scanner.nextLine();
+
+            if (!funcionarioExiste(id)) {
+                System.out.println(VERMELHO + "Funcionário não encontrado com o ID: " + id + RESET);
+                return;
             }
-        } catch (SQLException e) {
-            System.err.println(VERMELHO + "Erro ao verificar funcionário: " + e.getMessage() + RESET);
-            return false;
-        }
-    }
 
-    /**
-     * Verifica se um CPF já está cadastrado
-     * @param cpf CPF a ser verificado
-     * @return true se existe, false caso contrário
-     */
-    private static boolean cpfExiste(String cpf) {
-        String sql = "SELECT 1 FROM funcionario WHERE cpf = ?";
+            listarEmprestimosAtivosFuncionario(id);
 
-        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-             PreparedStatement stmt = conexao.prepareStatement(sql)) {
+            System.out.print("IDs dos empréstimos extraviados (separados por vírgula, T = todos, ENTER = nenhum): ");
+            String resposta = scanner.nextLine().trim();
+            boolean todosExtraviados = resposta.equalsIgnoreCase("T");
+            Set<Integer> extraviados = new TreeSet<>();
+            if (!todosExtraviados && !resposta.isEmpty()) {
+                for (String parte : resposta.split(",")) {
+                    extraviados.add(Integer.parseInt(parte.trim()));
+                }
+            }
 
-            stmt.setString(1, cpf);
-            try (ResultSet rs = stmt.executeQuery()) {
-                return rs.next();
+            System.out.print(VERMELHO + "Confirma o desligamento e o encerramento de todos os empréstimos? (S/N): " + RESET);
+            if (!scanner.nextLine().equalsIgnoreCase("S")) {
+                System.out.println("Operação cancelada.");
+                return;
             }
+
+            int[] encerrados = encerrarVinculo(id, extraviados, todosExtraviados);
+            System.out.println(VERDE + "Funcionário desligado: " + encerrados[0] + " empréstimos devolvidos e " +
+                    encerrados[1] + " extraviados." + RESET);
+            System.out.println("Se continuar no arquivo do RH, a próxima sincronização o reativa.");
+        } catch (NumberFormatException e) {
+            System.out.println(VERMELHO + "IDs inválidos! Informe números separados por vírgula." + RESET);
         } catch (SQLException e) {
-            System.err.println(VERMELHO + "Erro ao verificar CPF: " + e.getMessage() + RESET);
-            return true; // Assume que existe para evitar duplicação
+            System.err.println(VERMELHO + "Erro ao desligar funcionário: " + e.getMessage() + RESET);
+        } catch (Exception e) {
+            System.out.println(VERMELHO + "Erro ao desligar funcionário: " + e.getMessage() + RESET);
+            scanner.nextLine();
         }
     }
 
     /**
-     * Verifica se há empréstimos ativos para um funcionário
+     * Encerra todos os empréstimos ativos do funcionário e o desliga, em uma transação
+     * com o mesmo número de comandos qualquer que seja a quantidade de empréstimos:
+     * trava o funcionário e seus ativos, devolve o estoque com um UPDATE agrupado por
+     * EPI, marca os empréstimos (Devolvido/Extraviado) e grava a situação
      * @param idFuncionario ID do funcionário
-     * @return true se há empréstimos ativos, false caso contrário
+     * @param extraviados IDs dos empréstimos extraviados (o estoque não volta)
+     * @param todosExtraviados true se todos os itens foram extraviados
+     * @return {devolvidos, extraviados}
      */
-    private static boolean temEmprestimosAtivosFuncionario(int idFuncionario) {
-        String sql = "SELECT 1 FROM emprestimo WHERE id_funcionario = ? AND status = 'Ativo'";
+    private static int[] encerrarVinculo(int idFuncionario, Set<Integer> extraviados, boolean todosExtraviados)
+            throws SQLException {
+        // Condição "é extraviado" usada pelo estoque e pela marcação (sem IDs: nenhum ou todos)
+        String condicaoExtraviado = todosExtraviados ? "TRUE" : extraviados.isEmpty() ? "FALSE" :
+                "id IN (" + String.join(", ", Collections.nCopies(extraviados.size(), "?")) + ")";
 
-        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-             PreparedStatement stmt = conexao.prepareStatement(sql)) {
+        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA)) {
+            conexao.setAutoCommit(false);
+            try {
+                String cpf;
+                long hash;
+                try (PreparedStatement stmt = conexao.prepareStatement(
+                        "SELECT cpf, nome, cargo, departamento FROM funcionario WHERE id = ? FOR UPDATE")) {
+                    stmt.setInt(1, idFuncionario);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        if (!rs.next()) {
+                            throw new SQLException("funcionário " + idFuncionario + " não encontrado");
+                        }
+                        cpf = rs.getString("cpf");
+                        hash = SincronizacaoRH.hash(rs.getString("nome"), rs.getString("cargo"), rs.getString("departamento"));
+                    }
+                }
 
-            stmt.setInt(1, idFuncionario);
-            try (ResultSet rs = stmt.executeQuery()) {
-                return rs.next();
+                ListaInt ativos = new ListaInt();
+                Set<Integer> extraviadosValidos = new HashSet<>();
+                try (PreparedStatement stmt = conexao.prepareStatement(
+                        "SELECT id FROM emprestimo WHERE id_funcionario = ? AND status = 'Ativo' FOR UPDATE")) {
+                    stmt.setInt(1, idFuncionario);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            ativos.adicionar(rs.getInt(1));
+                            if (todosExtraviados || extraviados.contains(rs.getInt(1))) {
+                                extraviadosValidos.add(rs.getInt(1));
+                            }
+                        }
+                    }
+                }
+                if (!todosExtraviados && extraviadosValidos.size() != extraviados.size()) {
+                    extraviados.removeAll(extraviadosValidos);
+                    throw new SQLException("empréstimos " + extraviados + " não são empréstimos ativos deste funcionário");
+                }
+
+                // Estoque primeiro: a soma por EPI só enxerga os empréstimos ainda ativos
+                String sqlEstoque = "UPDATE epi p JOIN (SELECT id_epi, SUM(quantidade) AS total FROM emprestimo " +
+                        "WHERE id_funcionario = ? AND status = 'Ativo' AND NOT (" + condicaoExtraviado + ") " +
+                        "GROUP BY id_epi) d ON d.id_epi = p.id SET p.quantidade = p.quantidade + d.total";
+                try (PreparedStatement stmt = conexao.prepareStatement(sqlEstoque)) {
+                    int i = 1;
+                    stmt.setInt(i++, idFuncionario);
+                    if (!todosExtraviados) {
+                        for (Integer id : extraviados) {
+                            stmt.setInt(i++, id);
+                        }
+                    }
+                    stmt.executeUpdate();
+                }
+
+                String sqlEmprestimos = "UPDATE emprestimo SET data_devolucao_real = CURDATE(), status = " +
+                        "IF(" + condicaoExtraviado + ", '" + Emprestimo.EXTRAVIADO + "', '" + Emprestimo.DEVOLVIDO + "') " +
+                        "WHERE id_funcionario = ? AND status = 'Ativo'";
+                try (PreparedStatement stmt = conexao.prepareStatement(sqlEmprestimos)) {
+                    int i = 1;
+                    if (!todosExtraviados) {
+                        for (Integer id : extraviados) {
+                            stmt.setInt(i++, id);
+                        }
+                    }
+                    stmt.setInt(i, idFuncionario);
+                    stmt.executeUpdate();
+                }
+
+                try (PreparedStatement stmt = conexao.prepareStatement(
+                        "INSERT INTO funcionario_rh (cpf, hash_conteudo, situacao, desligado_em) " +
+                        "VALUES (?, ?, '" + SincronizacaoRH.DESLIGADO + "', CURDATE()) ON DUPLICATE KEY UPDATE " +
+                        "situacao = VALUES(situacao), desligado_em = COALESCE(desligado_em, VALUES(desligado_em))")) {
+                    stmt.setString(1, cpf);
+                    stmt.setLong(2, hash);
+                    stmt.executeUpdate();
+                }
+
+                conexao.commit();
+
+                for (int i = 0; i < ativos.tamanho(); i++) {
+                    INDICE_EMPRESTIMOS_ATIVOS.remover(ativos.obter(i));
+                }
+                invalidarPainel();
+                CACHE_RELATORIOS.alterou("epi", "emprestimo", "funcionario");
+                return new int[]{ativos.tamanho() - extraviadosValidos.size(), extraviadosValidos.size()};
+            } catch (SQLException e) {
+                conexao.rollback();
+                throw e;
+            } finally {
+                conexao.setAutoCommit(true);
             }
+        }
+    }
+
+    /**
+     * Verifica se um funcionário existe pelo ID
+     * @param id ID do funcionário
+     * @return true se existe, false caso contrário
+     */
+    private static boolean funcionarioExiste(int id) {
+        try {
+            return ARMAZENAMENTO.funcionarios().buscarPorId(id) != null;
+        } catch (SQLException e) {
+            System.err.println(VERMELHO + "Erro ao verificar funcionário: " + e.getMessage() + RESET);
+            return false;
+        }
+    }
+
+    /**
+     * Verifica se um CPF já está cadastrado
+     * @param cpf CPF a ser verificado
+     * @return true se existe, false caso contrário
+     */
+    private static boolean cpfExiste(String cpf) {
+        try {
+            return ARMAZENAMENTO.funcionarios().buscarPorCpf(cpf) != null;
+        } catch (SQLException e) {
+            System.err.println(VERMELHO + "Erro ao verificar CPF: " + e.getMessage() + RESET);
+            return true; // Assume que existe para evitar duplicação
+        }
+    }
+
+    /**
+     * Verifica se há empréstimos ativos para um funcionário
+     * @param idFuncionario ID do funcionário
+     * @return true se há empréstimos ativos, false caso contrário
+     */
+    private static boolean temEmprestimosAtivosFuncionario(int idFuncionario) {
+        try {
+            return ARMAZENAMENTO.emprestimos().existeAtivoPorFuncionario(idFuncionario);
         } catch (SQLException e) {
             System.err.println(VERMELHO + "Erro ao verificar empréstimos: " + e.getMessage() + RESET);
             return true; // Assume que há empréstimos para evitar remoção acidental
@@ -1124,83 +1405,94 @@ class ControleEPI {
     public static void registrarEmprestimo(Scanner scanner) {
         System.out.println("\n" + AZUL + "--- REGISTRAR NOVO EMPRÉSTIMO ---" + RESET);
 
+        if (operarOffline()) {
+            registrarEmprestimoOffline(scanner);
+            return;
+        }
+
+        int idFuncionario = 0;
+        int idEPI = 0;
+        int quantidade = 0;
         try {
-            // Listar funcionários disponíveis
-            System.out.println("\n" + AZUL + "FUNCIONÁRIOS DISPONÍVEIS:" + RESET);
-            listarFuncionarios();
+            // Localizar o funcionário pelo índice de busca
+            buscarFuncionariosInterativo(scanner);
 
             System.out.print("\nDigite o ID do funcionário: ");
-            int idFuncionario = scanner.nextInt();
+            idFuncionario = scanner.nextInt();
             scanner.nextLine();
 
-            // Verifica se o funcionário existe
-            if (!funcionarioExiste(idFuncionario)) {
+            // Verifica se o funcionário existe (com procedures a verificação é feita no banco)
+            if (!usarProcedures() && ARMAZENAMENTO.funcionarios().buscarPorId(idFuncionario) == null) {
                 System.out.println(VERMELHO + "Funcionário não encontrado!" + RESET);
                 return;
             }
 
-            // Listar EPIs disponíveis
-            System.out.println("\n" + AZUL + "EPIs DISPONÍVEIS:" + RESET);
-            listarEPIsDisponiveis();
+            // Localizar o EPI pelo índice de busca
+            buscarEPIsInterativo(scanner);
 
             System.out.print("\nDigite o ID do EPI: ");
-            int idEPI = scanner.nextInt();
+            idEPI = scanner.nextInt();
             scanner.nextLine();
 
             // Verifica se o EPI existe
-            if (!epiExiste(idEPI)) {
+            Epi epi = usarProcedures() ? null : ARMAZENAMENTO.epis().buscarPorId(idEPI);
+            if (!usarProcedures() && epi == null) {
                 System.out.println(VERMELHO + "EPI não encontrado!" + RESET);
                 return;
             }
 
             System.out.print("Quantidade: ");
-            int quantidade = scanner.nextInt();
+            int quantidadeDigitada = scanner.nextInt();
             scanner.nextLine();
 
-            if (quantidade <= 0) {
+            if (quantidadeDigitada <= 0) {
                 System.out.println(VERMELHO + "A quantidade deve ser maior que zero!" + RESET);
                 return;
             }
+            quantidade = quantidadeDigitada;
 
-            // Verificar se há quantidade suficiente e se o EPI está dentro da validade
-            if (!verificarQuantidadeDisponivel(idEPI, quantidade)) {
-                System.out.println(VERMELHO + "Quantidade indisponível para empréstimo!" + RESET);
+            if (usarProcedures()) {
+                emprestarViaProcedure(idFuncionario, idEPI, quantidade);
                 return;
             }
 
-            if (epiVencido(idEPI)) {
+            // Verificar se o EPI está dentro da validade e se há quantidade suficiente
+            if (epi.vencido(LocalDate.now())) {
                 System.out.println(VERMELHO + "Este EPI está vencido e não pode ser emprestado!" + RESET);
                 return;
             }
 
-            LocalDate dataAtual = LocalDate.now();
-            LocalDate dataDevolucaoPrevista = dataAtual.plusDays(30); // 30 dias para devolução
-
-            String sql = "INSERT INTO emprestimo (id_funcionario, id_epi, data_emprestimo, " +
-                    "data_devolucao_prevista, quantidade, status) VALUES (?, ?, ?, ?, ?, ?)";
-
-            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-                 PreparedStatement stmt = conexao.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            if (epi.quantidade < quantidade) {
+                System.out.println(VERMELHO + "Quantidade indisponível para empréstimo!" + RESET);
+                return;
+            }
 
-                stmt.setInt(1, idFuncionario);
-                stmt.setInt(2, idEPI);
-                stmt.setString(3, dataAtual.toString());
-                stmt.setString(4, dataDevolucaoPrevista.toString());
-                stmt.setInt(5, quantidade);
-                stmt.setString(6, "Ativo");
-                stmt.executeUpdate();
+            if (usandoMySQL()) {
+                // Empréstimo e baixa de estoque na mesma transação
+                ListaInt ids = new ListaInt();
+                int status = emprestarJdbc(idFuncionario, Collections.singletonList(new int[]{idEPI, quantidade}), ids);
+                if (status != 0) {
+                    System.out.println(VERMELHO + mensagemStatusProcedure(status) + RESET);
+                    return;
+                }
+                System.out.println(VERDE + "Empréstimo registrado com sucesso! Número: " + ids.obter(0) + RESET);
+                return;
+            }
 
-                // Atualizar estoque do EPI
-                atualizarEstoqueEPI(idEPI, -quantidade);
+            // Empréstimo e baixa de estoque na mesma transação do armazenamento
+            ListaInt ids = emprestarRepositorio(idFuncionario,
+                    Collections.singletonList(new int[]{idEPI, quantidade}), LocalDate.now());
 
-                // Recupera o ID gerado
-                try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
-                    if (generatedKeys.next()) {
-                        System.out.println(VERDE + "Empréstimo registrado com sucesso! Número: " + generatedKeys.getInt(1) + RESET);
-                    } else {
-                        System.out.println(VERDE + "Empréstimo registrado com sucesso!" + RESET);
-                    }
-                }
+            System.out.println(VERDE + "Empréstimo registrado com sucesso! Número: " + ids.obter(0) + RESET);
+        } catch (ResultadoIncertoException e) {
+            avisarResultadoIncerto("o empréstimo", e);
+        } catch (SQLException e) {
+            if (!falhaDeConexao(e)) {
+                System.err.println(VERMELHO + "Erro ao registrar empréstimo: " + e.getMessage() + RESET);
+            } else if (quantidade > 0) {
+                enfileirarEmprestimo(idFuncionario, idEPI, quantidade);
+            } else {
+                registrarEmprestimoOffline(scanner);
             }
         } catch (Exception e) {
             System.out.println(VERMELHO + "Erro ao registrar empréstimo: " + e.getMessage() + RESET);
@@ -1209,82 +1501,330 @@ class ControleEPI {
     }
 
     /**
-     * Verifica se há quantidade suficiente de um EPI para empréstimo
-     * @param idEPI ID do EPI
-     * @param quantidade Quantidade desejada
-     * @return true se há quantidade suficiente, false caso contrário
+     * Registra a entrega de um kit (vários EPIs) para um funcionário em uma única
+     * transação: ou todos os itens são emprestados, ou nenhum
+     * @param scanner Objeto Scanner para entrada de dados
      */
-    private static boolean verificarQuantidadeDisponivel(int idEPI, int quantidade) {
-        String sql = "SELECT quantidade, validade FROM epi WHERE id = ?";
+    public static void registrarKitEmprestimo(Scanner scanner) {
+        System.out.println("\n" + AZUL + "--- REGISTRAR KIT DE EPIs ---" + RESET);
 
-        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-             PreparedStatement stmt = conexao.prepareStatement(sql)) {
+        if (operarOffline()) {
+            registrarKitOffline(scanner);
+            return;
+        }
 
-            stmt.setInt(1, idEPI);
-            ResultSet rs = stmt.executeQuery();
+        int idFuncionario = 0;
+        List<int[]> itens = null;
+        try {
+            buscarFuncionariosInterativo(scanner);
 
-            if (rs.next()) {
-                int quantidadeDisponivel = rs.getInt("quantidade");
-                Date validade = rs.getDate("validade");
+            System.out.print("\nDigite o ID do funcionário: ");
+            idFuncionario = scanner.nextInt();
+            scanner.nextLine();
 
-                // Verifica se o EPI está vencido
-                LocalDate hoje = LocalDate.now();
-                if (validade.toLocalDate().isBefore(hoje)) {
-                    return false;
-                }
+            itens = lerItensKit(scanner);
+            if (itens.isEmpty()) {
+                System.out.println("Nenhum item informado. Operação cancelada.");
+                return;
+            }
 
-                return quantidadeDisponivel >= quantidade;
+            if (usarProcedures()) {
+                emprestarKitViaProcedure(idFuncionario, itens);
+            } else if (usandoMySQL()) {
+                emprestarKit(idFuncionario, itens);
+            } else {
+                emprestarKitRepositorio(idFuncionario, itens);
             }
-            return false;
+        } catch (ResultadoIncertoException e) {
+            avisarResultadoIncerto("o kit", e);
         } catch (SQLException e) {
-            System.err.println(VERMELHO + "Erro ao verificar quantidade disponível: " + e.getMessage() + RESET);
-            return false;
+            if (!falhaDeConexao(e)) {
+                System.err.println(VERMELHO + "Erro ao registrar kit: " + e.getMessage() + RESET);
+            } else if (itens != null && !itens.isEmpty()) {
+                enfileirarKit(idFuncionario, itens);
+            } else {
+                registrarKitOffline(scanner);
+            }
+        } catch (Exception e) {
+            System.out.println(VERMELHO + "Erro ao registrar kit: " + e.getMessage() + RESET);
+            scanner.nextLine();
         }
     }
 
     /**
-     * Verifica se um EPI está vencido
-     * @param idEPI ID do EPI
-     * @return true se está vencido, false caso contrário
+     * Lê os itens de um kit até o usuário digitar 0
+     * @param scanner Objeto Scanner para entrada de dados
+     * @return Lista de {id do EPI, quantidade} (vazia se nenhum item foi informado)
      */
-    private static boolean epiVencido(int idEPI) {
-        String sql = "SELECT validade FROM epi WHERE id = ?";
+    private static List<int[]> lerItensKit(Scanner scanner) {
+        List<int[]> itens = new ArrayList<>();
 
-        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-             PreparedStatement stmt = conexao.prepareStatement(sql)) {
+        while (true) {
+            buscarEPIsInterativo(scanner);
 
-            stmt.setInt(1, idEPI);
-            ResultSet rs = stmt.executeQuery();
+            System.out.print("\nDigite o ID do EPI (0 para finalizar o kit): ");
+            int idEPI = scanner.nextInt();
+            scanner.nextLine();
 
-            if (rs.next()) {
-                Date validade = rs.getDate("validade");
-                LocalDate hoje = LocalDate.now();
-                return validade.toLocalDate().isBefore(hoje);
+            if (idEPI == 0) {
+                return itens;
             }
-            return false;
+
+            System.out.print("Quantidade: ");
+            int quantidade = scanner.nextInt();
+            scanner.nextLine();
+
+            if (quantidade <= 0) {
+                System.out.println(VERMELHO + "A quantidade deve ser maior que zero!" + RESET);
+                continue;
+            }
+
+            itens.add(new int[]{idEPI, quantidade});
+            System.out.println(VERDE + "Item adicionado ao kit (" + itens.size() + " itens)." + RESET);
+        }
+    }
+
+    /**
+     * Empresta todos os itens de um kit em uma transação JDBC, com as mesmas
+     * validações do empréstimo individual
+     * @param idFuncionario ID do funcionário
+     * @param itens Lista de {id do EPI, quantidade}
+     */
+    private static void emprestarKit(int idFuncionario, List<int[]> itens) throws SQLException {
+        if (ARMAZENAMENTO.funcionarios().buscarPorId(idFuncionario) == null) {
+            System.out.println(VERMELHO + "Funcionário não encontrado!" + RESET);
+            return;
+        }
+
+        ListaInt idsEmprestimos = new ListaInt();
+        int status = emprestarJdbc(idFuncionario, itens, idsEmprestimos);
+        if (status == 0) {
+            System.out.println(VERDE + "Kit registrado com sucesso! " + itens.size() + " itens emprestados." + RESET);
+        } else {
+            // O item recusado é o seguinte ao último gravado antes do rollback
+            String prefixo = status == 8 ? "" : "EPI " + itens.get(idsEmprestimos.tamanho())[0] + ": ";
+            System.out.println(VERMELHO + prefixo + mensagemStatusProcedure(status) +
+                    " Nenhum item do kit foi emprestado." + RESET);
+        }
+    }
+
+    /**
+     * Grava empréstimos e baixa de estoque em uma única transação JDBC (tudo ou nada),
+     * revalidando cada EPI com a linha bloqueada. Uma queda de conexão antes do commit
+     * desfaz tudo no servidor; durante o commit o resultado fica incerto e é sinalizado
+     * com ResultadoIncertoException, para não ir à fila offline e ser gravado de novo
+     * @param idFuncionario ID do funcionário
+     * @param itens Lista de {id do EPI, quantidade}
+     * @param idsEmprestimos Recebe os números dos empréstimos gravados, na ordem dos itens
+     * @return 0 se gravou, ou o código de recusa das procedures (ver mensagemStatusProcedure)
+     */
+    private static int emprestarJdbc(int idFuncionario, List<int[]> itens, ListaInt idsEmprestimos)
+            throws SQLException {
+        LocalDate dataAtual = LocalDate.now();
+        LocalDate dataDevolucaoPrevista = dataAtual.plusDays(PRAZO_DEVOLUCAO_DIAS);
+
+        String sqlEstoque = "SELECT quantidade, validade FROM epi WHERE id = ? FOR UPDATE";
+        String sqlEmprestimo = "INSERT INTO emprestimo (id_funcionario, id_epi, data_emprestimo, " +
+                "data_devolucao_prevista, quantidade, status) VALUES (?, ?, ?, ?, ?, 'Ativo')";
+        String sqlBaixa = "UPDATE epi SET quantidade = quantidade - ? WHERE id = ?";
+
+        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA)) {
+            conexao.setAutoCommit(false);
+
+            try (PreparedStatement stmtEstoque = conexao.prepareStatement(sqlEstoque);
+                 PreparedStatement stmtEmprestimo = conexao.prepareStatement(sqlEmprestimo, Statement.RETURN_GENERATED_KEYS);
+                 PreparedStatement stmtBaixa = conexao.prepareStatement(sqlBaixa)) {
+
+                if (funcionarioDesligado(conexao, idFuncionario)) {
+                    conexao.rollback();
+                    return 8;
+                }
+
+                for (int[] item : itens) {
+                    stmtEstoque.setInt(1, item[0]);
+                    try (ResultSet rs = stmtEstoque.executeQuery()) {
+                        boolean encontrado = rs.next();
+                        Date validade = encontrado ? rs.getDate("validade") : null;
+                        int status = !encontrado ? 2
+                                : validade != null && validade.toLocalDate().isBefore(dataAtual) ? 4
+                                : rs.getInt("quantidade") < item[1] ? 5
+                                : 0;
+                        if (status != 0) {
+                            conexao.rollback();
+                            return status;
+                        }
+                    }
+
+                    stmtEmprestimo.setInt(1, idFuncionario);
+                    stmtEmprestimo.setInt(2, item[0]);
+                    stmtEmprestimo.setString(3, dataAtual.toString());
+                    stmtEmprestimo.setString(4, dataDevolucaoPrevista.toString());
+                    stmtEmprestimo.setInt(5, item[1]);
+                    stmtEmprestimo.executeUpdate();
+                    try (ResultSet chaves = stmtEmprestimo.getGeneratedKeys()) {
+                        idsEmprestimos.adicionar(chaves.next() ? chaves.getInt(1) : 0);
+                    }
+
+                    stmtBaixa.setInt(1, item[1]);
+                    stmtBaixa.setInt(2, item[0]);
+                    stmtBaixa.executeUpdate();
+                }
+            } catch (SQLException e) {
+                try {
+                    conexao.rollback();
+                } catch (SQLException falhaRollback) {
+                    e.addSuppressed(falhaRollback);
+                }
+                throw e;
+            }
+
+            confirmar(conexao);
+        }
+
+        for (int i = 0; i < itens.size(); i++) {
+            INDICE_EMPRESTIMOS_ATIVOS.adicionar(idsEmprestimos.obter(i), idFuncionario, itens.get(i)[0]);
+            MAIS_EMPRESTADOS.registrar(idsEmprestimos.obter(i), idFuncionario, itens.get(i)[0], itens.get(i)[1],
+                    dataAtual);
+        }
+        invalidarPainel();
+        CACHE_RELATORIOS.alterou("epi", "emprestimo");
+        return 0;
+    }
+
+    /**
+     * Envia o commit; uma queda de conexão nesse ponto não diz se o servidor gravou
+     */
+    private static void confirmar(Connection conexao) throws SQLException {
+        try {
+            conexao.commit();
         } catch (SQLException e) {
-            System.err.println(VERMELHO + "Erro ao verificar validade do EPI: " + e.getMessage() + RESET);
-            return true; // Assume que está vencido para evitar empréstimo
+            if (e.getSQLState() != null && e.getSQLState().startsWith("08")) {
+                throw new ResultadoIncertoException(e);
+            }
+            throw e;
         }
     }
 
     /**
-     * Atualiza o estoque de um EPI
-     * @param idEPI ID do EPI
-     * @param quantidade Quantidade a ser adicionada (pode ser negativa)
+     * Executa uma procedure que faz o próprio commit; uma queda de conexão durante a
+     * chamada não diz se o servidor gravou
      */
-    private static void atualizarEstoqueEPI(int idEPI, int quantidade) {
-        String sql = "UPDATE epi SET quantidade = quantidade + ? WHERE id = ?";
+    private static void executarGravacao(CallableStatement stmt) throws SQLException {
+        try {
+            stmt.execute();
+        } catch (SQLException e) {
+            if (e.getSQLState() != null && e.getSQLState().startsWith("08")) {
+                throw new ResultadoIncertoException(e);
+            }
+            throw e;
+        }
+    }
 
-        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-             PreparedStatement stmt = conexao.prepareStatement(sql)) {
+    /**
+     * A conexão caiu depois de a gravação ser enviada (commit ou chamada de procedure):
+     * o servidor pode ter gravado ou não. A operação não vai para a fila offline, que a
+     * gravaria em dobro no reenvio; o usuário confere antes de registrar de novo
+     */
+    static class ResultadoIncertoException extends SQLException {
+        private static final long serialVersionUID = 1L;
 
-            stmt.setInt(1, quantidade);
-            stmt.setInt(2, idEPI);
-            stmt.executeUpdate();
+        ResultadoIncertoException(SQLException causa) {
+            super("conexão perdida ao confirmar a gravação", causa.getSQLState(), causa);
+        }
+    }
+
+    /**
+     * Avisa que não se sabe se a operação foi gravada e entra no modo offline
+     * @param operacao Descrição da operação (ex.: "o empréstimo")
+     */
+    private static void avisarResultadoIncerto(String operacao, ResultadoIncertoException e) {
+        falhaDeConexao(e);
+        System.out.println(AMARELO + "⚠️ A conexão caiu ao confirmar " + operacao + ": não é possível saber se " +
+                "foi gravado. Confira a lista de empréstimos quando o banco voltar antes de registrar de novo." + RESET);
+    }
+
+    /**
+     * Empresta um kit pelos repositórios (armazenamentos sem transação SQL): valida
+     * todos os itens, somando as quantidades de um mesmo EPI, antes de gravar qualquer um
+     * @param idFuncionario ID do funcionário
+     * @param itens Lista de {id do EPI, quantidade}
+     */
+    private static void emprestarKitRepositorio(int idFuncionario, List<int[]> itens) {
+        if (!funcionarioExiste(idFuncionario)) {
+            System.out.println(VERMELHO + "Funcionário não encontrado!" + RESET);
+            return;
+        }
+
+        LocalDate dataAtual = LocalDate.now();
+
+        try {
+            Map<Integer, Integer> totalPorEPI = new HashMap<>();
+            for (int[] item : itens) {
+                int total = totalPorEPI.merge(item[0], item[1], Integer::sum);
+                Epi epi = ARMAZENAMENTO.epis().buscarPorId(item[0]);
+                int status = epi == null ? 2
+                        : epi.vencido(dataAtual) ? 4
+                        : epi.quantidade < total ? 5
+                        : 0;
+                if (status != 0) {
+                    System.out.println(VERMELHO + "EPI " + item[0] + ": " + mensagemStatusProcedure(status) +
+                            " Nenhum item do kit foi emprestado." + RESET);
+                    return;
+                }
+            }
+
+            emprestarRepositorio(idFuncionario, itens, dataAtual);
+            System.out.println(VERDE + "Kit registrado com sucesso! " + itens.size() + " itens emprestados." + RESET);
         } catch (SQLException e) {
-            System.err.println(VERMELHO + "Erro ao atualizar estoque do EPI: " + e.getMessage() + RESET);
+            System.err.println(VERMELHO + "Erro ao registrar kit: " + e.getMessage() + RESET);
+        }
+    }
+
+    /**
+     * Grava os empréstimos e as baixas de estoque pelos repositórios numa só transação
+     * do armazenamento (no armazenamento em arquivos, uma queda não separa um do outro)
+     * @param idFuncionario ID do funcionário
+     * @param itens Lista de {id do EPI, quantidade}, já validados
+     * @param data Data do empréstimo
+     * @return IDs dos empréstimos, na ordem dos itens
+     */
+    private static ListaInt emprestarRepositorio(int idFuncionario, List<int[]> itens, LocalDate data)
+            throws SQLException {
+        LocalDate dataDevolucaoPrevista = data.plusDays(PRAZO_DEVOLUCAO_DIAS);
+        ListaInt ids = ARMAZENAMENTO.emTransacao(() -> {
+            ListaInt gerados = new ListaInt();
+            for (int[] item : itens) {
+                gerados.adicionar(ARMAZENAMENTO.emprestimos().inserir(idFuncionario, item[0], data,
+                        dataDevolucaoPrevista, item[1]));
+                ARMAZENAMENTO.epis().ajustarQuantidade(item[0], -item[1]);
+            }
+            return gerados;
+        });
+        invalidarPainel();
+        CACHE_RELATORIOS.alterou("epi", "emprestimo");
+        return ids;
+    }
+
+    /**
+     * Registra a devolução e devolve a quantidade ao estoque pelos repositórios, numa só
+     * transação do armazenamento
+     * @param idEmprestimo ID do empréstimo
+     * @param data Data da devolução
+     * @return O empréstimo devolvido, ou null se não era um empréstimo ativo
+     */
+    private static Emprestimo devolverRepositorio(int idEmprestimo, LocalDate data) throws SQLException {
+        Emprestimo emprestimo = ARMAZENAMENTO.emTransacao(() -> {
+            Emprestimo devolvido = ARMAZENAMENTO.emprestimos().registrarDevolucao(idEmprestimo, data);
+            if (devolvido != null) {
+                ARMAZENAMENTO.epis().ajustarQuantidade(devolvido.idEpi, devolvido.quantidade);
+            }
+            return devolvido;
+        });
+        if (emprestimo != null) {
+            invalidarPainel();
+            CACHE_RELATORIOS.alterou("epi", "emprestimo");
         }
+        return emprestimo;
     }
 
     /**
@@ -1292,39 +1832,23 @@ class ControleEPI {
      */
     public static void listarEmprestimos() {
         System.out.println("\n" + AZUL + "--- LISTA DE EMPRÉSTIMOS ---" + RESET);
-        String sql = "SELECT e.id, f.nome AS funcionario, ep.nome AS epi, e.data_emprestimo, " +
-                "e.data_devolucao_prevista, e.data_devolucao_real, e.quantidade, e.status " +
-                "FROM emprestimo e " +
-                "JOIN funcionario f ON e.id_funcionario = f.id " +
-                "JOIN epi ep ON e.id_epi = ep.id " +
-                "ORDER BY e.data_emprestimo DESC";
-
-        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-             Statement stmt = conexao.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-
-            System.out.printf("%-5s %-20s %-20s %-15s %-20s %-20s %-10s %-10s%n",
-                    "ID", "Funcionário", "EPI", "Data Empréstimo", "Devolução Prevista",
-                    "Devolução Real", "Quantidade", "Status");
-            System.out.println("----------------------------------------------------------------------------------------------------------------");
 
-            while (rs.next()) {
-                int id = rs.getInt("id");
-                String funcionario = rs.getString("funcionario");
-                String epi = rs.getString("epi");
-                Date dataEmprestimo = rs.getDate("data_emprestimo");
-                Date dataDevolucaoPrevista = rs.getDate("data_devolucao_prevista");
-                Date dataDevolucaoReal = rs.getDate("data_devolucao_real");
-                int quantidade = rs.getInt("quantidade");
-                String status = rs.getString("status");
+        try (TabelaConsole tabela = new TabelaConsole()) {
+            tabela.coluna("ID", 5).coluna("Funcionário", 20).coluna("EPI", 20)
+                    .coluna("Data Empréstimo", 15).coluna("Devolução Prevista", 20)
+                    .coluna("Devolução Real", 20).coluna("Quantidade", 10).coluna("Status", 10)
+                    .cabecalho();
 
+            ARMAZENAMENTO.emprestimos().percorrer(emprestimo -> {
                 // Formata o status com cores
-                String statusFormatado = status.equals("Ativo") ? VERDE + status + RESET : CIANO + status + RESET;
-
-                System.out.printf("%-5d %-20s %-20s %-15s %-20s %-20s %-10d %-10s%n",
-                        id, funcionario, epi, dataEmprestimo, dataDevolucaoPrevista,
-                        dataDevolucaoReal != null ? dataDevolucaoReal : "N/A", quantidade, statusFormatado);
-            }
+                Object statusFormatado = TabelaConsole.colorido(emprestimo.ativo() ? VERDE : CIANO, emprestimo.status);
+
+                tabela.linha(emprestimo.id, emprestimo.nomeFuncionario, emprestimo.nomeEpi, emprestimo.dataEmprestimo,
+                        emprestimo.dataDevolucaoPrevista,
+                        emprestimo.dataDevolucaoReal != null ? emprestimo.dataDevolucaoReal : "N/A",
+                        emprestimo.quantidade, statusFormatado);
+                return !tabela.interrompida();
+            });
         } catch (SQLException e) {
             System.err.println(VERMELHO + "Erro ao listar empréstimos: " + e.getMessage() + RESET);
         }
@@ -1342,50 +1866,34 @@ class ControleEPI {
             int id = scanner.nextInt();
             scanner.nextLine();
 
-            String sql = "SELECT e.id, f.nome AS funcionario, ep.nome AS epi, e.data_emprestimo, " +
-                    "e.data_devolucao_prevista, e.data_devolucao_real, e.quantidade, e.status " +
-                    "FROM emprestimo e " +
-                    "JOIN funcionario f ON e.id_funcionario = f.id " +
-                    "JOIN epi ep ON e.id_epi = ep.id " +
-                    "WHERE e.id = ?";
+            Emprestimo emprestimo = ARMAZENAMENTO.emprestimos().buscarPorId(id);
 
-            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-                 PreparedStatement stmt = conexao.prepareStatement(sql)) {
+            if (emprestimo != null) {
+                System.out.println("\n" + AZUL + "DETALHES DO EMPRÉSTIMO:" + RESET);
+                System.out.println("Número: " + emprestimo.id);
+                System.out.println("Funcionário: " + emprestimo.nomeFuncionario);
+                System.out.println("EPI: " + emprestimo.nomeEpi);
+                System.out.println("Data do Empréstimo: " + emprestimo.dataEmprestimo);
+                System.out.println("Data de Devolução Prevista: " + emprestimo.dataDevolucaoPrevista);
 
-                stmt.setInt(1, id);
-                ResultSet rs = stmt.executeQuery();
-
-                if (rs.next()) {
-                    System.out.println("\n" + AZUL + "DETALHES DO EMPRÉSTIMO:" + RESET);
-                    System.out.println("Número: " + rs.getInt("id"));
-                    System.out.println("Funcionário: " + rs.getString("funcionario"));
-                    System.out.println("EPI: " + rs.getString("epi"));
-                    System.out.println("Data do Empréstimo: " + rs.getDate("data_emprestimo"));
-                    System.out.println("Data de Devolução Prevista: " + rs.getDate("data_devolucao_prevista"));
-
-                    Date dataDevolucaoReal = rs.getDate("data_devolucao_real");
-                    String devolucaoRealStr = dataDevolucaoReal != null ? dataDevolucaoReal.toString() : "N/A";
-                    System.out.println("Data de Devolução Real: " + devolucaoRealStr);
-
-                    System.out.println("Quantidade: " + rs.getInt("quantidade"));
-
-                    String status = rs.getString("status");
-                    String statusFormatado = status.equals("Ativo") ? VERDE + status + RESET : CIANO + status + RESET;
-                    System.out.println("Status: " + statusFormatado);
-
-                    // Verifica se está atrasado
-                    if (status.equals("Ativo")) {
-                        LocalDate hoje = LocalDate.now();
-                        LocalDate dataPrevista = rs.getDate("data_devolucao_prevista").toLocalDate();
-
-                        if (hoje.isAfter(dataPrevista)) {
-                            long diasAtraso = hoje.toEpochDay() - dataPrevista.toEpochDay();
-                            System.out.println(VERMELHO + "EMPRÉSTIMO ATRASADO! (" + diasAtraso + " dias)" + RESET);
-                        }
+                String devolucaoRealStr = emprestimo.dataDevolucaoReal != null ? emprestimo.dataDevolucaoReal.toString() : "N/A";
+                System.out.println("Data de Devolução Real: " + devolucaoRealStr);
+
+                System.out.println("Quantidade: " + emprestimo.quantidade);
+
+                String statusFormatado = emprestimo.ativo() ? VERDE + emprestimo.status + RESET : CIANO + emprestimo.status + RESET;
+                System.out.println("Status: " + statusFormatado);
+
+                // Verifica se está atrasado
+                if (emprestimo.ativo()) {
+                    long diasAtraso = emprestimo.diasAtraso(LocalDate.now());
+
+                    if (diasAtraso > 0) {
+                        System.out.println(VERMELHO + "EMPRÉSTIMO ATRASADO! (" + diasAtraso + " dias)" + RESET);
                     }
-                } else {
-                    System.out.println(VERMELHO + "Empréstimo não encontrado com o ID: " + id + RESET);
                 }
+            } else {
+                System.out.println(VERMELHO + "Empréstimo não encontrado com o ID: " + id + RESET);
             }
         } catch (Exception e) {
             System.out.println(VERMELHO + "ID inválido! Digite um número." + RESET);
@@ -1398,44 +1906,37 @@ class ControleEPI {
      */
     public static void listarEmprestimosAtivos() {
         System.out.println("\n" + AZUL + "--- EMPRÉSTIMOS ATIVOS ---" + RESET);
-        String sql = "SELECT e.id, f.nome AS funcionario, ep.nome AS epi, e.data_emprestimo, " +
-                "e.data_devolucao_prevista, e.quantidade " +
-                "FROM emprestimo e " +
-                "JOIN funcionario f ON e.id_funcionario = f.id " +
-                "JOIN epi ep ON e.id_epi = ep.id " +
-                "WHERE e.status = 'Ativo' " +
-                "ORDER BY e.data_devolucao_prevista";
 
-        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-             Statement stmt = conexao.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
+        try (TabelaConsole tabela = new TabelaConsole()) {
+            List<Emprestimo> emprestimos = CACHE_RELATORIOS.consultar("emprestimos-ativos",
+                    List.of("emprestimo", "funcionario", "epi"), () -> ARMAZENAMENTO.emprestimos().listarAtivos());
+            if (emprestimos == null) {
+                return;
+            }
 
-            System.out.printf("%-5s %-20s %-20s %-15s %-20s %-10s%n",
-                    "ID", "Funcionário", "EPI", "Data Empréstimo", "Devolução Prevista", "Quantidade");
-            System.out.println("--------------------------------------------------------------------------------");
+            tabela.coluna("ID", 5).coluna("Funcionário", 20).coluna("EPI", 20)
+                    .coluna("Data Empréstimo", 15).coluna("Devolução Prevista", 20)
+                    .coluna("Quantidade", 10).coluna("", 0)
+                    .cabecalho();
 
             LocalDate hoje = LocalDate.now();
 
-            while (rs.next()) {
-                int id = rs.getInt("id");
-                String funcionario = rs.getString("funcionario");
-                String epi = rs.getString("epi");
-                Date dataEmprestimo = rs.getDate("data_emprestimo");
-                Date dataDevolucaoPrevista = rs.getDate("data_devolucao_prevista");
-                int quantidade = rs.getInt("quantidade");
+            for (Emprestimo emprestimo : emprestimos) {
+                if (tabela.interrompida()) {
+                    break;
+                }
 
                 // Verifica se está atrasado
-                String statusData = "";
-                if (hoje.isAfter(dataDevolucaoPrevista.toLocalDate())) {
-                    long diasAtraso = hoje.toEpochDay() - dataDevolucaoPrevista.toLocalDate().toEpochDay();
-                    statusData = VERMELHO + " (Atrasado: " + diasAtraso + " dias)" + RESET;
-                } else if (hoje.plusDays(7).isAfter(dataDevolucaoPrevista.toLocalDate())) {
-                    long diasRestantes = dataDevolucaoPrevista.toLocalDate().toEpochDay() - hoje.toEpochDay();
-                    statusData = AMARELO + " (Vence em: " + diasRestantes + " dias)" + RESET;
+                Object statusData = "";
+                long diasAtraso = emprestimo.diasAtraso(hoje);
+                if (diasAtraso > 0) {
+                    statusData = TabelaConsole.colorido(VERMELHO, "(Atrasado: " + diasAtraso + " dias)");
+                } else if (hoje.plusDays(7).isAfter(emprestimo.dataDevolucaoPrevista)) {
+                    statusData = TabelaConsole.colorido(AMARELO, "(Vence em: " + (-diasAtraso) + " dias)");
                 }
 
-                System.out.printf("%-5d %-20s %-20s %-15s %-20s %-10d %s%n",
-                        id, funcionario, epi, dataEmprestimo, dataDevolucaoPrevista, quantidade, statusData);
+                tabela.linha(emprestimo.id, emprestimo.nomeFuncionario, emprestimo.nomeEpi, emprestimo.dataEmprestimo,
+                        emprestimo.dataDevolucaoPrevista, emprestimo.quantidade, statusData);
             }
         } catch (SQLException e) {
             System.err.println(VERMELHO + "Erro ao listar empréstimos ativos: " + e.getMessage() + RESET);
@@ -1447,110 +1948,136 @@ class ControleEPI {
      */
     public static void listarEmprestimosProximosVencimento() {
         System.out.println("\n" + AZUL + "--- EMPRÉSTIMOS PRÓXIMOS DO VENCIMENTO ---" + RESET);
-        String sql = "SELECT e.id, f.nome AS funcionario, ep.nome AS epi, e.data_emprestimo, " +
-                "e.data_devolucao_prevista, e.quantidade, " +
-                "DATEDIFF(e.data_devolucao_prevista, CURDATE()) AS dias_restantes " +
-                "FROM emprestimo e " +
-                "JOIN funcionario f ON e.id_funcionario = f.id " +
-                "JOIN epi ep ON e.id_epi = ep.id " +
-                "WHERE e.status = 'Ativo' " +
-                "AND DATEDIFF(e.data_devolucao_prevista, CURDATE()) BETWEEN 0 AND 7 " +
-                "ORDER BY e.data_devolucao_prevista";
+        LocalDate hoje = LocalDate.now();
 
-        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-             Statement stmt = conexao.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
+        try (TabelaConsole tabela = new TabelaConsole()) {
+            List<Emprestimo> emprestimos = ARMAZENAMENTO.emprestimos().listarAtivosComVencimentoEntre(hoje, hoje.plusDays(7));
 
-            System.out.printf("%-5s %-20s %-20s %-15s %-20s %-10s %-15s%n",
-                    "ID", "Funcionário", "EPI", "Data Empréstimo", "Devolução Prevista", "Quantidade", "Dias Restantes");
-            System.out.println("--------------------------------------------------------------------------------------------------------");
+            tabela.coluna("ID", 5).coluna("Funcionário", 20).coluna("EPI", 20)
+                    .coluna("Data Empréstimo", 15).coluna("Devolução Prevista", 20)
+                    .coluna("Quantidade", 10).coluna("Dias Restantes", 15)
+                    .cabecalho();
 
-            while (rs.next()) {
-                int id = rs.getInt("id");
-                String funcionario = rs.getString("funcionario");
-                String epi = rs.getString("epi");
-                Date dataEmprestimo = rs.getDate("data_emprestimo");
-                Date dataDevolucaoPrevista = rs.getDate("data_devolucao_prevista");
-                int quantidade = rs.getInt("quantidade");
-                int diasRestantes = rs.getInt("dias_restantes");
+            for (Emprestimo emprestimo : emprestimos) {
+                if (tabela.interrompida()) {
+                    break;
+                }
 
-                String statusDias = diasRestantes <= 0 ?
-                        VERMELHO + "VENCIDO" + RESET :
-                        AMARELO + diasRestantes + " dias" + RESET;
+                long diasRestantes = -emprestimo.diasAtraso(hoje);
 
-                System.out.printf("%-5d %-20s %-20s %-15s %-20s %-10d %-15s%n",
-                        id, funcionario, epi, dataEmprestimo, dataDevolucaoPrevista, quantidade, statusDias);
+                Object statusDias = diasRestantes <= 0 ?
+                        TabelaConsole.colorido(VERMELHO, "VENCIDO") :
+                        TabelaConsole.colorido(AMARELO, diasRestantes + " dias");
+
+                tabela.linha(emprestimo.id, emprestimo.nomeFuncionario, emprestimo.nomeEpi, emprestimo.dataEmprestimo,
+                        emprestimo.dataDevolucaoPrevista, emprestimo.quantidade, statusDias);
             }
         } catch (SQLException e) {
             System.err.println(VERMELHO + "Erro ao listar empréstimos próximos do vencimento: " + e.getMessage() + RESET);
         }
     }
 
-    // ========== MÉTODOS PARA DEVOLUÇÕES ==========
-
     /**
-     * Registra a devolução de um empréstimo
-     * @param scanner Objeto Scanner para entrada de dados
+     * Lista os empréstimos ativos de um funcionário específico
+     * @param idFuncionario ID do funcionário
      */
-    public static void registrarDevolucao(Scanner scanner) {
-        System.out.println("\n" + AZUL + "--- REGISTRAR DEVOLUÇÃO ---" + RESET);
+    private static void listarEmprestimosAtivosFuncionario(int idFuncionario) {
+        System.out.println("\n" + AZUL + "EMPRÉSTIMOS ATIVOS DO FUNCIONÁRIO:" + RESET);
 
         try {
-            // Listar empréstimos ativos
-            System.out.println("\n" + AZUL + "EMPRÉSTIMOS ATIVOS:" + RESET);
-            listarEmprestimosAtivos();
+            List<Emprestimo> emprestimos = ARMAZENAMENTO.emprestimos().listarAtivosPorFuncionario(idFuncionario);
 
-            System.out.print("\nDigite o ID do empréstimo: ");
-            int idEmprestimo = scanner.nextInt();
-            scanner.nextLine();
+            if (emprestimos.isEmpty()) {
+                System.out.println(AMARELO + "Nenhum empréstimo ativo para este funcionário." + RESET);
+                return;
+            }
 
-            LocalDate dataDevolucao = LocalDate.now();
+            try (TabelaConsole tabela = new TabelaConsole()) {
+                tabela.coluna("ID", 5).coluna("EPI", 20).coluna("Data Empréstimo", 15)
+                        .coluna("Devolução Prevista", 20).coluna("Quantidade", 10).coluna("", 0)
+                        .cabecalho();
 
-            String sql = "UPDATE emprestimo SET data_devolucao_real = ?, status = 'Devolvido' WHERE id = ? AND status = 'Ativo'";
+                LocalDate hoje = LocalDate.now();
 
-            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-                 PreparedStatement stmt = conexao.prepareStatement(sql)) {
+                for (Emprestimo emprestimo : emprestimos) {
+                    if (tabela.interrompida()) {
+                        break;
+                    }
 
-                stmt.setString(1, dataDevolucao.toString());
-                stmt.setInt(2, idEmprestimo);
-                int linhasAfetadas = stmt.executeUpdate();
+                    Object statusData = "";
+                    long diasAtraso = emprestimo.diasAtraso(hoje);
+                    if (diasAtraso > 0) {
+                        statusData = TabelaConsole.colorido(VERMELHO, "(Atrasado: " + diasAtraso + " dias)");
+                    }
+
+                    tabela.linha(emprestimo.id, emprestimo.nomeEpi, emprestimo.dataEmprestimo,
+                            emprestimo.dataDevolucaoPrevista, emprestimo.quantidade, statusData);
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println(VERMELHO + "Erro ao listar empréstimos ativos: " + e.getMessage() + RESET);
+        }
+    }
 
-                if (linhasAfetadas > 0) {
-                    // Recuperar quantidade e ID do EPI para atualizar o estoque
-                    String sqlInfo = "SELECT id_epi, quantidade FROM emprestimo WHERE id = ?";
-                    try (PreparedStatement stmtInfo = conexao.prepareStatement(sqlInfo)) {
-                        stmtInfo.setInt(1, idEmprestimo);
-                        ResultSet rs = stmtInfo.executeQuery();
+    // ========== MÉTODOS PARA DEVOLUÇÕES ==========
 
-                        if (rs.next()) {
-                            int idEPI = rs.getInt("id_epi");
-                            int quantidade = rs.getInt("quantidade");
+    /**
+     * Registra a devolução de um empréstimo
+     * @param scanner Objeto Scanner para entrada de dados
+     */
+    public static void registrarDevolucao(Scanner scanner) {
+        System.out.println("\n" + AZUL + "--- REGISTRAR DEVOLUÇÃO ---" + RESET);
 
-                            // Atualizar estoque
-                            atualizarEstoqueEPI(idEPI, quantidade);
-                        }
-                    }
+        if (operarOffline()) {
+            registrarDevolucaoOffline(scanner);
+            return;
+        }
+
+        int idEmprestimo = 0;
+        try {
+            // Localiza o funcionário e lista apenas os empréstimos ativos dele
+            int idFuncionario = buscarFuncionariosInterativo(scanner);
+            if (idFuncionario == 0) {
+                System.out.print("ID do funcionário para listar os empréstimos ativos (ENTER para pular): ");
+                String entrada = scanner.nextLine().trim();
+                if (!entrada.isEmpty()) {
+                    idFuncionario = Integer.parseInt(entrada);
+                }
+            }
+            if (idFuncionario > 0) {
+                listarEmprestimosAtivosFuncionario(idFuncionario);
+            }
+
+            System.out.print("\nDigite o ID do empréstimo: ");
+            idEmprestimo = scanner.nextInt();
+            scanner.nextLine();
+
+            if (usarProcedures()) {
+                devolverViaProcedure(idEmprestimo);
+                return;
+            }
 
-                    System.out.println(VERDE + "Devolução registrada com sucesso!" + RESET);
+            LocalDate dataDevolucao = LocalDate.now();
+            Emprestimo emprestimo = devolverRepositorio(idEmprestimo, dataDevolucao);
 
-                    // Verifica se houve atraso
-                    String sqlAtraso = "SELECT DATEDIFF(?, data_devolucao_prevista) AS dias_atraso " +
-                            "FROM emprestimo WHERE id = ?";
-                    try (PreparedStatement stmtAtraso = conexao.prepareStatement(sqlAtraso)) {
-                        stmtAtraso.setString(1, dataDevolucao.toString());
-                        stmtAtraso.setInt(2, idEmprestimo);
-                        ResultSet rsAtraso = stmtAtraso.executeQuery();
+            if (emprestimo != null) {
+                System.out.println(VERDE + "Devolução registrada com sucesso!" + RESET);
 
-                        if (rsAtraso.next()) {
-                            int diasAtraso = rsAtraso.getInt("dias_atraso");
-                            if (diasAtraso > 0) {
-                                System.out.println(VERMELHO + "ATENÇÃO: Devolução com atraso de " + diasAtraso + " dias!" + RESET);
-                            }
-                        }
-                    }
-                } else {
-                    System.out.println(VERMELHO + "Nenhum empréstimo ativo encontrado com o ID: " + idEmprestimo + RESET);
+                // Verifica se houve atraso
+                long diasAtraso = emprestimo.diasAtraso(dataDevolucao);
+                if (diasAtraso > 0) {
+                    System.out.println(VERMELHO + "ATENÇÃO: Devolução com atraso de " + diasAtraso + " dias!" + RESET);
                 }
+            } else {
+                System.out.println(VERMELHO + "Nenhum empréstimo ativo encontrado com o ID: " + idEmprestimo + RESET);
+            }
+        } catch (SQLException e) {
+            if (!falhaDeConexao(e)) {
+                System.err.println(VERMELHO + "Erro ao registrar devolução: " + e.getMessage() + RESET);
+            } else if (idEmprestimo > 0) {
+                enfileirarDevolucao(idEmprestimo);
+            } else {
+                registrarDevolucaoOffline(scanner);
             }
         } catch (Exception e) {
             System.out.println(VERMELHO + "Erro ao registrar devolução: " + e.getMessage() + RESET);
@@ -1558,6 +2085,76 @@ class ControleEPI {
         }
     }
 
+    /**
+     * Modo de leitura contínua de devoluções (ex.: leitor de código de barras no
+     * guichê). No MySQL cada número de empréstimo lido entra em uma fila e é
+     * confirmado em lote por uma thread gravadora, enquanto o guichê continua
+     * aceitando leituras; nos demais armazenamentos cada leitura é gravada na hora.
+     * @param scanner Objeto Scanner para entrada de dados
+     */
+    public static void modoLeituraDevolucoes(Scanner scanner) {
+        System.out.println("\n" + AZUL + "--- LEITURA DE DEVOLUÇÕES EM LOTE ---" + RESET);
+        System.out.println("Leia ou digite o número de cada empréstimo devolvido.");
+        System.out.println("Linha vazia ou 0 encerra a leitura.");
+
+        FilaDevolucoes fila = usandoMySQL()
+                ? new FilaDevolucoes(TAMANHO_LOTE_DEVOLUCOES, INTERVALO_LOTE_DEVOLUCOES_MS)
+                : null;
+        if (fila != null) {
+            fila.iniciar();
+        }
+        int sucessos = 0;
+        int falhas = 0;
+
+        while (true) {
+            String entrada = scanner.nextLine().trim();
+
+            if (entrada.isEmpty() || entrada.equals("0")) {
+                break;
+            }
+
+            if (!entrada.matches("\\d{1,9}")) {
+                System.out.println(VERMELHO + "❌ Leitura inválida: " + entrada + RESET);
+                continue;
+            }
+
+            int id = Integer.parseInt(entrada);
+            if (fila != null) {
+                fila.enfileirar(id);
+                continue;
+            }
+
+            try {
+                LocalDate hoje = LocalDate.now();
+                Emprestimo emprestimo = devolverRepositorio(id, hoje);
+                if (emprestimo == null) {
+                    falhas++;
+                    System.out.println(VERMELHO + "❌ Empréstimo " + id + ": não é um empréstimo ativo" + RESET);
+                } else {
+                    sucessos++;
+                    long diasAtraso = emprestimo.diasAtraso(hoje);
+                    String atraso = diasAtraso > 0 ? VERMELHO + " (atraso de " + diasAtraso + " dias)" + RESET : "";
+                    System.out.println(VERDE + "✅ Empréstimo " + id + " devolvido" + RESET + atraso);
+                }
+            } catch (SQLException e) {
+                falhas++;
+                System.out.println(VERMELHO + "❌ Empréstimo " + id + ": erro ao gravar (" + e.getMessage() + ")" + RESET);
+            }
+        }
+
+        if (fila != null) {
+            System.out.println("Aguardando a confirmação das leituras pendentes...");
+            fila.encerrar();
+            sucessos = fila.totalSucessos();
+            falhas = fila.totalFalhas();
+        }
+
+        System.out.println(VERDE + "Devoluções registradas: " + sucessos + RESET);
+        if (falhas > 0) {
+            System.out.println(VERMELHO + "Leituras com falha: " + falhas + RESET);
+        }
+    }
+
     // ========== MÉTODOS PARA RELATÓRIOS ==========
 
     /**
@@ -1565,39 +2162,48 @@ class ControleEPI {
      */
     public static void listarEPIsDisponiveis() {
         System.out.println("\n" + AZUL + "--- EPIs DISPONÍVEIS ---" + RESET);
-        String sql = "SELECT * FROM epi WHERE quantidade > 0 ORDER BY nome";
-
-        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-             Statement stmt = conexao.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
 
-            System.out.printf("%-5s %-30s %-20s %-15s %-10s%n", "ID", "Nome", "Descrição", "Validade", "Quantidade");
-            System.out.println("--------------------------------------------------------------------------------");
+        try (TabelaConsole tabela = new TabelaConsole()) {
+            List<Epi> epis = CACHE_RELATORIOS.consultar("epis-disponiveis", List.of("epi"),
+                    () -> ARMAZENAMENTO.epis().listarDisponiveis());
+            if (epis != null) {
+                escreverEPIsDisponiveis(tabela, epis, LocalDate.now());
+            }
+        } catch (SQLException e) {
+            System.err.println(VERMELHO + "Erro ao listar EPIs disponíveis: " + e.getMessage() + RESET);
+        }
+    }
 
-            while (rs.next()) {
-                int id = rs.getInt("id");
-                String nome = rs.getString("nome");
-                String descricao = rs.getString("descricao");
-                Date validade = rs.getDate("validade");
-                int quantidade = rs.getInt("quantidade");
+    /**
+     * Tabela de EPIs disponíveis, destacando os vencidos e os que vencem em 30 dias
+     * (EPIs sem validade cadastrada aparecem com "-")
+     */
+    private static void escreverEPIsDisponiveis(TabelaConsole tabela, List<Epi> epis, LocalDate hoje) {
+        tabela.coluna("ID", 5).coluna("Nome", 30).coluna("Descrição", 20)
+                .coluna("Validade", 15).coluna("Quantidade", 10).coluna("", 0)
+                .cabecalho();
+
+        for (Epi epi : epis) {
+            if (tabela.interrompida()) {
+                break;
+            }
 
-                // Verifica se o EPI está próximo da validade (30 dias ou menos)
-                LocalDate hoje = LocalDate.now();
-                LocalDate dataValidade = validade.toLocalDate();
-                long diasRestantes = dataValidade.toEpochDay() - hoje.toEpochDay();
+            if (epi.validade == null) {
+                tabela.linha(epi.id, epi.nome, epi.descricao, "-", epi.quantidade, "");
+                continue;
+            }
 
-                String statusValidade = "";
-                if (diasRestantes <= 0) {
-                    statusValidade = VERMELHO + "VENCIDO" + RESET;
-                } else if (diasRestantes <= 30) {
-                    statusValidade = AMARELO + "Vence em " + diasRestantes + " dias" + RESET;
-                }
+            // Verifica se o EPI está próximo da validade (30 dias ou menos)
+            long diasRestantes = epi.validade.toEpochDay() - hoje.toEpochDay();
 
-                System.out.printf("%-5d %-30s %-20s %-15s %-10d %s%n",
-                        id, nome, descricao, validade, quantidade, statusValidade);
+            Object statusValidade = "";
+            if (diasRestantes <= 0) {
+                statusValidade = TabelaConsole.colorido(VERMELHO, "VENCIDO");
+            } else if (diasRestantes <= 30) {
+                statusValidade = TabelaConsole.colorido(AMARELO, "Vence em " + diasRestantes + " dias");
             }
-        } catch (SQLException e) {
-            System.err.println(VERMELHO + "Erro ao listar EPIs disponíveis: " + e.getMessage() + RESET);
+
+            tabela.linha(epi.id, epi.nome, epi.descricao, epi.validade, epi.quantidade, statusValidade);
         }
     }
 
@@ -1606,33 +2212,34 @@ class ControleEPI {
      */
     public static void listarEPIsEmprestados() {
         System.out.println("\n" + AZUL + "--- EPIs EMPRESTADOS ---" + RESET);
-        String sql = "SELECT ep.id, ep.nome, ep.descricao, SUM(e.quantidade) AS total_emprestado " +
-                "FROM epi ep " +
-                "JOIN emprestimo e ON ep.id = e.id_epi " +
-                "WHERE e.status = 'Ativo' " +
-                "GROUP BY ep.id, ep.nome, ep.descricao " +
-                "ORDER BY ep.nome";
-
-        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-             Statement stmt = conexao.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-
-            System.out.printf("%-5s %-30s %-20s %-15s%n", "ID", "Nome", "Descrição", "Quantidade Emprestada");
-            System.out.println("----------------------------------------------------------------");
-
-            while (rs.next()) {
-                int id = rs.getInt("id");
-                String nome = rs.getString("nome");
-                String descricao = rs.getString("descricao");
-                int totalEmprestado = rs.getInt("total_emprestado");
 
-                System.out.printf("%-5d %-30s %-20s %-15d%n", id, nome, descricao, totalEmprestado);
+        try (TabelaConsole tabela = new TabelaConsole()) {
+            List<EpiEmprestado> emprestados = CACHE_RELATORIOS.consultar("epis-emprestados",
+                    List.of("epi", "emprestimo"), () -> ARMAZENAMENTO.emprestimos().listarEPIsEmprestados());
+            if (emprestados != null) {
+                escreverEPIsEmprestados(tabela, emprestados);
             }
         } catch (SQLException e) {
             System.err.println(VERMELHO + "Erro ao listar EPIs emprestados: " + e.getMessage() + RESET);
         }
     }
 
+    /**
+     * Tabela do total emprestado por EPI
+     */
+    private static void escreverEPIsEmprestados(TabelaConsole tabela, List<EpiEmprestado> emprestados) {
+        tabela.coluna("ID", 5).coluna("Nome", 30).coluna("Descrição", 20)
+                .coluna("Quantidade Emprestada", 15)
+                .cabecalho();
+
+        for (EpiEmprestado epi : emprestados) {
+            if (tabela.interrompida()) {
+                break;
+            }
+            tabela.linha(epi.id, epi.nome, epi.descricao, epi.totalEmprestado);
+        }
+    }
+
     /**
      * Mostra o histórico de empréstimos por funcionário (com entrada do usuário)
      * @param scanner Objeto Scanner para entrada de dados
@@ -1646,7 +2253,11 @@ class ControleEPI {
         try {
             int idFuncionario = scanner.nextInt();
             scanner.nextLine();
-            historicoEmprestimosPorFuncionario(idFuncionario);
+
+            LocalDate desde = lerInicioHistorico(scanner);
+            if (desde != LocalDate.MAX) {
+                historicoEmprestimosPorFuncionario(idFuncionario, desde);
+            }
         } catch (Exception e) {
             System.out.println(VERMELHO + "ID inválido! Digite um número." + RESET);
             scanner.nextLine();
@@ -1658,51 +2269,40 @@ class ControleEPI {
      * @param idFuncionario ID do funcionário
      */
     private static void historicoEmprestimosPorFuncionario(int idFuncionario) {
-        String sql = "SELECT e.id, ep.nome AS epi, e.data_emprestimo, e.data_devolucao_prevista, " +
-                "e.data_devolucao_real, e.quantidade, e.status, " +
-                "DATEDIFF(IFNULL(e.data_devolucao_real, CURDATE()), e.data_devolucao_prevista) AS dias_atraso " +
-                "FROM emprestimo e " +
-                "JOIN epi ep ON e.id_epi = ep.id " +
-                "WHERE e.id_funcionario = ? " +
-                "ORDER BY e.data_emprestimo DESC";
-
-        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-             PreparedStatement stmt = conexao.prepareStatement(sql)) {
-
-            stmt.setInt(1, idFuncionario);
-            ResultSet rs = stmt.executeQuery();
+        historicoEmprestimosPorFuncionario(idFuncionario, null);
+    }
 
+    /**
+     * Mostra o histórico de empréstimos por funcionário a partir de uma data
+     * @param idFuncionario ID do funcionário
+     * @param desde Data inicial (inclui o arquivo se for antiga), ou null para o histórico recente
+     */
+    private static void historicoEmprestimosPorFuncionario(int idFuncionario, LocalDate desde) {
+        try {
+            List<Emprestimo> emprestimos = ExecucaoRelatorio.executar("historico-funcionario",
+                    () -> ARMAZENAMENTO.emprestimos().listarPorFuncionario(idFuncionario, desde));
+            if (emprestimos == null) {
+                return;
+            }
             System.out.println("\n" + AZUL + "HISTÓRICO DE EMPRÉSTIMOS:" + RESET);
-            System.out.printf("%-5s %-20s %-15s %-20s %-20s %-10s %-10s %-15s%n",
-                    "ID", "EPI", "Data Empréstimo", "Devolução Prevista",
-                    "Devolução Real", "Quantidade", "Status", "Atraso");
-            System.out.println("----------------------------------------------------------------------------------------------------------------");
 
-            while (rs.next()) {
-                int id = rs.getInt("id");
-                String epi = rs.getString("epi");
-                Date dataEmprestimo = rs.getDate("data_emprestimo");
-                Date dataDevolucaoPrevista = rs.getDate("data_devolucao_prevista");
-                Date dataDevolucaoReal = rs.getDate("data_devolucao_real");
-                int quantidade = rs.getInt("quantidade");
-                String status = rs.getString("status");
-                int diasAtraso = rs.getInt("dias_atraso");
+            try (TabelaConsole tabela = new TabelaConsole()) {
+                tabela.coluna("ID", 5).coluna("EPI", 20).coluna("Data Empréstimo", 15)
+                        .coluna("Devolução Prevista", 20).coluna("Devolução Real", 20)
+                        .coluna("Quantidade", 10).coluna("Status", 10).coluna("Atraso", 15)
+                        .cabecalho();
 
-                // Formata o status com cores
-                String statusFormatado = status.equals("Ativo") ? VERDE + status + RESET : CIANO + status + RESET;
+                LocalDate hoje = LocalDate.now();
 
-                // Formata o atraso
-                String atrasoFormatado = "";
-                if (diasAtraso > 0) {
-                    atrasoFormatado = VERMELHO + diasAtraso + " dias" + RESET;
-                } else if (status.equals("Ativo") && diasAtraso < 0) {
-                    atrasoFormatado = AMARELO + "Faltam " + (-diasAtraso) + " dias" + RESET;
+                for (Emprestimo emprestimo : emprestimos) {
+                    if (tabela.interrompida()) {
+                        break;
+                    }
+                    tabela.linha(emprestimo.id, emprestimo.nomeEpi, emprestimo.dataEmprestimo,
+                            emprestimo.dataDevolucaoPrevista,
+                            emprestimo.dataDevolucaoReal != null ? emprestimo.dataDevolucaoReal : "N/A",
+                            emprestimo.quantidade, statusHistorico(emprestimo), atrasoHistorico(emprestimo, hoje));
                 }
-
-                System.out.printf("%-5d %-20s %-15s %-20s %-20s %-10d %-10s %-15s%n",
-                        id, epi, dataEmprestimo, dataDevolucaoPrevista,
-                        dataDevolucaoReal != null ? dataDevolucaoReal : "N/A",
-                        quantidade, statusFormatado, atrasoFormatado);
             }
         } catch (SQLException e) {
             System.err.println(VERMELHO + "Erro ao buscar histórico: " + e.getMessage() + RESET);
@@ -1722,7 +2322,11 @@ class ControleEPI {
         try {
             int idEPI = scanner.nextInt();
             scanner.nextLine();
-            historicoEmprestimosPorEPI(idEPI);
+
+            LocalDate desde = lerInicioHistorico(scanner);
+            if (desde != LocalDate.MAX) {
+                historicoEmprestimosPorEPI(idEPI, desde);
+            }
         } catch (Exception e) {
             System.out.println(VERMELHO + "ID inválido! Digite um número." + RESET);
             scanner.nextLine();
@@ -1734,93 +2338,9229 @@ class ControleEPI {
      * @param idEPI ID do EPI
      */
     private static void historicoEmprestimosPorEPI(int idEPI) {
-        String sql = "SELECT e.id, f.nome AS funcionario, e.data_emprestimo, e.data_devolucao_prevista, " +
-                "e.data_devolucao_real, e.quantidade, e.status, " +
-                "DATEDIFF(IFNULL(e.data_devolucao_real, CURDATE()), e.data_devolucao_prevista) AS dias_atraso " +
-                "FROM emprestimo e " +
-                "JOIN funcionario f ON e.id_funcionario = f.id " +
-                "WHERE e.id_epi = ? " +
-                "ORDER BY e.data_emprestimo DESC";
-
-        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-             PreparedStatement stmt = conexao.prepareStatement(sql)) {
-
-            stmt.setInt(1, idEPI);
-            ResultSet rs = stmt.executeQuery();
+        historicoEmprestimosPorEPI(idEPI, null);
+    }
 
+    /**
+     * Mostra o histórico de empréstimos por EPI a partir de uma data
+     * @param idEPI ID do EPI
+     * @param desde Data inicial (inclui o arquivo se for antiga), ou null para o histórico recente
+     */
+    private static void historicoEmprestimosPorEPI(int idEPI, LocalDate desde) {
+        try {
+            List<Emprestimo> emprestimos = ExecucaoRelatorio.executar("historico-epi",
+                    () -> ARMAZENAMENTO.emprestimos().listarPorEPI(idEPI, desde));
+            if (emprestimos == null) {
+                return;
+            }
             System.out.println("\n" + AZUL + "HISTÓRICO DE EMPRÉSTIMOS:" + RESET);
-            System.out.printf("%-5s %-20s %-15s %-20s %-20s %-10s %-10s %-15s%n",
-                    "ID", "Funcionário", "Data Empréstimo", "Devolução Prevista",
-                    "Devolução Real", "Quantidade", "Status", "Atraso");
-            System.out.println("----------------------------------------------------------------------------------------------------------------");
 
-            while (rs.next()) {
-                int id = rs.getInt("id");
-                String funcionario = rs.getString("funcionario");
-                Date dataEmprestimo = rs.getDate("data_emprestimo");
-                Date dataDevolucaoPrevista = rs.getDate("data_devolucao_prevista");
-                Date dataDevolucaoReal = rs.getDate("data_devolucao_real");
-                int quantidade = rs.getInt("quantidade");
-                String status = rs.getString("status");
-                int diasAtraso = rs.getInt("dias_atraso");
+            try (TabelaConsole tabela = new TabelaConsole()) {
+                tabela.coluna("ID", 5).coluna("Funcionário", 20).coluna("Data Empréstimo", 15)
+                        .coluna("Devolução Prevista", 20).coluna("Devolução Real", 20)
+                        .coluna("Quantidade", 10).coluna("Status", 10).coluna("Atraso", 15)
+                        .cabecalho();
 
-                // Formata o status com cores
-                String statusFormatado = status.equals("Ativo") ? VERDE + status + RESET : CIANO + status + RESET;
+                LocalDate hoje = LocalDate.now();
 
-                // Formata o atraso
-                String atrasoFormatado = "";
-                if (diasAtraso > 0) {
-                    atrasoFormatado = VERMELHO + diasAtraso + " dias" + RESET;
-                } else if (status.equals("Ativo") && diasAtraso < 0) {
-                    atrasoFormatado = AMARELO + "Faltam " + (-diasAtraso) + " dias" + RESET;
+                for (Emprestimo emprestimo : emprestimos) {
+                    if (tabela.interrompida()) {
+                        break;
+                    }
+                    tabela.linha(emprestimo.id, emprestimo.nomeFuncionario, emprestimo.dataEmprestimo,
+                            emprestimo.dataDevolucaoPrevista,
+                            emprestimo.dataDevolucaoReal != null ? emprestimo.dataDevolucaoReal : "N/A",
+                            emprestimo.quantidade, statusHistorico(emprestimo), atrasoHistorico(emprestimo, hoje));
                 }
-
-                System.out.printf("%-5d %-20s %-15s %-20s %-20s %-10d %-10s %-15s%n",
-                        id, funcionario, dataEmprestimo, dataDevolucaoPrevista,
-                        dataDevolucaoReal != null ? dataDevolucaoReal : "N/A",
-                        quantidade, statusFormatado, atrasoFormatado);
             }
         } catch (SQLException e) {
             System.err.println(VERMELHO + "Erro ao buscar histórico: " + e.getMessage() + RESET);
         }
     }
 
+    /**
+     * Pergunta a data inicial do histórico
+     * @return A data, null para o histórico recente, ou LocalDate.MAX se a data é inválida
+     */
+    private static LocalDate lerInicioHistorico(Scanner scanner) {
+        System.out.print("Desde a data (AAAA-MM-DD; deixe em branco para o histórico recente): ");
+        String desde = scanner.nextLine().trim();
+
+        if (desde.isEmpty()) {
+            return null;
+        }
+        if (!desde.matches("\\d{4}-\\d{2}-\\d{2}")) {
+            System.out.println(VERMELHO + "Formato de data inválido! Use AAAA-MM-DD." + RESET);
+            return LocalDate.MAX;
+        }
+        try {
+            return LocalDate.parse(desde);
+        } catch (DateTimeParseException e) {
+            // Formato certo, mas data inexistente (ex.: 2024-02-30)
+            System.out.println(VERMELHO + "Data inválida: " + desde + "! Use AAAA-MM-DD." + RESET);
+            return LocalDate.MAX;
+        }
+    }
+
+    /**
+     * Status do empréstimo com cores, para as tabelas de histórico
+     */
+    private static Object statusHistorico(Emprestimo emprestimo) {
+        String cor = emprestimo.ativo() ? VERDE : Emprestimo.EXTRAVIADO.equals(emprestimo.status) ? VERMELHO : CIANO;
+        return TabelaConsole.colorido(cor, emprestimo.status);
+    }
+
+    /**
+     * Coluna "Atraso" das tabelas de histórico: dias de atraso ou, se ativo, dias que faltam
+     */
+    private static Object atrasoHistorico(Emprestimo emprestimo, LocalDate hoje) {
+        long diasAtraso = emprestimo.diasAtraso(hoje);
+        if (diasAtraso > 0) {
+            return TabelaConsole.colorido(VERMELHO, diasAtraso + " dias");
+        } else if (emprestimo.ativo() && diasAtraso < 0) {
+            return TabelaConsole.colorido(AMARELO, "Faltam " + (-diasAtraso) + " dias");
+        }
+        return "";
+    }
+
     /**
      * Verifica e lista EPIs que estão próximos da validade (30 dias ou menos)
      */
     public static void verificarEPIsProximosValidade() {
         System.out.println("\n" + AZUL + "--- EPIs COM VALIDADE PRÓXIMA (30 dias ou menos) ---" + RESET);
-        String sql = "SELECT id, nome, descricao, validade, quantidade, " +
-                "DATEDIFF(validade, CURDATE()) AS dias_restantes " +
-                "FROM epi " +
-                "WHERE validade BETWEEN CURDATE() AND DATE_ADD(CURDATE(), INTERVAL 30 DAY) " +
-                "ORDER BY validade";
+        LocalDate hoje = LocalDate.now();
 
-        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
-             Statement stmt = conexao.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
+        try (TabelaConsole tabela = new TabelaConsole()) {
+            List<Epi> epis = ExecucaoRelatorio.executar("validade",
+                    () -> ARMAZENAMENTO.epis().listarComValidadeEntre(hoje, hoje.plusDays(30)));
+            if (epis != null) {
+                escreverEPIsProximosValidade(tabela, epis, hoje);
+            }
+        } catch (SQLException e) {
+            System.err.println(VERMELHO + "Erro ao verificar EPIs próximos da validade: " + e.getMessage() + RESET);
+        }
+    }
 
-            System.out.printf("%-5s %-30s %-20s %-15s %-10s %-15s%n",
-                    "ID", "Nome", "Descrição", "Validade", "Quantidade", "Dias Restantes");
-            System.out.println("----------------------------------------------------------------------------------------");
+    /**
+     * Tabela de EPIs que vencem em breve, com os dias restantes (EPIs sem validade
+     * cadastrada não vencem e ficam de fora)
+     */
+    private static void escreverEPIsProximosValidade(TabelaConsole tabela, List<Epi> epis, LocalDate hoje) {
+        tabela.coluna("ID", 5).coluna("Nome", 30).coluna("Descrição", 20)
+                .coluna("Validade", 15).coluna("Quantidade", 10).coluna("Dias Restantes", 15)
+                .cabecalho();
+
+        for (Epi epi : epis) {
+            if (tabela.interrompida()) {
+                break;
+            }
 
-            while (rs.next()) {
-                int id = rs.getInt("id");
-                String nome = rs.getString("nome");
-                String descricao = rs.getString("descricao");
-                Date validade = rs.getDate("validade");
-                int quantidade = rs.getInt("quantidade");
-                int diasRestantes = rs.getInt("dias_restantes");
+            if (epi.validade == null) {
+                continue;
+            }
+
+            long diasRestantes = epi.validade.toEpochDay() - hoje.toEpochDay();
+            Object statusDias = TabelaConsole.colorido(diasRestantes <= 7 ? VERMELHO : AMARELO, diasRestantes + " dias");
+
+            tabela.linha(epi.id, epi.nome, epi.descricao, epi.validade, epi.quantidade, statusDias);
+        }
+    }
+
+    /**
+     * Consumo por EPI (últimos 7 dias e janela de JANELA_CONSUMO_DIAS) e ponto de
+     * reposição: média diária de consumo líquido x PRAZO_ENTREGA_DIAS. Destaca os EPIs
+     * cujo estoque está abaixo do ponto de reposição.
+     */
+    public static void relatorioConsumoReposicao() {
+        System.out.println("\n" + AZUL + "--- CONSUMO E PONTO DE REPOSIÇÃO (janela de " + JANELA_CONSUMO_DIAS +
+                " dias, entrega em " + PRAZO_ENTREGA_DIAS + " dias) ---" + RESET);
+        LocalDate hoje = LocalDate.now();
 
-                String statusDias = diasRestantes <= 7 ?
-                        VERMELHO + diasRestantes + " dias" + RESET :
-                        AMARELO + diasRestantes + " dias" + RESET;
+        try {
+            Map<Integer, ConsumoEpi> semana = consumoPorEPI(hoje.minusDays(6), hoje);
+            Map<Integer, ConsumoEpi> janela = consumoPorEPI(hoje.minusDays(JANELA_CONSUMO_DIAS - 1), hoje);
+            List<Epi> epis = ARMAZENAMENTO.epis().listar();
 
-                System.out.printf("%-5d %-30s %-20s %-15s %-10d %-15s%n",
-                        id, nome, descricao, validade, quantidade, statusDias);
+            int abaixo;
+            try (TabelaConsole tabela = new TabelaConsole()) {
+                abaixo = escreverConsumoReposicao(tabela, semana, janela, epis);
+            }
+            if (abaixo > 0) {
+                System.out.println(VERMELHO + "\n⚠️ " + abaixo + " EPI(s) abaixo do ponto de reposição." + RESET);
             }
         } catch (SQLException e) {
-            System.err.println(VERMELHO + "Erro ao verificar EPIs próximos da validade: " + e.getMessage() + RESET);
+            System.err.println(VERMELHO + "Erro ao calcular consumo: " + e.getMessage() + RESET);
+        }
+    }
+
+    /**
+     * Tabela de consumo e ponto de reposição
+     * @return Quantidade de EPIs abaixo do ponto de reposição
+     */
+    private static int escreverConsumoReposicao(TabelaConsole tabela, Map<Integer, ConsumoEpi> semana,
+                                                Map<Integer, ConsumoEpi> janela, List<Epi> epis) {
+        tabela.coluna("ID", 5).coluna("Nome", 30).coluna("Saída 7 dias", 12).coluna("Consumo 7 dias", 14)
+                .coluna("Média/dia", 10).coluna("Ponto reposição", 15).coluna("Estoque", 10).coluna("Situação", 0)
+                .cabecalho();
+
+        int abaixo = 0;
+        for (Epi epi : epis) {
+            if (tabela.interrompida()) {
+                break;
+            }
+
+            ConsumoEpi consumoSemana = semana.get(epi.id);
+            ConsumoEpi consumoJanela = janela.get(epi.id);
+            double mediaDiaria = consumoJanela != null
+                    ? Math.max(0, consumoJanela.liquido()) / (double) JANELA_CONSUMO_DIAS : 0;
+            int pontoReposicao = (int) Math.ceil(mediaDiaria * PRAZO_ENTREGA_DIAS);
+
+            Object situacao = "";
+            if (pontoReposicao > 0 && epi.quantidade < pontoReposicao) {
+                situacao = TabelaConsole.colorido(VERMELHO, "REPOR");
+                abaixo++;
+            }
+
+            tabela.linha(epi.id, epi.nome,
+                    consumoSemana != null ? consumoSemana.emprestado : 0,
+                    consumoSemana != null ? consumoSemana.liquido() : 0,
+                    String.format(Locale.ROOT, "%.2f", mediaDiaria), pontoReposicao, epi.quantidade, situacao);
+        }
+        return abaixo;
+    }
+
+    /**
+     * Consumo de cada EPI por departamento na janela de JANELA_CONSUMO_DIAS
+     */
+    public static void relatorioConsumoPorDepartamento() {
+        System.out.println("\n" + AZUL + "--- CONSUMO POR DEPARTAMENTO (últimos " + JANELA_CONSUMO_DIAS + " dias) ---" + RESET);
+        LocalDate hoje = LocalDate.now();
+
+        try (TabelaConsole tabela = new TabelaConsole()) {
+            List<ConsumoEpi> consumo = ARMAZENAMENTO.consumo(hoje.minusDays(JANELA_CONSUMO_DIAS - 1), hoje, true);
+            escreverConsumoPorDepartamento(tabela, consumo, ARMAZENAMENTO.epis().listar());
+        } catch (SQLException e) {
+            System.err.println(VERMELHO + "Erro ao calcular consumo: " + e.getMessage() + RESET);
+        }
+    }
+
+    /**
+     * Tabela de consumo por departamento e EPI
+     */
+    private static void escreverConsumoPorDepartamento(TabelaConsole tabela, List<ConsumoEpi> consumo,
+                                                       List<Epi> epis) {
+        Map<Integer, String> nomes = new HashMap<>();
+        for (Epi epi : epis) {
+            nomes.put(epi.id, epi.nome);
+        }
+
+        List<ConsumoEpi> ordenado = new ArrayList<>(consumo);
+        ordenado.sort(Comparator.comparing((ConsumoEpi c) -> c.departamento)
+                .thenComparing(c -> nomes.getOrDefault(c.idEpi, ""), String.CASE_INSENSITIVE_ORDER));
+
+        tabela.coluna("Departamento", 20).coluna("EPI", 30).coluna("Emprestado", 12)
+                .coluna("Devolvido", 12).coluna("Consumo", 10)
+                .cabecalho();
+
+        for (ConsumoEpi item : ordenado) {
+            if (tabela.interrompida()) {
+                break;
+            }
+            tabela.linha(item.departamento.isEmpty() ? "(sem departamento)" : item.departamento,
+                    nomes.getOrDefault(item.idEpi, "EPI " + item.idEpi),
+                    item.emprestado, item.devolvido, item.liquido());
+        }
+    }
+
+    /**
+     * Cubo de consumo departamento x EPI x mês, com fatiamento e detalhamento:
+     * escolhe as dimensões e os filtros, e depois qualquer linha pode ser detalhada
+     * (os valores dela viram filtros e todas as dimensões passam a ser agrupadas)
+     * @param scanner Objeto Scanner para entrada de dados
+     */
+    public static void relatorioCuboConsumo(Scanner scanner) {
+        System.out.println("\n" + AZUL + "--- CUBO DE CONSUMO: DEPARTAMENTO x EPI x MÊS ---" + RESET);
+
+        try {
+            YearMonth atual = YearMonth.now();
+            System.out.print("Mês inicial (AAAA-MM) [" + atual.minusMonths(11) + "]: ");
+            String entrada = scanner.nextLine().trim();
+            YearMonth de = entrada.isEmpty() ? atual.minusMonths(11) : YearMonth.parse(entrada);
+            System.out.print("Mês final (AAAA-MM) [" + atual + "]: ");
+            entrada = scanner.nextLine().trim();
+            YearMonth ate = entrada.isEmpty() ? atual : YearMonth.parse(entrada);
+
+            System.out.print("Agrupar por (D = departamento, E = EPI, M = mês) [DE]: ");
+            String dimensoes = scanner.nextLine().trim().toUpperCase(Locale.ROOT);
+            if (dimensoes.isEmpty()) {
+                dimensoes = "DE";
+            }
+            System.out.print("Filtrar departamento (ENTER = todos): ");
+            String departamento = scanner.nextLine().trim();
+            System.out.print("Filtrar ID do EPI (ENTER = todos): ");
+            entrada = scanner.nextLine().trim();
+            Integer idEpi = entrada.isEmpty() ? null : Integer.parseInt(entrada);
+
+            ConsultaCubo consulta = new ConsultaCubo(dimensoes.contains("D"), dimensoes.contains("E"),
+                    dimensoes.contains("M"), departamento.isEmpty() ? null : departamento, idEpi, de, ate);
+
+            Map<Integer, String> nomes = new HashMap<>();
+            for (Epi epi : ARMAZENAMENTO.epis().listar()) {
+                nomes.put(epi.id, epi.nome);
+            }
+
+            while (true) {
+                ConsultaCubo atualConsulta = consulta;
+                List<CelulaCubo> celulas = ExecucaoRelatorio.executar("cubo-consumo",
+                        () -> ARMAZENAMENTO.cubo(atualConsulta));
+                if (celulas == null) {
+                    return;
+                }
+                escreverCuboConsumo(consulta, celulas, nomes);
+
+                if (celulas.isEmpty() || (consulta.porDepartamento && consulta.porEpi && consulta.porMes
+                        && consulta.departamento != null && consulta.idEpi != null)) {
+                    return;
+                }
+                System.out.print("\nNº da linha para detalhar (ENTER encerra): ");
+                entrada = scanner.nextLine().trim();
+                if (entrada.isEmpty()) {
+                    return;
+                }
+                int linha = Integer.parseInt(entrada);
+                if (linha < 1 || linha > celulas.size()) {
+                    System.out.println(VERMELHO + "Linha inexistente!" + RESET);
+                    return;
+                }
+                consulta = consulta.detalhar(celulas.get(linha - 1));
+            }
+        } catch (NumberFormatException | DateTimeParseException e) {
+            System.out.println(VERMELHO + "Entrada inválida!" + RESET);
+        } catch (SQLException e) {
+            System.err.println(VERMELHO + "Erro ao consultar o cubo de consumo: " + e.getMessage() + RESET);
+        }
+    }
+
+    /**
+     * Tabela do cubo: uma coluna por dimensão agrupada, numeradas para o detalhamento,
+     * e a linha de total ao final
+     */
+    private static void escreverCuboConsumo(ConsultaCubo consulta, List<CelulaCubo> celulas, Map<Integer, String> nomes) {
+        System.out.println("Período: " + consulta.de + " a " + consulta.ate +
+                (consulta.departamento != null ? " | Departamento: " +
+                        (consulta.departamento.isEmpty() ? "(sem departamento)" : consulta.departamento) : "") +
+                (consulta.idEpi != null ? " | EPI: " + nomes.getOrDefault(consulta.idEpi, "EPI " + consulta.idEpi) : ""));
+
+        int emprestado = 0;
+        int devolvido = 0;
+        try (TabelaConsole tabela = new TabelaConsole()) {
+            tabela.coluna("Nº", 5);
+            if (consulta.porDepartamento) {
+                tabela.coluna("Departamento", 20);
+            }
+            if (consulta.porEpi) {
+                tabela.coluna("EPI", 30);
+            }
+            if (consulta.porMes) {
+                tabela.coluna("Mês", 8);
+            }
+            tabela.coluna("Emprestado", 12).coluna("Devolvido", 12).coluna("Consumo", 10)
+                    .cabecalho();
+
+            int numero = 1;
+            for (CelulaCubo celula : celulas) {
+                emprestado += celula.emprestado;
+                devolvido += celula.devolvido;
+                if (tabela.interrompida()) {
+                    continue;
+                }
+
+                List<Object> valores = new ArrayList<>();
+                valores.add(numero++);
+                if (consulta.porDepartamento) {
+                    valores.add(celula.departamento.isEmpty() ? "(sem departamento)" : celula.departamento);
+                }
+                if (consulta.porEpi) {
+                    valores.add(nomes.getOrDefault(celula.idEpi, "EPI " + celula.idEpi));
+                }
+                if (consulta.porMes) {
+                    valores.add(celula.mes);
+                }
+                valores.add(celula.emprestado);
+                valores.add(celula.devolvido);
+                valores.add(celula.liquido());
+                tabela.linha(valores.toArray());
+            }
+        }
+        System.out.println("Total: " + emprestado + " emprestados, " + devolvido + " devolvidos, consumo " +
+                (emprestado - devolvido) + ".");
+    }
+
+    /**
+     * Consumo de cada EPI no período, indexado pelo ID do EPI
+     */
+    private static Map<Integer, ConsumoEpi> consumoPorEPI(LocalDate inicio, LocalDate fim) throws SQLException {
+        Map<Integer, ConsumoEpi> resultado = new HashMap<>();
+        for (ConsumoEpi item : ARMAZENAMENTO.consumo(inicio, fim, false)) {
+            resultado.put(item.idEpi, item);
+        }
+        return resultado;
+    }
+
+    // ========== OPERAÇÕES VIA STORED PROCEDURES ==========
+
+    /**
+     * Indica se empréstimos, devoluções e kits devem usar as stored procedures
+     * (só quando ligado por -Depi.procedures=true e o armazenamento é o MySQL)
+     */
+    private static boolean usarProcedures() {
+        return USAR_PROCEDURES && usandoMySQL();
+    }
+
+    /**
+     * Registra um empréstimo chamando sp_registrar_emprestimo (uma ida ao banco)
+     * @param idFuncionario ID do funcionário
+     * @param idEPI ID do EPI
+     * @param quantidade Quantidade emprestada
+     */
+    private static void emprestarViaProcedure(int idFuncionario, int idEPI, int quantidade) throws SQLException {
+        String sql = "{CALL sp_registrar_emprestimo(?, ?, ?, ?, ?, ?)}";
+
+        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
+             CallableStatement stmt = conexao.prepareCall(sql)) {
+
+            stmt.setInt(1, idFuncionario);
+            stmt.setInt(2, idEPI);
+            stmt.setInt(3, quantidade);
+            stmt.setInt(4, PRAZO_DEVOLUCAO_DIAS);
+            stmt.registerOutParameter(5, Types.INTEGER);
+            stmt.registerOutParameter(6, Types.INTEGER);
+            executarGravacao(stmt);
+
+            int status = stmt.getInt(5);
+            if (status == 0) {
+                INDICE_EMPRESTIMOS_ATIVOS.adicionar(stmt.getInt(6), idFuncionario, idEPI);
+                MAIS_EMPRESTADOS.registrar(stmt.getInt(6), idFuncionario, idEPI, quantidade, LocalDate.now());
+                invalidarPainel();
+                CACHE_RELATORIOS.alterou("epi", "emprestimo");
+                System.out.println(VERDE + "Empréstimo registrado com sucesso! Número: " + stmt.getInt(6) + RESET);
+            } else {
+                System.out.println(VERMELHO + mensagemStatusProcedure(status) + RESET);
+            }
+        }
+    }
+
+    /**
+     * Registra uma devolução chamando sp_registrar_devolucao (uma ida ao banco)
+     * @param idEmprestimo ID do empréstimo
+     */
+    private static void devolverViaProcedure(int idEmprestimo) throws SQLException {
+        String sql = "{CALL sp_registrar_devolucao(?, ?, ?)}";
+
+        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
+             CallableStatement stmt = conexao.prepareCall(sql)) {
+
+            stmt.setInt(1, idEmprestimo);
+            stmt.registerOutParameter(2, Types.INTEGER);
+            stmt.registerOutParameter(3, Types.INTEGER);
+            stmt.execute();
+
+            int status = stmt.getInt(2);
+            if (status == 0) {
+                INDICE_EMPRESTIMOS_ATIVOS.remover(idEmprestimo);
+                invalidarPainel();
+                CACHE_RELATORIOS.alterou("epi", "emprestimo");
+                System.out.println(VERDE + "Devolução registrada com sucesso!" + RESET);
+
+                int diasAtraso = stmt.getInt(3);
+                if (diasAtraso > 0) {
+                    System.out.println(VERMELHO + "ATENÇÃO: Devolução com atraso de " + diasAtraso + " dias!" + RESET);
+                }
+            } else if (status == 6) {
+                System.out.println(VERMELHO + "Nenhum empréstimo ativo encontrado com o ID: " + idEmprestimo + RESET);
+            } else {
+                System.out.println(VERMELHO + mensagemStatusProcedure(status) + RESET);
+            }
+        }
+    }
+
+    /**
+     * Registra um kit chamando sp_registrar_kit (uma ida ao banco, tudo ou nada)
+     * @param idFuncionario ID do funcionário
+     * @param itens Lista de {id do EPI, quantidade}
+     */
+    private static void emprestarKitViaProcedure(int idFuncionario, List<int[]> itens) throws SQLException {
+        String sql = "{CALL sp_registrar_kit(?, ?, ?, ?, ?, ?)}";
+
+        // A procedure recebe os itens no formato "idEpi:quantidade,idEpi:quantidade"
+        StringBuilder lista = new StringBuilder();
+        for (int[] item : itens) {
+            if (lista.length() > 0) {
+                lista.append(',');
+            }
+            lista.append(item[0]).append(':').append(item[1]);
+        }
+
+        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
+             CallableStatement stmt = conexao.prepareCall(sql)) {
+
+            stmt.setInt(1, idFuncionario);
+            stmt.setString(2, lista.toString());
+            stmt.setInt(3, PRAZO_DEVOLUCAO_DIAS);
+            stmt.registerOutParameter(4, Types.INTEGER);
+            stmt.registerOutParameter(5, Types.INTEGER);
+            stmt.registerOutParameter(6, Types.VARCHAR);
+            executarGravacao(stmt);
+
+            int status = stmt.getInt(4);
+            if (status == 0) {
+                // Números dos empréstimos criados, na ordem dos itens
+                String[] ids = stmt.getString(6).split(",");
+                LocalDate hoje = LocalDate.now();
+                for (int i = 0; i < ids.length; i++) {
+                    int idEmprestimo = Integer.parseInt(ids[i]);
+                    INDICE_EMPRESTIMOS_ATIVOS.adicionar(idEmprestimo, idFuncionario, itens.get(i)[0]);
+                    MAIS_EMPRESTADOS.registrar(idEmprestimo, idFuncionario, itens.get(i)[0], itens.get(i)[1], hoje);
+                }
+                invalidarPainel();
+                CACHE_RELATORIOS.alterou("epi", "emprestimo");
+                System.out.println(VERDE + "Kit registrado com sucesso! " + itens.size() + " itens emprestados." + RESET);
+            } else {
+                int idEPIFalha = stmt.getInt(5);
+                String prefixo = stmt.wasNull() || status == 8 ? "" : "EPI " + idEPIFalha + ": ";
+                System.out.println(VERMELHO + prefixo + mensagemStatusProcedure(status) +
+                        " Nenhum item do kit foi emprestado." + RESET);
+            }
+        }
+    }
+
+    /**
+     * Traduz os códigos de retorno das procedures (ver script do banco)
+     * @param status Código retornado
+     * @return Mensagem para o usuário
+     */
+    private static String mensagemStatusProcedure(int status) {
+        switch (status) {
+            case 1:
+                return "Funcionário não encontrado!";
+            case 2:
+                return "EPI não encontrado!";
+            case 3:
+                return "A quantidade deve ser maior que zero!";
+            case 4:
+                return "Este EPI está vencido e não pode ser emprestado!";
+            case 5:
+                return "Quantidade indisponível para empréstimo!";
+            case 6:
+                return "Empréstimo não encontrado ou já devolvido!";
+            case 7:
+                return "Lista de itens do kit inválida!";
+            case 8:
+                return "Funcionário desligado: não pode receber novos empréstimos!";
+            default:
+                return "Operação recusada pelo banco (código " + status + ").";
+        }
+    }
+
+    // ========== MODO OFFLINE ==========
+
+    /**
+     * Verifica, sem ir ao banco, se as operações devem ir direto para a fila local:
+     * o modo offline já está ativo, ou as amostras de saúde já dão o banco como
+     * indisponível. Nos demais casos a operação é tentada e só passa para a fila se
+     * falhar por conexão (ver falhaDeConexao)
+     * @return true se a operação deve ser registrada offline
+     */
+    private static boolean operarOffline() {
+        if (MODO_OFFLINE.ativo()) {
+            return true;
+        }
+        return usandoMySQL() && SAUDE_BANCO.indisponivel() && entrarModoOffline();
+    }
+
+    /**
+     * Trata a falha de uma operação: se foi de conexão (SQLState 08xxx) e existe um
+     * retrato local, entra no modo offline para que a operação siga pela fila
+     * @param e Erro da operação
+     * @return true se a operação deve ser registrada offline
+     */
+    private static boolean falhaDeConexao(SQLException e) {
+        String estado = e.getSQLState();
+        return usandoMySQL() && estado != null && estado.startsWith("08") && entrarModoOffline();
+    }
+
+    private static boolean entrarModoOffline() {
+        if (!MODO_OFFLINE.ativar()) {
+            return false;
+        }
+        System.out.println(AMARELO + "⚠️ Banco de dados indisponível: entrando no MODO OFFLINE." + RESET);
+        carregarIndicesBusca();
+        return true;
+    }
+
+    /**
+     * Envia a fila local pendente (de uma sessão offline anterior) e atualiza o
+     * retrato local usado no modo offline. Chamado quando há conexão.
+     */
+    private static void sincronizarModoOffline() {
+        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA)) {
+            MODO_OFFLINE.sincronizar(conexao);
+        } catch (SQLException | IOException e) {
+            System.err.println(VERMELHO + "Erro ao sincronizar a fila offline: " + e.getMessage() + RESET);
+        }
+    }
+
+    /**
+     * Mostra o aviso de modo offline no menu e tenta reconectar periodicamente;
+     * quando o banco volta, a fila é reenviada e o sistema sai do modo offline
+     */
+    private static void verificarModoOffline() {
+        if (!SAUDE_BANCO.indisponivel() && MODO_OFFLINE.tentarReconectar()) {
+            System.out.println(VERDE + "\n✅ Conexão com o banco restabelecida. Modo offline encerrado." + RESET);
+            recarregarCaches();
+            MONITOR_ALTERACOES.iniciar();
+            exibirPainel();
+            return;
+        }
+
+        System.out.println("\n" + AMARELO + "⚠️ MODO OFFLINE - operações pendentes de envio: " +
+                MODO_OFFLINE.pendentes() + RESET);
+    }
+
+    /**
+     * Registra um empréstimo na fila local, validando contra o retrato local
+     * @param scanner Objeto Scanner para entrada de dados
+     */
+    private static void registrarEmprestimoOffline(Scanner scanner) {
+        System.out.println(AMARELO + "MODO OFFLINE: o empréstimo será enviado ao banco quando a conexão voltar." + RESET);
+
+        try {
+            buscarFuncionariosInterativo(scanner);
+
+            System.out.print("\nDigite o ID do funcionário: ");
+            int idFuncionario = scanner.nextInt();
+            scanner.nextLine();
+
+            buscarEPIsInterativo(scanner);
+
+            System.out.print("\nDigite o ID do EPI: ");
+            int idEPI = scanner.nextInt();
+            scanner.nextLine();
+
+            System.out.print("Quantidade: ");
+            int quantidade = scanner.nextInt();
+            scanner.nextLine();
+
+            enfileirarEmprestimo(idFuncionario, idEPI, quantidade);
+        } catch (Exception e) {
+            System.out.println(VERMELHO + "Erro ao registrar empréstimo: " + e.getMessage() + RESET);
+            scanner.nextLine();
+        }
+    }
+
+    /**
+     * Registra uma devolução na fila local, validando contra o retrato local
+     * @param scanner Objeto Scanner para entrada de dados
+     */
+    private static void registrarDevolucaoOffline(Scanner scanner) {
+        System.out.println(AMARELO + "MODO OFFLINE: a devolução será enviada ao banco quando a conexão voltar." + RESET);
+
+        try {
+            int idFuncionario = buscarFuncionariosInterativo(scanner);
+            if (idFuncionario == 0) {
+                System.out.print("ID do funcionário para listar os empréstimos ativos (ENTER para pular): ");
+                String entrada = scanner.nextLine().trim();
+                if (!entrada.isEmpty()) {
+                    idFuncionario = Integer.parseInt(entrada);
+                }
+            }
+            if (idFuncionario > 0) {
+                try (TabelaConsole tabela = new TabelaConsole()) {
+                    tabela.coluna("ID", 5).coluna("EPI", 30).coluna("Quantidade", 10).cabecalho();
+                    for (Map.Entry<Integer, int[]> item : MODO_OFFLINE.emprestimosAtivos(idFuncionario).entrySet()) {
+                        tabela.linha(item.getKey(), MODO_OFFLINE.nomeEPI(item.getValue()[1]), item.getValue()[2]);
+                    }
+                }
+            }
+
+            System.out.print("\nDigite o ID do empréstimo: ");
+            int idEmprestimo = scanner.nextInt();
+            scanner.nextLine();
+
+            enfileirarDevolucao(idEmprestimo);
+        } catch (Exception e) {
+            System.out.println(VERMELHO + "Erro ao registrar devolução: " + e.getMessage() + RESET);
+            scanner.nextLine();
+        }
+    }
+
+    /**
+     * Registra um kit na fila local, validando todos os itens contra o retrato local
+     * @param scanner Objeto Scanner para entrada de dados
+     */
+    private static void registrarKitOffline(Scanner scanner) {
+        System.out.println(AMARELO + "MODO OFFLINE: o kit será enviado ao banco quando a conexão voltar." + RESET);
+
+        try {
+            buscarFuncionariosInterativo(scanner);
+
+            System.out.print("\nDigite o ID do funcionário: ");
+            int idFuncionario = scanner.nextInt();
+            scanner.nextLine();
+
+            List<int[]> itens = lerItensKit(scanner);
+            if (itens.isEmpty()) {
+                System.out.println("Nenhum item informado. Operação cancelada.");
+                return;
+            }
+
+            enfileirarKit(idFuncionario, itens);
+        } catch (Exception e) {
+            System.out.println(VERMELHO + "Erro ao registrar kit: " + e.getMessage() + RESET);
+            scanner.nextLine();
+        }
+    }
+
+    /**
+     * Valida um kit contra o retrato local e o grava na fila offline (tudo ou nada)
+     */
+    private static void enfileirarKit(int idFuncionario, List<int[]> itens) {
+        try {
+            String erro = MODO_OFFLINE.emprestarKit(idFuncionario, itens);
+            if (erro != null) {
+                System.out.println(VERMELHO + erro + " Nenhum item do kit foi guardado." + RESET);
+            } else {
+                System.out.println(VERDE + "Kit guardado na fila offline (" + itens.size() + " itens)." + RESET);
+            }
+        } catch (IOException e) {
+            System.err.println(VERMELHO + "Erro ao gravar na fila offline: " + e.getMessage() + RESET);
+        }
+    }
+
+    /**
+     * Valida um empréstimo contra o retrato local e o grava na fila offline
+     */
+    private static void enfileirarEmprestimo(int idFuncionario, int idEPI, int quantidade) {
+        try {
+            String erro = MODO_OFFLINE.emprestar(idFuncionario, idEPI, quantidade);
+            if (erro != null) {
+                System.out.println(VERMELHO + erro + RESET);
+            } else {
+                System.out.println(VERDE + "Empréstimo guardado na fila offline." + RESET);
+            }
+        } catch (IOException e) {
+            System.err.println(VERMELHO + "Erro ao gravar na fila offline: " + e.getMessage() + RESET);
+        }
+    }
+
+    /**
+     * Valida uma devolução contra o retrato local e a grava na fila offline
+     */
+    private static void enfileirarDevolucao(int idEmprestimo) {
+        try {
+            String erro = MODO_OFFLINE.devolver(idEmprestimo);
+            if (erro != null) {
+                System.out.println(VERMELHO + erro + RESET);
+            } else {
+                System.out.println(VERDE + "Devolução guardada na fila offline." + RESET);
+            }
+        } catch (IOException e) {
+            System.err.println(VERMELHO + "Erro ao gravar na fila offline: " + e.getMessage() + RESET);
+        }
+    }
+
+    /**
+     * Modo offline (store-and-forward) para quando o MySQL está inacessível.
+     *
+     * Enquanto há conexão, um retrato local de epi, funcionario e dos empréstimos
+     * ativos é salvo em arquivo. Sem conexão, empréstimos, kits e devoluções são validados
+     * contra esse retrato e gravados em uma fila local só de acréscimo (uma linha por
+     * operação, com CRC32 e fsync; um kit é uma operação só, reenviada em uma
+     * transação). Quando a conexão volta, a fila é reenviada na ordem em que foi
+     * gravada; cada operação tem um identificador registrado na tabela
+     * operacao_offline na mesma transação, de modo que um reenvio interrompido pode
+     * ser repetido sem duplicar nada. Operações que não podem mais ser aplicadas
+     * (ex.: estoque consumido por outra unidade) são reportadas como conflito.
+     */
+    static class ModoOffline {
+        // Intervalo mínimo entre tentativas de reconexão
+        private static final long INTERVALO_RECONEXAO_MS = 30_000;
+        private static final String SEPARADOR = ";";
+        private static final String EMPRESTIMO = "EMPRESTIMO";
+        private static final String DEVOLUCAO = "DEVOLUCAO";
+        private static final String KIT = "KIT";
+
+        private final Path arquivoFila;
+        private final Path arquivoRetrato;
+        private final Path arquivoConflitos;
+
+        private volatile boolean ativo;
+        private long ultimaTentativa;
+        private int pendentes;
+
+        private final long intervaloRetrato;
+        private Thread atualizacao;
+
+        // Retrato local: funcionário {nome, cpf, cargo}, EPI e empréstimo ativo {id_funcionario, id_epi, quantidade}
+        private final Map<Integer, String[]> funcionarios = new HashMap<>();
+        private final Map<Integer, EpiLocal> epis = new HashMap<>();
+        private final Map<Integer, int[]> emprestimosAtivos = new HashMap<>();
+
+        /**
+         * Dados de um EPI no retrato local
+         */
+        static class EpiLocal {
+            final String nome;
+            final String descricao;
+            final LocalDate validade;
+            int quantidade;
+
+            EpiLocal(String nome, String descricao, LocalDate validade, int quantidade) {
+                this.nome = nome;
+                this.descricao = descricao;
+                this.validade = validade;
+                this.quantidade = quantidade;
+            }
+        }
+
+        ModoOffline(Path diretorio, long intervaloRetrato) {
+            this.arquivoFila = diretorio.resolve("epi-offline-fila.log");
+            this.arquivoRetrato = diretorio.resolve("epi-offline-retrato.dat");
+            this.arquivoConflitos = diretorio.resolve("epi-offline-conflitos.log");
+            this.intervaloRetrato = intervaloRetrato;
+        }
+
+        /**
+         * Inicia a thread que regrava o retrato local enquanto há conexão, para que uma
+         * queda no meio de uma sessão longa encontre cadastros e estoque recentes
+         * (só com o MySQL; chamadas repetidas são ignoradas)
+         */
+        synchronized void iniciarAtualizacao() {
+            if (atualizacao != null || intervaloRetrato <= 0 || !usandoMySQL()) {
+                return;
+            }
+            atualizacao = new Thread(this::atualizarPeriodicamente, "retrato-offline");
+            atualizacao.setDaemon(true);
+            atualizacao.start();
+        }
+
+        private void atualizarPeriodicamente() {
+            while (true) {
+                try {
+                    Thread.sleep(intervaloRetrato);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (ativo || SAUDE_BANCO.indisponivel()) {
+                    continue;
+                }
+
+                try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA)) {
+                    atualizarRetrato(conexao);
+                } catch (SQLException | IOException e) {
+                    // Banco indisponível: o retrato anterior continua valendo até o próximo ciclo
+                }
+            }
+        }
+
+        private synchronized void atualizarRetrato(Connection conexao) throws SQLException, IOException {
+            // Verificado de novo sob o bloqueio: o modo offline pode ter sido ativado enquanto conectava
+            if (!ativo) {
+                salvarRetrato(conexao);
+            }
+        }
+
+        boolean ativo() {
+            return ativo;
+        }
+
+        synchronized int pendentes() {
+            return pendentes;
+        }
+
+        /**
+         * Entra no modo offline carregando o retrato local e reaplicando sobre ele
+         * as operações que ainda estão na fila
+         * @return false se não há retrato local (não é possível validar offline)
+         */
+        synchronized boolean ativar() {
+            if (ativo) {
+                return true;
+            }
+            if (!Files.exists(arquivoRetrato)) {
+                return false;
+            }
+
+            try {
+                carregarRetrato();
+                pendentes = 0;
+                for (String[] operacao : lerFila()) {
+                    aplicarLocalmente(operacao);
+                    pendentes++;
+                }
+                ultimaTentativa = System.currentTimeMillis();
+                ativo = true;
+                return true;
+            } catch (IOException | RuntimeException e) {
+                System.err.println(VERMELHO + "Erro ao carregar dados do modo offline: " + e.getMessage() + RESET);
+                return false;
+            }
+        }
+
+        /**
+         * Reenvia a fila pendente e salva um novo retrato local
+         * @param conexao Conexão aberta com o banco
+         */
+        synchronized void sincronizar(Connection conexao) throws SQLException, IOException {
+            if (Files.exists(arquivoFila)) {
+                reenviar(conexao);
+            }
+            salvarRetrato(conexao);
+        }
+
+        /**
+         * Tenta reconectar (no máximo a cada INTERVALO_RECONEXAO_MS) e, se conseguir,
+         * reenvia a fila e sai do modo offline
+         * @return true se o modo offline foi encerrado nesta chamada
+         */
+        synchronized boolean tentarReconectar() {
+            long agora = System.currentTimeMillis();
+            if (!ativo || agora - ultimaTentativa < INTERVALO_RECONEXAO_MS) {
+                return false;
+            }
+            ultimaTentativa = agora;
+
+            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA)) {
+                sincronizar(conexao);
+                ativo = false;
+                return true;
+            } catch (SQLException | IOException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Valida um empréstimo contra o retrato local e o grava na fila
+         * @return null se aceito, ou a mensagem de erro
+         */
+        synchronized String emprestar(int idFuncionario, int idEPI, int quantidade) throws IOException {
+            if (!funcionarios.containsKey(idFuncionario)) {
+                return "Funcionário não encontrado!";
+            }
+            EpiLocal epi = epis.get(idEPI);
+            if (epi == null) {
+                return "EPI não encontrado!";
+            }
+            if (quantidade <= 0) {
+                return "A quantidade deve ser maior que zero!";
+            }
+            if (epi.validade != null && epi.validade.isBefore(LocalDate.now())) {
+                return "Este EPI está vencido e não pode ser emprestado!";
+            }
+            if (epi.quantidade < quantidade) {
+                return "Quantidade indisponível para empréstimo!";
+            }
+
+            String[] operacao = {UUID.randomUUID().toString(), EMPRESTIMO, LocalDate.now().toString(),
+                    String.valueOf(idFuncionario), String.valueOf(idEPI), String.valueOf(quantidade)};
+            gravarNaFila(operacao);
+            aplicarLocalmente(operacao);
+            return null;
+        }
+
+        /**
+         * Valida todos os itens de um kit contra o retrato local (somando as quantidades
+         * de um mesmo EPI) e grava o kit na fila como uma única operação
+         * @param itens Lista de {id do EPI, quantidade}
+         * @return null se aceito, ou a mensagem de erro
+         */
+        synchronized String emprestarKit(int idFuncionario, List<int[]> itens) throws IOException {
+            if (!funcionarios.containsKey(idFuncionario)) {
+                return "Funcionário não encontrado!";
+            }
+
+            Map<Integer, Integer> totalPorEPI = new LinkedHashMap<>();
+            StringBuilder lista = new StringBuilder();
+            for (int[] item : itens) {
+                if (item[1] <= 0) {
+                    return "EPI " + item[0] + ": A quantidade deve ser maior que zero!";
+                }
+                totalPorEPI.merge(item[0], item[1], Integer::sum);
+                if (lista.length() > 0) {
+                    lista.append(',');
+                }
+                lista.append(item[0]).append(':').append(item[1]);
+            }
+
+            for (Map.Entry<Integer, Integer> total : totalPorEPI.entrySet()) {
+                EpiLocal epi = epis.get(total.getKey());
+                if (epi == null) {
+                    return "EPI " + total.getKey() + ": EPI não encontrado!";
+                }
+                if (epi.validade != null && epi.validade.isBefore(LocalDate.now())) {
+                    return "EPI " + total.getKey() + ": Este EPI está vencido e não pode ser emprestado!";
+                }
+                if (epi.quantidade < total.getValue()) {
+                    return "EPI " + total.getKey() + ": Quantidade indisponível para empréstimo!";
+                }
+            }
+
+            String[] operacao = {UUID.randomUUID().toString(), KIT, LocalDate.now().toString(),
+                    String.valueOf(idFuncionario), lista.toString()};
+            gravarNaFila(operacao);
+            aplicarLocalmente(operacao);
+            return null;
+        }
+
+        /**
+         * Valida uma devolução contra o retrato local e a grava na fila
+         * @return null se aceita, ou a mensagem de erro
+         */
+        synchronized String devolver(int idEmprestimo) throws IOException {
+            if (!emprestimosAtivos.containsKey(idEmprestimo)) {
+                return "Nenhum empréstimo ativo encontrado com o ID: " + idEmprestimo;
+            }
+
+            String[] operacao = {UUID.randomUUID().toString(), DEVOLUCAO, LocalDate.now().toString(),
+                    String.valueOf(idEmprestimo)};
+            gravarNaFila(operacao);
+            aplicarLocalmente(operacao);
+            return null;
+        }
+
+        /**
+         * Empréstimos ativos de um funcionário segundo o retrato local
+         * @return Mapa id do empréstimo -> {id_funcionario, id_epi, quantidade}
+         */
+        synchronized Map<Integer, int[]> emprestimosAtivos(int idFuncionario) {
+            Map<Integer, int[]> resultado = new TreeMap<>();
+            for (Map.Entry<Integer, int[]> item : emprestimosAtivos.entrySet()) {
+                if (item.getValue()[0] == idFuncionario) {
+                    resultado.put(item.getKey(), item.getValue());
+                }
+            }
+            return resultado;
+        }
+
+        synchronized String nomeEPI(int idEPI) {
+            EpiLocal epi = epis.get(idEPI);
+            return epi != null ? epi.nome : "EPI " + idEPI;
+        }
+
+        /**
+         * Preenche os índices de busca a partir do retrato local
+         */
+        synchronized void indexar() {
+            for (Map.Entry<Integer, String[]> item : funcionarios.entrySet()) {
+                String[] dados = item.getValue();
+                indexarFuncionario(item.getKey(), dados[0], dados[1], dados[2]);
+            }
+            for (Map.Entry<Integer, EpiLocal> item : epis.entrySet()) {
+                indexarEPI(item.getKey(), item.getValue().nome, item.getValue().descricao);
+            }
+        }
+
+        private void gravarNaFila(String[] operacao) throws IOException {
+            // CRC32 da operação na frente da linha: uma linha cortada na queda não confere
+            String conteudo = String.join(SEPARADOR, operacao);
+            String linha = String.format("%08x", crc(conteudo)) + SEPARADOR + conteudo + "\n";
+            Files.write(arquivoFila, linha.getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+            pendentes++;
+        }
+
+        private List<String[]> lerFila() throws IOException {
+            List<String[]> operacoes = new ArrayList<>();
+            if (!Files.exists(arquivoFila)) {
+                return operacoes;
+            }
+            for (String linha : Files.readAllLines(arquivoFila, StandardCharsets.UTF_8)) {
+                String conteudo = conteudoConferido(linha);
+                if (conteudo == null) {
+                    // Linha incompleta (queda durante a gravação): descartada
+                    continue;
+                }
+                String[] campos = conteudo.split(SEPARADOR);
+                if ((campos.length == 6 && campos[1].equals(EMPRESTIMO)) || (campos.length == 4 && campos[1].equals(DEVOLUCAO))
+                        || (campos.length == 5 && campos[1].equals(KIT))) {
+                    operacoes.add(campos);
+                }
+            }
+            return operacoes;
+        }
+
+        /**
+         * @return A operação da linha sem o CRC, ou null se o CRC não confere. Linhas
+         * gravadas por versões anteriores (sem CRC, começam pelo UUID) são aceitas como estão
+         */
+        private static String conteudoConferido(String linha) {
+            int separador = linha.indexOf(SEPARADOR);
+            if (separador == 36) {
+                return linha;
+            }
+            if (separador != 8) {
+                return null;
+            }
+            String conteudo = linha.substring(separador + 1);
+            try {
+                return Long.parseLong(linha.substring(0, separador), 16) == crc(conteudo) ? conteudo : null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private static long crc(String conteudo) {
+            CRC32 crc = new CRC32();
+            crc.update(conteudo.getBytes(StandardCharsets.UTF_8));
+            return crc.getValue();
+        }
+
+        /**
+         * Reflete uma operação da fila no retrato local
+         */
+        private void aplicarLocalmente(String[] operacao) {
+            if (operacao[1].equals(EMPRESTIMO)) {
+                EpiLocal epi = epis.get(Integer.parseInt(operacao[4]));
+                if (epi != null) {
+                    epi.quantidade -= Integer.parseInt(operacao[5]);
+                }
+            } else if (operacao[1].equals(KIT)) {
+                for (String[] item : itensKit(operacao)) {
+                    aplicarLocalmente(item);
+                }
+            } else {
+                int[] emprestimo = emprestimosAtivos.remove(Integer.parseInt(operacao[3]));
+                if (emprestimo != null && epis.containsKey(emprestimo[1])) {
+                    epis.get(emprestimo[1]).quantidade += emprestimo[2];
+                }
+            }
+        }
+
+        /**
+         * Reenvia a fila na ordem de gravação. Se a conexão cair no meio, a fila é
+         * mantida e as operações já aplicadas serão ignoradas no próximo reenvio.
+         */
+        private void reenviar(Connection conexao) throws SQLException, IOException {
+            List<String[]> operacoes = lerFila();
+            int aplicadas = 0;
+            int conflitos = 0;
+
+            boolean autoCommit = conexao.getAutoCommit();
+            conexao.setAutoCommit(false);
+            try {
+                for (String[] operacao : operacoes) {
+                    String conflito = reenviarOperacao(conexao, operacao);
+                    if (conflito == null) {
+                        aplicadas++;
+                    } else {
+                        conflitos++;
+                        registrarConflito(operacao, conflito);
+                    }
+                }
+            } finally {
+                conexao.setAutoCommit(autoCommit);
+            }
+
+            Files.deleteIfExists(arquivoFila);
+            pendentes = 0;
+
+            if (!operacoes.isEmpty()) {
+                System.out.println(VERDE + "Fila offline reenviada: " + aplicadas + " operações aplicadas." + RESET);
+                if (conflitos > 0) {
+                    System.out.println(VERMELHO + conflitos + " operações em conflito (detalhes em " +
+                            arquivoConflitos + ")." + RESET);
+                }
+            }
+        }
+
+        /**
+         * Aplica uma operação da fila em uma transação própria
+         * @return null se aplicada (ou já aplicada antes), ou a descrição do conflito
+         */
+        private String reenviarOperacao(Connection conexao, String[] operacao) throws SQLException {
+            try {
+                if (!marcarOperacao(conexao, operacao, "APLICADA")) {
+                    conexao.rollback();
+                    return null; // Já aplicada em um reenvio anterior
+                }
+
+                List<int[]> emprestados = new ArrayList<>();
+                String conflito = operacao[1].equals(EMPRESTIMO) ? reenviarEmprestimo(conexao, operacao, emprestados)
+                        : operacao[1].equals(KIT) ? reenviarKit(conexao, operacao, emprestados)
+                        : reenviarDevolucao(conexao, operacao);
+
+                if (conflito != null) {
+                    // Desfaz a operação, mas registra o conflito para não tentar de novo
+                    conexao.rollback();
+                    marcarOperacao(conexao, operacao, "CONFLITO: " + conflito);
+                }
+                conexao.commit();
+
+                if (conflito == null) {
+                    for (int[] emprestimo : emprestados) {
+                        MAIS_EMPRESTADOS.registrar(emprestimo[0], emprestimo[1], emprestimo[2], emprestimo[3],
+                                LocalDate.parse(operacao[2]));
+                    }
+                }
+                return conflito;
+            } catch (SQLException e) {
+                conexao.rollback();
+                throw e;
+            }
+        }
+
+        /**
+         * Registra a operação em operacao_offline
+         * @return false se a operação já estava registrada
+         */
+        private boolean marcarOperacao(Connection conexao, String[] operacao, String resultado) throws SQLException {
+            String sql = "INSERT INTO operacao_offline (id, tipo, resultado) VALUES (?, ?, ?)";
+            try (PreparedStatement stmt = conexao.prepareStatement(sql)) {
+                stmt.setString(1, operacao[0]);
+                stmt.setString(2, operacao[1]);
+                stmt.setString(3, resultado.length() > 255 ? resultado.substring(0, 255) : resultado);
+                stmt.executeUpdate();
+                return true;
+            } catch (SQLIntegrityConstraintViolationException e) {
+                return false;
+            }
+        }
+
+        /**
+         * @param emprestados Recebe {id, funcionário, EPI, quantidade} do empréstimo gravado
+         */
+        private String reenviarEmprestimo(Connection conexao, String[] operacao, List<int[]> emprestados)
+                throws SQLException {
+            LocalDate data = LocalDate.parse(operacao[2]);
+            int idFuncionario = Integer.parseInt(operacao[3]);
+            int idEPI = Integer.parseInt(operacao[4]);
+            int quantidade = Integer.parseInt(operacao[5]);
+
+            try (PreparedStatement stmt = conexao.prepareStatement("SELECT 1 FROM funcionario WHERE id = ?")) {
+                stmt.setInt(1, idFuncionario);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return "funcionário " + idFuncionario + " não existe mais";
+                    }
+                }
+            }
+            if (funcionarioDesligado(conexao, idFuncionario)) {
+                return "funcionário " + idFuncionario + " foi desligado";
+            }
+
+            try (PreparedStatement stmt = conexao.prepareStatement(
+                    "SELECT quantidade, validade FROM epi WHERE id = ? FOR UPDATE")) {
+                stmt.setInt(1, idEPI);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return "EPI " + idEPI + " não existe mais";
+                    }
+                    Date validade = rs.getDate("validade");
+                    if (validade != null && validade.toLocalDate().isBefore(data)) {
+                        return "EPI " + idEPI + " estava vencido na data do empréstimo";
+                    }
+                    if (rs.getInt("quantidade") < quantidade) {
+                        return "estoque insuficiente do EPI " + idEPI + " (disponível: " + rs.getInt("quantidade") + ")";
+                    }
+                }
+            }
+
+            String sql = "INSERT INTO emprestimo (id_funcionario, id_epi, data_emprestimo, " +
+                    "data_devolucao_prevista, quantidade, status) VALUES (?, ?, ?, ?, ?, 'Ativo')";
+            try (PreparedStatement stmt = conexao.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                stmt.setInt(1, idFuncionario);
+                stmt.setInt(2, idEPI);
+                stmt.setString(3, data.toString());
+                stmt.setString(4, data.plusDays(PRAZO_DEVOLUCAO_DIAS).toString());
+                stmt.setInt(5, quantidade);
+                stmt.executeUpdate();
+                try (ResultSet chaves = stmt.getGeneratedKeys()) {
+                    if (chaves.next()) {
+                        emprestados.add(new int[]{chaves.getInt(1), idFuncionario, idEPI, quantidade});
+                    }
+                }
+            }
+
+            try (PreparedStatement stmt = conexao.prepareStatement("UPDATE epi SET quantidade = quantidade - ? WHERE id = ?")) {
+                stmt.setInt(1, quantidade);
+                stmt.setInt(2, idEPI);
+                stmt.executeUpdate();
+            }
+            return null;
+        }
+
+        /**
+         * Reenvia os itens de um kit na mesma transação: um conflito em qualquer item
+         * desfaz o kit inteiro
+         */
+        private String reenviarKit(Connection conexao, String[] operacao, List<int[]> emprestados)
+                throws SQLException {
+            for (String[] item : itensKit(operacao)) {
+                String conflito = reenviarEmprestimo(conexao, item, emprestados);
+                if (conflito != null) {
+                    return "kit: " + conflito;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Desdobra um kit da fila em operações de empréstimo (mesmo id, data e funcionário)
+         */
+        private static List<String[]> itensKit(String[] operacao) {
+            List<String[]> itens = new ArrayList<>();
+            for (String item : operacao[4].split(",")) {
+                String[] partes = item.split(":");
+                itens.add(new String[]{operacao[0], EMPRESTIMO, operacao[2], operacao[3], partes[0], partes[1]});
+            }
+            return itens;
+        }
+
+        private String reenviarDevolucao(Connection conexao, String[] operacao) throws SQLException {
+            int idEmprestimo = Integer.parseInt(operacao[3]);
+            int idEPI;
+            int quantidade;
+
+            try (PreparedStatement stmt = conexao.prepareStatement(
+                    "SELECT id_epi, quantidade FROM emprestimo WHERE id = ? AND status = 'Ativo' FOR UPDATE")) {
+                stmt.setInt(1, idEmprestimo);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return "empréstimo " + idEmprestimo + " não está mais ativo";
+                    }
+                    idEPI = rs.getInt("id_epi");
+                    quantidade = rs.getInt("quantidade");
+                }
+            }
+
+            try (PreparedStatement stmt = conexao.prepareStatement(
+                    "UPDATE emprestimo SET data_devolucao_real = ?, status = 'Devolvido' WHERE id = ?")) {
+                stmt.setString(1, operacao[2]);
+                stmt.setInt(2, idEmprestimo);
+                stmt.executeUpdate();
+            }
+
+            try (PreparedStatement stmt = conexao.prepareStatement("UPDATE epi SET quantidade = quantidade + ? WHERE id = ?")) {
+                stmt.setInt(1, quantidade);
+                stmt.setInt(2, idEPI);
+                stmt.executeUpdate();
+            }
+            return null;
+        }
+
+        private void registrarConflito(String[] operacao, String conflito) throws IOException {
+            String linha = LocalDateTime.now() + SEPARADOR + String.join(SEPARADOR, operacao) + SEPARADOR + conflito + "\n";
+            Files.write(arquivoConflitos, linha.getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            System.out.println(VERMELHO + "Conflito na operação offline " + operacao[1] + " de " + operacao[2] +
+                    ": " + conflito + RESET);
+        }
+
+        /**
+         * Salva o retrato local (gravado em arquivo temporário e renomeado ao final)
+         */
+        private void salvarRetrato(Connection conexao) throws SQLException, IOException {
+            Path temporario = arquivoRetrato.resolveSibling(arquivoRetrato.getFileName() + ".tmp");
+
+            try (BufferedWriter saida = Files.newBufferedWriter(temporario, StandardCharsets.UTF_8);
+                 Statement stmt = conexao.createStatement()) {
+
+                try (ResultSet rs = stmt.executeQuery("SELECT id, nome, cpf, cargo FROM funcionario")) {
+                    while (rs.next()) {
+                        saida.write(String.join(SEPARADOR, "F", rs.getString("id"), limpar(rs.getString("nome")),
+                                limpar(rs.getString("cpf")), limpar(rs.getString("cargo"))));
+                        saida.newLine();
+                    }
+                }
+
+                try (ResultSet rs = stmt.executeQuery("SELECT id, nome, descricao, validade, quantidade FROM epi")) {
+                    while (rs.next()) {
+                        Date validade = rs.getDate("validade");
+                        saida.write(String.join(SEPARADOR, "E", rs.getString("id"), limpar(rs.getString("nome")),
+                                limpar(rs.getString("descricao")), validade != null ? validade.toString() : "",
+                                rs.getString("quantidade")));
+                        saida.newLine();
+                    }
+                }
+
+                try (ResultSet rs = stmt.executeQuery(
+                        "SELECT id, id_funcionario, id_epi, quantidade FROM emprestimo WHERE status = 'Ativo'")) {
+                    while (rs.next()) {
+                        saida.write(String.join(SEPARADOR, "A", rs.getString("id"), rs.getString("id_funcionario"),
+                                rs.getString("id_epi"), rs.getString("quantidade")));
+                        saida.newLine();
+                    }
+                }
+            }
+
+            Files.move(temporario, arquivoRetrato, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private void carregarRetrato() throws IOException {
+            funcionarios.clear();
+            epis.clear();
+            emprestimosAtivos.clear();
+
+            for (String linha : Files.readAllLines(arquivoRetrato, StandardCharsets.UTF_8)) {
+                String[] campos = linha.split(SEPARADOR, -1);
+                switch (campos[0]) {
+                    case "F":
+                        funcionarios.put(Integer.parseInt(campos[1]), new String[]{campos[2], campos[3], campos[4]});
+                        break;
+                    case "E":
+                        LocalDate validade = campos[4].isEmpty() ? null : LocalDate.parse(campos[4]);
+                        epis.put(Integer.parseInt(campos[1]),
+                                new EpiLocal(campos[2], campos[3], validade, Integer.parseInt(campos[5])));
+                        break;
+                    case "A":
+                        emprestimosAtivos.put(Integer.parseInt(campos[1]), new int[]{
+                                Integer.parseInt(campos[2]), Integer.parseInt(campos[3]), Integer.parseInt(campos[4])});
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        /**
+         * Remove do texto os caracteres usados como separadores no arquivo
+         */
+        private static String limpar(String texto) {
+            return texto == null ? "" : texto.replaceAll("[;\\r\\n]", " ");
+        }
+    }
+
+    // ========== FILA DE DEVOLUÇÕES ==========
+
+    /**
+     * Fila de devoluções com gravação em grupo (group commit).
+     *
+     * As leituras são enfileiradas sem esperar o banco. Uma única thread gravadora
+     * junta até "tamanhoLote" números (ou o que chegar em "intervaloMs") e confirma
+     * todos em uma transação: um SELECT ... FOR UPDATE dos empréstimos ativos, um
+     * UPDATE de status para o lote inteiro e um UPDATE de estoque por EPI. O
+     * resultado de cada leitura é informado individualmente no console.
+     */
+    static class FilaDevolucoes {
+        // Marca de fim enviada pela thread de leitura para encerrar a gravadora
+        private static final int FIM = Integer.MIN_VALUE;
+
+        private final LinkedBlockingQueue<Integer> fila = new LinkedBlockingQueue<>();
+        private final int tamanhoLote;
+        private final long intervaloMs;
+        private final AtomicInteger sucessos = new AtomicInteger();
+        private final AtomicInteger falhas = new AtomicInteger();
+        private Thread gravadora;
+        private Connection conexaoGravadora;
+
+        FilaDevolucoes(int tamanhoLote, long intervaloMs) {
+            this.tamanhoLote = tamanhoLote;
+            this.intervaloMs = intervaloMs;
+        }
+
+        /**
+         * Inicia a thread gravadora
+         */
+        void iniciar() {
+            gravadora = new Thread(this::executar, "gravadora-devolucoes");
+            gravadora.setDaemon(true);
+            gravadora.start();
+        }
+
+        /**
+         * Enfileira a devolução de um empréstimo; retorna imediatamente
+         * @param idEmprestimo Número do empréstimo lido
+         */
+        void enfileirar(int idEmprestimo) {
+            fila.add(idEmprestimo);
+        }
+
+        /**
+         * Aguarda a gravação de tudo o que já foi enfileirado e encerra a gravadora
+         */
+        void encerrar() {
+            fila.add(FIM);
+            try {
+                gravadora.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        int totalSucessos() {
+            return sucessos.get();
+        }
+
+        int totalFalhas() {
+            return falhas.get();
+        }
+
+        private void executar() {
+            List<Integer> lote = new ArrayList<>(tamanhoLote);
+            boolean encerrando = false;
+
+            try {
+                while (!encerrando) {
+                    int primeiro = fila.take();
+                    if (primeiro == FIM) {
+                        break;
+                    }
+                    lote.add(primeiro);
+
+                    // Junta o que chegar até completar o lote ou vencer o intervalo
+                    long limite = System.nanoTime() + intervaloMs * 1_000_000L;
+                    while (lote.size() < tamanhoLote) {
+                        long restante = limite - System.nanoTime();
+                        Integer proximo = restante > 0 ? fila.poll(restante, TimeUnit.NANOSECONDS) : fila.poll();
+                        if (proximo == null) {
+                            break;
+                        }
+                        if (proximo == FIM) {
+                            encerrando = true;
+                            break;
+                        }
+                        lote.add(proximo);
+                    }
+
+                    gravarLote(lote);
+                    lote.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                fecharConexao();
+            }
+        }
+
+        /**
+         * Confirma um lote de devoluções em uma única transação
+         */
+        private void gravarLote(List<Integer> lote) {
+            // Remove leituras repetidas dentro do mesmo lote
+            Set<Integer> ids = new LinkedHashSet<>();
+            for (Integer id : lote) {
+                if (!ids.add(id)) {
+                    falha(id, "leitura repetida");
+                }
+            }
+
+            String marcadores = String.join(", ", Collections.nCopies(ids.size(), "?"));
+
+            try {
+                Connection conexao = obterConexao();
+
+                // Empréstimos ativos do lote, travados até o commit
+                Map<Integer, int[]> ativos = new HashMap<>();
+                String sqlAtivos = "SELECT id, id_epi, quantidade, DATEDIFF(CURDATE(), data_devolucao_prevista) AS dias_atraso " +
+                        "FROM emprestimo WHERE status = 'Ativo' AND id IN (" + marcadores + ") FOR UPDATE";
+                try (PreparedStatement stmt = conexao.prepareStatement(sqlAtivos)) {
+                    int i = 1;
+                    for (Integer id : ids) {
+                        stmt.setInt(i++, id);
+                    }
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            ativos.put(rs.getInt("id"),
+                                    new int[]{rs.getInt("id_epi"), rs.getInt("quantidade"), rs.getInt("dias_atraso")});
+                        }
+                    }
+                }
+
+                if (!ativos.isEmpty()) {
+                    String sqlDevolucao = "UPDATE emprestimo SET data_devolucao_real = CURDATE(), status = 'Devolvido' " +
+                            "WHERE status = 'Ativo' AND id IN (" +
+                            String.join(", ", Collections.nCopies(ativos.size(), "?")) + ")";
+                    try (PreparedStatement stmt = conexao.prepareStatement(sqlDevolucao)) {
+                        int i = 1;
+                        for (Integer id : ativos.keySet()) {
+                            stmt.setInt(i++, id);
+                        }
+                        stmt.executeUpdate();
+                    }
+
+                    // Estoque: uma atualização por EPI, somando as quantidades do lote
+                    Map<Integer, Integer> estoquePorEPI = new HashMap<>();
+                    for (int[] dados : ativos.values()) {
+                        estoquePorEPI.merge(dados[0], dados[1], Integer::sum);
+                    }
+                    try (PreparedStatement stmt = conexao.prepareStatement(
+                            "UPDATE epi SET quantidade = quantidade + ? WHERE id = ?")) {
+                        for (Map.Entry<Integer, Integer> item : estoquePorEPI.entrySet()) {
+                            stmt.setInt(1, item.getValue());
+                            stmt.setInt(2, item.getKey());
+                            stmt.addBatch();
+                        }
+                        stmt.executeBatch();
+                    }
+                }
+
+                conexao.commit();
+                for (Integer id : ativos.keySet()) {
+                    INDICE_EMPRESTIMOS_ATIVOS.remover(id);
+                }
+                invalidarPainel();
+                CACHE_RELATORIOS.alterou("epi", "emprestimo");
+
+                for (Integer id : ids) {
+                    int[] dados = ativos.get(id);
+                    if (dados == null) {
+                        falha(id, "não é um empréstimo ativo");
+                    } else {
+                        sucessos.incrementAndGet();
+                        String atraso = dados[2] > 0 ? VERMELHO + " (atraso de " + dados[2] + " dias)" + RESET : "";
+                        System.out.println(VERDE + "✅ Empréstimo " + id + " devolvido" + RESET + atraso);
+                    }
+                }
+            } catch (SQLException e) {
+                desfazer();
+                for (Integer id : ids) {
+                    falha(id, "erro ao gravar (" + e.getMessage() + ")");
+                }
+            }
+        }
+
+        private void falha(int id, String motivo) {
+            falhas.incrementAndGet();
+            System.out.println(VERMELHO + "❌ Empréstimo " + id + ": " + motivo + RESET);
+        }
+
+        /**
+         * Mantém uma conexão aberta durante toda a sessão de leitura
+         */
+        private Connection obterConexao() throws SQLException {
+            if (conexaoGravadora == null || conexaoGravadora.isClosed()) {
+                conexaoGravadora = DriverManager.getConnection(URL, USUARIO, SENHA);
+                conexaoGravadora.setAutoCommit(false);
+            }
+            return conexaoGravadora;
+        }
+
+        private void desfazer() {
+            try {
+                if (conexaoGravadora != null && !conexaoGravadora.isClosed()) {
+                    conexaoGravadora.rollback();
+                }
+            } catch (SQLException e) {
+                // A conexão provavelmente caiu; será reaberta no próximo lote
+                fecharConexao();
+            }
+        }
+
+        private void fecharConexao() {
+            try {
+                if (conexaoGravadora != null) {
+                    conexaoGravadora.close();
+                }
+            } catch (SQLException e) {
+                System.err.println(VERMELHO + "Erro ao fechar conexão: " + e.getMessage() + RESET);
+            } finally {
+                conexaoGravadora = null;
+            }
+        }
+    }
+
+    // ========== NOTIFICAÇÕES DE ATRASO ==========
+
+    /**
+     * Gera as notificações de empréstimos em atraso do dia. Chamado pelo menu de
+     * relatórios ou, para agendamento (cron / Agendador de Tarefas), pela linha de
+     * comando: java ... epis.java --notificar-atrasos
+     * @return false se o job não pôde ser executado
+     */
+    private static boolean gerarNotificacoesAtraso() {
+        System.out.println("\n" + AZUL + "--- NOTIFICAÇÕES DE EMPRÉSTIMOS EM ATRASO ---" + RESET);
+
+        if (MODO_OFFLINE.ativo()) {
+            System.out.println(AMARELO + "Indisponível no modo offline." + RESET);
+            return false;
+        }
+
+        try {
+            LocalDate hoje = LocalDate.now();
+            if (!NOTIFICACOES_ATRASO.executar(hoje)) {
+                System.out.println(AMARELO + "As notificações de " + hoje + " já foram geradas (" +
+                        NOTIFICACOES_ATRASO.notificacoes() + " funcionários)." + RESET);
+                return true;
+            }
+            System.out.println(VERDE + "✅ " + NOTIFICACOES_ATRASO.notificacoes() + " notificações (" +
+                    NOTIFICACOES_ATRASO.emprestimos() + " empréstimos em atraso) gravadas em " +
+                    NOTIFICACOES_ATRASO.arquivoSaida() + RESET);
+            return true;
+        } catch (SQLException | IOException e) {
+            System.err.println(VERMELHO + "Erro ao gerar notificações de atraso: " + e.getMessage() +
+                    " (a próxima execução continua de onde parou)" + RESET);
+            return false;
+        }
+    }
+
+    /**
+     * Job de notificações de atraso: percorre os empréstimos ativos vencidos ordenados
+     * por departamento e funcionário e grava, em um arquivo de saída (outbox) só de
+     * acréscimo, uma linha por funcionário com todos os seus itens em atraso. Um
+     * sistema de e-mail/mensagens consome esse arquivo.
+     *
+     * No MySQL as linhas vêm de um cursor no servidor (useCursorFetch), em blocos de
+     * LINHAS_POR_IDA; só o funcionário em montagem fica em memória, de modo que centenas
+     * de milhares de atrasos não pesam no cliente.
+     *
+     * A cada FUNCIONARIOS_POR_CHECKPOINT notificações, o arquivo de saída é sincronizado
+     * com o disco e um checkpoint (data, último departamento/funcionário, tamanho do
+     * arquivo) é gravado por renomeação atômica. Uma execução interrompida é retomada
+     * no mesmo dia a partir do checkpoint: o arquivo de saída é truncado no tamanho
+     * confirmado (descartando linhas gravadas depois dele) e a consulta recomeça depois
+     * do último funcionário confirmado, sem duplicar notificações.
+     *
+     * Formato da saída: data;departamento;id_funcionario;funcionario;emprestimos;maior_atraso;itens
+     */
+    static class NotificacoesAtraso {
+        private static final String SEPARADOR = ";";
+        private static final String EM_ANDAMENTO = "EM_ANDAMENTO";
+        private static final String CONCLUIDO = "CONCLUIDO";
+        private static final int FUNCIONARIOS_POR_CHECKPOINT = 500;
+        private static final int LINHAS_POR_IDA = 1000;
+
+        private final Path arquivoSaida;
+        private final Path arquivoCheckpoint;
+
+        // Estado da execução (o mesmo gravado no checkpoint); departamento null = desde o início
+        private LocalDate data;
+        private String departamento;
+        private int idFuncionario;
+        private int notificacoes;
+        private int emprestimos;
+
+        // Funcionário em montagem
+        private boolean emMontagem;
+        private String grupoDepartamento;
+        private int grupoFuncionario;
+        private String grupoNome;
+        private int grupoEmprestimos;
+        private int grupoMaiorAtraso;
+        private final StringBuilder grupoItens = new StringBuilder();
+
+        private FileChannel canal;
+        private BufferedWriter saida;
+        private int desdeCheckpoint;
+
+        NotificacoesAtraso(Path diretorio) {
+            this.arquivoSaida = diretorio.resolve("epi-notificacoes-atraso.txt");
+            this.arquivoCheckpoint = diretorio.resolve("epi-notificacoes-atraso.ckpt");
+        }
+
+        Path arquivoSaida() {
+            return arquivoSaida;
+        }
+
+        synchronized int notificacoes() {
+            return notificacoes;
+        }
+
+        synchronized int emprestimos() {
+            return emprestimos;
+        }
+
+        /**
+         * Executa (ou retoma) o job do dia
+         * @param hoje Data de referência dos atrasos
+         * @return false se o job desse dia já foi concluído
+         */
+        synchronized boolean executar(LocalDate hoje) throws SQLException, IOException {
+            long tamanhoConfirmado = lerCheckpoint(hoje);
+            if (tamanhoConfirmado < 0) {
+                return false;
+            }
+
+            try (FileChannel canalSaida = FileChannel.open(arquivoSaida,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+
+                canal = canalSaida;
+                canal.truncate(tamanhoConfirmado);
+                canal.position(tamanhoConfirmado);
+                saida = new BufferedWriter(Channels.newWriter(canal, StandardCharsets.UTF_8.newEncoder(), 64 * 1024));
+                emMontagem = false;
+                desdeCheckpoint = 0;
+
+                try {
+                    if (usandoMySQL()) {
+                        percorrerMySQL(hoje);
+                    } else {
+                        percorrerRepositorio(hoje);
+                    }
+                } catch (SQLException e) {
+                    // Guarda o que já foi confirmado; o funcionário em montagem é refeito na retomada
+                    gravarCheckpoint(EM_ANDAMENTO);
+                    throw e;
+                }
+
+                fecharGrupo();
+                gravarCheckpoint(CONCLUIDO);
+            } finally {
+                saida = null;
+                canal = null;
+            }
+            return true;
+        }
+
+        /**
+         * Atrasados em ordem de departamento e funcionário (parâmetros: hoje, hoje e, na
+         * retomada, departamento, departamento e id do último funcionário concluído)
+         */
+        static String selectAtrasos(boolean retomada) {
+            return "SELECT COALESCE(f.departamento, '') AS departamento, f.id AS id_funcionario, " +
+                    "f.nome AS funcionario, e.id, ep.nome AS epi, e.quantidade, " +
+                    "DATEDIFF(?, e.data_devolucao_prevista) AS dias_atraso " +
+                    "FROM emprestimo e " +
+                    "JOIN funcionario f ON f.id = e.id_funcionario " +
+                    "JOIN epi ep ON ep.id = e.id_epi " +
+                    "WHERE e.status = 'Ativo' AND e.data_devolucao_prevista < ? " +
+                    (retomada
+                            ? "AND (COALESCE(f.departamento, '') > ? " +
+                              "OR (COALESCE(f.departamento, '') = ? AND f.id > ?)) "
+                            : "") +
+                    "ORDER BY COALESCE(f.departamento, ''), f.id, e.data_devolucao_prevista";
+        }
+
+        private void percorrerMySQL(LocalDate hoje) throws SQLException, IOException {
+            String sql = selectAtrasos(departamento != null);
+
+            // Sem useCursorFetch o Connector/J traria o resultado inteiro para a memória
+            Properties propriedades = new Properties();
+            propriedades.setProperty("user", USUARIO);
+            propriedades.setProperty("password", SENHA);
+            propriedades.setProperty("useCursorFetch", "true");
+
+            try (Connection conexao = DriverManager.getConnection(URL, propriedades);
+                 PreparedStatement stmt = conexao.prepareStatement(sql,
+                         ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+
+                stmt.setFetchSize(LINHAS_POR_IDA);
+                stmt.setDate(1, Date.valueOf(hoje));
+                stmt.setDate(2, Date.valueOf(hoje));
+                if (departamento != null) {
+                    stmt.setString(3, departamento);
+                    stmt.setString(4, departamento);
+                    stmt.setInt(5, idFuncionario);
+                }
+
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        linha(rs.getString("departamento"), rs.getInt("id_funcionario"), rs.getString("funcionario"),
+                                rs.getInt("id"), rs.getString("epi"), rs.getInt("quantidade"), rs.getInt("dias_atraso"));
+                    }
+                }
+            }
+        }
+
+        /**
+         * Armazenamentos em memória/arquivo: os dados já estão em memória, então a
+         * ordenação por departamento e funcionário é feita aqui
+         */
+        private void percorrerRepositorio(LocalDate hoje) throws SQLException, IOException {
+            List<Emprestimo> atrasados = ARMAZENAMENTO.emprestimos()
+                    .listarAtivosComVencimentoEntre(LocalDate.MIN, hoje.minusDays(1));
+
+            Map<Integer, String> departamentos = new HashMap<>();
+            for (Emprestimo emprestimo : atrasados) {
+                if (!departamentos.containsKey(emprestimo.idFuncionario)) {
+                    Funcionario funcionario = ARMAZENAMENTO.funcionarios().buscarPorId(emprestimo.idFuncionario);
+                    departamentos.put(emprestimo.idFuncionario,
+                            funcionario != null && funcionario.departamento != null ? funcionario.departamento : "");
+                }
+            }
+
+            atrasados = new ArrayList<>(atrasados);
+            atrasados.sort(Comparator.comparing((Emprestimo e) -> departamentos.get(e.idFuncionario))
+                    .thenComparingInt(e -> e.idFuncionario)
+                    .thenComparing(e -> e.dataDevolucaoPrevista));
+
+            for (Emprestimo emprestimo : atrasados) {
+                String departamentoFuncionario = departamentos.get(emprestimo.idFuncionario);
+                if (departamento != null) {
+                    int comparacao = departamentoFuncionario.compareTo(departamento);
+                    if (comparacao < 0 || (comparacao == 0 && emprestimo.idFuncionario <= idFuncionario)) {
+                        continue;
+                    }
+                }
+                linha(departamentoFuncionario, emprestimo.idFuncionario, emprestimo.nomeFuncionario,
+                        emprestimo.id, emprestimo.nomeEpi, emprestimo.quantidade, (int) emprestimo.diasAtraso(hoje));
+            }
+        }
+
+        /**
+         * Recebe uma linha (na ordem departamento, funcionário) e agrupa por funcionário
+         */
+        private void linha(String departamentoFuncionario, int funcionario, String nome, int idEmprestimo,
+                           String epi, int quantidade, int diasAtraso) throws IOException {
+            if (!emMontagem || funcionario != grupoFuncionario || !departamentoFuncionario.equals(grupoDepartamento)) {
+                fecharGrupo();
+                emMontagem = true;
+                grupoDepartamento = departamentoFuncionario;
+                grupoFuncionario = funcionario;
+                grupoNome = nome;
+                grupoEmprestimos = 0;
+                grupoMaiorAtraso = 0;
+                grupoItens.setLength(0);
+            }
+
+            if (grupoItens.length() > 0) {
+                grupoItens.append(", ");
+            }
+            grupoItens.append('#').append(idEmprestimo).append(' ').append(limpar(epi))
+                    .append(" x").append(quantidade).append(" (").append(diasAtraso).append(" dias)");
+            grupoEmprestimos++;
+            grupoMaiorAtraso = Math.max(grupoMaiorAtraso, diasAtraso);
+        }
+
+        /**
+         * Grava a notificação do funcionário em montagem e avança o estado
+         */
+        private void fecharGrupo() throws IOException {
+            if (!emMontagem) {
+                return;
+            }
+            emMontagem = false;
+
+            saida.write(String.join(SEPARADOR, data.toString(), limpar(grupoDepartamento),
+                    String.valueOf(grupoFuncionario), limpar(grupoNome), String.valueOf(grupoEmprestimos),
+                    String.valueOf(grupoMaiorAtraso), grupoItens));
+            saida.newLine();
+
+            departamento = grupoDepartamento;
+            idFuncionario = grupoFuncionario;
+            notificacoes++;
+            emprestimos += grupoEmprestimos;
+
+            if (++desdeCheckpoint >= FUNCIONARIOS_POR_CHECKPOINT) {
+                gravarCheckpoint(EM_ANDAMENTO);
+            }
+        }
+
+        /**
+         * Lê o checkpoint e prepara o estado da execução
+         * @return Tamanho confirmado do arquivo de saída, ou -1 se o job do dia já foi concluído
+         */
+        private long lerCheckpoint(LocalDate hoje) throws IOException {
+            long tamanhoAtual = Files.exists(arquivoSaida) ? Files.size(arquivoSaida) : 0;
+
+            if (Files.exists(arquivoCheckpoint)) {
+                // data;status;id_funcionario;tamanho;notificacoes;emprestimos;tamanho:departamento
+                // (sem trim: o departamento pode ter ';' e espaços nas pontas)
+                String[] campos = new String(Files.readAllBytes(arquivoCheckpoint), StandardCharsets.UTF_8)
+                        .split(SEPARADOR, 7);
+                if (campos.length == 7 && campos[0].equals(hoje.toString())) {
+                    data = hoje;
+                    notificacoes = Integer.parseInt(campos[4]);
+                    emprestimos = Integer.parseInt(campos[5]);
+                    if (campos[1].equals(CONCLUIDO)) {
+                        return -1;
+                    }
+                    idFuncionario = Integer.parseInt(campos[2]);
+                    departamento = notificacoes > 0 ? lerDepartamento(campos[6]) : null;
+                    return Math.min(Long.parseLong(campos[3]), tamanhoAtual);
+                }
+            }
+
+            // Nova execução: acrescenta depois das execuções anteriores
+            data = hoje;
+            departamento = null;
+            idFuncionario = 0;
+            notificacoes = 0;
+            emprestimos = 0;
+            return tamanhoAtual;
+        }
+
+        /**
+         * Sincroniza a saída com o disco e grava o checkpoint (arquivo temporário renomeado)
+         */
+        private void gravarCheckpoint(String status) throws IOException {
+            saida.flush();
+            canal.force(false);
+            desdeCheckpoint = 0;
+
+            String conteudo = String.join(SEPARADOR, data.toString(), status, String.valueOf(idFuncionario),
+                    String.valueOf(canal.position()), String.valueOf(notificacoes), String.valueOf(emprestimos),
+                    departamento != null ? departamento.length() + ":" + departamento : "");
+            Path temporario = arquivoCheckpoint.resolveSibling(arquivoCheckpoint.getFileName() + ".tmp");
+            Files.write(temporario, conteudo.getBytes(StandardCharsets.UTF_8));
+            Files.move(temporario, arquivoCheckpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        /**
+         * Departamento gravado com o tamanho na frente ("5:Obras"), que preserva o valor
+         * exato da chave da retomada; sem o prefixo, é um checkpoint do formato anterior
+         */
+        private static String lerDepartamento(String campo) {
+            int doisPontos = campo.indexOf(':');
+            if (doisPontos > 0 && campo.substring(0, doisPontos).matches("\\d{1,9}")
+                    && Integer.parseInt(campo.substring(0, doisPontos)) == campo.length() - doisPontos - 1) {
+                return campo.substring(doisPontos + 1);
+            }
+            return campo;
+        }
+
+        /**
+         * Remove do texto os caracteres usados como separadores no arquivo
+         */
+        private static String limpar(String texto) {
+            return texto == null ? "" : texto.replaceAll("[;\\r\\n]", " ");
+        }
+    }
+
+    // ========== ARQUIVAMENTO DE EMPRÉSTIMOS ==========
+
+    /**
+     * Move para emprestimo_historico os empréstimos devolvidos há mais de
+     * DIAS_ARQUIVAMENTO dias (só MySQL). Trabalha em lotes de LOTE_ARQUIVAMENTO linhas,
+     * cada um em uma transação curta (INSERT ... SELECT + DELETE pelos mesmos IDs), com
+     * uma pausa entre lotes para não disputar o banco com o atendimento. Só toca em
+     * linhas encerradas (devolvidas ou extraviadas): empréstimos ativos, o painel e a consolidação de consumo não
+     * são afetados. Pode ser interrompido e repetido a qualquer momento.
+     * Agendamento: java ... epis.java --arquivar-emprestimos
+     * @return false se o arquivamento não pôde ser concluído
+     */
+    private static boolean arquivarEmprestimosDevolvidos() {
+        System.out.println("\n" + AZUL + "--- ARQUIVAMENTO DE EMPRÉSTIMOS DEVOLVIDOS ---" + RESET);
+
+        if (!usandoMySQL() || MODO_OFFLINE.ativo()) {
+            System.out.println(AMARELO + "O arquivamento só está disponível com o MySQL conectado." + RESET);
+            return false;
+        }
+
+        LocalDate corte = LocalDate.now().minusDays(DIAS_ARQUIVAMENTO);
+        System.out.println("Arquivando devoluções anteriores a " + corte + " em lotes de " + LOTE_ARQUIVAMENTO + "...");
+
+        String colunas = "id, id_funcionario, id_epi, data_emprestimo, data_devolucao_prevista, " +
+                "data_devolucao_real, quantidade, status";
+        int total = 0;
+        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
+             PreparedStatement stmtLote = conexao.prepareStatement(SELECT_LOTE_ARQUIVAMENTO)) {
+
+            stmtLote.setDate(1, Date.valueOf(corte));
+
+            while (true) {
+                ListaInt ids = new ListaInt();
+                try (ResultSet rs = stmtLote.executeQuery()) {
+                    while (rs.next()) {
+                        ids.adicionar(rs.getInt(1));
+                    }
+                }
+                if (ids.tamanho() == 0) {
+                    break;
+                }
+
+                String filtro = " WHERE status IN ('Devolvido', 'Extraviado') AND id IN (" +
+                        String.join(", ", Collections.nCopies(ids.tamanho(), "?")) + ")";
+                int movidos;
+
+                conexao.setAutoCommit(false);
+                try (PreparedStatement stmtCopia = conexao.prepareStatement(
+                        "INSERT INTO emprestimo_historico (" + colunas + ") SELECT " + colunas + " FROM emprestimo" + filtro);
+                     PreparedStatement stmtRemocao = conexao.prepareStatement("DELETE FROM emprestimo" + filtro)) {
+
+                    for (int i = 0; i < ids.tamanho(); i++) {
+                        stmtCopia.setInt(i + 1, ids.obter(i));
+                        stmtRemocao.setInt(i + 1, ids.obter(i));
+                    }
+                    stmtCopia.executeUpdate();
+                    movidos = stmtRemocao.executeUpdate();
+                    conexao.commit();
+                    CACHE_RELATORIOS.alterou("emprestimo");
+                } catch (SQLException e) {
+                    conexao.rollback();
+                    throw e;
+                } finally {
+                    conexao.setAutoCommit(true);
+                }
+
+                total += movidos;
+                System.out.println("  " + total + " empréstimos arquivados...");
+                if (movidos == 0 || ids.tamanho() < LOTE_ARQUIVAMENTO) {
+                    break;
+                }
+
+                try {
+                    Thread.sleep(PAUSA_ARQUIVAMENTO_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            System.out.println(VERDE + "✅ Arquivamento concluído: " + total + " empréstimos movidos para o histórico." + RESET);
+            return true;
+        } catch (SQLException e) {
+            System.err.println(VERMELHO + "Erro ao arquivar empréstimos: " + e.getMessage() +
+                    " (" + total + " já arquivados; execute novamente para continuar)" + RESET);
+            return false;
+        }
+    }
+
+    // ========== QUARENTENA DE EPIs VENCIDOS ==========
+
+    /**
+     * Move o estoque vencido para a quarentena (só MySQL): para cada EPI com validade
+     * anterior a hoje e quantidade > 0, a quantidade passa para quantidade_quarentena e
+     * o movimento fica registrado em quarentena_epi, que alimenta o relatório de
+     * descarte. Trabalha em lotes de LOTE_QUARENTENA EPIs, cada um em uma transação
+     * curta (trava, registra em lote e zera com um único UPDATE), com pausa entre
+     * lotes. Depois da varredura o estoque disponível já não inclui itens vencidos, e
+     * as devoluções de EPIs vencidos vão direto para a quarentena pelo trigger
+     * trg_epi_quarentena_devolucao (versão 13 do script), qualquer que seja o caminho.
+     * Agendamento: java ... epis.java --quarentena-vencidos
+     * @return false se a varredura não pôde ser concluída
+     */
+    private static boolean quarentenarEPIsVencidos() {
+        System.out.println("\n" + AZUL + "--- QUARENTENA DE EPIs VENCIDOS ---" + RESET);
+
+        if (!usandoMySQL() || MODO_OFFLINE.ativo()) {
+            System.out.println(AMARELO + "A quarentena só está disponível com o MySQL conectado." + RESET);
+            return false;
+        }
+
+        Date hoje = Date.valueOf(LocalDate.now());
+        String sqlLote = SELECT_LOTE_QUARENTENA;
+
+        int epis = 0;
+        int unidades = 0;
+        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
+             PreparedStatement stmtLote = conexao.prepareStatement(sqlLote);
+             PreparedStatement stmtRegistro = conexao.prepareStatement(
+                     "INSERT INTO quarentena_epi (id_epi, nome, validade, quantidade) VALUES (?, ?, ?, ?)")) {
+
+            stmtLote.setDate(1, hoje);
+
+            while (true) {
+                ListaInt ids = new ListaInt();
+                try (ResultSet rs = stmtLote.executeQuery()) {
+                    while (rs.next()) {
+                        ids.adicionar(rs.getInt(1));
+                    }
+                }
+                if (ids.tamanho() == 0) {
+                    break;
+                }
+
+                String filtro = " WHERE validade < ? AND quantidade > 0 AND id IN (" +
+                        String.join(", ", Collections.nCopies(ids.tamanho(), "?")) + ")";
+                int movidos = 0;
+
+                conexao.setAutoCommit(false);
+                try (PreparedStatement stmtTrava = conexao.prepareStatement(
+                        "SELECT id, nome, validade, quantidade FROM epi" + filtro + " FOR UPDATE");
+                     PreparedStatement stmtMover = conexao.prepareStatement(
+                             "UPDATE epi SET quantidade_quarentena = quantidade_quarentena + quantidade, quantidade = 0" +
+                             filtro)) {
+
+                    stmtTrava.setDate(1, hoje);
+                    stmtMover.setDate(1, hoje);
+                    for (int i = 0; i < ids.tamanho(); i++) {
+                        stmtTrava.setInt(i + 2, ids.obter(i));
+                        stmtMover.setInt(i + 2, ids.obter(i));
+                    }
+
+                    // Registra as quantidades lidas com a linha travada: são exatamente as que o UPDATE move
+                    try (ResultSet rs = stmtTrava.executeQuery()) {
+                        while (rs.next()) {
+                            stmtRegistro.setInt(1, rs.getInt("id"));
+                            stmtRegistro.setString(2, rs.getString("nome"));
+                            stmtRegistro.setDate(3, rs.getDate("validade"));
+                            stmtRegistro.setInt(4, rs.getInt("quantidade"));
+                            stmtRegistro.addBatch();
+                            unidades += rs.getInt("quantidade");
+                        }
+                    }
+                    stmtRegistro.executeBatch();
+                    movidos = stmtMover.executeUpdate();
+                    conexao.commit();
+                    CACHE_RELATORIOS.alterou("epi");
+                    invalidarPainel();
+                } catch (SQLException e) {
+                    conexao.rollback();
+                    throw e;
+                } finally {
+                    stmtRegistro.clearBatch();
+                    conexao.setAutoCommit(true);
+                }
+
+                epis += movidos;
+                System.out.println("  " + epis + " EPIs em quarentena...");
+                if (movidos == 0 || ids.tamanho() < LOTE_QUARENTENA) {
+                    break;
+                }
+
+                try {
+                    Thread.sleep(PAUSA_QUARENTENA_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            System.out.println(VERDE + "✅ Varredura concluída: " + epis + " EPIs vencidos (" + unidades +
+                    " unidades) movidos para a quarentena." + RESET);
+            return true;
+        } catch (SQLException e) {
+            System.err.println(VERMELHO + "Erro ao mover EPIs vencidos para a quarentena: " + e.getMessage() +
+                    " (" + epis + " já movidos; execute novamente para continuar)" + RESET);
+            return false;
+        }
+    }
+
+    /**
+     * Relatório de descarte: itens em quarentena ainda não descartados, na ordem em que
+     * a varredura os moveu. Ao final permite registrar o descarte de tudo o que foi
+     * listado, baixando quantidade_quarentena com um UPDATE agrupado por EPI
+     * @param scanner Objeto Scanner para entrada de dados
+     */
+    public static void relatorioDescarte(Scanner scanner) {
+        System.out.println("\n" + AZUL + "--- RELATÓRIO DE DESCARTE (EPIs EM QUARENTENA) ---" + RESET);
+
+        if (!usandoMySQL() || MODO_OFFLINE.ativo()) {
+            System.out.println(AMARELO + "O relatório de descarte só está disponível com o MySQL conectado." + RESET);
+            return;
+        }
+
+        String sql = "SELECT id, id_epi, nome, validade, quantidade, movido_em FROM quarentena_epi " +
+                "WHERE descartado_em IS NULL ORDER BY id";
+        int ultimo = 0;
+        int total = 0;
+
+        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
+             PreparedStatement stmt = conexao.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery();
+             TabelaConsole tabela = new TabelaConsole()) {
+
+            tabela.coluna("ID EPI", 7).coluna("Nome", 30).coluna("Validade", 12)
+                    .coluna("Quantidade", 10).coluna("Em quarentena desde", 20)
+                    .cabecalho();
+
+            while (rs.next()) {
+                ultimo = rs.getInt("id");
+                total += rs.getInt("quantidade");
+                if (!tabela.interrompida()) {
+                    tabela.linha(rs.getInt("id_epi"), rs.getString("nome"), rs.getDate("validade"),
+                            rs.getInt("quantidade"), rs.getTimestamp("movido_em").toLocalDateTime().toLocalDate());
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println(VERMELHO + "Erro ao gerar relatório de descarte: " + e.getMessage() + RESET);
+            return;
+        }
+
+        if (ultimo == 0) {
+            System.out.println(VERDE + "Nenhum item aguardando descarte." + RESET);
+            return;
+        }
+
+        System.out.println("Total aguardando descarte: " + total + " unidades.");
+        System.out.print(AMARELO + "Registrar o descarte de todos os itens listados? (S/N): " + RESET);
+        if (!scanner.nextLine().equalsIgnoreCase("S")) {
+            return;
+        }
+
+        String sqlEstoque = "UPDATE epi e JOIN (SELECT id_epi, SUM(quantidade) AS total FROM quarentena_epi " +
+                "WHERE descartado_em IS NULL AND id <= ? GROUP BY id_epi) q ON q.id_epi = e.id " +
+                "SET e.quantidade_quarentena = GREATEST(0, e.quantidade_quarentena - q.total)";
+        String sqlDescarte = "UPDATE quarentena_epi SET descartado_em = CURDATE() WHERE descartado_em IS NULL AND id <= ?";
+
+        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA)) {
+            conexao.setAutoCommit(false);
+            try (PreparedStatement stmtEstoque = conexao.prepareStatement(sqlEstoque);
+                 PreparedStatement stmtDescarte = conexao.prepareStatement(sqlDescarte)) {
+
+                stmtEstoque.setInt(1, ultimo);
+                stmtEstoque.executeUpdate();
+                stmtDescarte.setInt(1, ultimo);
+                int registros = stmtDescarte.executeUpdate();
+                conexao.commit();
+                CACHE_RELATORIOS.alterou("epi");
+                System.out.println(VERDE + "Descarte registrado para " + registros + " itens." + RESET);
+            } catch (SQLException e) {
+                conexao.rollback();
+                throw e;
+            } finally {
+                conexao.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.err.println(VERMELHO + "Erro ao registrar descarte: " + e.getMessage() + RESET);
+        }
+    }
+
+    // ========== HISTÓRICO FRIO (ARQUIVOS COLUNARES) ==========
+
+    /**
+     * Exporta de emprestimo_historico para arquivos colunares compactados os
+     * empréstimos de anos anteriores a ANOS_HISTORICO_FRIO, um ano por vez, e só depois
+     * de conferir cada arquivo remove as linhas do banco (em lotes, como o arquivamento).
+     * Se uma execução anterior parou no meio da remoção, ela é concluída antes de
+     * exportar o que restou do ano, de modo que nenhuma linha fica em dois arquivos.
+     * Agendamento: java ... epis.java --exportar-historico-frio
+     * @return false se a exportação não pôde ser concluída
+     */
+    private static boolean exportarHistoricoFrio() {
+        System.out.println("\n" + AZUL + "--- EXPORTAÇÃO DO HISTÓRICO ANTIGO ---" + RESET);
+
+        if (!usandoMySQL() || MODO_OFFLINE.ativo()) {
+            System.out.println(AMARELO + "A exportação só está disponível com o MySQL conectado." + RESET);
+            return false;
+        }
+
+        LocalDate limite = HistoricoFrio.limite();
+        System.out.println("Exportando empréstimos anteriores a " + limite + " para " + HISTORICO_FRIO.diretorio() + "...");
+
+        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA)) {
+            List<Integer> anos = new ArrayList<>();
+            try (PreparedStatement stmt = conexao.prepareStatement(
+                    "SELECT DISTINCT YEAR(data_emprestimo) FROM emprestimo_historico " +
+                    "WHERE data_emprestimo < ? ORDER BY 1")) {
+                stmt.setDate(1, Date.valueOf(limite));
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        anos.add(rs.getInt(1));
+                    }
+                }
+            }
+
+            long total = 0;
+            for (int ano : anos) {
+                long linhas = HISTORICO_FRIO.exportarAno(conexao, ano);
+                total += linhas;
+                System.out.println("  " + ano + ": " + linhas + " empréstimos exportados");
+            }
+
+            System.out.println(VERDE + "✅ Exportação concluída: " + total + " empréstimos em arquivos compactados." + RESET);
+            return true;
+        } catch (SQLException | IOException e) {
+            System.err.println(VERMELHO + "Erro ao exportar histórico: " + e.getMessage() +
+                    " (execute novamente para continuar)" + RESET);
+            return false;
+        }
+    }
+
+    /**
+     * Diretório de arquivos colunares do histórico frio: uma ou mais partes por ano
+     * (epi-historico-AAAA-NNN.col). As consultas por funcionário/EPI de períodos antigos
+     * leem só as partes dos anos pedidos.
+     */
+    static class HistoricoFrio {
+        private final Path diretorio;
+
+        HistoricoFrio(Path diretorio) {
+            this.diretorio = diretorio;
+        }
+
+        Path diretorio() {
+            return diretorio;
+        }
+
+        /** Empréstimos anteriores a esta data vão para os arquivos colunares */
+        static LocalDate limite() {
+            return LocalDate.of(LocalDate.now().getYear() - ANOS_HISTORICO_FRIO, 1, 1);
+        }
+
+        /**
+         * Histórico de um funcionário ou EPI a partir de uma data, lido dos arquivos
+         * @param porFuncionario true para filtrar por funcionário, false por EPI
+         */
+        List<Emprestimo> consultar(boolean porFuncionario, int id, LocalDate desde) throws IOException {
+            List<Emprestimo> resultado = new ArrayList<>();
+            if (!Files.isDirectory(diretorio)) {
+                return resultado;
+            }
+
+            try (DirectoryStream<Path> partes = Files.newDirectoryStream(diretorio, "epi-historico-*.col")) {
+                for (Path parte : partes) {
+                    if (ExecucaoRelatorio.cancelado()) {
+                        throw new InterruptedIOException("consulta cancelada");
+                    }
+                    // Poda pelo nome: partes de anos anteriores ao pedido nem são abertas
+                    int ano = Integer.parseInt(parte.getFileName().toString().substring(14, 18));
+                    if (desde != null && ano < desde.getYear()) {
+                        continue;
+                    }
+                    try (ArquivoColunar.Leitor leitor = new ArquivoColunar.Leitor(parte)) {
+                        resultado.addAll(leitor.consultar(porFuncionario, id, desde));
+                    }
+                }
+            }
+            return resultado;
+        }
+
+        /**
+         * Exporta para uma nova parte os empréstimos do ano ainda no banco e os remove
+         * de emprestimo_historico
+         * @return Quantidade exportada
+         */
+        long exportarAno(Connection conexao, int ano) throws SQLException, IOException {
+            Files.createDirectories(diretorio);
+
+            // Conclui remoções interrompidas: o que já está em arquivo sai do banco
+            List<Path> existentes = partes(ano);
+            for (Path parte : existentes) {
+                try (ArquivoColunar.Leitor leitor = new ArquivoColunar.Leitor(parte)) {
+                    removerDoBanco(conexao, leitor.ids());
+                }
+            }
+
+            Path destino = diretorio.resolve(String.format("epi-historico-%d-%03d.col", ano, existentes.size() + 1));
+            Path temporario = destino.resolveSibling(destino.getFileName() + ".tmp");
+
+            String sql = "SELECT h.id, h.id_funcionario, f.nome AS funcionario, h.id_epi, ep.nome AS epi, " +
+                    "h.data_emprestimo, h.data_devolucao_prevista, h.data_devolucao_real, h.quantidade, h.status " +
+                    "FROM emprestimo_historico h " +
+                    "JOIN funcionario f ON f.id = h.id_funcionario " +
+                    "JOIN epi ep ON ep.id = h.id_epi " +
+                    "WHERE h.data_emprestimo >= ? AND h.data_emprestimo < ? " +
+                    "ORDER BY h.id_funcionario, h.data_emprestimo, h.id";
+
+            long linhas;
+            try (PreparedStatement stmt = conexao.prepareStatement(sql,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                 ArquivoColunar.Gravador gravador = new ArquivoColunar.Gravador(temporario)) {
+
+                // Linhas entregues uma a uma pelo Connector/J
+                stmt.setFetchSize(Integer.MIN_VALUE);
+                stmt.setDate(1, Date.valueOf(LocalDate.of(ano, 1, 1)));
+                stmt.setDate(2, Date.valueOf(LocalDate.of(ano + 1, 1, 1)));
+
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        gravador.adicionar(rs.getInt("id"), rs.getInt("id_funcionario"), rs.getString("funcionario"),
+                                rs.getInt("id_epi"), rs.getString("epi"),
+                                ArmazenamentoJdbc.data(rs, "data_emprestimo"),
+                                ArmazenamentoJdbc.data(rs, "data_devolucao_prevista"),
+                                ArmazenamentoJdbc.data(rs, "data_devolucao_real"),
+                                rs.getInt("quantidade"), rs.getString("status"));
+                    }
+                }
+                linhas = gravador.linhas();
+            }
+
+            if (linhas == 0) {
+                Files.delete(temporario);
+                return 0;
+            }
+            Files.move(temporario, destino, StandardCopyOption.ATOMIC_MOVE);
+
+            // Confere o arquivo gravado antes de apagar qualquer linha do banco
+            try (ArquivoColunar.Leitor leitor = new ArquivoColunar.Leitor(destino)) {
+                if (leitor.totalLinhas() != linhas) {
+                    throw new IOException(destino.getFileName() + " tem " + leitor.totalLinhas() +
+                            " linhas, esperadas " + linhas);
+                }
+                removerDoBanco(conexao, leitor.ids());
+            }
+            return linhas;
+        }
+
+        private List<Path> partes(int ano) throws IOException {
+            List<Path> resultado = new ArrayList<>();
+            try (DirectoryStream<Path> partes = Files.newDirectoryStream(diretorio, "epi-historico-" + ano + "-*.col")) {
+                for (Path parte : partes) {
+                    resultado.add(parte);
+                }
+            }
+            Collections.sort(resultado);
+            return resultado;
+        }
+
+        /**
+         * Remove de emprestimo_historico, em lotes com pausa, os IDs já gravados em arquivo
+         */
+        private static void removerDoBanco(Connection conexao, ListaInt ids) throws SQLException {
+            for (int inicio = 0; inicio < ids.tamanho(); inicio += LOTE_ARQUIVAMENTO) {
+                int fim = Math.min(ids.tamanho(), inicio + LOTE_ARQUIVAMENTO);
+                String sql = "DELETE FROM emprestimo_historico WHERE id IN (" +
+                        String.join(", ", Collections.nCopies(fim - inicio, "?")) + ")";
+                try (PreparedStatement stmt = conexao.prepareStatement(sql)) {
+                    for (int i = inicio; i < fim; i++) {
+                        stmt.setInt(i - inicio + 1, ids.obter(i));
+                    }
+                    stmt.executeUpdate();
+                }
+
+                try {
+                    Thread.sleep(PAUSA_ARQUIVAMENTO_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Remoção interrompida");
+                }
+            }
+        }
+    }
+
+    /**
+     * Formato colunar compactado para empréstimos arquivados.
+     *
+     * As linhas (ordenadas por funcionário e data) são divididas em grupos de até
+     * LINHAS_POR_GRUPO. Em cada grupo, cada coluna é um bloco independente de varints
+     * comprimido com Deflate: funcionário, EPI e status como códigos de dicionário;
+     * ID e data do empréstimo em delta; datas prevista/real como diferença em dias
+     * para a data do empréstimo. O rodapé guarda os dicionários (ID e nome, para o
+     * arquivo não depender de linhas que podem ser removidas do banco) e, por grupo,
+     * o deslocamento, os limites de funcionário e de data e os códigos de EPI presentes.
+     *
+     * A leitura aplica os filtros antes de descomprimir (predicate pushdown): um
+     * funcionário/EPI fora do dicionário descarta o arquivo; limites e códigos do
+     * rodapé descartam grupos; nos grupos restantes só a coluna do filtro é lida
+     * primeiro, e as demais apenas se houver alguma linha do funcionário/EPI.
+     *
+     * Layout: [MAGICO][VERSAO] grupos... rodapé [deslocamento do rodapé][tamanhos][MAGICO]
+     */
+    static class ArquivoColunar {
+        private static final int MAGICO = 0x45504943;
+        private static final int VERSAO = 1;
+        private static final int LINHAS_POR_GRUPO = 16_384;
+        private static final int TAMANHO_FINAL = 8 + 4 + 4 + 4;
+
+        private static final int COLUNA_ID = 0;
+        private static final int COLUNA_FUNCIONARIO = 1;
+        private static final int COLUNA_EPI = 2;
+        private static final int COLUNA_DATA = 3;
+        private static final int COLUNA_PREVISTA = 4;
+        private static final int COLUNA_REAL = 5;
+        private static final int COLUNA_QUANTIDADE = 6;
+        private static final int COLUNA_STATUS = 7;
+        private static final int COLUNAS = 8;
+
+        /**
+         * Grava um arquivo; as linhas devem chegar ordenadas por funcionário e data
+         */
+        static class Gravador implements AutoCloseable {
+            private final FileChannel canal;
+
+            // Dicionários do arquivo: ID -> código e, por código, ID e nome
+            private final MapaIntLong codigosFuncionario = new MapaIntLong();
+            private final ListaInt idsFuncionario = new ListaInt();
+            private final List<String> nomesFuncionario = new ArrayList<>();
+            private final MapaIntLong codigosEpi = new MapaIntLong();
+            private final ListaInt idsEpi = new ListaInt();
+            private final List<String> nomesEpi = new ArrayList<>();
+            private final List<String> status = new ArrayList<>();
+
+            // Grupo em montagem: valores já convertidos (códigos, dias), uma linha por índice
+            private final int[][] grupo = new int[COLUNAS][LINHAS_POR_GRUPO];
+            private int linhasGrupo;
+
+            // Estatísticas dos grupos já gravados (vão para o rodapé)
+            private final ByteArrayOutputStream estatisticas = new ByteArrayOutputStream();
+            private int grupos;
+            private long linhas;
+
+            Gravador(Path arquivo) throws IOException {
+                canal = FileChannel.open(arquivo, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+                ByteBuffer cabecalho = ByteBuffer.allocate(8).putInt(MAGICO).putInt(VERSAO);
+                cabecalho.flip();
+                escrever(cabecalho);
+            }
+
+            long linhas() {
+                return linhas;
+            }
+
+            void adicionar(int id, int idFuncionario, String funcionario, int idEpi, String epi, LocalDate data,
+                           LocalDate prevista, LocalDate real, int quantidade, String situacao) throws IOException {
+                int dia = (int) data.toEpochDay();
+                grupo[COLUNA_ID][linhasGrupo] = id;
+                grupo[COLUNA_FUNCIONARIO][linhasGrupo] = codigo(codigosFuncionario, idsFuncionario, nomesFuncionario,
+                        idFuncionario, funcionario);
+                grupo[COLUNA_EPI][linhasGrupo] = codigo(codigosEpi, idsEpi, nomesEpi, idEpi, epi);
+                grupo[COLUNA_DATA][linhasGrupo] = dia;
+                grupo[COLUNA_PREVISTA][linhasGrupo] = (int) prevista.toEpochDay() - dia;
+                // 0 = sem devolução; senão diferença + 1
+                grupo[COLUNA_REAL][linhasGrupo] = real == null ? 0 : (int) real.toEpochDay() - dia + 1;
+                grupo[COLUNA_QUANTIDADE][linhasGrupo] = quantidade;
+                int codigoStatus = status.indexOf(situacao);
+                if (codigoStatus < 0) {
+                    codigoStatus = status.size();
+                    status.add(situacao);
+                }
+                grupo[COLUNA_STATUS][linhasGrupo] = codigoStatus;
+
+                linhas++;
+                if (++linhasGrupo == LINHAS_POR_GRUPO) {
+                    gravarGrupo();
+                }
+            }
+
+            /** Grava o último grupo e o rodapé */
+            public void close() throws IOException {
+                try {
+                    if (linhasGrupo > 0) {
+                        gravarGrupo();
+                    }
+
+                    ByteArrayOutputStream rodape = new ByteArrayOutputStream();
+                    escreverVarint(rodape, linhas);
+                    escreverDicionario(rodape, idsFuncionario, nomesFuncionario);
+                    escreverDicionario(rodape, idsEpi, nomesEpi);
+                    escreverVarint(rodape, status.size());
+                    for (String situacao : status) {
+                        escreverTexto(rodape, situacao);
+                    }
+                    escreverVarint(rodape, grupos);
+                    estatisticas.writeTo(rodape);
+
+                    long posicaoRodape = canal.position();
+                    byte[] bruto = rodape.toByteArray();
+                    byte[] comprimido = comprimir(bruto);
+                    escrever(ByteBuffer.wrap(comprimido));
+
+                    ByteBuffer fim = ByteBuffer.allocate(TAMANHO_FINAL)
+                            .putLong(posicaoRodape).putInt(comprimido.length).putInt(bruto.length).putInt(MAGICO);
+                    fim.flip();
+                    escrever(fim);
+                    canal.force(true);
+                } finally {
+                    canal.close();
+                }
+            }
+
+            private void gravarGrupo() throws IOException {
+                long posicao = canal.position();
+                int minimoFuncionario = Integer.MAX_VALUE;
+                int maximoFuncionario = Integer.MIN_VALUE;
+                int minimaData = Integer.MAX_VALUE;
+                int maximaData = Integer.MIN_VALUE;
+                TreeSet<Integer> epis = new TreeSet<>();
+                for (int i = 0; i < linhasGrupo; i++) {
+                    int idFuncionario = idsFuncionario.obter(grupo[COLUNA_FUNCIONARIO][i]);
+                    minimoFuncionario = Math.min(minimoFuncionario, idFuncionario);
+                    maximoFuncionario = Math.max(maximoFuncionario, idFuncionario);
+                    minimaData = Math.min(minimaData, grupo[COLUNA_DATA][i]);
+                    maximaData = Math.max(maximaData, grupo[COLUNA_DATA][i]);
+                    epis.add(grupo[COLUNA_EPI][i]);
+                }
+
+                for (int coluna = 0; coluna < COLUNAS; coluna++) {
+                    boolean delta = coluna == COLUNA_ID || coluna == COLUNA_DATA;
+                    ByteArrayOutputStream bloco = new ByteArrayOutputStream(linhasGrupo * 2);
+                    int anterior = 0;
+                    for (int i = 0; i < linhasGrupo; i++) {
+                        int valor = grupo[coluna][i];
+                        escreverVarint(bloco, zigzag(delta ? (long) valor - anterior : valor));
+                        anterior = valor;
+                    }
+                    byte[] bruto = bloco.toByteArray();
+                    byte[] comprimido = comprimir(bruto);
+                    ByteBuffer tamanhos = ByteBuffer.allocate(8).putInt(comprimido.length).putInt(bruto.length);
+                    tamanhos.flip();
+                    escrever(tamanhos);
+                    escrever(ByteBuffer.wrap(comprimido));
+                }
+
+                escreverVarint(estatisticas, posicao);
+                escreverVarint(estatisticas, linhasGrupo);
+                escreverVarint(estatisticas, zigzag(minimoFuncionario));
+                escreverVarint(estatisticas, zigzag(maximoFuncionario));
+                escreverVarint(estatisticas, zigzag(minimaData));
+                escreverVarint(estatisticas, zigzag(maximaData));
+                escreverVarint(estatisticas, epis.size());
+                int anterior = 0;
+                for (int codigo : epis) {
+                    escreverVarint(estatisticas, codigo - anterior);
+                    anterior = codigo;
+                }
+
+                grupos++;
+                linhasGrupo = 0;
+            }
+
+            private static int codigo(MapaIntLong codigos, ListaInt ids, List<String> nomes, int id, String nome) {
+                if (codigos.contem(id)) {
+                    return (int) codigos.obter(id);
+                }
+                int codigo = ids.tamanho();
+                codigos.colocar(id, codigo);
+                ids.adicionar(id);
+                nomes.add(nome);
+                return codigo;
+            }
+
+            private static void escreverDicionario(ByteArrayOutputStream saida, ListaInt ids, List<String> nomes) {
+                escreverVarint(saida, ids.tamanho());
+                int anterior = 0;
+                for (int i = 0; i < ids.tamanho(); i++) {
+                    escreverVarint(saida, zigzag((long) ids.obter(i) - anterior));
+                    anterior = ids.obter(i);
+                    escreverTexto(saida, nomes.get(i));
+                }
+            }
+
+            private void escrever(ByteBuffer dados) throws IOException {
+                while (dados.hasRemaining()) {
+                    canal.write(dados);
+                }
+            }
+        }
+
+        /**
+         * Lê um arquivo: carrega o rodapé na abertura e descomprime colunas sob demanda
+         */
+        static class Leitor implements AutoCloseable {
+            private final FileChannel canal;
+            private final long totalLinhas;
+            private final int[] idsFuncionario;
+            private final String[] nomesFuncionario;
+            private final MapaIntLong codigosFuncionario = new MapaIntLong();
+            private final int[] idsEpi;
+            private final String[] nomesEpi;
+            private final MapaIntLong codigosEpi = new MapaIntLong();
+            private final String[] status;
+            private final long[] posicaoGrupo;
+            private final int[] linhasGrupo;
+            private final int[] minimoFuncionario;
+            private final int[] maximoFuncionario;
+            private final int[] minimaData;
+            private final int[] maximaData;
+            private final int[][] episGrupo;
+
+            Leitor(Path arquivo) throws IOException {
+                canal = FileChannel.open(arquivo, StandardOpenOption.READ);
+                try {
+                    long tamanho = canal.size();
+                    ByteBuffer fim = ler(tamanho - TAMANHO_FINAL, TAMANHO_FINAL);
+                    long posicaoRodape = fim.getLong();
+                    int comprimido = fim.getInt();
+                    int bruto = fim.getInt();
+                    if (tamanho < 8 + TAMANHO_FINAL || fim.getInt() != MAGICO || ler(0, 4).getInt() != MAGICO) {
+                        throw new IOException(arquivo.getFileName() + " não é um arquivo de histórico válido");
+                    }
+
+                    byte[] bytesRodape = new byte[comprimido];
+                    ler(posicaoRodape, comprimido).get(bytesRodape);
+                    ByteBuffer rodape = ByteBuffer.wrap(descomprimir(bytesRodape, bruto));
+
+                    totalLinhas = lerVarint(rodape);
+                    idsFuncionario = new int[(int) lerVarint(rodape)];
+                    nomesFuncionario = new String[idsFuncionario.length];
+                    lerDicionario(rodape, idsFuncionario, nomesFuncionario, codigosFuncionario);
+                    idsEpi = new int[(int) lerVarint(rodape)];
+                    nomesEpi = new String[idsEpi.length];
+                    lerDicionario(rodape, idsEpi, nomesEpi, codigosEpi);
+                    status = new String[(int) lerVarint(rodape)];
+                    for (int i = 0; i < status.length; i++) {
+                        status[i] = lerTexto(rodape);
+                    }
+
+                    int grupos = (int) lerVarint(rodape);
+                    posicaoGrupo = new long[grupos];
+                    linhasGrupo = new int[grupos];
+                    minimoFuncionario = new int[grupos];
+                    maximoFuncionario = new int[grupos];
+                    minimaData = new int[grupos];
+                    maximaData = new int[grupos];
+                    episGrupo = new int[grupos][];
+                    for (int g = 0; g < grupos; g++) {
+                        posicaoGrupo[g] = lerVarint(rodape);
+                        linhasGrupo[g] = (int) lerVarint(rodape);
+                        minimoFuncionario[g] = (int) dezigzag(lerVarint(rodape));
+                        maximoFuncionario[g] = (int) dezigzag(lerVarint(rodape));
+                        minimaData[g] = (int) dezigzag(lerVarint(rodape));
+                        maximaData[g] = (int) dezigzag(lerVarint(rodape));
+                        episGrupo[g] = new int[(int) lerVarint(rodape)];
+                        int codigo = 0;
+                        for (int i = 0; i < episGrupo[g].length; i++) {
+                            codigo += (int) lerVarint(rodape);
+                            episGrupo[g][i] = codigo;
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    canal.close();
+                    throw e instanceof IOException ? (IOException) e
+                            : new IOException(arquivo.getFileName() + " corrompido: " + e, e);
+                }
+            }
+
+            long totalLinhas() {
+                return totalLinhas;
+            }
+
+            /** IDs de todos os empréstimos do arquivo */
+            ListaInt ids() throws IOException {
+                ListaInt resultado = new ListaInt();
+                for (int g = 0; g < posicaoGrupo.length; g++) {
+                    for (int id : lerColuna(g, COLUNA_ID)) {
+                        resultado.adicionar(id);
+                    }
+                }
+                return resultado;
+            }
+
+            /**
+             * Empréstimos de um funcionário ou EPI com data de empréstimo >= desde (null = todos)
+             */
+            List<Emprestimo> consultar(boolean porFuncionario, int id, LocalDate desde) throws IOException {
+                List<Emprestimo> resultado = new ArrayList<>();
+                MapaIntLong codigos = porFuncionario ? codigosFuncionario : codigosEpi;
+                if (!codigos.contem(id)) {
+                    return resultado;
+                }
+                int codigo = (int) codigos.obter(id);
+                int diaMinimo = desde != null ? (int) desde.toEpochDay() : Integer.MIN_VALUE;
+
+                for (int g = 0; g < posicaoGrupo.length; g++) {
+                    if (maximaData[g] < diaMinimo) {
+                        continue;
+                    }
+                    if (porFuncionario ? id < minimoFuncionario[g] || id > maximoFuncionario[g]
+                            : Arrays.binarySearch(episGrupo[g], codigo) < 0) {
+                        continue;
+                    }
+
+                    int[] filtro = lerColuna(g, porFuncionario ? COLUNA_FUNCIONARIO : COLUNA_EPI);
+                    int[] datas = null;
+                    ListaInt linhas = new ListaInt();
+                    for (int i = 0; i < filtro.length; i++) {
+                        if (filtro[i] == codigo) {
+                            if (datas == null) {
+                                datas = lerColuna(g, COLUNA_DATA);
+                            }
+                            if (datas[i] >= diaMinimo) {
+                                linhas.adicionar(i);
+                            }
+                        }
+                    }
+                    if (linhas.tamanho() == 0) {
+                        continue;
+                    }
+
+                    int[] ids = lerColuna(g, COLUNA_ID);
+                    int[] funcionarios = porFuncionario ? filtro : lerColuna(g, COLUNA_FUNCIONARIO);
+                    int[] epis = porFuncionario ? lerColuna(g, COLUNA_EPI) : filtro;
+                    int[] previstas = lerColuna(g, COLUNA_PREVISTA);
+                    int[] reais = lerColuna(g, COLUNA_REAL);
+                    int[] quantidades = lerColuna(g, COLUNA_QUANTIDADE);
+                    int[] situacoes = lerColuna(g, COLUNA_STATUS);
+
+                    for (int n = 0; n < linhas.tamanho(); n++) {
+                        int i = linhas.obter(n);
+                        LocalDate data = LocalDate.ofEpochDay(datas[i]);
+                        resultado.add(new Emprestimo(ids[i],
+                                idsFuncionario[funcionarios[i]], idsEpi[epis[i]],
+                                data, data.plusDays(previstas[i]),
+                                reais[i] == 0 ? null : data.plusDays(reais[i] - 1),
+                                quantidades[i], status[situacoes[i]],
+                                nomesFuncionario[funcionarios[i]], nomesEpi[epis[i]]));
+                    }
+                }
+                return resultado;
+            }
+
+            public void close() throws IOException {
+                canal.close();
+            }
+
+            /** Descomprime e decodifica uma coluna de um grupo */
+            private int[] lerColuna(int grupo, int coluna) throws IOException {
+                long posicao = posicaoGrupo[grupo];
+                for (int c = 0; c < coluna; c++) {
+                    posicao += 8 + ler(posicao, 4).getInt();
+                }
+                ByteBuffer tamanhos = ler(posicao, 8);
+                int comprimido = tamanhos.getInt();
+                int bruto = tamanhos.getInt();
+                byte[] bytes = new byte[comprimido];
+                ler(posicao + 8, comprimido).get(bytes);
+                ByteBuffer bloco = ByteBuffer.wrap(descomprimir(bytes, bruto));
+
+                boolean delta = coluna == COLUNA_ID || coluna == COLUNA_DATA;
+                int[] valores = new int[linhasGrupo[grupo]];
+                int anterior = 0;
+                for (int i = 0; i < valores.length; i++) {
+                    int valor = (int) dezigzag(lerVarint(bloco));
+                    valores[i] = delta ? anterior + valor : valor;
+                    anterior = valores[i];
+                }
+                return valores;
+            }
+
+            private ByteBuffer ler(long posicao, int tamanho) throws IOException {
+                ByteBuffer dados = ByteBuffer.allocate(tamanho);
+                while (dados.hasRemaining()) {
+                    if (canal.read(dados, posicao + dados.position()) < 0) {
+                        throw new IOException("fim de arquivo inesperado");
+                    }
+                }
+                dados.flip();
+                return dados;
+            }
+
+            private static void lerDicionario(ByteBuffer rodape, int[] ids, String[] nomes, MapaIntLong codigos) {
+                int anterior = 0;
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = anterior + (int) dezigzag(lerVarint(rodape));
+                    anterior = ids[i];
+                    nomes[i] = lerTexto(rodape);
+                    codigos.colocar(ids[i], i);
+                }
+            }
+        }
+
+        private static long zigzag(long valor) {
+            return (valor << 1) ^ (valor >> 63);
+        }
+
+        private static long dezigzag(long valor) {
+            return (valor >>> 1) ^ -(valor & 1);
+        }
+
+        private static void escreverVarint(ByteArrayOutputStream saida, long valor) {
+            while ((valor & ~0x7FL) != 0) {
+                saida.write((int) ((valor & 0x7F) | 0x80));
+                valor >>>= 7;
+            }
+            saida.write((int) valor);
+        }
+
+        private static long lerVarint(ByteBuffer entrada) {
+            long valor = 0;
+            for (int deslocamento = 0; ; deslocamento += 7) {
+                byte b = entrada.get();
+                valor |= (long) (b & 0x7F) << deslocamento;
+                if (b >= 0) {
+                    return valor;
+                }
+            }
+        }
+
+        private static void escreverTexto(ByteArrayOutputStream saida, String texto) {
+            byte[] bytes = (texto != null ? texto : "").getBytes(StandardCharsets.UTF_8);
+            escreverVarint(saida, bytes.length);
+            saida.write(bytes, 0, bytes.length);
+        }
+
+        private static String lerTexto(ByteBuffer entrada) {
+            byte[] bytes = new byte[(int) lerVarint(entrada)];
+            entrada.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private static byte[] comprimir(byte[] dados) {
+            Deflater compressor = new Deflater(Deflater.BEST_COMPRESSION);
+            try {
+                compressor.setInput(dados);
+                compressor.finish();
+                ByteArrayOutputStream saida = new ByteArrayOutputStream(Math.max(64, dados.length / 4));
+                byte[] buffer = new byte[8192];
+                while (!compressor.finished()) {
+                    saida.write(buffer, 0, compressor.deflate(buffer));
+                }
+                return saida.toByteArray();
+            } finally {
+                compressor.end();
+            }
+        }
+
+        private static byte[] descomprimir(byte[] dados, int tamanho) throws IOException {
+            Inflater descompressor = new Inflater();
+            try {
+                descompressor.setInput(dados);
+                byte[] resultado = new byte[tamanho];
+                int lidos = 0;
+                while (lidos < tamanho) {
+                    int n = descompressor.inflate(resultado, lidos, tamanho - lidos);
+                    if (n == 0 && (descompressor.finished() || descompressor.needsInput())) {
+                        throw new IOException("bloco comprimido truncado");
+                    }
+                    lidos += n;
+                }
+                return resultado;
+            } catch (DataFormatException e) {
+                throw new IOException("bloco comprimido inválido: " + e.getMessage(), e);
+            } finally {
+                descompressor.end();
+            }
+        }
+    }
+
+    // ========== PACOTE DE RELATÓRIOS ==========
+
+    /**
+     * Gera em um único arquivo todos os relatórios do fechamento do mês.
+     *
+     * As seções são consultadas em paralelo em um pool limitado (PARALELISMO_PACOTE
+     * threads e, portanto, no máximo essa quantidade de conexões ao mesmo tempo). Cada
+     * uma é escrita em memória e o arquivo é montado na ordem do menu, de modo que o
+     * tempo total fica próximo ao da seção mais lenta, e não à soma. Uma seção com
+     * erro registra o erro no próprio texto sem impedir as demais.
+     * Agendamento: java ... epis.java --pacote-relatorios
+     * @return false se alguma seção falhou ou o arquivo não pôde ser gravado
+     */
+    private static boolean gerarPacoteRelatorios() {
+        System.out.println("\n" + AZUL + "--- PACOTE COMPLETO DE RELATÓRIOS ---" + RESET);
+        if (!relatoriosLiberados()) {
+            return false;
+        }
+
+        LocalDate hoje = LocalDate.now();
+        LocalDate inicioMes = hoje.withDayOfMonth(1);
+
+        List<SecaoPacote> secoes = new ArrayList<>();
+        secoes.add(new SecaoPacote("EPIs disponíveis", saida -> {
+            List<Epi> epis = ARMAZENAMENTO.epis().listarDisponiveis();
+            try (TabelaConsole tabela = new TabelaConsole(saida)) {
+                escreverEPIsDisponiveis(tabela, epis, hoje);
+            }
+        }));
+        secoes.add(new SecaoPacote("EPIs emprestados", saida -> {
+            List<EpiEmprestado> emprestados = ARMAZENAMENTO.emprestimos().listarEPIsEmprestados();
+            try (TabelaConsole tabela = new TabelaConsole(saida)) {
+                escreverEPIsEmprestados(tabela, emprestados);
+            }
+        }));
+        secoes.add(new SecaoPacote("Empréstimos do mês por funcionário", saida -> {
+            List<Emprestimo> emprestimos = new ArrayList<>(ARMAZENAMENTO.emprestimos().listarEntre(inicioMes, hoje));
+            emprestimos.sort(Comparator.comparing((Emprestimo e) -> e.nomeFuncionario, String.CASE_INSENSITIVE_ORDER)
+                    .thenComparing(e -> e.dataEmprestimo));
+            try (TabelaConsole tabela = new TabelaConsole(saida)) {
+                escreverEmprestimosDoPeriodo(tabela, emprestimos, true, hoje);
+            }
+        }));
+        secoes.add(new SecaoPacote("Empréstimos do mês por EPI", saida -> {
+            List<Emprestimo> emprestimos = new ArrayList<>(ARMAZENAMENTO.emprestimos().listarEntre(inicioMes, hoje));
+            emprestimos.sort(Comparator.comparing((Emprestimo e) -> e.nomeEpi, String.CASE_INSENSITIVE_ORDER)
+                    .thenComparing(e -> e.dataEmprestimo));
+            try (TabelaConsole tabela = new TabelaConsole(saida)) {
+                escreverEmprestimosDoPeriodo(tabela, emprestimos, false, hoje);
+            }
+        }));
+        secoes.add(new SecaoPacote("EPIs com validade expirando em 30 dias", saida -> {
+            List<Epi> epis = ARMAZENAMENTO.epis().listarComValidadeEntre(hoje, hoje.plusDays(30));
+            try (TabelaConsole tabela = new TabelaConsole(saida)) {
+                escreverEPIsProximosValidade(tabela, epis, hoje);
+            }
+        }));
+        secoes.add(new SecaoPacote("Consumo e ponto de reposição", saida -> {
+            Map<Integer, ConsumoEpi> semana = consumoPorEPI(hoje.minusDays(6), hoje);
+            Map<Integer, ConsumoEpi> janela = consumoPorEPI(hoje.minusDays(JANELA_CONSUMO_DIAS - 1), hoje);
+            List<Epi> epis = ARMAZENAMENTO.epis().listar();
+            int abaixo;
+            try (TabelaConsole tabela = new TabelaConsole(saida)) {
+                abaixo = escreverConsumoReposicao(tabela, semana, janela, epis);
+            }
+            if (abaixo > 0) {
+                saida.println("\n" + abaixo + " EPI(s) abaixo do ponto de reposição.");
+            }
+        }));
+        secoes.add(new SecaoPacote("Consumo por departamento", saida -> {
+            List<ConsumoEpi> consumo = ARMAZENAMENTO.consumo(hoje.minusDays(JANELA_CONSUMO_DIAS - 1), hoje, true);
+            List<Epi> epis = ARMAZENAMENTO.epis().listar();
+            try (TabelaConsole tabela = new TabelaConsole(saida)) {
+                escreverConsumoPorDepartamento(tabela, consumo, epis);
+            }
+        }));
+
+        int paralelismo = Math.max(1, Math.min(PARALELISMO_PACOTE, secoes.size()));
+        AtomicInteger numeroThread = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(paralelismo, tarefa -> {
+            Thread thread = new Thread(tarefa, "pacote-relatorios-" + numeroThread.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Path destino = DIRETORIO_PACOTE.resolve("relatorios-" + hoje + ".txt");
+        Path temporario = destino.resolveSibling(destino.getFileName() + ".tmp");
+        long inicio = System.currentTimeMillis();
+        try {
+            List<Future<SecaoPacote>> pendentes = new ArrayList<>();
+            for (SecaoPacote secao : secoes) {
+                pendentes.add(executor.submit(secao::gerar));
+            }
+
+            Files.createDirectories(DIRETORIO_PACOTE);
+            int falhas = 0;
+            long soma = 0;
+            try (BufferedWriter saida = Files.newBufferedWriter(temporario, StandardCharsets.UTF_8)) {
+                saida.write("PACOTE DE RELATÓRIOS - gerado em " + LocalDateTime.now().withNano(0) +
+                        " (mês: " + inicioMes + " a " + hoje + ")\n");
+
+                // Na ordem do menu: espera cada seção enquanto as seguintes continuam rodando
+                for (Future<SecaoPacote> pendente : pendentes) {
+                    SecaoPacote secao = pendente.get();
+                    saida.write(secao.texto);
+                    soma += secao.milissegundos;
+                    if (secao.falhou) {
+                        falhas++;
+                        System.out.println(VERMELHO + "  ✖ " + secao.titulo + ": " + secao.erro + RESET);
+                    } else {
+                        System.out.println("  ✔ " + secao.titulo + " (" + secao.milissegundos + " ms)");
+                    }
+                }
+            }
+            Files.move(temporario, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            long total = System.currentTimeMillis() - inicio;
+            System.out.println((falhas == 0 ? VERDE + "✅ " : AMARELO + "⚠️ ") + "Pacote gravado em " + destino +
+                    " em " + total + " ms (soma das seções: " + soma + " ms" +
+                    (falhas > 0 ? "; " + falhas + " seção(ões) com erro" : "") + ")." + RESET);
+            return falhas == 0;
+        } catch (IOException | ExecutionException e) {
+            System.err.println(VERMELHO + "Erro ao gerar pacote de relatórios: " + e.getMessage() + RESET);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tabela de empréstimos de um período (pacote de relatórios)
+     * @param porFuncionario true para mostrar o funcionário na primeira coluna, false para o EPI
+     */
+    private static void escreverEmprestimosDoPeriodo(TabelaConsole tabela, List<Emprestimo> emprestimos,
+                                                     boolean porFuncionario, LocalDate hoje) {
+        tabela.coluna(porFuncionario ? "Funcionário" : "EPI", 25).coluna(porFuncionario ? "EPI" : "Funcionário", 25)
+                .coluna("ID", 6).coluna("Data Empréstimo", 15).coluna("Devolução Prevista", 20)
+                .coluna("Devolução Real", 20).coluna("Quantidade", 10).coluna("Status", 10).coluna("Atraso", 15)
+                .cabecalho();
+
+        for (Emprestimo emprestimo : emprestimos) {
+            tabela.linha(porFuncionario ? emprestimo.nomeFuncionario : emprestimo.nomeEpi,
+                    porFuncionario ? emprestimo.nomeEpi : emprestimo.nomeFuncionario,
+                    emprestimo.id, emprestimo.dataEmprestimo, emprestimo.dataDevolucaoPrevista,
+                    emprestimo.dataDevolucaoReal != null ? emprestimo.dataDevolucaoReal : "N/A",
+                    emprestimo.quantidade, statusHistorico(emprestimo), atrasoHistorico(emprestimo, hoje));
+        }
+    }
+
+    /**
+     * Uma seção do pacote de relatórios, gerada em uma thread do pool
+     */
+    static class SecaoPacote {
+        /**
+         * Busca os dados da seção e escreve suas tabelas
+         */
+        interface Conteudo {
+            void escrever(PrintStream saida) throws SQLException;
+        }
+
+        final String titulo;
+        private final Conteudo conteudo;
+
+        // Preenchidos por gerar(); visíveis a quem lê o Future
+        String texto;
+        boolean falhou;
+        String erro;
+        long milissegundos;
+
+        SecaoPacote(String titulo, Conteudo conteudo) {
+            this.titulo = titulo;
+            this.conteudo = conteudo;
+        }
+
+        /**
+         * Gera o texto da seção; as consultas usam o tempo limite dos relatórios
+         * (epi.relatorio.timeout.pacote)
+         */
+        SecaoPacote gerar() {
+            long inicio = System.currentTimeMillis();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            PrintStream saida = new PrintStream(bytes, false, StandardCharsets.UTF_8);
+            saida.println("\n===== " + titulo.toUpperCase(Locale.ROOT) + " =====\n");
+
+            try {
+                ExecucaoRelatorio.executarNestaThread("pacote", () -> {
+                    conteudo.escrever(saida);
+                    return null;
+                });
+            } catch (SQLException | RuntimeException e) {
+                falhou = true;
+                erro = e.getMessage();
+                saida.println("ERRO ao gerar esta seção: " + erro);
+            }
+
+            saida.flush();
+            texto = bytes.toString(StandardCharsets.UTF_8);
+            milissegundos = System.currentTimeMillis() - inicio;
+            return this;
+        }
+    }
+
+    // ========== SINCRONIZAÇÃO COM O RH ==========
+
+    /**
+     * Aplica ao MySQL o arquivo completo de funcionários enviado pelo RH
+     * (CSV "cpf;nome;cargo;departamento", com cabeçalho). O arquivo é lido em
+     * streaming e cada linha tem o hash do conteúdo (nome, cargo, departamento)
+     * comparado com o hash guardado em funcionario_rh pelo CPF: só os novos, os
+     * alterados e os que saíram do arquivo são gravados, em lotes de
+     * LOTE_SINCRONIZACAO_RH por transação. Quem sai do arquivo nunca é removido
+     * (o histórico de empréstimos depende do cadastro): fica "Desligado", ou
+     * "Pendente" enquanto tiver empréstimos ativos, e não recebe novos empréstimos.
+     * Se o número de desligamentos passar de LIMITE_DESLIGAMENTOS_RH dos ativos
+     * (arquivo truncado, por exemplo), os desligamentos não são aplicados.
+     * Agendamento: java ... epis.java --sincronizar-rh /srv/rh/funcionarios.csv
+     * @param arquivo Arquivo enviado pelo RH
+     * @return false se a sincronização não pôde ser concluída por completo
+     */
+    private static boolean sincronizarRH(Path arquivo) {
+        System.out.println("\n" + AZUL + "--- SINCRONIZAÇÃO COM O ARQUIVO DO RH ---" + RESET);
+
+        if (!usandoMySQL() || MODO_OFFLINE.ativo()) {
+            System.out.println(AMARELO + "A sincronização só está disponível com o MySQL conectado." + RESET);
+            return false;
+        }
+
+        SincronizacaoRH sincronizacao = new SincronizacaoRH();
+        try {
+            sincronizacao.carregarCadastro();
+            sincronizacao.lerArquivo(arquivo);
+        } catch (SQLException e) {
+            System.err.println(VERMELHO + "Erro ao ler o cadastro de funcionários: " + e.getMessage() +
+                    ("42S02".equals(e.getSQLState()) ? " (execute o script 'sql criar.txt' para criar funcionario_rh)" : "") +
+                    RESET);
+            return false;
+        } catch (IOException e) {
+            System.err.println(VERMELHO + "Erro ao ler o arquivo do RH: " + e.getMessage() + RESET);
+            return false;
+        }
+
+        if (sincronizacao.linhasValidas == 0) {
+            System.err.println(VERMELHO + "O arquivo não tem nenhuma linha válida; nada foi alterado." + RESET);
+            return false;
+        }
+
+        boolean desligamentosAplicados = true;
+        try {
+            desligamentosAplicados = sincronizacao.calcularDesligamentos();
+            sincronizacao.aplicar();
+        } catch (SQLException e) {
+            System.err.println(VERMELHO + "Erro ao sincronizar funcionários: " + e.getMessage() +
+                    " (" + sincronizacao.aplicadas + " alterações já gravadas; execute novamente para continuar)" + RESET);
+            return false;
+        } finally {
+            if (sincronizacao.aplicadas > 0) {
+                CACHE_RELATORIOS.alterou("funcionario");
+            }
+        }
+
+        sincronizacao.exibirResumo();
+        return desligamentosAplicados && sincronizacao.linhasInvalidas == 0;
+    }
+
+    private static final String SELECT_SITUACAO_RH = "SELECT r.situacao FROM funcionario f " +
+            "JOIN funcionario_rh r ON r.cpf = f.cpf WHERE f.id = ? LOCK IN SHARE MODE";
+
+    /**
+     * Verifica, na transação que grava o empréstimo, se o funcionário foi desligado
+     * pela sincronização com o RH (situação "Desligado" ou "Pendente"). A linha de
+     * funcionario_rh fica bloqueada para leitura até o fim da transação, então um
+     * desligamento concorrente espera o empréstimo terminar. Se a tabela
+     * funcionario_rh ainda não existe, ninguém é considerado desligado
+     * @param conexao Conexão da transação do empréstimo
+     * @param idFuncionario ID do funcionário
+     * @return true se o funcionário não pode receber novos empréstimos
+     */
+    private static boolean funcionarioDesligado(Connection conexao, int idFuncionario) throws SQLException {
+        try (PreparedStatement stmt = conexao.prepareStatement(SELECT_SITUACAO_RH)) {
+            stmt.setInt(1, idFuncionario);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() && !SincronizacaoRH.ATIVO.equals(rs.getString(1));
+            }
+        } catch (SQLException e) {
+            if ("42S02".equals(e.getSQLState())) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Empréstimo recusado no banco porque o funcionário foi desligado
+     * (mesmo motivo do código 8 das procedures)
+     */
+    static class FuncionarioDesligadoException extends SQLException {
+        private static final long serialVersionUID = 1L;
+
+        FuncionarioDesligadoException() {
+            super(mensagemStatusProcedure(8), "45000");
+        }
+    }
+
+    /**
+     * Estado de uma sincronização com o RH: o cadastro atual (ID, hash e situação
+     * por CPF, sem o conteúdo das linhas que já têm hash guardado) e a lista das
+     * mudanças a gravar. O arquivo em si nunca fica inteiro em memória
+     */
+    static class SincronizacaoRH {
+
+        static final String ATIVO = "Ativo";
+        static final String DESLIGADO = "Desligado";
+        static final String PENDENTE = "Pendente";
+
+        private static final String SEPARADOR_HASH = "\u001F";
+
+        /** Funcionário já cadastrado, como está no banco */
+        private static class Cadastro {
+            final int id;
+            final long hash;
+            final String situacao;
+            final boolean hashGuardado;
+            boolean noArquivo;
+
+            Cadastro(int id, long hash, String situacao, boolean hashGuardado) {
+                this.id = id;
+                this.hash = hash;
+                this.situacao = situacao;
+                this.hashGuardado = hashGuardado;
+            }
+        }
+
+        /** Alteração a gravar: novo (id 0), conteúdo alterado, reativação ou desligamento */
+        private static class Mudanca {
+            int id;
+            final String cpf;
+            final String nome;
+            final String cargo;
+            final String departamento;
+            final long hash;
+            final String situacao;
+            final boolean gravarFuncionario;
+
+            Mudanca(int id, String cpf, String nome, String cargo, String departamento, long hash,
+                    String situacao, boolean gravarFuncionario) {
+                this.id = id;
+                this.cpf = cpf;
+                this.nome = nome;
+                this.cargo = cargo;
+                this.departamento = departamento;
+                this.hash = hash;
+                this.situacao = situacao;
+                this.gravarFuncionario = gravarFuncionario;
+            }
+        }
+
+        private final Map<String, Cadastro> cadastro = new HashMap<>();
+        private final List<Mudanca> mudancas = new ArrayList<>();
+
+        int linhasValidas;
+        int linhasInvalidas;
+        int novos;
+        int alterados;
+        int reativados;
+        int desligados;
+        int aplicadas;
+        private int hashesRegistrados;
+        private final List<String> pendentes = new ArrayList<>();
+
+        /**
+         * Carrega ID, hash e situação de todos os funcionários. Quem ainda não tem
+         * linha em funcionario_rh (primeira sincronização ou cadastro feito pelo menu)
+         * tem o hash calculado a partir das colunas atuais
+         */
+        void carregarCadastro() throws SQLException {
+            String sql = "SELECT f.id, f.cpf, r.hash_conteudo, r.situacao, " +
+                    "IF(r.hash_conteudo IS NULL, f.nome, NULL) AS nome, " +
+                    "IF(r.hash_conteudo IS NULL, f.cargo, NULL) AS cargo, " +
+                    "IF(r.hash_conteudo IS NULL, f.departamento, NULL) AS departamento " +
+                    "FROM funcionario f LEFT JOIN funcionario_rh r ON r.cpf = f.cpf";
+
+            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
+                 PreparedStatement stmt = conexao.prepareStatement(sql);
+                 ResultSet rs = stmt.executeQuery()) {
+
+                while (rs.next()) {
+                    long hash = rs.getLong("hash_conteudo");
+                    boolean hashGuardado = !rs.wasNull();
+                    if (!hashGuardado) {
+                        hash = hash(rs.getString("nome"), rs.getString("cargo"), rs.getString("departamento"));
+                    }
+                    String situacao = rs.getString("situacao");
+                    cadastro.put(rs.getString("cpf"), new Cadastro(rs.getInt("id"), hash,
+                            situacao != null ? situacao : ATIVO, hashGuardado));
+                }
+            }
+        }
+
+        /**
+         * Percorre o arquivo linha a linha, comparando cada uma com o cadastro.
+         * Linhas com CPF inválido, nome vazio, campos longos demais ou CPF repetido
+         * são ignoradas e contadas como inválidas
+         */
+        void lerArquivo(Path arquivo) throws IOException {
+            Set<String> vistos = new HashSet<>();
+
+            try (BufferedReader leitor = Files.newBufferedReader(arquivo, StandardCharsets.UTF_8)) {
+                String linha;
+                int numero = 0;
+                while ((linha = leitor.readLine()) != null) {
+                    numero++;
+                    if (linha.isBlank() || (numero == 1 && linha.toLowerCase(Locale.ROOT).startsWith("cpf"))) {
+                        continue;
+                    }
+
+                    String[] campos = linha.split(";", -1);
+                    String cpf = campos[0].replaceAll("\\D", "");
+                    String nome = campos.length > 1 ? campos[1].trim() : "";
+                    String cargo = campos.length > 2 ? vazioComoNulo(campos[2]) : null;
+                    String departamento = campos.length > 3 ? vazioComoNulo(campos[3]) : null;
+
+                    String problema = null;
+                    if (!cpf.matches("\\d{11}")) {
+                        problema = "CPF inválido";
+                    } else if (nome.isEmpty() || nome.length() > 100) {
+                        problema = "nome vazio ou com mais de 100 caracteres";
+                    } else if ((cargo != null && cargo.length() > 50) || (departamento != null && departamento.length() > 50)) {
+                        problema = "cargo ou departamento com mais de 50 caracteres";
+                    } else if (!vistos.add(cpf)) {
+                        problema = "CPF repetido no arquivo";
+                    }
+                    if (problema != null) {
+                        if (++linhasInvalidas <= 10) {
+                            System.out.println(AMARELO + "  Linha " + numero + " ignorada: " + problema + RESET);
+                        }
+                        continue;
+                    }
+
+                    linhasValidas++;
+                    comparar(cpf, nome, cargo, departamento);
+                }
+            }
+        }
+
+        private void comparar(String cpf, String nome, String cargo, String departamento) {
+            long hash = hash(nome, cargo, departamento);
+            Cadastro atual = cadastro.get(cpf);
+
+            if (atual == null) {
+                mudancas.add(new Mudanca(0, cpf, nome, cargo, departamento, hash, ATIVO, true));
+                novos++;
+                return;
+            }
+
+            atual.noArquivo = true;
+            if (atual.hash != hash) {
+                mudancas.add(new Mudanca(atual.id, cpf, nome, cargo, departamento, hash, ATIVO, true));
+                alterados++;
+            } else if (!ATIVO.equals(atual.situacao)) {
+                mudancas.add(new Mudanca(atual.id, cpf, nome, cargo, departamento, hash, ATIVO, false));
+                reativados++;
+            }
+        }
+
+        /**
+         * Decide a situação de quem não está no arquivo: "Pendente" se ainda tem
+         * empréstimos ativos, "Desligado" caso contrário (um pendente que devolveu
+         * tudo passa a desligado na sincronização seguinte)
+         * @return false se os desligamentos passaram do limite e não serão aplicados
+         */
+        boolean calcularDesligamentos() throws SQLException {
+            int ativos = 0;
+            int saindo = 0;
+            for (Cadastro atual : cadastro.values()) {
+                if (ATIVO.equals(atual.situacao)) {
+                    ativos++;
+                    if (!atual.noArquivo) {
+                        saindo++;
+                    }
+                }
+            }
+            if (saindo > 0 && saindo > ativos * LIMITE_DESLIGAMENTOS_RH) {
+                System.out.println(AMARELO + "⚠️ " + saindo + " de " + ativos + " funcionários ativos não estão no " +
+                        "arquivo (limite: " + Math.round(LIMITE_DESLIGAMENTOS_RH * 100) + "%). Os desligamentos " +
+                        "não foram aplicados; confira o arquivo ou ajuste -Depi.rh.limite.desligamentos." + RESET);
+                return false;
+            }
+
+            Set<Integer> comEmprestimos = new HashSet<>();
+            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
+                 PreparedStatement stmt = conexao.prepareStatement(
+                         "SELECT DISTINCT e.id_funcionario, f.nome, f.cpf FROM emprestimo e " +
+                         "JOIN funcionario f ON f.id = e.id_funcionario WHERE e.status = 'Ativo'");
+                 ResultSet rs = stmt.executeQuery()) {
+
+                while (rs.next()) {
+                    Cadastro atual = cadastro.get(rs.getString("cpf"));
+                    if (atual != null && !atual.noArquivo && !DESLIGADO.equals(atual.situacao)) {
+                        comEmprestimos.add(rs.getInt("id_funcionario"));
+                        pendentes.add(rs.getInt("id_funcionario") + " - " + rs.getString("nome") +
+                                " (CPF " + rs.getString("cpf") + ")");
+                    }
+                }
+            }
+
+            for (Map.Entry<String, Cadastro> item : cadastro.entrySet()) {
+                Cadastro atual = item.getValue();
+                if (atual.noArquivo || DESLIGADO.equals(atual.situacao)) {
+                    continue;
+                }
+                String situacao = comEmprestimos.contains(atual.id) ? PENDENTE : DESLIGADO;
+                if (!situacao.equals(atual.situacao)) {
+                    mudancas.add(new Mudanca(atual.id, item.getKey(), null, null, null, atual.hash, situacao, false));
+                    desligados++;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Grava as mudanças em lotes, cada lote em uma transação: INSERT/UPDATE em
+         * funcionario e upsert do hash e da situação em funcionario_rh. Na primeira
+         * execução também grava o hash de quem não mudou
+         */
+        void aplicar() throws SQLException {
+            String sqlInsercao = "INSERT INTO funcionario (nome, cpf, cargo, departamento) VALUES (?, ?, ?, ?)";
+            String sqlAtualizacao = "UPDATE funcionario SET nome = ?, cargo = ?, departamento = ? WHERE id = ?";
+            String sqlSituacao = "INSERT INTO funcionario_rh (cpf, hash_conteudo, situacao, desligado_em) " +
+                    "VALUES (?, ?, ?, ?) ON DUPLICATE KEY UPDATE hash_conteudo = VALUES(hash_conteudo), " +
+                    "situacao = VALUES(situacao), desligado_em = IF(VALUES(situacao) = 'Ativo', NULL, " +
+                    "COALESCE(desligado_em, VALUES(desligado_em)))";
+
+            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
+                 PreparedStatement stmtInsercao = conexao.prepareStatement(sqlInsercao, Statement.RETURN_GENERATED_KEYS);
+                 PreparedStatement stmtAtualizacao = conexao.prepareStatement(sqlAtualizacao);
+                 PreparedStatement stmtSituacao = conexao.prepareStatement(sqlSituacao)) {
+
+                registrarHashesAusentes(conexao, stmtSituacao);
+
+                for (int inicio = 0; inicio < mudancas.size(); inicio += LOTE_SINCRONIZACAO_RH) {
+                    List<Mudanca> lote = mudancas.subList(inicio, Math.min(mudancas.size(), inicio + LOTE_SINCRONIZACAO_RH));
+                    List<Mudanca> inseridos = new ArrayList<>();
+
+                    for (Mudanca mudanca : lote) {
+                        if (mudanca.gravarFuncionario && mudanca.id == 0) {
+                            stmtInsercao.setString(1, mudanca.nome);
+                            stmtInsercao.setString(2, mudanca.cpf);
+                            stmtInsercao.setString(3, mudanca.cargo);
+                            stmtInsercao.setString(4, mudanca.departamento);
+                            stmtInsercao.addBatch();
+                            inseridos.add(mudanca);
+                        } else if (mudanca.gravarFuncionario) {
+                            stmtAtualizacao.setString(1, mudanca.nome);
+                            stmtAtualizacao.setString(2, mudanca.cargo);
+                            stmtAtualizacao.setString(3, mudanca.departamento);
+                            stmtAtualizacao.setInt(4, mudanca.id);
+                            stmtAtualizacao.addBatch();
+                        }
+                        prepararSituacao(stmtSituacao, mudanca.cpf, mudanca.hash, mudanca.situacao);
+                    }
+
+                    conexao.setAutoCommit(false);
+                    try {
+                        if (!inseridos.isEmpty()) {
+                            stmtInsercao.executeBatch();
+                            try (ResultSet chaves = stmtInsercao.getGeneratedKeys()) {
+                                for (int i = 0; i < inseridos.size() && chaves.next(); i++) {
+                                    inseridos.get(i).id = chaves.getInt(1);
+                                }
+                            }
+                        }
+                        stmtAtualizacao.executeBatch();
+                        stmtSituacao.executeBatch();
+                        conexao.commit();
+                    } catch (SQLException e) {
+                        conexao.rollback();
+                        throw e;
+                    } finally {
+                        conexao.setAutoCommit(true);
+                    }
+
+                    aplicadas += lote.size();
+                    atualizarMemoria(lote);
+                }
+            }
+        }
+
+        /**
+         * Grava o hash calculado de quem ainda não tinha linha em funcionario_rh e
+         * não mudou (os demais já ganham a linha junto com a mudança)
+         */
+        private void registrarHashesAusentes(Connection conexao, PreparedStatement stmtSituacao) throws SQLException {
+            Set<String> comMudanca = new HashSet<>();
+            for (Mudanca mudanca : mudancas) {
+                comMudanca.add(mudanca.cpf);
+            }
+
+            List<String> ausentes = new ArrayList<>();
+            for (Map.Entry<String, Cadastro> item : cadastro.entrySet()) {
+                if (!item.getValue().hashGuardado && !comMudanca.contains(item.getKey())) {
+                    ausentes.add(item.getKey());
+                }
+            }
+
+            for (int inicio = 0; inicio < ausentes.size(); inicio += LOTE_SINCRONIZACAO_RH) {
+                for (String cpf : ausentes.subList(inicio, Math.min(ausentes.size(), inicio + LOTE_SINCRONIZACAO_RH))) {
+                    Cadastro atual = cadastro.get(cpf);
+                    prepararSituacao(stmtSituacao, cpf, atual.hash, atual.situacao);
+                }
+                conexao.setAutoCommit(false);
+                try {
+                    stmtSituacao.executeBatch();
+                    conexao.commit();
+                } catch (SQLException e) {
+                    conexao.rollback();
+                    throw e;
+                } finally {
+                    conexao.setAutoCommit(true);
+                }
+            }
+            hashesRegistrados = ausentes.size();
+        }
+
+        private static void prepararSituacao(PreparedStatement stmt, String cpf, long hash, String situacao)
+                throws SQLException {
+            stmt.setString(1, cpf);
+            stmt.setLong(2, hash);
+            stmt.setString(3, situacao);
+            stmt.setDate(4, ATIVO.equals(situacao) ? null : Date.valueOf(LocalDate.now()));
+            stmt.addBatch();
+        }
+
+        /** Leva novos e alterados ao índice de busca e os CPFs novos ao filtro */
+        private static void atualizarMemoria(List<Mudanca> lote) {
+            FiltroBloom filtro = filtroCpfs;
+            for (Mudanca mudanca : lote) {
+                if (!mudanca.gravarFuncionario) {
+                    continue;
+                }
+                indexarFuncionario(mudanca.id, mudanca.nome, mudanca.cpf, mudanca.cargo);
+                if (filtro != null) {
+                    filtro.adicionar(mudanca.cpf);
+                }
+            }
+            if (filtro != null && !filtro.dentroDaCapacidade()) {
+                carregarFiltroCpfs();
+            }
+        }
+
+        void exibirResumo() {
+            System.out.println(VERDE + "✅ Sincronização concluída: " + linhasValidas + " linhas válidas, " +
+                    novos + " novos, " + alterados + " alterados, " + reativados + " reativados, " +
+                    desligados + " desligamentos (" + pendentes.size() + " pendentes de devolução)." + RESET);
+            if (hashesRegistrados > 0) {
+                System.out.println("  Hash registrado para " + hashesRegistrados + " funcionários sem alteração.");
+            }
+            if (linhasInvalidas > 0) {
+                System.out.println(AMARELO + "  " + linhasInvalidas + " linhas inválidas ignoradas." + RESET);
+            }
+            if (!pendentes.isEmpty()) {
+                System.out.println(AMARELO + "⚠️ Fora do arquivo do RH, mas com empréstimos ativos:" + RESET);
+                for (String pendente : pendentes) {
+                    System.out.println("  " + pendente);
+                }
+            }
+        }
+
+        /** Primeiros 8 bytes do SHA-256 de nome, cargo e departamento */
+        static long hash(String nome, String cargo, String departamento) {
+            String conteudo = (nome != null ? nome : "") + SEPARADOR_HASH + (cargo != null ? cargo : "") +
+                    SEPARADOR_HASH + (departamento != null ? departamento : "");
+            try {
+                byte[] resumo = MessageDigest.getInstance("SHA-256").digest(conteudo.getBytes(StandardCharsets.UTF_8));
+                return ByteBuffer.wrap(resumo).getLong();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static String vazioComoNulo(String valor) {
+            String limpo = valor.trim();
+            return limpo.isEmpty() ? null : limpo;
+        }
+    }
+
+    // ========== VERIFICAÇÃO DE PLANOS DE CONSULTA ==========
+
+    /**
+     * Roda EXPLAIN FORMAT=JSON nas consultas principais do sistema (só MySQL) e falha
+     * se algum plano perdeu o índice esperado ou estima ler mais linhas por acesso que
+     * o limite (-Depi.planos.linhas; por consulta: -Depi.planos.linhas.emprestimos-do-mes=50000).
+     * Com -Depi.planos.volume=N os planos são avaliados sobre cópias temporárias de
+     * funcionario, epi, emprestimo e emprestimo_historico com N empréstimos gerados
+     * (só existem na sessão; os dados reais não são tocados). Serve como verificação
+     * antes da implantação: java ... epis.java --verificar-planos. Ficam de fora (e são
+     * listadas na saída) as gravações e leituras com bloqueio por chave primária, as
+     * listagens completas de tabela e as instruções montadas campo a campo
+     * @return false se algum plano violou as expectativas
+     */
+    private static boolean verificarPlanosConsulta() {
+        System.out.println("\n" + AZUL + "--- VERIFICAÇÃO DE PLANOS DE CONSULTA ---" + RESET);
+
+        if (!usandoMySQL() || MODO_OFFLINE.ativo()) {
+            System.out.println(AMARELO + "A verificação de planos só está disponível com o MySQL conectado." + RESET);
+            return false;
+        }
+
+        int volume = Integer.getInteger("epi.planos.volume", 0);
+        int falhas = 0;
+        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
+             TabelaConsole tabela = new TabelaConsole()) {
+
+            if (volume > 0) {
+                System.out.println("Gerando " + volume + " empréstimos em tabelas temporárias...");
+                VerificacaoPlanos.semear(conexao, volume);
+            }
+
+            tabela.coluna("Consulta", 28).coluna("Tabela", 20).coluna("Acesso", 8).coluna("Índice", 32)
+                    .coluna("Linhas", 10).coluna("", 0)
+                    .cabecalho();
+
+            for (VerificacaoPlanos.Consulta consulta : VerificacaoPlanos.consultas()) {
+                List<VerificacaoPlanos.Acesso> acessos;
+                try {
+                    acessos = consulta.explicar(conexao);
+                } catch (SQLException e) {
+                    falhas++;
+                    tabela.linha(consulta.chave, "", "", "", "", TabelaConsole.colorido(VERMELHO, "ERRO: " + e.getMessage()));
+                    continue;
+                }
+
+                for (VerificacaoPlanos.Acesso acesso : acessos) {
+                    String problema = consulta.avaliar(acesso);
+                    if (problema != null) {
+                        falhas++;
+                    }
+                    tabela.linha(consulta.chave, acesso.tabela, acesso.tipo, acesso.indice != null ? acesso.indice : "-",
+                            acesso.linhas, problema != null ? TabelaConsole.colorido(VERMELHO, problema)
+                                    : TabelaConsole.colorido(VERDE, "OK"));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println(VERMELHO + "Erro ao verificar planos de consulta: " + e.getMessage() + RESET);
+            return false;
+        }
+
+        System.out.println(AMARELO + "Fora da verificação: " + VerificacaoPlanos.FORA_DA_VERIFICACAO + RESET);
+
+        if (falhas > 0) {
+            System.out.println(VERMELHO + "❌ " + falhas + " problemas nos planos de consulta." + RESET);
+            return false;
+        }
+        System.out.println(VERDE + "✅ Todos os planos dentro do esperado." + RESET);
+        return true;
+    }
+
+    /**
+     * Catálogo das consultas verificadas e leitura do EXPLAIN FORMAT=JSON. Cada
+     * consulta traz valores de exemplo para os parâmetros e, por tabela, o índice que
+     * o plano deve usar (ou "*" para qualquer índice, sem varredura completa)
+     */
+    static class VerificacaoPlanos {
+
+        private static final Pattern BLOCO_TABELA = Pattern.compile("\"table\"\\s*:\\s*\\{");
+        private static final Pattern NOME_TABELA = Pattern.compile("\"table_name\"\\s*:\\s*\"([^\"]+)\"");
+        private static final Pattern TIPO_ACESSO = Pattern.compile("\"access_type\"\\s*:\\s*\"([^\"]+)\"");
+        private static final Pattern INDICE = Pattern.compile("\"key\"\\s*:\\s*\"([^\"]+)\"");
+        private static final Pattern LINHAS = Pattern.compile("\"rows_examined_per_scan\"\\s*:\\s*(\\d+)");
+
+        /** Instruções que o catálogo não cobre (o plano não muda com o volume ou não há o que indexar) */
+        static final String FORA_DA_VERIFICACAO = "gravações e leituras FOR UPDATE por chave primária " +
+                "(empréstimo, devolução, baixa de estoque, fila offline); leituras completas por natureza " +
+                "(listar*, recarga de caches e do índice de ativos, sincronização com o RH, painel, relatórios " +
+                "agregados, exportação anual do histórico, lista da quarentena); UPDATEs montados campo a campo " +
+                "na edição; manutenção por id ou por lote já selecionado (quarentena, arquivamento, registro_alteracao)";
+
+        /** Acesso a uma tabela no plano */
+        static final class Acesso {
+            final String tabela;
+            final String tipo;
+            final String indice;
+            final long linhas;
+
+            Acesso(String tabela, String tipo, String indice, long linhas) {
+                this.tabela = tabela;
+                this.tipo = tipo;
+                this.indice = indice;
+                this.linhas = linhas;
+            }
+        }
+
+        /** Consulta verificada, com parâmetros de exemplo e expectativas */
+        static final class Consulta {
+            final String chave;
+            final String sql;
+            final Object[] parametros;
+            final Map<String, String> indices = new HashMap<>();
+            final long limiteLinhas;
+
+            Consulta(String chave, long limitePadrao, String sql, Object... parametros) {
+                this.chave = chave;
+                this.sql = sql;
+                this.parametros = parametros;
+                this.limiteLinhas = Long.getLong("epi.planos.linhas." + chave, limitePadrao);
+            }
+
+            /** Exige um índice na tabela (nome ou apelido do plano); "*" aceita qualquer índice */
+            Consulta indice(String tabela, String indice) {
+                indices.put(tabela, indice);
+                return this;
+            }
+
+            List<Acesso> explicar(Connection conexao) throws SQLException {
+                try (PreparedStatement stmt = conexao.prepareStatement("EXPLAIN FORMAT=JSON " + sql)) {
+                    for (int i = 0; i < parametros.length; i++) {
+                        stmt.setObject(i + 1, parametros[i]);
+                    }
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        return rs.next() ? analisar(rs.getString(1)) : new ArrayList<>();
+                    }
+                }
+            }
+
+            /** @return descrição do problema, ou null se o acesso está dentro do esperado */
+            String avaliar(Acesso acesso) {
+                String esperado = indices.get(acesso.tabela);
+                if (esperado != null && acesso.indice == null) {
+                    return "sem índice (esperado " + esperado + ")";
+                }
+                if (esperado != null && !esperado.equals("*") && !esperado.equals(acesso.indice)) {
+                    return "índice " + acesso.indice + " (esperado " + esperado + ")";
+                }
+                if (acesso.linhas > limiteLinhas) {
+                    return "estima " + acesso.linhas + " linhas (limite " + limiteLinhas + ")";
+                }
+                return null;
+            }
+        }
+
+        /**
+         * Extrai os acessos a tabelas do JSON do EXPLAIN. Cada bloco "table" começa com
+         * nome, tipo de acesso, índice e linhas estimadas, antes de eventuais subconsultas
+         */
+        static List<Acesso> analisar(String json) {
+            List<Acesso> acessos = new ArrayList<>();
+            Matcher bloco = BLOCO_TABELA.matcher(json);
+            List<Integer> inicios = new ArrayList<>();
+            while (bloco.find()) {
+                inicios.add(bloco.end());
+            }
+            for (int i = 0; i < inicios.size(); i++) {
+                String trecho = json.substring(inicios.get(i), i + 1 < inicios.size() ? inicios.get(i + 1) : json.length());
+                Matcher nome = NOME_TABELA.matcher(trecho);
+                if (!nome.find()) {
+                    continue;
+                }
+                Matcher tipo = TIPO_ACESSO.matcher(trecho);
+                Matcher indice = INDICE.matcher(trecho);
+                Matcher linhas = LINHAS.matcher(trecho);
+                acessos.add(new Acesso(nome.group(1), tipo.find() ? tipo.group(1) : "?",
+                        indice.find() ? indice.group(1) : null, linhas.find() ? Long.parseLong(linhas.group(1)) : 0));
+            }
+            return acessos;
+        }
+
+        /**
+         * Consultas verificadas: as leituras frequentes do atendimento e as dos jobs.
+         * Listagens que devolvem muitas linhas por natureza têm limite próprio maior
+         */
+        static List<Consulta> consultas() {
+            long limite = Long.getLong("epi.planos.linhas", 1000);
+            long limiteListagem = limite * 100;
+            Date hoje = Date.valueOf(LocalDate.now());
+            Date inicioMes = Date.valueOf(LocalDate.now().withDayOfMonth(1));
+            Date corte = Date.valueOf(LocalDate.now().minusDays(DIAS_ARQUIVAMENTO));
+            Date trintaDias = Date.valueOf(LocalDate.now().minusDays(30));
+
+            // As mesmas constantes usadas pelos repositórios e jobs: o plano é o da consulta real
+            List<Consulta> consultas = new ArrayList<>();
+            consultas.add(new Consulta("ativos-funcionario", limite,
+                    EmprestimoRepositorioJdbc.SELECT_ATIVO_POR_FUNCIONARIO, 1)
+                    .indice("emprestimo", "*"));
+            consultas.add(new Consulta("ativos-epi", limite,
+                    EmprestimoRepositorioJdbc.SELECT_ATIVO_POR_EPI, 1)
+                    .indice("emprestimo", "*"));
+            consultas.add(new Consulta("emprestimo-por-id", limite,
+                    EmprestimoRepositorioJdbc.SELECT_ATIVO_PARA_DEVOLUCAO, 1)
+                    .indice("emprestimo", "PRIMARY"));
+            consultas.add(new Consulta("funcionario-por-cpf", limite,
+                    FuncionarioRepositorioJdbc.SELECT_POR_CPF, "00000000001")
+                    .indice("funcionario", "cpf"));
+            consultas.add(new Consulta("emprestimos-ativos", limiteListagem,
+                    EmprestimoRepositorioJdbc.SELECT_ATIVOS)
+                    .indice("e", "*").indice("f", "PRIMARY").indice("ep", "PRIMARY"));
+            consultas.add(new Consulta("historico-funcionario", limite,
+                    EmprestimoRepositorioJdbc.SELECT_POR_FUNCIONARIO, 1)
+                    .indice("e", "*").indice("f", "PRIMARY").indice("ep", "PRIMARY"));
+            consultas.add(new Consulta("historico-epi", limiteListagem,
+                    EmprestimoRepositorioJdbc.SELECT_POR_EPI, 1)
+                    .indice("e", "*").indice("f", "PRIMARY").indice("ep", "PRIMARY"));
+            consultas.add(new Consulta("emprestimos-do-mes", limiteListagem,
+                    EmprestimoRepositorioJdbc.SELECT_ENTRE, inicioMes, hoje)
+                    .indice("e", "idx_emprestimo_data").indice("f", "PRIMARY").indice("ep", "PRIMARY"));
+            consultas.add(new Consulta("vencimento-entre", limiteListagem,
+                    EmprestimoRepositorioJdbc.SELECT_VENCIMENTO_ENTRE, hoje, hoje)
+                    .indice("e", "*"));
+            consultas.add(new Consulta("historico-arquivado", limite,
+                    EmprestimoRepositorioJdbc.selectHistorico("id_funcionario", true), 1, corte, 1, corte)
+                    .indice("e", "*").indice("h", "idx_historico_funcionario"));
+            consultas.add(new Consulta("arquivamento-lote", limite,
+                    SELECT_LOTE_ARQUIVAMENTO, corte)
+                    .indice("emprestimo", "idx_emprestimo_status_devolucao"));
+            consultas.add(new Consulta("consumo-periodo", limiteListagem,
+                    ArmazenamentoJdbc.selectConsumo(false), inicioMes, hoje)
+                    .indice("consumo_diario", "PRIMARY"));
+            consultas.add(new Consulta("alteracoes-desde", limite,
+                    MonitorAlteracoes.SELECT_ALTERACOES, 0)
+                    .indice("registro_alteracao", "PRIMARY"));
+            consultas.add(new Consulta("epi-por-nome", limite,
+                    EPIRepositorioJdbc.SELECT_POR_NOME, "EPI 1")
+                    .indice("epi", "idx_epi_nome"));
+            consultas.add(new Consulta("estoque-por-nome", limite,
+                    EPIRepositorioJdbc.AJUSTAR_POR_NOME, 0, "EPI 1")
+                    .indice("epi", "idx_epi_nome"));
+            consultas.add(new Consulta("mais-emprestados-epi", limiteListagem,
+                    EmprestimoRepositorioJdbc.SELECT_TOTAIS_POR_EPI, trintaDias)
+                    .indice("emprestimo", "idx_emprestimo_data"));
+            consultas.add(new Consulta("mais-emprestados-funcionario", limiteListagem,
+                    EmprestimoRepositorioJdbc.SELECT_TOTAIS_POR_FUNCIONARIO, trintaDias)
+                    .indice("emprestimo", "idx_emprestimo_data"));
+            consultas.add(cubo("cubo-epi", limite, new ConsultaCubo(false, false, true, null, 1,
+                    YearMonth.now().minusMonths(11), YearMonth.now()))
+                    .indice("consumo_mensal", "idx_consumo_mensal_epi"));
+            consultas.add(cubo("cubo-departamento", limite, new ConsultaCubo(false, true, true, "Depto 1", null,
+                    YearMonth.now().minusMonths(11), YearMonth.now()))
+                    .indice("consumo_mensal", "idx_consumo_mensal_departamento"));
+            consultas.add(new Consulta("situacao-rh", limite,
+                    SELECT_SITUACAO_RH, 1)
+                    .indice("f", "PRIMARY").indice("r", "PRIMARY"));
+            consultas.add(new Consulta("atrasos-retomada", limiteListagem,
+                    NotificacoesAtraso.selectAtrasos(true), hoje, hoje, "Depto 1", "Depto 1", 1)
+                    .indice("e", "*").indice("f", "PRIMARY").indice("ep", "PRIMARY"));
+            consultas.add(new Consulta("quarentena-lote", limiteListagem,
+                    SELECT_LOTE_QUARENTENA, hoje)
+                    .indice("epi", "*"));
+            return consultas;
+        }
+
+        /** Consulta do cubo de consumo, com os parâmetros montados pelo próprio repositório */
+        private static Consulta cubo(String chave, long limite, ConsultaCubo consultaCubo) {
+            List<Object> parametros = new ArrayList<>();
+            String sql = ArmazenamentoJdbc.selectCubo(consultaCubo, parametros);
+            return new Consulta(chave, limite, sql, parametros.toArray());
+        }
+
+        /**
+         * Cria, só nesta conexão, tabelas temporárias com o nome e os índices das reais
+         * (que passam a esconder as reais nas consultas da sessão) e as preenche com
+         * volume proporcional a N empréstimos; as estatísticas são recalculadas no fim
+         */
+        static void semear(Connection conexao, int volume) throws SQLException {
+            int funcionarios = Math.max(100, volume / 10);
+            int epis = Math.max(50, Math.min(2000, volume / 400));
+
+            try (Statement stmt = conexao.createStatement()) {
+                for (String tabela : new String[]{"funcionario", "epi", "emprestimo", "emprestimo_historico"}) {
+                    stmt.execute("CREATE TEMPORARY TABLE " + tabela + " LIKE " + tabela);
+                }
+                stmt.execute("SET SESSION cte_max_recursion_depth = " + (Math.max(volume, funcionarios) + 1));
+            }
+
+            String sequencia = "WITH RECURSIVE seq (n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < ?) ";
+            gerar(conexao, "INSERT INTO funcionario (id, nome, cpf, cargo, departamento) " + sequencia +
+                    "SELECT n, CONCAT('Funcionário ', n), LPAD(n, 11, '0'), 'Operador', CONCAT('Depto ', n % 25) FROM seq",
+                    funcionarios);
+            gerar(conexao, "INSERT INTO epi (id, nome, descricao, validade, quantidade) " + sequencia +
+                    "SELECT n, CONCAT('EPI ', n), 'Gerado', CURDATE() + INTERVAL (n % 900) - 30 DAY, 100 FROM seq",
+                    epis);
+            // Um em cada dez empréstimos ativo; datas espalhadas pelos últimos quatro anos
+            gerar(conexao, "INSERT INTO emprestimo (id, id_funcionario, id_epi, data_emprestimo, " +
+                    "data_devolucao_prevista, data_devolucao_real, quantidade, status) " + sequencia +
+                    "SELECT n, 1 + n % " + funcionarios + ", 1 + n % " + epis + ", " +
+                    "CURDATE() - INTERVAL (n % 1460) DAY, CURDATE() - INTERVAL (n % 1460) - 30 DAY, " +
+                    "IF(n % 10 = 0, NULL, CURDATE() - INTERVAL (n % 1460) - 20 DAY), 1, " +
+                    "IF(n % 10 = 0, 'Ativo', 'Devolvido') FROM seq", volume);
+            gerar(conexao, "INSERT INTO emprestimo_historico (id, id_funcionario, id_epi, data_emprestimo, " +
+                    "data_devolucao_prevista, data_devolucao_real, quantidade, status) " + sequencia +
+                    "SELECT n, 1 + n % " + funcionarios + ", 1 + n % " + epis + ", " +
+                    "CURDATE() - INTERVAL (1460 + n % 1460) DAY, CURDATE() - INTERVAL (1460 + n % 1460) - 30 DAY, " +
+                    "CURDATE() - INTERVAL (1460 + n % 1460) - 20 DAY, 1, 'Devolvido' FROM seq", volume);
+
+            try (Statement stmt = conexao.createStatement()) {
+                stmt.execute("ANALYZE TABLE funcionario, epi, emprestimo, emprestimo_historico");
+            }
+        }
+
+        private static void gerar(Connection conexao, String sql, int quantidade) throws SQLException {
+            try (PreparedStatement stmt = conexao.prepareStatement(sql)) {
+                stmt.setInt(1, quantidade);
+                stmt.executeUpdate();
+            }
+        }
+    }
+
+    // ========== SAÚDE DO BANCO ==========
+
+    /**
+     * Mostra o estado de saúde do banco (menu principal e --saude)
+     * @return true se o banco está pronto (ou o monitoramento está desligado)
+     */
+    private static boolean exibirSaudeBanco() {
+        System.out.println("\n" + AZUL + "--- SAÚDE DO BANCO DE DADOS ---" + RESET);
+        System.out.println("Cache de relatórios: " + CACHE_RELATORIOS.estatisticas());
+
+        SaudeBanco.Situacao situacao = SAUDE_BANCO.situacao();
+        if (situacao == null) {
+            System.out.println(AMARELO + "Monitoramento desligado (armazenamento " + ARMAZENAMENTO.descricao() +
+                    " ou -Depi.saude.intervalo=0)." + RESET);
+            return true;
+        }
+
+        String cor = SaudeBanco.PRONTO.equals(situacao.estado) ? VERDE
+                : SaudeBanco.DEGRADADO.equals(situacao.estado) ? AMARELO : VERMELHO;
+        System.out.println("Estado: " + cor + situacao.estado + RESET +
+                (situacao.motivo != null ? " (" + situacao.motivo + ")" : ""));
+        System.out.println("Latência (mediana das últimas amostras): " +
+                (situacao.latenciaMs >= 0 ? situacao.latenciaMs + " ms" : "-"));
+        System.out.println("Conexões no servidor: " + (situacao.maxConexoes > 0
+                ? String.format("%d de %d (%.0f%%)", situacao.conexoes, situacao.maxConexoes, situacao.saturacao() * 100)
+                : "-"));
+        System.out.println("Atraso da réplica: " + (situacao.atrasoReplica == null ? "não configurada"
+                : situacao.atrasoReplica < 0 ? "parada ou inacessível" : situacao.atrasoReplica + " s"));
+        System.out.println("Amostrador: " + (SAUDE_BANCO.vivo() ? "ativo" : VERMELHO + "parado" + RESET) +
+                " - última amostra em " + LocalDateTime.ofInstant(Instant.ofEpochMilli(situacao.medidaEm),
+                ZoneId.systemDefault()).toLocalTime().withNano(0));
+
+        if (SaudeBanco.DEGRADADO.equals(situacao.estado)) {
+            System.out.println(AMARELO + "Relatórios suspensos até o banco normalizar; cadastros e empréstimos seguem normais." + RESET);
+        } else if (SaudeBanco.INDISPONIVEL.equals(situacao.estado)) {
+            System.out.println(VERMELHO + "Relatórios suspensos e escritas desviadas para o modo offline (se houver retrato local)." + RESET);
+        }
+        return SaudeBanco.PRONTO.equals(situacao.estado);
+    }
+
+    /**
+     * Aviso de uma linha no menu principal quando o banco não está pronto
+     */
+    private static void avisarSaudeBanco() {
+        SaudeBanco.Situacao situacao = SAUDE_BANCO.situacao();
+        if (situacao == null || SaudeBanco.PRONTO.equals(situacao.estado)) {
+            return;
+        }
+        if (SaudeBanco.DEGRADADO.equals(situacao.estado)) {
+            System.out.println("\n" + AMARELO + "⚠️ Banco lento (" + situacao.motivo + "): relatórios suspensos." + RESET);
+        } else {
+            System.out.println("\n" + VERMELHO + "⚠️ Banco indisponível (" + situacao.motivo +
+                    "): relatórios suspensos e escritas no modo offline." + RESET);
+        }
+    }
+
+    /**
+     * Indica se relatórios podem consultar o banco agora; se não, avisa o usuário
+     */
+    private static boolean relatoriosLiberados() {
+        SaudeBanco.Situacao situacao = SAUDE_BANCO.situacao();
+        if (situacao == null || SaudeBanco.PRONTO.equals(situacao.estado)) {
+            return true;
+        }
+        System.out.println(AMARELO + "⚠️ Relatórios suspensos: banco " +
+                (SaudeBanco.DEGRADADO.equals(situacao.estado) ? "lento" : "indisponível") +
+                " (" + situacao.motivo + "). Tente novamente em instantes." + RESET);
+        return false;
+    }
+
+    /**
+     * Acompanha a saúde do MySQL em segundo plano. A cada intervalo uma amostra abre uma
+     * conexão (como cada operação do sistema faz) e mede o tempo até o SELECT 1 voltar,
+     * lê Threads_connected e @@max_connections do servidor e, com -Depi.saude.replica=<url JDBC>,
+     * o atraso da réplica (SHOW REPLICA STATUS).
+     *
+     * Estados, do melhor para o pior:
+     * - PRONTO: tudo dentro dos limites
+     * - DEGRADADO: mediana da latência acima de -Depi.saude.latencia (ms), conexões acima de
+     *   -Depi.saude.conexoes (fração do máximo), réplica atrasada além de -Depi.saude.replica.atraso (s)
+     *   ou uma amostra com falha. Os relatórios são suspensos; escritas continuam.
+     * - INDISPONIVEL: falhas seguidas ou mediana acima de -Depi.saude.latencia.critica (ms).
+     *   Além dos relatórios, as escritas passam para o modo offline sem esperar uma conexão falhar.
+     *
+     * Com -Depi.saude.porta=N as sondas ficam em HTTP: /saude/vivo (200 enquanto o amostrador
+     * está em dia), /saude/pronto (200 só quando PRONTO) e /saude (detalhes); todas respondem JSON.
+     * A porta só escuta no loopback, a não ser que -Depi.saude.host indique outro endereço
+     * (ex.: 0.0.0.0 para o orquestrador). O JSON traz o motivo sem a mensagem de erro do driver.
+     */
+    static class SaudeBanco {
+        static final String PRONTO = "PRONTO";
+        static final String DEGRADADO = "DEGRADADO";
+        static final String INDISPONIVEL = "INDISPONIVEL";
+        private static final List<String> GRAVIDADE = List.of(PRONTO, DEGRADADO, INDISPONIVEL);
+
+        private static final long LIMITE_LATENCIA_MS = Long.getLong("epi.saude.latencia", 250);
+        private static final long LIMITE_LATENCIA_CRITICA_MS = Long.getLong("epi.saude.latencia.critica", 2000);
+        private static final double LIMITE_CONEXOES =
+                Double.parseDouble(System.getProperty("epi.saude.conexoes", "0.8"));
+        private static final String URL_REPLICA = System.getProperty("epi.saude.replica");
+        private static final long LIMITE_ATRASO_REPLICA_S = Long.getLong("epi.saude.replica.atraso", 30);
+        private static final String HOST = System.getProperty("epi.saude.host");
+        // Amostras usadas na mediana, falhas seguidas até INDISPONIVEL e tempo limite de cada medição
+        private static final int JANELA = 12;
+        private static final int FALHAS_INDISPONIVEL = 2;
+        private static final int TEMPO_LIMITE_S = 5;
+
+        private final long intervalo;
+        private final int porta;
+        private Thread thread;
+        private HttpServer servidor;
+        private long iniciadoEm;
+        private volatile Situacao situacao;
+
+        // Estado usado só por amostrar()
+        private final long[] latencias = new long[JANELA];
+        private int amostras;
+        private int falhasSeguidas;
+
+        SaudeBanco(long intervalo, int porta) {
+            this.intervalo = intervalo;
+            this.porta = porta;
+        }
+
+        /**
+         * Retrato imutável da última amostra
+         */
+        static class Situacao {
+            final String estado;
+            final String motivo;
+            // Motivo sem a mensagem de erro do driver (usado na resposta HTTP)
+            final String motivoPublico;
+            final long latenciaMs;
+            final int conexoes;
+            final int maxConexoes;
+            final Long atrasoReplica;
+            final long medidaEm;
+
+            Situacao(String estado, String motivo, String motivoPublico, long latenciaMs, int conexoes,
+                     int maxConexoes, Long atrasoReplica, long medidaEm) {
+                this.estado = estado;
+                this.motivo = motivo;
+                this.motivoPublico = motivoPublico;
+                this.latenciaMs = latenciaMs;
+                this.conexoes = conexoes;
+                this.maxConexoes = maxConexoes;
+                this.atrasoReplica = atrasoReplica;
+                this.medidaEm = medidaEm;
+            }
+
+            double saturacao() {
+                return maxConexoes > 0 ? (double) conexoes / maxConexoes : 0;
+            }
+        }
+
+        /**
+         * Inicia o amostrador (só com o MySQL) e, se configurada, a porta HTTP das sondas.
+         * Chamadas repetidas são ignoradas.
+         */
+        synchronized void iniciar() {
+            if (thread == null && intervalo > 0 && usandoMySQL()) {
+                iniciadoEm = System.currentTimeMillis();
+                thread = new Thread(this::executar, "saude-banco");
+                thread.setDaemon(true);
+                thread.start();
+            }
+
+            if (servidor == null && porta > 0) {
+                try {
+                    InetSocketAddress endereco = HOST != null ? new InetSocketAddress(HOST, porta)
+                            : new InetSocketAddress(InetAddress.getLoopbackAddress(), porta);
+                    servidor = HttpServer.create(endereco, 0);
+                    servidor.createContext("/saude/vivo", troca -> responder(troca, vivo()));
+                    servidor.createContext("/saude/pronto", troca -> responder(troca, vivo() && PRONTO.equals(estado())));
+                    servidor.createContext("/saude", troca -> responder(troca, true));
+                    servidor.start();
+                } catch (IOException e) {
+                    servidor = null;
+                    System.err.println(VERMELHO + "Erro ao abrir a porta " + porta + " das sondas de saúde: " +
+                            e.getMessage() + RESET);
+                }
+            }
+        }
+
+        private void executar() {
+            while (true) {
+                amostrar();
+                try {
+                    Thread.sleep(intervalo);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Situação atual, ou null se o monitoramento está desligado. Sem o amostrador
+         * (execuções sem menu) mede na hora quando a última amostra já venceu.
+         */
+        Situacao situacao() {
+            if (intervalo <= 0 || !usandoMySQL()) {
+                return null;
+            }
+            Situacao atual = situacao;
+            if (thread == null && (atual == null || System.currentTimeMillis() - atual.medidaEm > intervalo)) {
+                atual = amostrar();
+            }
+            return atual;
+        }
+
+        String estado() {
+            Situacao atual = situacao();
+            return atual != null ? atual.estado : PRONTO;
+        }
+
+        boolean indisponivel() {
+            return INDISPONIVEL.equals(estado());
+        }
+
+        /**
+         * Vivo enquanto o amostrador roda e a última amostra não passou muito do intervalo
+         * (uma amostra presa além dos tempos limite indica a thread travada)
+         */
+        boolean vivo() {
+            if (thread == null) {
+                return true;
+            }
+            Situacao atual = situacao;
+            long referencia = atual != null ? atual.medidaEm : iniciadoEm;
+            return thread.isAlive()
+                    && System.currentTimeMillis() - referencia <= 3 * intervalo + 2 * TEMPO_LIMITE_S * 1000L;
+        }
+
+        /**
+         * Mede o banco uma vez e recalcula o estado
+         */
+        synchronized Situacao amostrar() {
+            String erro = null;
+            int conexoes = -1;
+            int maximo = -1;
+
+            Properties propriedades = new Properties();
+            propriedades.setProperty("user", USUARIO);
+            propriedades.setProperty("password", SENHA);
+            propriedades.setProperty("connectTimeout", String.valueOf(TEMPO_LIMITE_S * 1000));
+            propriedades.setProperty("socketTimeout", String.valueOf(TEMPO_LIMITE_S * 1000));
+
+            long inicio = System.nanoTime();
+            try (Connection conexao = DriverManager.getConnection(URL, propriedades);
+                 Statement stmt = conexao.createStatement()) {
+                try (ResultSet rs = stmt.executeQuery("SELECT 1")) {
+                    rs.next();
+                }
+                latencias[amostras++ % JANELA] = (System.nanoTime() - inicio) / 1_000_000;
+                falhasSeguidas = 0;
+
+                try {
+                    try (ResultSet rs = stmt.executeQuery("SHOW GLOBAL STATUS LIKE 'Threads_connected'")) {
+                        if (rs.next()) {
+                            conexoes = rs.getInt(2);
+                        }
+                    }
+                    try (ResultSet rs = stmt.executeQuery("SELECT @@max_connections")) {
+                        if (rs.next()) {
+                            maximo = rs.getInt(1);
+                        }
+                    }
+                } catch (SQLException e) {
+                    // Sem permissão para ler o servidor: fica só a latência
+                }
+            } catch (SQLException e) {
+                falhasSeguidas++;
+                // Só a primeira linha: a mensagem vai para o menu e para o JSON das sondas
+                erro = String.valueOf(e.getMessage()).lines().findFirst().orElse("");
+            }
+
+            Long atrasoReplica = URL_REPLICA != null ? medirReplica(propriedades) : null;
+            situacao = avaliar(erro, conexoes, maximo, atrasoReplica);
+            return situacao;
+        }
+
+        private Situacao avaliar(String erro, int conexoes, int maximo, Long atrasoReplica) {
+            long latencia = mediana();
+            String estado = PRONTO;
+            List<String> motivos = new ArrayList<>();
+            String falha = null;
+
+            if (falhasSeguidas >= FALHAS_INDISPONIVEL) {
+                estado = INDISPONIVEL;
+                falha = "sem conexão";
+            } else if (falhasSeguidas > 0) {
+                estado = DEGRADADO;
+                falha = "falha na última amostra";
+            }
+
+            if (latencia > LIMITE_LATENCIA_CRITICA_MS) {
+                estado = pior(estado, INDISPONIVEL);
+                motivos.add("latência de " + latencia + " ms");
+            } else if (latencia > LIMITE_LATENCIA_MS) {
+                estado = pior(estado, DEGRADADO);
+                motivos.add("latência de " + latencia + " ms");
+            }
+
+            if (maximo > 0 && (double) conexoes / maximo > LIMITE_CONEXOES) {
+                estado = pior(estado, DEGRADADO);
+                motivos.add(conexoes + " de " + maximo + " conexões em uso");
+            }
+
+            if (atrasoReplica != null && atrasoReplica < 0) {
+                estado = pior(estado, DEGRADADO);
+                motivos.add("réplica parada ou inacessível");
+            } else if (atrasoReplica != null && atrasoReplica > LIMITE_ATRASO_REPLICA_S) {
+                estado = pior(estado, DEGRADADO);
+                motivos.add("réplica " + atrasoReplica + " s atrasada");
+            }
+
+            List<String> publicos = new ArrayList<>(motivos);
+            if (falha != null) {
+                motivos.add(0, falha + ": " + erro);
+                publicos.add(0, falha);
+            }
+            return new Situacao(estado, motivos.isEmpty() ? null : String.join("; ", motivos),
+                    publicos.isEmpty() ? null : String.join("; ", publicos), latencia,
+                    conexoes, maximo, atrasoReplica, System.currentTimeMillis());
+        }
+
+        private static String pior(String a, String b) {
+            return GRAVIDADE.indexOf(a) >= GRAVIDADE.indexOf(b) ? a : b;
+        }
+
+        /**
+         * Mediana das latências guardadas (-1 se ainda não houve amostra com sucesso);
+         * uma consulta lenta isolada não muda o estado
+         */
+        private long mediana() {
+            int total = Math.min(amostras, JANELA);
+            if (total == 0) {
+                return -1;
+            }
+            long[] ordenadas = Arrays.copyOf(latencias, total);
+            Arrays.sort(ordenadas);
+            return ordenadas[total / 2];
+        }
+
+        /**
+         * Atraso da réplica em segundos, ou -1 se ela não responde ou a replicação está parada
+         */
+        private static Long medirReplica(Properties propriedades) {
+            try (Connection conexao = DriverManager.getConnection(URL_REPLICA, propriedades);
+                 Statement stmt = conexao.createStatement()) {
+                try {
+                    return atrasoReplica(stmt, "SHOW REPLICA STATUS", "Seconds_Behind_Source");
+                } catch (SQLException e) {
+                    // Servidores anteriores ao MySQL 8.0.22
+                    return atrasoReplica(stmt, "SHOW SLAVE STATUS", "Seconds_Behind_Master");
+                }
+            } catch (SQLException e) {
+                return -1L;
+            }
+        }
+
+        private static Long atrasoReplica(Statement stmt, String sql, String coluna) throws SQLException {
+            try (ResultSet rs = stmt.executeQuery(sql)) {
+                if (!rs.next()) {
+                    return -1L;
+                }
+                long atraso = rs.getLong(coluna);
+                return rs.wasNull() ? -1L : atraso;
+            }
+        }
+
+        private void responder(HttpExchange troca, boolean ok) throws IOException {
+            Situacao atual = situacao();
+            StringBuilder json = new StringBuilder("{\"vivo\":").append(vivo())
+                    .append(",\"estado\":\"").append(atual != null ? atual.estado : PRONTO).append('"');
+            if (atual != null) {
+                json.append(",\"motivo\":").append(atual.motivoPublico != null
+                                ? '"' + atual.motivoPublico.replace("\\", "\\\\").replace("\"", "\\\"")
+                                .replace("\n", "\\n").replace("\r", "\\r") + '"' : "null")
+                        .append(",\"latencia_ms\":").append(atual.latenciaMs)
+                        .append(",\"conexoes\":").append(atual.conexoes)
+                        .append(",\"max_conexoes\":").append(atual.maxConexoes)
+                        .append(",\"atraso_replica_s\":").append(atual.atrasoReplica)
+                        .append(",\"medido_em\":").append(atual.medidaEm);
+            }
+            byte[] corpo = json.append("}\n").toString().getBytes(StandardCharsets.UTF_8);
+
+            troca.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            troca.sendResponseHeaders(ok ? 200 : 503, corpo.length);
+            try (OutputStream saida = troca.getResponseBody()) {
+                saida.write(corpo);
+            }
+        }
+    }
+
+    // ========== PAINEL DO MENU PRINCIPAL ==========
+
+    /**
+     * Exibe no topo do menu principal os números operacionais do momento
+     */
+    private static void exibirPainel() {
+        ResumoPainel resumo = obterResumoPainel();
+        if (resumo == null) {
+            return;
+        }
+
+        System.out.println("\n" + CIANO + "----------------------------------------------" + RESET);
+        System.out.printf("Empréstimos ativos: %-6d Atrasados: %s%n",
+                resumo.emprestimosAtivos,
+                resumo.emprestimosAtrasados > 0 ? VERMELHO + resumo.emprestimosAtrasados + RESET : "0");
+        System.out.printf("EPIs vencendo em 30 dias: %-6s EPIs vencidos em estoque: %s%n",
+                resumo.episVencendo > 0 ? AMARELO + resumo.episVencendo + RESET : "0",
+                resumo.episVencidos > 0 ? VERMELHO + resumo.episVencidos + RESET : "0");
+        System.out.printf("EPIs sem estoque: %s%n",
+                resumo.episSemEstoque > 0 ? AMARELO + resumo.episSemEstoque + RESET : "0");
+        System.out.println(CIANO + "----------------------------------------------" + RESET);
+    }
+
+    /**
+     * Retorna o resumo do painel, consultando o banco apenas quando o cache expirou
+     * ou foi invalidado por alguma operação de escrita
+     * @return Resumo atual, ou null se não foi possível consultar o banco
+     */
+    private static synchronized ResumoPainel obterResumoPainel() {
+        long agora = System.currentTimeMillis();
+        if (resumoPainel != null && agora - resumoPainel.calculadoEm < VALIDADE_CACHE_PAINEL_MS) {
+            return resumoPainel;
+        }
+        // Banco sob pressão: mantém o último resumo (ou nenhum) em vez de consultar
+        if (!SaudeBanco.PRONTO.equals(SAUDE_BANCO.estado())) {
+            return resumoPainel;
+        }
+
+        try {
+            resumoPainel = ARMAZENAMENTO.resumoPainel(LocalDate.now());
+        } catch (SQLException e) {
+            System.err.println(VERMELHO + "Erro ao carregar o painel: " + e.getMessage() + RESET);
+        }
+        return resumoPainel;
+    }
+
+    /**
+     * Descarta o resumo em cache para que o próximo menu mostre números atualizados
+     */
+    private static synchronized void invalidarPainel() {
+        resumoPainel = null;
+    }
+
+    /**
+     * Contadores exibidos no painel do menu principal
+     */
+    static class ResumoPainel {
+        final int emprestimosAtivos;
+        final int emprestimosAtrasados;
+        final int episVencendo;
+        final int episVencidos;
+        final int episSemEstoque;
+        final long calculadoEm;
+
+        ResumoPainel(int emprestimosAtivos, int emprestimosAtrasados, int episVencendo,
+                     int episVencidos, int episSemEstoque, long calculadoEm) {
+            this.emprestimosAtivos = emprestimosAtivos;
+            this.emprestimosAtrasados = emprestimosAtrasados;
+            this.episVencendo = episVencendo;
+            this.episVencidos = episVencidos;
+            this.episSemEstoque = episSemEstoque;
+            this.calculadoEm = calculadoEm;
+        }
+    }
+
+    // ========== CACHE DE RELATÓRIOS ==========
+
+    /**
+     * Resultados de relatórios em memória, válidos enquanto as tabelas de que dependem
+     * não mudam.
+     *
+     * Cada tabela tem um contador de versão, incrementado pelos caminhos de escrita
+     * (os mesmos que invalidam o painel). Uma entrada guarda as versões lidas antes da
+     * consulta; se alguma tabela mudou desde então (inclusive durante a consulta), a
+     * entrada é ignorada e a consulta roda de novo. As entradas são limitadas a
+     * capacidade (-Depi.cache.relatorios), descartando a usada há mais tempo (LRU).
+     *
+     * Os resultados são compartilhados entre as exibições: quem os recebe não deve
+     * modificá-los.
+     */
+    static class CacheRelatorios {
+        private final int capacidade;
+        private final Map<String, AtomicLong> versoes = new ConcurrentHashMap<>();
+        private final LinkedHashMap<String, Entrada> entradas;
+        private long acertos;
+        private long falhas;
+
+        /**
+         * Resultado em cache e versões das tabelas quando foi consultado
+         */
+        private static class Entrada {
+            final Object valor;
+            final long[] versoes;
+
+            Entrada(Object valor, long[] versoes) {
+                this.valor = valor;
+                this.versoes = versoes;
+            }
+        }
+
+        CacheRelatorios(int capacidade) {
+            this.capacidade = capacidade;
+            // Ordem de acesso: a primeira entrada é a menos usada recentemente
+            this.entradas = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entrada> maisAntiga) {
+                    return size() > CacheRelatorios.this.capacidade;
+                }
+            };
+        }
+
+        /**
+         * Retorna o resultado em cache ou, se alguma tabela mudou, executa o relatório
+         * (em segundo plano e cancelável, ver ExecucaoRelatorio) e guarda o resultado
+         * @param relatorio Nome curto do relatório
+         * @param tabelas Tabelas lidas pelo relatório
+         * @param consulta Busca dos dados
+         * @param parametros Parâmetros que distinguem resultados do mesmo relatório
+         * @return O resultado, ou null se o usuário cancelou
+         */
+        <T> T consultar(String relatorio, List<String> tabelas, ExecucaoRelatorio.Consulta<T> consulta,
+                        Object... parametros) throws SQLException {
+            String chave = parametros.length == 0 ? relatorio : relatorio + Arrays.deepToString(parametros);
+            long[] atuais = new long[tabelas.size()];
+            for (int i = 0; i < atuais.length; i++) {
+                atuais[i] = versao(tabelas.get(i)).get();
+            }
+
+            synchronized (this) {
+                Entrada entrada = entradas.get(chave);
+                if (entrada != null && Arrays.equals(entrada.versoes, atuais)) {
+                    acertos++;
+                    @SuppressWarnings("unchecked")
+                    T valor = (T) entrada.valor;
+                    return valor;
+                }
+                falhas++;
+            }
+
+            T valor = ExecucaoRelatorio.executar(relatorio, consulta);
+            if (valor != null && capacidade > 0) {
+                synchronized (this) {
+                    entradas.put(chave, new Entrada(valor, atuais));
+                }
+            }
+            return valor;
+        }
+
+        /**
+         * Registra uma escrita: os resultados que dependem dessas tabelas deixam de valer
+         * @param tabelas Nomes das tabelas alteradas (epi, funcionario, emprestimo)
+         */
+        void alterou(String... tabelas) {
+            for (String tabela : tabelas) {
+                versao(tabela).incrementAndGet();
+            }
+        }
+
+        /**
+         * Descarta tudo (ex.: ao sair do modo offline, quando a fila foi reenviada)
+         */
+        synchronized void limpar() {
+            for (AtomicLong versao : versoes.values()) {
+                versao.incrementAndGet();
+            }
+            entradas.clear();
+        }
+
+        /** Texto para diagnóstico: entradas, acertos e consultas ao banco */
+        synchronized String estatisticas() {
+            return entradas.size() + "/" + capacidade + " entradas, " + acertos + " acertos, " + falhas + " consultas";
+        }
+
+        private AtomicLong versao(String tabela) {
+            return versoes.computeIfAbsent(tabela, t -> new AtomicLong());
+        }
+    }
+
+    // ========== COERÊNCIA ENTRE INSTÂNCIAS ==========
+
+    /**
+     * Relê do banco tudo o que fica em memória: índices de busca, empréstimos ativos,
+     * filtro de CPFs, relatórios em cache e painel. Usado ao sair do modo offline e
+     * quando as alterações de outras instâncias não puderem ser aplicadas uma a uma.
+     */
+    private static void recarregarCaches() {
+        INDICE_FUNCIONARIOS.limpar();
+        INDICE_EPIS.limpar();
+        carregarIndicesBusca();
+        carregarIndiceEmprestimosAtivos();
+        carregarFiltroCpfs();
+        CACHE_RELATORIOS.limpar();
+        invalidarPainel();
+    }
+
+    /**
+     * Acompanha registro_alteracao para manter os caches desta instância coerentes com
+     * as escritas feitas pelas outras (e pelas procedures e triggers).
+     *
+     * Uma thread em segundo plano consulta a tabela a cada INTERVALO_ALTERACOES_MS,
+     * pedindo só as linhas com seq acima da marca (a maior já aplicada). Os IDs lidos
+     * são relidos em lote e atualizados um a um nos índices de busca, no índice de
+     * empréstimos ativos e no filtro de CPFs; o cache de relatórios e o painel são
+     * invalidados pela tabela. Aplicar de novo uma alteração já conhecida (inclusive
+     * as desta instância) não muda nada, então repetições são inofensivas.
+     *
+     * Um seq é reservado no INSERT mas só aparece no COMMIT, então uma transação lenta
+     * pode ficar visível depois de outra com seq maior. Os números pulados viram
+     * lacunas, consultadas de novo a cada ciclo por até ESPERA_LACUNA_MS (depois disso
+     * a transação é considerada desfeita). Se as lacunas passam de LIMITE_LACUNAS, tudo
+     * é recarregado.
+     */
+    static class MonitorAlteracoes {
+        // Linhas lidas por consulta, e IDs por IN (...) ao reler os registros alterados
+        private static final int LOTE = 5_000;
+        private static final int LOTE_IDS = 1_000;
+        private static final String SELECT_ALTERACOES =
+                "SELECT seq, entidade, id_registro FROM registro_alteracao WHERE seq > ? ORDER BY seq LIMIT " + LOTE;
+        private static final long ESPERA_LACUNA_MS = 60_000;
+        private static final int LIMITE_LACUNAS = 10_000;
+        // Limpeza de linhas antigas de registro_alteracao (feita por qualquer instância)
+        private static final long INTERVALO_LIMPEZA_MS = 60 * 60 * 1000;
+        private static final int RETENCAO_HORAS = 24;
+
+        private final long intervalo;
+        private Thread thread;
+
+        // Estado usado só pela thread do monitor
+        private long marca = -1;
+        private final TreeMap<Long, Long> lacunas = new TreeMap<>();
+        private long ultimaLimpeza = System.currentTimeMillis();
+
+        MonitorAlteracoes(long intervalo) {
+            this.intervalo = intervalo;
+        }
+
+        /**
+         * Inicia a thread do monitor (só com o MySQL; chamadas repetidas são ignoradas)
+         */
+        synchronized void iniciar() {
+            if (thread != null || intervalo <= 0 || !usandoMySQL()) {
+                return;
+            }
+            thread = new Thread(this::executar, "monitor-alteracoes");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void executar() {
+            while (true) {
+                try {
+                    Thread.sleep(intervalo);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (MODO_OFFLINE.ativo()) {
+                    continue;
+                }
+
+                try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA)) {
+                    verificar(conexao);
+                } catch (SQLException e) {
+                    if ("42S02".equals(e.getSQLState())) {
+                        System.err.println(AMARELO + "\nTabela registro_alteracao não encontrada: os caches não serão " +
+                                "atualizados com as alterações de outras instâncias (execute o script do banco)." + RESET);
+                        return;
+                    }
+                    // Banco indisponível: tenta de novo no próximo ciclo
+                }
+            }
+        }
+
+        /**
+         * Lê as alterações novas (e as lacunas pendentes) e as aplica nos caches
+         */
+        void verificar(Connection conexao) throws SQLException {
+            if (marca < 0) {
+                marca = marcaInicial(conexao);
+                return;
+            }
+
+            long agora = System.currentTimeMillis();
+            Set<Integer> epis = new HashSet<>();
+            Set<Integer> funcionarios = new HashSet<>();
+            Set<Integer> emprestimos = new HashSet<>();
+            boolean recarregar = false;
+
+            if (!lacunas.isEmpty()) {
+                List<Long> pendentes = new ArrayList<>(lacunas.keySet());
+                for (int inicio = 0; inicio < pendentes.size(); inicio += LOTE_IDS) {
+                    List<Long> lote = pendentes.subList(inicio, Math.min(pendentes.size(), inicio + LOTE_IDS));
+                    String sql = "SELECT seq, entidade, id_registro FROM registro_alteracao WHERE seq IN (" +
+                            String.join(", ", Collections.nCopies(lote.size(), "?")) + ")";
+                    try (PreparedStatement stmt = conexao.prepareStatement(sql)) {
+                        for (int i = 0; i < lote.size(); i++) {
+                            stmt.setLong(i + 1, lote.get(i));
+                        }
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            while (rs.next()) {
+                                lacunas.remove(rs.getLong("seq"));
+                                separar(rs.getString("entidade"), rs.getInt("id_registro"), epis, funcionarios, emprestimos);
+                            }
+                        }
+                    }
+                }
+                lacunas.values().removeIf(notadaEm -> agora - notadaEm > ESPERA_LACUNA_MS);
+            }
+
+            try (PreparedStatement stmt = conexao.prepareStatement(SELECT_ALTERACOES)) {
+                int lidas;
+                do {
+                    lidas = 0;
+                    stmt.setLong(1, marca);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            lidas++;
+                            long seq = rs.getLong("seq");
+                            if (seq - marca - 1 > LIMITE_LACUNAS - lacunas.size()) {
+                                recarregar = true;
+                            } else {
+                                for (long ausente = marca + 1; ausente < seq; ausente++) {
+                                    lacunas.put(ausente, agora);
+                                }
+                            }
+                            marca = seq;
+                            separar(rs.getString("entidade"), rs.getInt("id_registro"), epis, funcionarios, emprestimos);
+                        }
+                    }
+                } while (lidas == LOTE);
+            }
+
+            if (recarregar) {
+                lacunas.clear();
+                recarregarCaches();
+            } else {
+                aplicar(conexao, epis, funcionarios, emprestimos);
+            }
+
+            if (agora - ultimaLimpeza > INTERVALO_LIMPEZA_MS) {
+                ultimaLimpeza = agora;
+                try (PreparedStatement stmt = conexao.prepareStatement(
+                        "DELETE FROM registro_alteracao WHERE registrado_em < NOW() - INTERVAL ? HOUR LIMIT 10000")) {
+                    stmt.setInt(1, RETENCAO_HORAS);
+                    stmt.executeUpdate();
+                }
+            }
+        }
+
+        /**
+         * Ponto de partida: volta ESPERA_LACUNA_MS no registro, para reaplicar o que
+         * possa ter mudado enquanto os caches eram carregados na inicialização
+         */
+        private static long marcaInicial(Connection conexao) throws SQLException {
+            try (PreparedStatement stmt = conexao.prepareStatement(
+                    "SELECT COALESCE((SELECT MIN(seq) - 1 FROM registro_alteracao " +
+                    "WHERE registrado_em >= NOW() - INTERVAL ? SECOND), " +
+                    "(SELECT MAX(seq) FROM registro_alteracao), 0)")) {
+                stmt.setLong(1, ESPERA_LACUNA_MS / 1000);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    rs.next();
+                    return rs.getLong(1);
+                }
+            }
+        }
+
+        private static void separar(String entidade, int id, Set<Integer> epis, Set<Integer> funcionarios,
+                                    Set<Integer> emprestimos) {
+            switch (entidade) {
+                case "epi":
+                    epis.add(id);
+                    break;
+                case "funcionario":
+                    funcionarios.add(id);
+                    break;
+                case "emprestimo":
+                    emprestimos.add(id);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * Relê os registros alterados e atualiza só as entradas correspondentes
+         */
+        private static void aplicar(Connection conexao, Set<Integer> epis, Set<Integer> funcionarios,
+                                    Set<Integer> emprestimos) throws SQLException {
+            if (!epis.isEmpty()) {
+                Set<Integer> removidos = new HashSet<>(epis);
+                reler(conexao, "SELECT id, nome, descricao FROM epi", epis, rs -> {
+                    removidos.remove(rs.getInt("id"));
+                    indexarEPI(rs.getInt("id"), rs.getString("nome"), rs.getString("descricao"));
+                });
+                for (int id : removidos) {
+                    INDICE_EPIS.remover(id);
+                }
+                CACHE_RELATORIOS.alterou("epi");
+            }
+
+            if (!funcionarios.isEmpty()) {
+                Set<Integer> removidos = new HashSet<>(funcionarios);
+                FiltroBloom filtro = filtroCpfs;
+                reler(conexao, "SELECT id, nome, cpf, cargo FROM funcionario", funcionarios, rs -> {
+                    removidos.remove(rs.getInt("id"));
+                    indexarFuncionario(rs.getInt("id"), rs.getString("nome"), rs.getString("cpf"), rs.getString("cargo"));
+                    // CPFs antigos de atualizações ficam no filtro: só geram falso positivo
+                    if (filtro != null && !filtro.talvezContenha(rs.getString("cpf"))) {
+                        filtro.adicionar(rs.getString("cpf"));
+                    }
+                });
+                for (int id : removidos) {
+                    INDICE_FUNCIONARIOS.remover(id);
+                }
+                if (filtro != null && !filtro.dentroDaCapacidade()) {
+                    carregarFiltroCpfs();
+                }
+                CACHE_RELATORIOS.alterou("funcionario");
+            }
+
+            if (!emprestimos.isEmpty()) {
+                Set<Integer> removidos = new HashSet<>(emprestimos);
+                String colunas = "id, id_funcionario, id_epi, status, quantidade, data_emprestimo";
+                reler(conexao, "SELECT " + colunas + " FROM emprestimo", emprestimos, rs -> {
+                    removidos.remove(rs.getInt("id"));
+                    INDICE_EMPRESTIMOS_ATIVOS.sincronizar(rs.getInt("id"), rs.getInt("id_funcionario"),
+                            rs.getInt("id_epi"), Emprestimo.ATIVO.equals(rs.getString("status")));
+                    // Empréstimos novos de qualquer instância (os já contados são ignorados)
+                    MAIS_EMPRESTADOS.registrar(rs.getInt("id"), rs.getInt("id_funcionario"), rs.getInt("id_epi"),
+                            rs.getInt("quantidade"), rs.getDate("data_emprestimo").toLocalDate());
+                });
+                for (int id : removidos) {
+                    INDICE_EMPRESTIMOS_ATIVOS.remover(id);
+                }
+                CACHE_RELATORIOS.alterou("emprestimo");
+            }
+
+            if (!epis.isEmpty() || !emprestimos.isEmpty()) {
+                invalidarPainel();
+            }
+        }
+
+        /**
+         * Tratamento de uma linha relida
+         */
+        private interface Linha {
+            void ler(ResultSet rs) throws SQLException;
+        }
+
+        private static void reler(Connection conexao, String select, Set<Integer> ids, Linha linha) throws SQLException {
+            List<Integer> lista = new ArrayList<>(ids);
+            for (int inicio = 0; inicio < lista.size(); inicio += LOTE_IDS) {
+                List<Integer> lote = lista.subList(inicio, Math.min(lista.size(), inicio + LOTE_IDS));
+                String sql = select + " WHERE id IN (" + String.join(", ", Collections.nCopies(lote.size(), "?")) + ")";
+                try (PreparedStatement stmt = conexao.prepareStatement(sql)) {
+                    for (int i = 0; i < lote.size(); i++) {
+                        stmt.setInt(i + 1, lote.get(i));
+                    }
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            linha.ler(rs);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // ========== RENDERIZAÇÃO DE TABELAS ==========
+
+    /**
+     * Renderizador de tabelas para o console.
+     *
+     * As linhas são formatadas em um buffer reaproveitado (um por thread) e enviadas
+     * ao terminal em blocos grandes, em vez de um printf por linha. Textos coloridos
+     * (ANSI) ficam em cache e são alinhados pelo tamanho visível, e colunas longas
+     * são truncadas para não quebrar o layout. Opcionalmente pagina a saída.
+     *
+     * Uso: crie no try-with-resources, defina as colunas, chame cabecalho() e
+     * linha(...) para cada registro; o fechamento descarrega o que restou no buffer.
+     */
+    static class TabelaConsole implements AutoCloseable {
+        // Tamanho a partir do qual o buffer é descarregado no terminal
+        private static final int LIMITE_BUFFER = 64 * 1024;
+        // Quantidade máxima de textos coloridos mantidos em cache
+        private static final int LIMITE_CACHE_CORES = 1024;
+
+        private static final ThreadLocal<StringBuilder> BUFFERS =
+                ThreadLocal.withInitial(() -> new StringBuilder(LIMITE_BUFFER + 4096));
+        private static final Map<String, TextoColorido> CACHE_CORES = new ConcurrentHashMap<>();
+
+        // Paginação (desligada quando linhasPorPagina <= 0)
+        private static Scanner scannerPaginacao;
+        private static int linhasPorPagina;
+
+        private final PrintStream destino;
+        // Códigos ANSI só no terminal; em arquivos os textos coloridos saem sem cor
+        private final boolean cores;
+        private final StringBuilder buffer;
+        private final List<String> titulos = new ArrayList<>();
+        private final List<Integer> larguras = new ArrayList<>();
+        private final boolean paginar;
+        private int linhasNaPagina;
+        private boolean interrompida;
+
+        /**
+         * Cria uma tabela que escreve no console
+         */
+        TabelaConsole() {
+            this(System.out);
+        }
+
+        /**
+         * Cria uma tabela que escreve no destino informado (ex.: arquivo de relatório)
+         * @param destino Onde as linhas serão escritas
+         */
+        TabelaConsole(PrintStream destino) {
+            this.destino = destino;
+            this.cores = destino == System.out || destino == System.err;
+            this.buffer = BUFFERS.get();
+            this.buffer.setLength(0);
+            this.paginar = destino == System.out && linhasPorPagina > 0 && scannerPaginacao != null;
+        }
+
+        /**
+         * Liga a paginação das tabelas exibidas no console
+         * @param scanner Scanner usado para aguardar o ENTER do usuário
+         * @param linhas Linhas por página (0 desliga a paginação)
+         */
+        static void configurarPaginacao(Scanner scanner, int linhas) {
+            scannerPaginacao = scanner;
+            linhasPorPagina = linhas;
+        }
+
+        /**
+         * Retorna um texto colorido, reaproveitando a versão já montada quando possível
+         * @param cor Código ANSI da cor
+         * @param texto Texto visível
+         */
+        static TextoColorido colorido(String cor, String texto) {
+            String chave = cor + texto;
+            TextoColorido existente = CACHE_CORES.get(chave);
+            if (existente != null) {
+                return existente;
+            }
+            if (CACHE_CORES.size() >= LIMITE_CACHE_CORES) {
+                CACHE_CORES.clear();
+            }
+            TextoColorido novo = new TextoColorido(cor, texto);
+            CACHE_CORES.put(chave, novo);
+            return novo;
+        }
+
+        /**
+         * Adiciona uma coluna
+         * @param titulo Título exibido no cabeçalho
+         * @param largura Largura em caracteres (0 = sem limite, apenas para a última coluna)
+         */
+        TabelaConsole coluna(String titulo, int largura) {
+            titulos.add(titulo);
+            larguras.add(largura > 0 ? Math.max(largura, titulo.length()) : 0);
+            return this;
+        }
+
+        /**
+         * Escreve a linha de títulos e o separador
+         */
+        TabelaConsole cabecalho() {
+            int larguraTotal = 0;
+            for (int i = 0; i < titulos.size(); i++) {
+                anexarCelula(titulos.get(i), i);
+                larguraTotal += Math.max(larguras.get(i), titulos.get(i).length()) + 1;
+            }
+            buffer.append('\n');
+            for (int i = 1; i < larguraTotal; i++) {
+                buffer.append('-');
+            }
+            buffer.append('\n');
+            return this;
+        }
+
+        /**
+         * Escreve uma linha da tabela. Valores nulos aparecem em branco e valores
+         * criados por colorido(...) são alinhados pelo texto visível.
+         * @param valores Um valor por coluna, na ordem em que foram definidas
+         */
+        void linha(Object... valores) {
+            if (interrompida) {
+                return;
+            }
+
+            for (int i = 0; i < valores.length; i++) {
+                anexarCelula(valores[i], i);
+            }
+            buffer.append('\n');
+
+            if (paginar && ++linhasNaPagina >= linhasPorPagina) {
+                linhasNaPagina = 0;
+                descarregar();
+                System.out.print(AMARELO + "-- ENTER para continuar, Q para parar --" + RESET);
+                if (scannerPaginacao.nextLine().trim().equalsIgnoreCase("Q")) {
+                    interrompida = true;
+                }
+            } else if (buffer.length() >= LIMITE_BUFFER) {
+                descarregar();
+            }
+        }
+
+        /**
+         * Indica se o usuário pediu para parar a listagem durante a paginação;
+         * o chamador pode usar isso para parar de ler o ResultSet
+         */
+        boolean interrompida() {
+            return interrompida;
+        }
+
+        @Override
+        public void close() {
+            descarregar();
+        }
+
+        private void anexarCelula(Object valor, int coluna) {
+            if (coluna > 0) {
+                buffer.append(' ');
+            }
+
+            int largura = coluna < larguras.size() ? larguras.get(coluna) : 0;
+            boolean ultima = coluna >= larguras.size() - 1;
+
+            TextoColorido colorido = valor instanceof TextoColorido ? (TextoColorido) valor : null;
+            String texto = colorido != null ? colorido.texto : valor == null ? "" : valor.toString();
+            if (!cores) {
+                colorido = null;
+            }
+
+            if (largura > 0 && texto.length() > largura) {
+                texto = texto.substring(0, largura - 1) + "…";
+                buffer.append(colorido != null ? colorido.cor + texto + RESET : texto);
+            } else if (colorido != null) {
+                buffer.append(colorido.formatado);
+            } else {
+                buffer.append(texto);
+            }
+
+            if (!ultima) {
+                for (int i = texto.length(); i < largura; i++) {
+                    buffer.append(' ');
+                }
+            }
+        }
+
+        private void descarregar() {
+            if (buffer.length() > 0) {
+                destino.append(buffer);
+                destino.flush();
+                buffer.setLength(0);
+            }
+        }
+
+        /**
+         * Texto com cor ANSI já montada; o tamanho visível é o do texto sem os códigos
+         */
+        static class TextoColorido {
+            final String cor;
+            final String texto;
+            final String formatado;
+
+            TextoColorido(String cor, String texto) {
+                this.cor = cor;
+                this.texto = texto;
+                this.formatado = cor + texto + RESET;
+            }
+
+            @Override
+            public String toString() {
+                return formatado;
+            }
+        }
+    }
+
+    // ========== EXECUÇÃO CANCELÁVEL DE RELATÓRIOS ==========
+
+    /**
+     * Executa a consulta de um relatório em segundo plano, sem travar o terminal.
+     *
+     * Enquanto a consulta roda, a thread do menu mostra o tempo decorrido e aceita
+     * C + ENTER para cancelar. As linhas são lidas pelo Scanner do menu, só quando a
+     * EntradaConsole já tem uma linha inteira (então a leitura não bloqueia); as que não
+     * são "C" voltam para a entrada e chegam ao menu depois do relatório. O cancelamento chama Statement.cancel() na consulta em
+     * andamento, e o Connector/J aborta a query também no servidor (KILL QUERY). Toda
+     * consulta feita pelos repositórios dentro da execução recebe o tempo limite do
+     * relatório (epi.relatorio.timeout, ou epi.relatorio.timeout.<chave> para um só).
+     *
+     * A exibição continua na thread do menu (e com a paginação): só a busca dos dados
+     * vai para a thread do relatório. Sem scanner configurado (ex.: execução agendada)
+     * a consulta roda na própria thread, apenas com o tempo limite.
+     */
+    static class ExecucaoRelatorio {
+        // Intervalo de atualização do indicador de progresso
+        private static final long INTERVALO_PROGRESSO_MS = 250;
+        private static final char[] GIRO = {'|', '/', '-', '\\'};
+
+        private static final ThreadLocal<ExecucaoRelatorio> ATUAL = new ThreadLocal<>();
+        private static Scanner scannerCancelamento;
+        private static EntradaConsole entradaCancelamento;
+
+        private final String chave;
+        private final int tempoLimite;
+        private volatile Statement consulta;
+        private volatile boolean cancelada;
+
+        /**
+         * Busca de dados de um relatório
+         */
+        interface Consulta<T> {
+            T executar() throws SQLException;
+        }
+
+        private ExecucaoRelatorio(String chave) {
+            this.chave = chave;
+            this.tempoLimite = Integer.getInteger("epi.relatorio.timeout." + chave, TEMPO_LIMITE_RELATORIO);
+        }
+
+        /**
+         * Liga a execução em segundo plano com cancelamento pelo teclado
+         * @param scanner Scanner do menu, usado para ler o pedido de cancelamento
+         * @param entrada Entrada de onde o Scanner lê
+         */
+        static void configurar(Scanner scanner, EntradaConsole entrada) {
+            scannerCancelamento = scanner;
+            entradaCancelamento = entrada;
+        }
+
+        /**
+         * Executa a busca de dados de um relatório
+         * @param chave Nome curto do relatório (usado na propriedade de tempo limite)
+         * @param consulta Busca a executar
+         * @return O resultado, ou null se o usuário cancelou
+         */
+        static <T> T executar(String chave, Consulta<T> consulta) throws SQLException {
+            if (!relatoriosLiberados()) {
+                return null;
+            }
+            if (scannerCancelamento == null || ATUAL.get() != null) {
+                return executarNestaThread(chave, consulta);
+            }
+
+            ExecucaoRelatorio execucao = new ExecucaoRelatorio(chave);
+
+            FutureTask<T> tarefa = new FutureTask<>(() -> execucao.executarAqui(consulta));
+            Thread thread = new Thread(tarefa, "relatorio-" + chave);
+            thread.setDaemon(true);
+            thread.start();
+            return execucao.aguardar(tarefa);
+        }
+
+        /**
+         * Executa a busca na thread atual, só com o tempo limite (ex.: threads do pacote de relatórios)
+         */
+        static <T> T executarNestaThread(String chave, Consulta<T> consulta) throws SQLException {
+            return new ExecucaoRelatorio(chave).executarAqui(consulta);
+        }
+
+        /**
+         * Executa a consulta aplicando o tempo limite e registrando o statement para
+         * cancelamento, se houver um relatório em execução nesta thread
+         */
+        static ResultSet consultar(PreparedStatement stmt) throws SQLException {
+            ExecucaoRelatorio execucao = acompanhar(stmt);
+            try {
+                return stmt.executeQuery();
+            } finally {
+                if (execucao != null) {
+                    execucao.consulta = null;
+                }
+            }
+        }
+
+        /**
+         * Mesmo que {@link #consultar(PreparedStatement)}, para statements sem parâmetros
+         */
+        static ResultSet consultar(Statement stmt, String sql) throws SQLException {
+            ExecucaoRelatorio execucao = acompanhar(stmt);
+            try {
+                return stmt.executeQuery(sql);
+            } finally {
+                if (execucao != null) {
+                    execucao.consulta = null;
+                }
+            }
+        }
+
+        private static ExecucaoRelatorio acompanhar(Statement stmt) throws SQLException {
+            ExecucaoRelatorio execucao = ATUAL.get();
+            if (execucao == null) {
+                return null;
+            }
+
+            if (execucao.tempoLimite > 0) {
+                stmt.setQueryTimeout(execucao.tempoLimite);
+            }
+            execucao.consulta = stmt;
+            // Verificado depois do registro: um cancelamento concorrente vê o statement ou é visto aqui
+            if (execucao.cancelada) {
+                execucao.consulta = null;
+                throw new SQLException("Relatório cancelado");
+            }
+            return execucao;
+        }
+
+        /**
+         * Indica se o relatório em execução nesta thread foi cancelado (para buscas
+         * que não passam por JDBC, como a leitura do histórico compactado)
+         */
+        static boolean cancelado() {
+            ExecucaoRelatorio execucao = ATUAL.get();
+            return execucao != null && execucao.cancelada;
+        }
+
+        private <T> T executarAqui(Consulta<T> consulta) throws SQLException {
+            ATUAL.set(this);
+            try {
+                return consulta.executar();
+            } catch (SQLTimeoutException e) {
+                throw new SQLTimeoutException("o relatório excedeu o tempo limite de " + tempoLimite +
+                        "s (ajuste com -Depi.relatorio.timeout." + chave + ")", e);
+            } finally {
+                ATUAL.remove();
+            }
+        }
+
+        private <T> T aguardar(FutureTask<T> tarefa) throws SQLException {
+            long inicio = System.currentTimeMillis();
+            int passos = 0;
+            try {
+                while (true) {
+                    try {
+                        return tarefa.get(INTERVALO_PROGRESSO_MS, TimeUnit.MILLISECONDS);
+                    } catch (TimeoutException e) {
+                        // Ainda consultando: atualiza o indicador abaixo
+                    }
+
+                    long segundos = (System.currentTimeMillis() - inicio) / 1000;
+                    System.out.print("\r" + AMARELO + GIRO[passos++ % GIRO.length] + " Consultando... " +
+                            segundos + "s (C + ENTER para cancelar)" + RESET);
+                    System.out.flush();
+
+                    if (pedidoCancelamento()) {
+                        cancelar();
+                        limparProgresso();
+                        passos = 0;
+                        System.out.println(AMARELO + "Relatório cancelado." + RESET);
+                        return null;
+                    }
+                }
+            } catch (ExecutionException e) {
+                Throwable causa = e.getCause();
+                if (causa instanceof SQLException) {
+                    throw (SQLException) causa;
+                }
+                if (causa instanceof RuntimeException) {
+                    throw (RuntimeException) causa;
+                }
+                throw new SQLException(causa);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelar();
+                return null;
+            } finally {
+                if (passos > 0) {
+                    limparProgresso();
+                }
+            }
+        }
+
+        private static void limparProgresso() {
+            System.out.print("\r" + " ".repeat(60) + "\r");
+            System.out.flush();
+        }
+
+        /**
+         * Marca como cancelada e aborta a consulta em andamento; a thread do relatório
+         * termina sozinha e o resultado é descartado
+         */
+        private void cancelar() {
+            cancelada = true;
+            Statement emAndamento = consulta;
+            if (emAndamento != null) {
+                try {
+                    emAndamento.cancel();
+                } catch (SQLException e) {
+                    System.err.println(VERMELHO + "Erro ao cancelar consulta: " + e.getMessage() + RESET);
+                }
+            }
+        }
+
+        /**
+         * Lê pelo Scanner as linhas já digitadas por inteiro e procura um "C"; as demais
+         * voltam para a entrada, na mesma ordem
+         */
+        private static boolean pedidoCancelamento() {
+            List<String> linhas = new ArrayList<>();
+            while (entradaCancelamento.linhaPronta()) {
+                linhas.add(scannerCancelamento.nextLine());
+            }
+            int cancelamento = -1;
+            for (int i = 0; i < linhas.size() && cancelamento < 0; i++) {
+                if (linhas.get(i).trim().equalsIgnoreCase("C")) {
+                    cancelamento = i;
+                }
+            }
+            for (int i = linhas.size() - 1; i >= 0; i--) {
+                if (i != cancelamento) {
+                    entradaCancelamento.devolver(linhas.get(i));
+                }
+            }
+            return cancelamento >= 0;
+        }
+    }
+
+    /**
+     * Entrada do console para o Scanner do menu. Uma thread lê System.in linha a linha
+     * para uma fila, e o Scanner recebe uma linha inteira por leitura. Assim a thread do
+     * menu sabe, sem bloquear, se há uma linha pronta para o Scanner, e uma linha lida
+     * fora de hora (ex.: durante um relatório) pode ser devolvida à frente da fila.
+     * Só a thread do menu lê desta entrada.
+     */
+    static class EntradaConsole extends Reader {
+        // Marca de fim da entrada (comparada por referência)
+        private static final String FIM = new String("");
+
+        private final LinkedBlockingDeque<String> linhas = new LinkedBlockingDeque<>();
+        // Linha entregue ao Scanner em partes (linhas maiores que o buffer dele)
+        private String atual;
+        private int posicao;
+
+        EntradaConsole(InputStream origem) {
+            Thread leitor = new Thread(() -> ler(origem), "entrada-console");
+            leitor.setDaemon(true);
+            leitor.start();
+        }
+
+        private void ler(InputStream origem) {
+            try {
+                BufferedReader leitor = new BufferedReader(new InputStreamReader(origem));
+                String linha;
+                while ((linha = leitor.readLine()) != null) {
+                    linhas.addLast(linha + "\n");
+                }
+            } catch (IOException e) {
+                // Entrada fechada: o Scanner vê o fim
+            }
+            linhas.addLast(FIM);
+        }
+
+        /** @return true se o Scanner pode ler uma linha inteira sem bloquear */
+        boolean linhaPronta() {
+            if (atual != null && posicao < atual.length()) {
+                return true;
+            }
+            String primeira = linhas.peekFirst();
+            return primeira != null && primeira != FIM;
+        }
+
+        /** Devolve à frente da fila uma linha já lida pelo Scanner */
+        void devolver(String linha) {
+            linhas.addFirst(linha + "\n");
+        }
+
+        @Override
+        public int read(char[] destino, int inicio, int tamanho) throws IOException {
+            if (atual == null || posicao == atual.length()) {
+                try {
+                    atual = linhas.takeFirst();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+                posicao = 0;
+                if (atual == FIM) {
+                    linhas.addFirst(FIM);
+                    atual = null;
+                    return -1;
+                }
+            }
+            int lidos = Math.min(tamanho, atual.length() - posicao);
+            atual.getChars(posicao, posicao + lidos, destino, inicio);
+            posicao += lidos;
+            return lidos;
+        }
+
+        @Override
+        public void close() {
+            // System.in continua com a thread leitora
+        }
+    }
+
+    // ========== ÍNDICE DE BUSCA ==========
+
+    /**
+     * Carrega os índices de busca em memória a partir do armazenamento.
+     * Chamado uma vez na inicialização; depois disso os índices são mantidos
+     * incrementalmente pelos cadastros, atualizações e remoções.
+     */
+    private static void carregarIndicesBusca() {
+        if (MODO_OFFLINE.ativo()) {
+            MODO_OFFLINE.indexar();
+            return;
+        }
+
+        try {
+            for (Funcionario funcionario : ARMAZENAMENTO.funcionarios().listar()) {
+                indexarFuncionario(funcionario.id, funcionario.nome, funcionario.cpf, funcionario.cargo);
+            }
+
+            for (Epi epi : ARMAZENAMENTO.epis().listar()) {
+                indexarEPI(epi.id, epi.nome, epi.descricao);
+            }
+        } catch (SQLException e) {
+            System.err.println(VERMELHO + "Erro ao carregar índices de busca: " + e.getMessage() + RESET);
+        }
+    }
+
+    /**
+     * Inclui ou substitui um funcionário no índice de busca
+     */
+    private static void indexarFuncionario(int id, String nome, String cpf, String cargo) {
+        String cpfFormatado = cpf.replaceFirst("(\\d{3})(\\d{3})(\\d{3})(\\d{2})", "$1.$2.$3-$4");
+        String detalhe = "CPF: " + cpfFormatado + (cargo != null && !cargo.isEmpty() ? " - " + cargo : "");
+        INDICE_FUNCIONARIOS.indexar(id, nome, detalhe, nome, cpf);
+    }
+
+    /**
+     * Inclui ou substitui um EPI no índice de busca
+     */
+    private static void indexarEPI(int id, String nome, String descricao) {
+        INDICE_EPIS.indexar(id, nome, descricao != null ? descricao : "", nome, descricao);
+    }
+
+    /**
+     * Relê um funcionário do armazenamento e atualiza sua entrada no índice de busca
+     * @param id ID do funcionário
+     */
+    private static void reindexarFuncionario(int id) {
+        try {
+            Funcionario funcionario = ARMAZENAMENTO.funcionarios().buscarPorId(id);
+            if (funcionario != null) {
+                indexarFuncionario(id, funcionario.nome, funcionario.cpf, funcionario.cargo);
+            } else {
+                INDICE_FUNCIONARIOS.remover(id);
+            }
+        } catch (SQLException e) {
+            System.err.println(VERMELHO + "Erro ao atualizar índice de busca: " + e.getMessage() + RESET);
+        }
+    }
+
+    /**
+     * Relê um EPI do armazenamento e atualiza sua entrada no índice de busca
+     * @param id ID do EPI
+     */
+    private static void reindexarEPI(int id) {
+        try {
+            Epi epi = ARMAZENAMENTO.epis().buscarPorId(id);
+            if (epi != null) {
+                indexarEPI(id, epi.nome, epi.descricao);
+            } else {
+                INDICE_EPIS.remover(id);
+            }
+        } catch (SQLException e) {
+            System.err.println(VERMELHO + "Erro ao atualizar índice de busca: " + e.getMessage() + RESET);
+        }
+    }
+
+    /**
+     * Pede um termo de busca e exibe os funcionários mais relevantes
+     * @param scanner Objeto Scanner para entrada de dados
+     * @return ID do funcionário quando a busca tem um único resultado,
+     *         0 quando há vários (ou nenhum) e -1 quando a busca foi pulada
+     */
+    private static int buscarFuncionariosInterativo(Scanner scanner) {
+        System.out.print("\nBuscar funcionário por nome ou CPF (ENTER para informar o ID direto): ");
+        return exibirResultadosBusca(INDICE_FUNCIONARIOS, scanner.nextLine(), "funcionário");
+    }
+
+    /**
+     * Pede um termo de busca e exibe os EPIs mais relevantes
+     * @param scanner Objeto Scanner para entrada de dados
+     * @return ID do EPI quando a busca tem um único resultado,
+     *         0 quando há vários (ou nenhum) e -1 quando a busca foi pulada
+     */
+    private static int buscarEPIsInterativo(Scanner scanner) {
+        System.out.print("\nBuscar EPI por nome ou descrição (ENTER para informar o ID direto): ");
+        return exibirResultadosBusca(INDICE_EPIS, scanner.nextLine(), "EPI");
+    }
+
+    /**
+     * Executa a busca no índice e imprime os resultados
+     */
+    private static int exibirResultadosBusca(IndiceBusca indice, String termo, String entidade) {
+        if (termo.trim().isEmpty()) {
+            return -1;
+        }
+
+        List<IndiceBusca.Entrada> resultados = indice.buscar(termo, LIMITE_RESULTADOS_BUSCA);
+
+        if (resultados.isEmpty()) {
+            System.out.println(AMARELO + "Nenhum " + entidade + " encontrado para \"" + termo + "\"." + RESET);
+            return 0;
+        }
+
+        try (TabelaConsole tabela = new TabelaConsole()) {
+            tabela.coluna("ID", 5).coluna("Nome", 30).coluna("Detalhes", 40).cabecalho();
+            for (IndiceBusca.Entrada entrada : resultados) {
+                tabela.linha(entrada.id, entrada.rotulo, entrada.detalhe);
+            }
+        }
+
+        return resultados.size() == 1 ? resultados.get(0).id : 0;
+    }
+
+    /**
+     * Índice invertido em memória para busca incremental por prefixo.
+     *
+     * Cada campo indexado é normalizado (minúsculas, sem acentos, sem a pontuação
+     * de CPF) e quebrado em palavras; cada prefixo de palavra (até
+     * TAMANHO_MAXIMO_PREFIXO caracteres) aponta para os registros que o contêm,
+     * já em ordem alfabética. Assim a busca percorre os candidatos na ordem de
+     * exibição e para assim que encontra resultados suficientes com a maior
+     * pontuação possível, mesmo em termos muito comuns.
+     */
+    static class IndiceBusca {
+        // Prefixos maiores que isso são verificados diretamente nas palavras do candidato
+        private static final int TAMANHO_MAXIMO_PREFIXO = 8;
+
+        private final Map<String, TreeSet<Entrada>> prefixos = new HashMap<>();
+        private final Map<String, Integer> palavrasExatas = new HashMap<>();
+        private final Map<Integer, Entrada> entradas = new HashMap<>();
+
+        /**
+         * Entrada do índice: o que é exibido ao usuário e as palavras indexadas
+         */
+        static class Entrada implements Comparable<Entrada> {
+            final int id;
+            final String rotulo;
+            final String detalhe;
+            final String[] palavras;
+
+            Entrada(int id, String rotulo, String detalhe, String[] palavras) {
+                this.id = id;
+                this.rotulo = rotulo;
+                this.detalhe = detalhe;
+                this.palavras = palavras;
+            }
+
+            @Override
+            public int compareTo(Entrada outra) {
+                int comparacao = rotulo.compareToIgnoreCase(outra.rotulo);
+                return comparacao != 0 ? comparacao : Integer.compare(id, outra.id);
+            }
+        }
+
+        /**
+         * Inclui (ou substitui) um registro no índice
+         * @param id ID do registro
+         * @param rotulo Texto principal exibido no resultado
+         * @param detalhe Texto complementar exibido no resultado
+         * @param campos Campos cujo conteúdo deve ser pesquisável
+         */
+        synchronized void indexar(int id, String rotulo, String detalhe, String... campos) {
+            remover(id);
+
+            Set<String> palavras = new HashSet<>();
+            for (String campo : campos) {
+                if (campo == null) {
+                    continue;
+                }
+                for (String palavra : normalizar(campo).split(" ")) {
+                    if (!palavra.isEmpty()) {
+                        palavras.add(palavra);
+                    }
+                }
+            }
+
+            Entrada entrada = new Entrada(id, rotulo, detalhe, palavras.toArray(new String[0]));
+            entradas.put(id, entrada);
+
+            for (String palavra : entrada.palavras) {
+                palavrasExatas.merge(palavra, 1, Integer::sum);
+                int limite = Math.min(palavra.length(), TAMANHO_MAXIMO_PREFIXO);
+                for (int i = 1; i <= limite; i++) {
+                    prefixos.computeIfAbsent(palavra.substring(0, i), k -> new TreeSet<>()).add(entrada);
+                }
+            }
+        }
+
+        /**
+         * Remove todos os registros do índice
+         */
+        synchronized void limpar() {
+            prefixos.clear();
+            palavrasExatas.clear();
+            entradas.clear();
+        }
+
+        /**
+         * Remove um registro do índice (sem efeito se não estiver indexado)
+         * @param id ID do registro
+         */
+        synchronized void remover(int id) {
+            Entrada entrada = entradas.remove(id);
+            if (entrada == null) {
+                return;
+            }
+
+            for (String palavra : entrada.palavras) {
+                palavrasExatas.computeIfPresent(palavra, (k, total) -> total > 1 ? total - 1 : null);
+                int limite = Math.min(palavra.length(), TAMANHO_MAXIMO_PREFIXO);
+                for (int i = 1; i <= limite; i++) {
+                    String prefixo = palavra.substring(0, i);
+                    TreeSet<Entrada> conjunto = prefixos.get(prefixo);
+                    if (conjunto != null) {
+                        conjunto.remove(entrada);
+                        if (conjunto.isEmpty()) {
+                            prefixos.remove(prefixo);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Busca os registros que contêm todas as palavras da consulta como prefixo
+         * @param consulta Texto digitado pelo usuário
+         * @param limite Quantidade máxima de resultados
+         * @return Os resultados mais relevantes, do melhor para o pior
+         */
+        synchronized List<Entrada> buscar(String consulta, int limite) {
+            List<String> termos = new ArrayList<>();
+            for (String termo : normalizar(consulta).split(" ")) {
+                if (!termo.isEmpty()) {
+                    termos.add(termo);
+                }
+            }
+            if (termos.isEmpty() || limite <= 0) {
+                return Collections.emptyList();
+            }
+
+            // Parte do menor conjunto de candidatos e calcula a maior pontuação possível
+            TreeSet<Entrada> menor = null;
+            int pontuacaoMaxima = 0;
+            for (String termo : termos) {
+                TreeSet<Entrada> conjunto = prefixos.get(termo.substring(0, Math.min(termo.length(), TAMANHO_MAXIMO_PREFIXO)));
+                if (conjunto == null) {
+                    return Collections.emptyList();
+                }
+                if (menor == null || conjunto.size() < menor.size()) {
+                    menor = conjunto;
+                }
+                pontuacaoMaxima += palavrasExatas.containsKey(termo) ? 2 : 1;
+            }
+
+            // Mantém apenas os "limite" melhores; o topo do heap é o pior entre eles
+            PriorityQueue<Candidato> melhores = new PriorityQueue<>(limite + 1);
+
+            for (Entrada entrada : menor) {
+                int pontuacao = pontuar(entrada, termos);
+                if (pontuacao < 0) {
+                    continue;
+                }
+                melhores.add(new Candidato(pontuacao, entrada));
+                if (melhores.size() > limite) {
+                    melhores.poll();
+                }
+                // Candidatos seguintes vêm depois em ordem alfabética e não podem superar os atuais
+                if (melhores.size() == limite && melhores.peek().pontuacao == pontuacaoMaxima) {
+                    break;
+                }
+            }
+
+            List<Entrada> resultado = new ArrayList<>(melhores.size());
+            while (!melhores.isEmpty()) {
+                resultado.add(melhores.poll().entrada);
+            }
+            Collections.reverse(resultado);
+            return resultado;
+        }
+
+        /**
+         * Resultado parcial da busca; a ordem natural coloca o menos relevante primeiro
+         */
+        private static class Candidato implements Comparable<Candidato> {
+            final int pontuacao;
+            final Entrada entrada;
+
+            Candidato(int pontuacao, Entrada entrada) {
+                this.pontuacao = pontuacao;
+                this.entrada = entrada;
+            }
+
+            @Override
+            public int compareTo(Candidato outro) {
+                int comparacao = Integer.compare(pontuacao, outro.pontuacao);
+                return comparacao != 0 ? comparacao : outro.entrada.compareTo(entrada);
+            }
+        }
+
+        /**
+         * Calcula a relevância de uma entrada: palavra exata vale mais que prefixo
+         * @return Pontuação, ou -1 se algum termo não casar com nenhuma palavra
+         */
+        private static int pontuar(Entrada entrada, List<String> termos) {
+            int pontuacao = 0;
+            for (String termo : termos) {
+                int melhor = -1;
+                for (String palavra : entrada.palavras) {
+                    if (palavra.equals(termo)) {
+                        melhor = 2;
+                        break;
+                    } else if (palavra.startsWith(termo)) {
+                        melhor = 1;
+                    }
+                }
+                if (melhor < 0) {
+                    return -1;
+                }
+                pontuacao += melhor;
+            }
+            return pontuacao;
+        }
+
+        /**
+         * Normaliza um texto para busca: remove acentos, converte para minúsculas,
+         * junta números separados por pontuação (ex.: CPF 123.456.789-00) e troca
+         * os demais separadores por espaço
+         */
+        static String normalizar(String texto) {
+            String semAcentos = Normalizer.normalize(texto, Normalizer.Form.NFD)
+                    .replaceAll("\\p{M}", "")
+                    .toLowerCase();
+            return semAcentos
+                    .replaceAll("(?<=\\d)[.\\-/](?=\\d)", "")
+                    .replaceAll("[^a-z0-9]+", " ")
+                    .trim();
+        }
+    }
+
+    // ========== MAIS EMPRESTADOS ==========
+
+    /**
+     * Relatório dos EPIs mais consumidos (soma das quantidades) e dos funcionários que
+     * mais pegam empréstimos (número de empréstimos) nos últimos 7, 30 ou 90 dias.
+     * A resposta vem das contagens aproximadas em memória (MAIS_EMPRESTADOS), sem
+     * consultar o banco; a contagem exata pode ser pedida em seguida para conferência
+     * @param scanner Objeto Scanner para entrada de dados
+     */
+    public static void relatorioMaisEmprestados(Scanner scanner) {
+        System.out.println("\n" + AZUL + "--- MAIS EMPRESTADOS ---" + RESET);
+
+        try {
+            System.out.print("Período em dias (7, 30 ou 90) [30]: ");
+            String entrada = scanner.nextLine().trim();
+            int dias = entrada.isEmpty() ? 30 : Integer.parseInt(entrada);
+            if (dias < 1 || dias > MaisEmprestados.DIAS_JANELA) {
+                System.out.println(VERMELHO + "O período deve ser de 1 a " + MaisEmprestados.DIAS_JANELA + " dias!" + RESET);
+                return;
+            }
+
+            System.out.print("Quantidade de posições [10]: ");
+            entrada = scanner.nextLine().trim();
+            int posicoes = entrada.isEmpty() ? 10 : Integer.parseInt(entrada);
+            if (posicoes < 1 || posicoes > MaisEmprestados.CANDIDATOS) {
+                System.out.println(VERMELHO + "Informe de 1 a " + MaisEmprestados.CANDIDATOS + " posições!" + RESET);
+                return;
+            }
+
+            if (!MAIS_EMPRESTADOS.carregado()) {
+                System.out.println(AMARELO + "⚠️ Histórico recente ainda em carga: os valores podem estar incompletos." + RESET);
+            }
+
+            LocalDate hoje = LocalDate.now();
+            List<long[]> epis = MAIS_EMPRESTADOS.topo(true, dias, posicoes, hoje);
+            List<long[]> funcionarios = MAIS_EMPRESTADOS.topo(false, dias, posicoes, hoje);
+
+            System.out.println("\nEPIs mais consumidos nos últimos " + dias + " dias (≈ unidades):");
+            escreverMaisEmprestados(epis, true, null);
+            System.out.println("\nFuncionários com mais empréstimos nos últimos " + dias + " dias (≈ empréstimos):");
+            escreverMaisEmprestados(funcionarios, false, null);
+
+            System.out.print("\nConferir com a contagem exata no banco? (S/N): ");
+            if (!scanner.nextLine().equalsIgnoreCase("S")) {
+                return;
+            }
+
+            LocalDate desde = hoje.minusDays(dias - 1);
+            Map<Integer, Long> exatoEpis = ExecucaoRelatorio.executar("mais-emprestados",
+                    () -> ARMAZENAMENTO.emprestimos().totaisDesde(desde, true));
+            if (exatoEpis == null) {
+                return;
+            }
+            Map<Integer, Long> exatoFuncionarios = ExecucaoRelatorio.executar("mais-emprestados",
+                    () -> ARMAZENAMENTO.emprestimos().totaisDesde(desde, false));
+            if (exatoFuncionarios == null) {
+                return;
+            }
+
+            System.out.println("\nEPIs (contagem exata):");
+            escreverMaisEmprestados(MaisEmprestados.maiores(exatoEpis, posicoes), true, epis);
+            System.out.println("\nFuncionários (contagem exata):");
+            escreverMaisEmprestados(MaisEmprestados.maiores(exatoFuncionarios, posicoes), false, funcionarios);
+        } catch (NumberFormatException e) {
+            System.out.println(VERMELHO + "Entrada inválida! Digite um número." + RESET);
+        } catch (SQLException e) {
+            System.err.println(VERMELHO + "Erro ao contar empréstimos: " + e.getMessage() + RESET);
+        }
+    }
+
+    /**
+     * Tabela de posições {id, total}; com a estimativa informada, mostra a coluna
+     * de comparação entre a contagem exata e a aproximada
+     */
+    private static void escreverMaisEmprestados(List<long[]> posicoes, boolean epis, List<long[]> estimativa)
+            throws SQLException {
+        Map<Long, Long> estimados = new HashMap<>();
+        if (estimativa != null) {
+            for (long[] posicao : estimativa) {
+                estimados.put(posicao[0], posicao[1]);
+            }
+        }
+
+        try (TabelaConsole tabela = new TabelaConsole()) {
+            tabela.coluna("#", 4).coluna("ID", 6).coluna("Nome", 30).coluna("Total", 10);
+            if (estimativa != null) {
+                tabela.coluna("Estimado", 10);
+            }
+            tabela.cabecalho();
+
+            int ordem = 1;
+            for (long[] posicao : posicoes) {
+                int id = (int) posicao[0];
+                String nome;
+                if (epis) {
+                    Epi epi = ARMAZENAMENTO.epis().buscarPorId(id);
+                    nome = epi != null ? epi.nome : "(removido)";
+                } else {
+                    Funcionario funcionario = ARMAZENAMENTO.funcionarios().buscarPorId(id);
+                    nome = funcionario != null ? funcionario.nome : "(removido)";
+                }
+                if (estimativa != null) {
+                    Long estimado = estimados.get(posicao[0]);
+                    tabela.linha(ordem++, id, nome, posicao[1], estimado != null ? estimado : "-");
+                } else {
+                    tabela.linha(ordem++, id, nome, posicao[1]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Contagens aproximadas de empréstimos por EPI e por funcionário nos últimos
+     * DIAS_JANELA dias, alimentadas por cada empréstimo registrado (e, no MySQL, pelos
+     * empréstimos de outras instâncias via MONITOR_ALTERACOES).
+     *
+     * Cada dia da janela tem um Count-Min sketch por dimensão (PROFUNDIDADE linhas de
+     * LARGURA contadores; a estimativa é o menor contador, nunca abaixo do valor real).
+     * Os MONITORADOS candidatos são escolhidos pelo total da janela inteira (soma dos
+     * sketches diários), não dia a dia: quem empresta pouco por dia, mas todo dia, entra
+     * quando o total passa o do menor candidato. O topo de um período soma as
+     * estimativas diárias dos candidatos nos dias do período: memória fixa, qualquer
+     * que seja o volume. Um empréstimo só é contado uma vez, qualquer que seja o
+     * caminho que o informou
+     */
+    static class MaisEmprestados {
+        static final int DIAS_JANELA = 90;
+        // Posições que o relatório pode pedir, e candidatos acompanhados (folga para períodos curtos)
+        static final int CANDIDATOS = 64;
+        static final int MONITORADOS = CANDIDATOS * 4;
+
+        private final JanelaContagem epis = new JanelaContagem();
+        private final JanelaContagem funcionarios = new JanelaContagem();
+        private final BitSet contados = new BitSet();
+        private volatile boolean carregado;
+
+        /**
+         * Conta um empréstimo (ignorado se já contado ou fora da janela)
+         */
+        synchronized void registrar(int idEmprestimo, int idFuncionario, int idEpi, int quantidade,
+                                    LocalDate dataEmprestimo) {
+            if (idEmprestimo <= 0 || contados.get(idEmprestimo)) {
+                return;
+            }
+            contados.set(idEmprestimo);
+            long dia = dataEmprestimo.toEpochDay();
+            epis.somar(idEpi, quantidade, dia);
+            funcionarios.somar(idFuncionario, 1, dia);
+        }
+
+        /**
+         * Carrega em segundo plano os empréstimos da janela já gravados; os registrados
+         * durante a carga não são contados em dobro
+         */
+        void carregar() {
+            Thread thread = new Thread(() -> {
+                LocalDate hoje = LocalDate.now();
+                try {
+                    for (Emprestimo emprestimo : ARMAZENAMENTO.emprestimos().listarEntre(hoje.minusDays(DIAS_JANELA - 1), hoje)) {
+                        registrar(emprestimo.id, emprestimo.idFuncionario, emprestimo.idEpi, emprestimo.quantidade,
+                                emprestimo.dataEmprestimo);
+                    }
+                    carregado = true;
+                } catch (SQLException e) {
+                    System.err.println(VERMELHO + "Erro ao carregar contagem de empréstimos: " + e.getMessage() + RESET);
+                }
+            }, "carga-mais-emprestados");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        boolean carregado() {
+            return carregado;
+        }
+
+        /**
+         * Maiores estimativas do período que termina hoje, como {id, total}
+         */
+        synchronized List<long[]> topo(boolean porEpi, int dias, int quantidade, LocalDate hoje) {
+            JanelaContagem janela = porEpi ? epis : funcionarios;
+            return maiores(janela.estimar(hoje.toEpochDay() - dias + 1, hoje.toEpochDay()), quantidade);
+        }
+
+        /** Os maiores totais do mapa, como {id, total}, do maior para o menor */
+        static List<long[]> maiores(Map<Integer, Long> totais, int quantidade) {
+            List<long[]> lista = new ArrayList<>();
+            for (Map.Entry<Integer, Long> item : totais.entrySet()) {
+                lista.add(new long[]{item.getKey(), item.getValue()});
+            }
+            lista.sort((a, b) -> a[1] != b[1] ? Long.compare(b[1], a[1]) : Long.compare(a[0], b[0]));
+            return lista.size() > quantidade ? new ArrayList<>(lista.subList(0, quantidade)) : lista;
+        }
+
+        /**
+         * Sketches diários de uma dimensão, em anel de DIAS_JANELA posições
+         */
+        private static final class JanelaContagem {
+            private static final int PROFUNDIDADE = 4;
+            private static final int LARGURA = 1024;
+            private static final long[] SEMENTES = {
+                    0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+
+            private final long[] dias = new long[DIAS_JANELA];
+            private final int[][][] contadores = new int[DIAS_JANELA][][];
+            // Candidato -> {total da janela, dia mais recente quando o total foi calculado}
+            private final Map<Integer, long[]> candidatos = new HashMap<>();
+            private long ultimoDia = Long.MIN_VALUE;
+
+            JanelaContagem() {
+                Arrays.fill(dias, Long.MIN_VALUE);
+            }
+
+            void somar(int chave, int peso, long dia) {
+                int posicao = (int) Math.floorMod(dia, (long) DIAS_JANELA);
+                if (dias[posicao] > dia || (ultimoDia != Long.MIN_VALUE && dia <= ultimoDia - DIAS_JANELA)) {
+                    return; // dia mais antigo que a janela
+                }
+                if (dias[posicao] != dia) {
+                    dias[posicao] = dia;
+                    contadores[posicao] = new int[PROFUNDIDADE][LARGURA];
+                }
+                ultimoDia = Math.max(ultimoDia, dia);
+
+                int[][] sketch = contadores[posicao];
+                for (int linha = 0; linha < PROFUNDIDADE; linha++) {
+                    sketch[linha][coluna(chave, linha)] += peso;
+                }
+
+                long total = totalJanela(chave);
+                long[] atual = candidatos.get(chave);
+                if (atual != null || candidatos.size() < MONITORADOS) {
+                    candidatos.put(chave, new long[]{total, ultimoDia});
+                    return;
+                }
+
+                // Sai o menor candidato, se o novo total passar o dele. Totais calculados em
+                // um dia anterior podem ter perdido dias que saíram da janela: recalcula
+                // o menor até achar um atualizado (no máximo uma vez por candidato por dia)
+                while (true) {
+                    Map.Entry<Integer, long[]> menor = null;
+                    for (Map.Entry<Integer, long[]> item : candidatos.entrySet()) {
+                        if (menor == null || item.getValue()[0] < menor.getValue()[0]) {
+                            menor = item;
+                        }
+                    }
+                    if (menor.getValue()[1] != ultimoDia) {
+                        menor.setValue(new long[]{totalJanela(menor.getKey()), ultimoDia});
+                        continue;
+                    }
+                    if (total > menor.getValue()[0]) {
+                        candidatos.remove(menor.getKey());
+                        candidatos.put(chave, new long[]{total, ultimoDia});
+                    }
+                    return;
+                }
+            }
+
+            /** Estimativa da chave somada em todos os dias da janela */
+            private long totalJanela(int chave) {
+                return total(chave, ultimoDia - DIAS_JANELA + 1, ultimoDia);
+            }
+
+            private long total(int chave, long primeiroDia, long ultimoDiaPeriodo) {
+                long total = 0;
+                for (int posicao = 0; posicao < DIAS_JANELA; posicao++) {
+                    if (dias[posicao] >= primeiroDia && dias[posicao] <= ultimoDiaPeriodo) {
+                        total += estimativa(contadores[posicao], chave);
+                    }
+                }
+                return total;
+            }
+
+            /** Soma das estimativas diárias, no intervalo de dias, de cada candidato */
+            Map<Integer, Long> estimar(long primeiroDia, long ultimoDiaPeriodo) {
+                Map<Integer, Long> totais = new HashMap<>();
+                for (int chave : candidatos.keySet()) {
+                    long total = total(chave, primeiroDia, ultimoDiaPeriodo);
+                    if (total > 0) {
+                        totais.put(chave, total);
+                    }
+                }
+                return totais;
+            }
+
+            private static long estimativa(int[][] sketch, int chave) {
+                long menor = Long.MAX_VALUE;
+                for (int linha = 0; linha < PROFUNDIDADE; linha++) {
+                    menor = Math.min(menor, sketch[linha][coluna(chave, linha)]);
+                }
+                return menor;
+            }
+
+            private static int coluna(int chave, int linha) {
+                long h = (chave + 1L) * SEMENTES[linha];
+                h ^= h >>> 33;
+                h *= 0xFF51AFD7ED558CCDL;
+                h ^= h >>> 33;
+                return (int) (h & (LARGURA - 1));
+            }
+        }
+    }
+
+    // ========== ÍNDICE DE EMPRÉSTIMOS ATIVOS ==========
+
+    /**
+     * Reconstrói o índice de empréstimos ativos do MySQL com uma única consulta em
+     * streaming. Chamado na inicialização e sempre que o banco é alterado por um
+     * caminho que não informa os IDs (kit via procedure, reenvio da fila offline).
+     * Se a carga falhar, as verificações voltam a consultar o banco.
+     */
+    private static void carregarIndiceEmprestimosAtivos() {
+        if (!usandoMySQL() || MODO_OFFLINE.ativo()) {
+            return;
+        }
+
+        String sql = "SELECT id, id_funcionario, id_epi FROM emprestimo WHERE status = 'Ativo'";
+
+        // Devoluções e empréstimos gravados a partir daqui são reaplicados sobre a carga
+        INDICE_EMPRESTIMOS_ATIVOS.iniciarCarga();
+        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
+             Statement stmt = conexao.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+
+            // Integer.MIN_VALUE faz o Connector/J entregar as linhas uma a uma, sem montar o resultado em memória
+            stmt.setFetchSize(Integer.MIN_VALUE);
+
+            IndiceEmprestimosAtivos carga = new IndiceEmprestimosAtivos();
+            try (ResultSet rs = stmt.executeQuery(sql)) {
+                while (rs.next()) {
+                    carga.incluir(rs.getInt(1), rs.getInt(2), rs.getInt(3));
+                }
+            }
+            INDICE_EMPRESTIMOS_ATIVOS.substituirPor(carga);
+        } catch (SQLException e) {
+            INDICE_EMPRESTIMOS_ATIVOS.descartar();
+            System.err.println(VERMELHO + "Erro ao carregar índice de empréstimos ativos: " + e.getMessage() + RESET);
+        }
+    }
+
+    /**
+     * Empréstimos ativos por funcionário e por EPI, mantidos em memória para o MySQL:
+     * as verificações de remoção e a consulta "empréstimos ativos de X" deixam de ir
+     * ao banco. As chaves e os IDs ficam em arrays de int (MapaInt/ListaInt/MapaIntLong),
+     * sem Integer nem entradas de HashMap. Atualizado pelo empréstimo e pela devolução;
+     * thread-safe, pois a gravadora de devoluções em lote também o atualiza.
+     *
+     * Enquanto não carregado, as alterações são ignoradas e as consultas retornam
+     * -1/null, indicando que a resposta deve vir do banco.
+     *
+     * A carga lê um retrato do banco que pode ser anterior a devoluções e empréstimos
+     * gravados enquanto ela corre (ex.: pela gravadora de devoluções). Essas alterações
+     * são anotadas entre iniciarCarga e substituirPor e reaplicadas sobre a carga na troca.
+     */
+    static class IndiceEmprestimosAtivos {
+        private MapaInt<ListaInt> porFuncionario = new MapaInt<>();
+        private MapaInt<ListaInt> porEPI = new MapaInt<>();
+        // ID do empréstimo -> (id_funcionario << 32 | id_epi), para a devolução só pelo ID
+        private MapaIntLong donos = new MapaIntLong();
+        private boolean carregado;
+        // Cargas em andamento e alterações feitas desde o início da mais antiga, de
+        // quatro em quatro: id do empréstimo, id_funcionario, id_epi, 1 se ativo
+        private int cargas;
+        private ListaInt duranteCarga;
+
+        synchronized boolean carregado() {
+            return carregado;
+        }
+
+        /** Registra um empréstimo ativo recém-gravado */
+        synchronized void adicionar(int idEmprestimo, int idFuncionario, int idEpi) {
+            anotar(idEmprestimo, idFuncionario, idEpi, true);
+            if (carregado) {
+                incluir(idEmprestimo, idFuncionario, idEpi);
+            }
+        }
+
+        /**
+         * Reflete o estado de um empréstimo relido do banco (alteração vinda de outra
+         * instância): retira a entrada antiga e inclui de novo se ainda está ativo
+         */
+        synchronized void sincronizar(int idEmprestimo, int idFuncionario, int idEpi, boolean ativo) {
+            anotar(idEmprestimo, idFuncionario, idEpi, ativo);
+            if (carregado) {
+                refletir(idEmprestimo, idFuncionario, idEpi, ativo);
+            }
+        }
+
+        /** Retira um empréstimo devolvido; ignora IDs que não estão no índice */
+        synchronized void remover(int idEmprestimo) {
+            anotar(idEmprestimo, 0, 0, false);
+            if (carregado) {
+                retirarEmprestimo(idEmprestimo);
+            }
+        }
+
+        /** @return Quantidade de empréstimos ativos do funcionário, ou -1 se o índice não está carregado */
+        synchronized int contarPorFuncionario(int idFuncionario) {
+            return contar(porFuncionario, idFuncionario);
+        }
+
+        /** @return Quantidade de empréstimos ativos do EPI, ou -1 se o índice não está carregado */
+        synchronized int contarPorEPI(int idEpi) {
+            return contar(porEPI, idEpi);
+        }
+
+        /** @return IDs dos empréstimos ativos do funcionário, ou null se o índice não está carregado */
+        synchronized int[] ativosPorFuncionario(int idFuncionario) {
+            if (!carregado) {
+                return null;
+            }
+            ListaInt ids = porFuncionario.obter(idFuncionario);
+            return ids != null ? ids.copiar() : new int[0];
+        }
+
+        /** Passa a anotar as alterações, até a carga que vai ser lida chegar a substituirPor */
+        synchronized void iniciarCarga() {
+            if (cargas++ == 0) {
+                duranteCarga = new ListaInt();
+            }
+        }
+
+        /**
+         * Passa a usar o conteúdo de uma carga completa, depois de reaplicar sobre ela as
+         * alterações anotadas desde iniciarCarga (reaplicá-las é inofensivo se a carga já
+         * as viu)
+         */
+        synchronized void substituirPor(IndiceEmprestimosAtivos carga) {
+            if (duranteCarga != null) {
+                for (int i = 0; i < duranteCarga.tamanho(); i += 4) {
+                    carga.refletir(duranteCarga.obter(i), duranteCarga.obter(i + 1), duranteCarga.obter(i + 2),
+                            duranteCarga.obter(i + 3) == 1);
+                }
+            }
+            terminarCarga();
+            porFuncionario = carga.porFuncionario;
+            porEPI = carga.porEPI;
+            donos = carga.donos;
+            carregado = true;
+        }
+
+        /** Esvazia o índice depois de uma carga que falhou; as consultas voltam a ir ao banco */
+        synchronized void descartar() {
+            terminarCarga();
+            porFuncionario = new MapaInt<>();
+            porEPI = new MapaInt<>();
+            donos = new MapaIntLong();
+            carregado = false;
+        }
+
+        private void terminarCarga() {
+            if (cargas > 0 && --cargas == 0) {
+                duranteCarga = null;
+            }
+        }
+
+        private void anotar(int idEmprestimo, int idFuncionario, int idEpi, boolean ativo) {
+            if (duranteCarga != null) {
+                duranteCarga.adicionar(idEmprestimo);
+                duranteCarga.adicionar(idFuncionario);
+                duranteCarga.adicionar(idEpi);
+                duranteCarga.adicionar(ativo ? 1 : 0);
+            }
+        }
+
+        /** Deixa o empréstimo no índice só se está ativo, sem duplicá-lo */
+        private void refletir(int idEmprestimo, int idFuncionario, int idEpi, boolean ativo) {
+            retirarEmprestimo(idEmprestimo);
+            if (ativo) {
+                incluir(idEmprestimo, idFuncionario, idEpi);
+            }
+        }
+
+        private void retirarEmprestimo(int idEmprestimo) {
+            if (!donos.contem(idEmprestimo)) {
+                return;
+            }
+            long dono = donos.remover(idEmprestimo);
+            retirar(porFuncionario, (int) (dono >>> 32), idEmprestimo);
+            retirar(porEPI, (int) dono, idEmprestimo);
+        }
+
+        /** Inclusão sem verificar "carregado"; usada na montagem de uma carga */
+        void incluir(int idEmprestimo, int idFuncionario, int idEpi) {
+            donos.colocar(idEmprestimo, (long) idFuncionario << 32 | (idEpi & 0xFFFFFFFFL));
+            lista(porFuncionario, idFuncionario).adicionar(idEmprestimo);
+            lista(porEPI, idEpi).adicionar(idEmprestimo);
+        }
+
+        private int contar(MapaInt<ListaInt> indice, int chave) {
+            if (!carregado) {
+                return -1;
+            }
+            ListaInt ids = indice.obter(chave);
+            return ids != null ? ids.tamanho() : 0;
+        }
+
+        private static ListaInt lista(MapaInt<ListaInt> indice, int chave) {
+            ListaInt ids = indice.obter(chave);
+            if (ids == null) {
+                ids = new ListaInt();
+                indice.colocar(chave, ids);
+            }
+            return ids;
+        }
+
+        private static void retirar(MapaInt<ListaInt> indice, int chave, int id) {
+            ListaInt ids = indice.obter(chave);
+            if (ids != null) {
+                ids.removerValor(id);
+                if (ids.tamanho() == 0) {
+                    indice.remover(chave);
+                }
+            }
+        }
+    }
+
+    // ========== FILTRO DE CPFs CADASTRADOS ==========
+
+    /**
+     * Monta o filtro de CPFs do MySQL percorrendo a coluna cpf em streaming.
+     * Dimensionado para o dobro dos funcionários atuais (mínimo de 1.024); quando
+     * os cadastros passam desse número, o filtro é remontado para não perder a
+     * taxa de falsos positivos configurada.
+     */
+    private static void carregarFiltroCpfs() {
+        if (!usandoMySQL() || MODO_OFFLINE.ativo()) {
+            return;
+        }
+
+        try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
+             Statement stmt = conexao.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+
+            int total;
+            try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM funcionario")) {
+                rs.next();
+                total = rs.getInt(1);
+            }
+
+            FiltroBloom carga = new FiltroBloom(Math.max(1024, total * 2), TAXA_FALSOS_POSITIVOS_CPF);
+            stmt.setFetchSize(Integer.MIN_VALUE);
+            try (ResultSet rs = stmt.executeQuery("SELECT cpf FROM funcionario")) {
+                while (rs.next()) {
+                    carga.adicionar(rs.getString(1));
+                }
+            }
+            filtroCpfs = carga;
+        } catch (SQLException e) {
+            filtroCpfs = null;
+            System.err.println(VERMELHO + "Erro ao carregar filtro de CPFs: " + e.getMessage() + RESET);
+        }
+    }
+
+    /**
+     * Filtro de Bloom. "Não contém" é definitivo; "talvez contenha" precisa ser
+     * confirmado no banco. Não há remoção: com várias instâncias gravando, um
+     * decremento de um CPF que esta instância ainda não viu zeraria posições de
+     * outros CPFs (falso negativo). CPFs removidos ou trocados continuam no filtro,
+     * só como falso positivo, e contam para a capacidade até a próxima remontagem.
+     */
+    static class FiltroBloom {
+        private final long[] bits;
+        private final int posicoes;
+        private final int funcoes;
+        private final int capacidade;
+        private int elementos;
+
+        /**
+         * @param capacidade Quantidade de elementos prevista
+         * @param taxaFalsosPositivos Taxa desejada para essa quantidade (ex.: 0.01)
+         */
+        FiltroBloom(int capacidade, double taxaFalsosPositivos) {
+            double ln2 = Math.log(2);
+            long necessarias = (long) Math.ceil(-capacidade * Math.log(taxaFalsosPositivos) / (ln2 * ln2));
+            this.posicoes = (int) Math.min(Integer.MAX_VALUE - 64, Math.max(64, necessarias));
+            this.bits = new long[(posicoes + 63) / 64];
+            this.funcoes = Math.max(1, (int) Math.round((double) posicoes / capacidade * ln2));
+            this.capacidade = capacidade;
+        }
+
+        synchronized void adicionar(String valor) {
+            long h = hash(valor);
+            for (int i = 0; i < funcoes; i++) {
+                int p = posicao(h, i);
+                bits[p >>> 6] |= 1L << p;
+            }
+            elementos++;
+        }
+
+        /** Um valor saiu do cadastro: continua no filtro, mas ocupa capacidade até a remontagem */
+        synchronized void descartar() {
+            elementos++;
+        }
+
+        synchronized boolean talvezContenha(String valor) {
+            long h = hash(valor);
+            for (int i = 0; i < funcoes; i++) {
+                int p = posicao(h, i);
+                if ((bits[p >>> 6] & (1L << p)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** true enquanto a quantidade de elementos não passou da capacidade planejada */
+        synchronized boolean dentroDaCapacidade() {
+            return elementos <= capacidade;
+        }
+
+        // Hash duplo: as k posições saem de h1 + i * h2 (Kirsch-Mitzenmacher)
+        private int posicao(long h, int i) {
+            int h1 = (int) h;
+            int h2 = (int) (h >>> 32) | 1;
+            return Math.floorMod(h1 + i * h2, posicoes);
+        }
+
+        // FNV-1a de 64 bits seguido da mistura do SplitMix64
+        private static long hash(String valor) {
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < valor.length(); i++) {
+                h = (h ^ valor.charAt(i)) * 0x100000001b3L;
+            }
+            h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+            h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+            return h ^ (h >>> 31);
+        }
+    }
+
+    // ========== CAMADA DE REPOSITÓRIOS ==========
+
+    /**
+     * Cria o mecanismo de armazenamento escolhido na inicialização
+     * @param tipo "mysql" (padrão), "arquivo" ou "memoria"
+     */
+    private static Armazenamento criarArmazenamento(String tipo) {
+        switch (tipo.toLowerCase()) {
+            case "arquivo":
+                return new ArmazenamentoArquivo(Paths.get(System.getProperty("epi.dados.dir", "dados-epi")));
+            case "memoria":
+                return new ArmazenamentoMemoria();
+            case "mysql":
+                return new ArmazenamentoJdbc();
+            default:
+                System.err.println(VERMELHO + "Armazenamento desconhecido '" + tipo + "', usando MySQL." + RESET);
+                return new ArmazenamentoJdbc();
+        }
+    }
+
+    /**
+     * Indica se o armazenamento atual é o MySQL (recursos que dependem de SQL,
+     * como procedures, modo offline e gravação em lote, só existem nele)
+     */
+    private static boolean usandoMySQL() {
+        return ARMAZENAMENTO instanceof ArmazenamentoJdbc;
+    }
+
+    /**
+     * EPI cadastrado
+     */
+    static final class Epi {
+        final int id;
+        final String nome;
+        final String descricao;
+        final LocalDate validade;
+        final int quantidade;
+
+        Epi(int id, String nome, String descricao, LocalDate validade, int quantidade) {
+            this.id = id;
+            this.nome = nome;
+            this.descricao = descricao;
+            this.validade = validade;
+            this.quantidade = quantidade;
+        }
+
+        boolean vencido(LocalDate hoje) {
+            return validade != null && validade.isBefore(hoje);
+        }
+    }
+
+    /**
+     * Funcionário cadastrado
+     */
+    static final class Funcionario {
+        final int id;
+        final String nome;
+        final String cpf;
+        final String cargo;
+        final String departamento;
+
+        Funcionario(int id, String nome, String cpf, String cargo, String departamento) {
+            this.id = id;
+            this.nome = nome;
+            this.cpf = cpf;
+            this.cargo = cargo;
+            this.departamento = departamento;
+        }
+    }
+
+    /**
+     * Empréstimo de EPI. Os nomes do funcionário e do EPI vêm preenchidos nas
+     * consultas de listagem (equivalente aos JOINs das consultas SQL)
+     */
+    static final class Emprestimo {
+        static final String ATIVO = "Ativo";
+        static final String DEVOLVIDO = "Devolvido";
+        static final String EXTRAVIADO = "Extraviado";
+
+        final int id;
+        final int idFuncionario;
+        final int idEpi;
+        final LocalDate dataEmprestimo;
+        final LocalDate dataDevolucaoPrevista;
+        final LocalDate dataDevolucaoReal;
+        final int quantidade;
+        final String status;
+        final String nomeFuncionario;
+        final String nomeEpi;
+
+        Emprestimo(int id, int idFuncionario, int idEpi, LocalDate dataEmprestimo, LocalDate dataDevolucaoPrevista,
+                   LocalDate dataDevolucaoReal, int quantidade, String status, String nomeFuncionario, String nomeEpi) {
+            this.id = id;
+            this.idFuncionario = idFuncionario;
+            this.idEpi = idEpi;
+            this.dataEmprestimo = dataEmprestimo;
+            this.dataDevolucaoPrevista = dataDevolucaoPrevista;
+            this.dataDevolucaoReal = dataDevolucaoReal;
+            this.quantidade = quantidade;
+            this.status = status;
+            this.nomeFuncionario = nomeFuncionario;
+            this.nomeEpi = nomeEpi;
+        }
+
+        boolean ativo() {
+            return ATIVO.equals(status);
+        }
+
+        /**
+         * Dias de atraso (negativo = dias que faltam), considerando a devolução
+         * real ou, se ainda ativo, a data de hoje
+         */
+        long diasAtraso(LocalDate hoje) {
+            LocalDate referencia = dataDevolucaoReal != null ? dataDevolucaoReal : hoje;
+            return referencia.toEpochDay() - dataDevolucaoPrevista.toEpochDay();
+        }
+
+        Emprestimo comNomes(String nomeFuncionario, String nomeEpi) {
+            return new Emprestimo(id, idFuncionario, idEpi, dataEmprestimo, dataDevolucaoPrevista,
+                    dataDevolucaoReal, quantidade, status, nomeFuncionario, nomeEpi);
+        }
+
+        Emprestimo devolvido(LocalDate data) {
+            return new Emprestimo(id, idFuncionario, idEpi, dataEmprestimo, dataDevolucaoPrevista,
+                    data, quantidade, DEVOLVIDO, nomeFuncionario, nomeEpi);
+        }
+    }
+
+    /**
+     * Linha do relatório de EPIs emprestados
+     */
+    static final class EpiEmprestado {
+        final int id;
+        final String nome;
+        final String descricao;
+        final int totalEmprestado;
+
+        EpiEmprestado(int id, String nome, String descricao, int totalEmprestado) {
+            this.id = id;
+            this.nome = nome;
+            this.descricao = descricao;
+            this.totalEmprestado = totalEmprestado;
+        }
+    }
+
+    /**
+     * Quantidades emprestadas e devolvidas de um EPI em um período (departamento
+     * null quando a consulta não separa por departamento)
+     */
+    static final class ConsumoEpi {
+        final int idEpi;
+        final String departamento;
+        final int emprestado;
+        final int devolvido;
+
+        ConsumoEpi(int idEpi, String departamento, int emprestado, int devolvido) {
+            this.idEpi = idEpi;
+            this.departamento = departamento;
+            this.emprestado = emprestado;
+            this.devolvido = devolvido;
+        }
+
+        /** Consumo líquido: o que saiu e não voltou */
+        int liquido() {
+            return emprestado - devolvido;
+        }
+    }
+
+    /**
+     * Consulta ao cubo de consumo departamento x EPI x mês: as dimensões marcadas
+     * são agrupadas (as demais somadas) e os filtros nulos não restringem nada
+     */
+    static final class ConsultaCubo {
+        final boolean porDepartamento;
+        final boolean porEpi;
+        final boolean porMes;
+        final String departamento;
+        final Integer idEpi;
+        final YearMonth de;
+        final YearMonth ate;
+
+        ConsultaCubo(boolean porDepartamento, boolean porEpi, boolean porMes, String departamento, Integer idEpi,
+                     YearMonth de, YearMonth ate) {
+            this.porDepartamento = porDepartamento;
+            this.porEpi = porEpi;
+            this.porMes = porMes;
+            this.departamento = departamento;
+            this.idEpi = idEpi;
+            this.de = de;
+            this.ate = ate;
+        }
+
+        /** Detalhamento de uma célula: fixa os valores dela e agrupa por todas as dimensões */
+        ConsultaCubo detalhar(CelulaCubo celula) {
+            return new ConsultaCubo(true, true, true,
+                    celula.departamento != null ? celula.departamento : departamento,
+                    celula.idEpi != null ? celula.idEpi : idEpi,
+                    celula.mes != null ? celula.mes : de,
+                    celula.mes != null ? celula.mes : ate);
+        }
+    }
+
+    /**
+     * Célula do cubo de consumo (dimensões não agrupadas ficam nulas)
+     */
+    static final class CelulaCubo {
+        final String departamento;
+        final Integer idEpi;
+        final YearMonth mes;
+        final int emprestado;
+        final int devolvido;
+
+        CelulaCubo(String departamento, Integer idEpi, YearMonth mes, int emprestado, int devolvido) {
+            this.departamento = departamento;
+            this.idEpi = idEpi;
+            this.mes = mes;
+            this.emprestado = emprestado;
+            this.devolvido = devolvido;
+        }
+
+        /** Consumo líquido: o que saiu e não voltou */
+        int liquido() {
+            return emprestado - devolvido;
+        }
+    }
+
+    /**
+     * Acesso aos EPIs. Parâmetros nulos em atualizar(...) significam "não alterar".
+     */
+    interface EPIRepositorio {
+        int inserir(String nome, String descricao, LocalDate validade, int quantidade) throws SQLException;
+
+        Epi buscarPorId(int id) throws SQLException;
+
+        Epi buscarPorNome(String nome) throws SQLException;
+
+        /** Todos os EPIs, ordenados por nome */
+        List<Epi> listar() throws SQLException;
+
+        /**
+         * Percorre os EPIs na ordem de listar() sem montar a lista, parando quando o
+         * visitante devolve false (ex.: o usuário parou a paginação)
+         */
+        default void percorrer(Predicate<Epi> visitante) throws SQLException {
+            for (Epi epi : listar()) {
+                if (!visitante.test(epi)) {
+                    return;
+                }
+            }
+        }
+
+        /** EPIs com quantidade > 0, ordenados por nome */
+        List<Epi> listarDisponiveis() throws SQLException;
+
+        /** EPIs com validade anterior a hoje, ordenados por validade */
+        List<Epi> listarVencidos(LocalDate hoje) throws SQLException;
+
+        /** EPIs com validade no intervalo (inclusive), ordenados por validade */
+        List<Epi> listarComValidadeEntre(LocalDate inicio, LocalDate fim) throws SQLException;
+
+        boolean atualizar(int id, String nome, String descricao, LocalDate validade, Integer quantidade) throws SQLException;
+
+        boolean remover(int id) throws SQLException;
+
+        /** Soma "delta" (pode ser negativo) ao estoque */
+        boolean ajustarQuantidade(int id, int delta) throws SQLException;
+
+        boolean ajustarQuantidadePorNome(String nome, int delta) throws SQLException;
+    }
+
+    /**
+     * Acesso aos funcionários. Parâmetros nulos em atualizar(...) significam "não alterar".
+     */
+    interface FuncionarioRepositorio {
+        int inserir(String nome, String cpf, String cargo, String departamento) throws SQLException;
+
+        Funcionario buscarPorId(int id) throws SQLException;
+
+        Funcionario buscarPorCpf(String cpf) throws SQLException;
+
+        /** Todos os funcionários, ordenados por nome */
+        List<Funcionario> listar() throws SQLException;
+
+        /** Percorre os funcionários na ordem de listar(); ver EPIRepositorio.percorrer */
+        default void percorrer(Predicate<Funcionario> visitante) throws SQLException {
+            for (Funcionario funcionario : listar()) {
+                if (!visitante.test(funcionario)) {
+                    return;
+                }
+            }
+        }
+
+        boolean atualizar(int id, String nome, String cpf, String cargo, String departamento) throws SQLException;
+
+        boolean remover(int id) throws SQLException;
+    }
+
+    /**
+     * Acesso aos empréstimos. As listagens trazem os nomes do funcionário e do EPI.
+     */
+    interface EmprestimoRepositorio {
+        int inserir(int idFuncionario, int idEpi, LocalDate dataEmprestimo, LocalDate dataDevolucaoPrevista,
+                    int quantidade) throws SQLException;
+
+        Emprestimo buscarPorId(int id) throws SQLException;
+
+        /** Todos os empréstimos, do mais recente para o mais antigo */
+        List<Emprestimo> listar() throws SQLException;
+
+        /** Percorre os empréstimos na ordem de listar(); ver EPIRepositorio.percorrer */
+        default void percorrer(Predicate<Emprestimo> visitante) throws SQLException {
+            for (Emprestimo emprestimo : listar()) {
+                if (!visitante.test(emprestimo)) {
+                    return;
+                }
+            }
+        }
+
+        /** Empréstimos ativos, pela data prevista de devolução */
+        List<Emprestimo> listarAtivos() throws SQLException;
+
+        /** Empréstimos ativos com devolução prevista no intervalo (inclusive) */
+        List<Emprestimo> listarAtivosComVencimentoEntre(LocalDate inicio, LocalDate fim) throws SQLException;
+
+        /** Empréstimos ativos de um funcionário, pela data prevista de devolução */
+        List<Emprestimo> listarAtivosPorFuncionario(int idFuncionario) throws SQLException;
+
+        /** Histórico de um funcionário, do mais recente para o mais antigo */
+        List<Emprestimo> listarPorFuncionario(int idFuncionario) throws SQLException;
+
+        /** Histórico de um EPI, do mais recente para o mais antigo */
+        List<Emprestimo> listarPorEPI(int idEpi) throws SQLException;
+
+        /**
+         * Histórico de um funcionário a partir de uma data (null = histórico recente).
+         * No MySQL, períodos anteriores ao corte do arquivamento incluem emprestimo_historico.
+         */
+        default List<Emprestimo> listarPorFuncionario(int idFuncionario, LocalDate desde) throws SQLException {
+            return aPartirDe(listarPorFuncionario(idFuncionario), desde);
+        }
+
+        /** Histórico de um EPI a partir de uma data (null = histórico recente); ver listarPorFuncionario */
+        default List<Emprestimo> listarPorEPI(int idEpi, LocalDate desde) throws SQLException {
+            return aPartirDe(listarPorEPI(idEpi), desde);
+        }
+
+        /** Empréstimos feitos no intervalo (inclusive), do mais recente para o mais antigo */
+        default List<Emprestimo> listarEntre(LocalDate inicio, LocalDate fim) throws SQLException {
+            List<Emprestimo> resultado = new ArrayList<>();
+            for (Emprestimo emprestimo : listar()) {
+                if (!emprestimo.dataEmprestimo.isBefore(inicio) && !emprestimo.dataEmprestimo.isAfter(fim)) {
+                    resultado.add(emprestimo);
+                }
+            }
+            return resultado;
+        }
+
+        /**
+         * Totais de empréstimos feitos a partir da data: por EPI, a soma das
+         * quantidades; por funcionário, o número de empréstimos
+         */
+        default Map<Integer, Long> totaisDesde(LocalDate desde, boolean porEpi) throws SQLException {
+            Map<Integer, Long> totais = new HashMap<>();
+            for (Emprestimo emprestimo : listarEntre(desde, LocalDate.now())) {
+                totais.merge(porEpi ? emprestimo.idEpi : emprestimo.idFuncionario,
+                        porEpi ? (long) emprestimo.quantidade : 1L, Long::sum);
+            }
+            return totais;
+        }
+
+        private static List<Emprestimo> aPartirDe(List<Emprestimo> emprestimos, LocalDate desde) {
+            if (desde == null) {
+                return emprestimos;
+            }
+            List<Emprestimo> resultado = new ArrayList<>();
+            for (Emprestimo emprestimo : emprestimos) {
+                if (!emprestimo.dataEmprestimo.isBefore(desde)) {
+                    resultado.add(emprestimo);
+                }
+            }
+            return resultado;
+        }
+
+        boolean existeAtivoPorFuncionario(int idFuncionario) throws SQLException;
+
+        boolean existeAtivoPorEPI(int idEpi) throws SQLException;
+
+        /**
+         * Marca um empréstimo ativo como devolvido
+         * @return O empréstimo antes da devolução, ou null se não estava ativo
+         */
+        Emprestimo registrarDevolucao(int id, LocalDate data) throws SQLException;
+
+        /** Total emprestado (ativo) por EPI, ordenado pelo nome do EPI */
+        List<EpiEmprestado> listarEPIsEmprestados() throws SQLException;
+    }
+
+    /**
+     * Mecanismo de armazenamento: agrupa os três repositórios
+     */
+    interface Armazenamento {
+        EPIRepositorio epis();
+
+        FuncionarioRepositorio funcionarios();
+
+        EmprestimoRepositorio emprestimos();
+
+        /** Lança SQLException se o armazenamento não estiver acessível */
+        void verificarDisponibilidade() throws SQLException;
+
+        /** Nome exibido na inicialização */
+        String descricao();
+
+        /**
+         * Alterações executadas como uma unidade por emTransacao
+         */
+        interface Transacao<T> {
+            T executar() throws SQLException;
+        }
+
+        /**
+         * Executa as alterações como uma unidade (ex.: empréstimo e baixa de estoque).
+         * No armazenamento em arquivos elas vão ao diário numa só transação: após uma
+         * queda, ou todas são reaplicadas, ou nenhuma. Nos demais, executa direto
+         */
+        default <T> T emTransacao(Transacao<T> transacao) throws SQLException {
+            return transacao.executar();
+        }
+
+        /**
+         * Números do painel do menu principal. A implementação padrão usa as
+         * listagens; o MySQL responde tudo em uma única consulta agregada.
+         */
+        default ResumoPainel resumoPainel(LocalDate hoje) throws SQLException {
+            int ativos = 0;
+            int atrasados = 0;
+            for (Emprestimo emprestimo : emprestimos().listarAtivos()) {
+                ativos++;
+                if (emprestimo.dataDevolucaoPrevista.isBefore(hoje)) {
+                    atrasados++;
+                }
+            }
+
+            int vencendo = 0;
+            int vencidos = 0;
+            int semEstoque = 0;
+            LocalDate limite = hoje.plusDays(30);
+            for (Epi epi : epis().listar()) {
+                if (epi.validade != null && !epi.validade.isBefore(hoje) && !epi.validade.isAfter(limite)) {
+                    vencendo++;
+                }
+                if (epi.vencido(hoje) && epi.quantidade > 0) {
+                    vencidos++;
+                }
+                if (epi.quantidade <= 0) {
+                    semEstoque++;
+                }
+            }
+            return new ResumoPainel(ativos, atrasados, vencendo, vencidos, semEstoque, System.currentTimeMillis());
+        }
+
+        /**
+         * Consumo por EPI (e opcionalmente por departamento) entre duas datas. A
+         * implementação padrão percorre os empréstimos; o MySQL lê a consolidação
+         * diária (consumo_diario), mantida por triggers.
+         */
+        default List<ConsumoEpi> consumo(LocalDate inicio, LocalDate fim, boolean porDepartamento)
+                throws SQLException {
+            Map<Integer, String> departamentos = new HashMap<>();
+            if (porDepartamento) {
+                for (Funcionario funcionario : funcionarios().listar()) {
+                    departamentos.put(funcionario.id, funcionario.departamento != null ? funcionario.departamento : "");
+                }
+            }
+
+            // EPI -> departamento ("" se não separado) -> {emprestado, devolvido}
+            Map<Integer, Map<String, int[]>> totais = new TreeMap<>();
+            for (Emprestimo emprestimo : emprestimos().listar()) {
+                boolean saiu = !emprestimo.dataEmprestimo.isBefore(inicio) && !emprestimo.dataEmprestimo.isAfter(fim);
+                boolean voltou = emprestimo.dataDevolucaoReal != null
+                        && !emprestimo.dataDevolucaoReal.isBefore(inicio) && !emprestimo.dataDevolucaoReal.isAfter(fim);
+                if (!saiu && !voltou) {
+                    continue;
+                }
+                String departamento = porDepartamento ? departamentos.getOrDefault(emprestimo.idFuncionario, "") : "";
+                int[] total = totais.computeIfAbsent(emprestimo.idEpi, k -> new TreeMap<>())
+                        .computeIfAbsent(departamento, k -> new int[2]);
+                if (saiu) {
+                    total[0] += emprestimo.quantidade;
+                }
+                if (voltou) {
+                    total[1] += emprestimo.quantidade;
+                }
+            }
+
+            List<ConsumoEpi> resultado = new ArrayList<>();
+            for (Map.Entry<Integer, Map<String, int[]>> epi : totais.entrySet()) {
+                for (Map.Entry<String, int[]> item : epi.getValue().entrySet()) {
+                    resultado.add(new ConsumoEpi(epi.getKey(), porDepartamento ? item.getKey() : null,
+                            item.getValue()[0], item.getValue()[1]));
+                }
+            }
+            return resultado;
+        }
+
+        /**
+         * Cubo de consumo departamento x EPI x mês. A implementação padrão percorre os
+         * empréstimos (saída no mês do empréstimo, volta no mês da devolução); o MySQL
+         * lê a consolidação mensal (consumo_mensal), mantida pelos triggers.
+         */
+        default List<CelulaCubo> cubo(ConsultaCubo consulta) throws SQLException {
+            Map<Integer, String> departamentos = new HashMap<>();
+            for (Funcionario funcionario : funcionarios().listar()) {
+                departamentos.put(funcionario.id, funcionario.departamento != null ? funcionario.departamento : "");
+            }
+
+            // Chave "departamento|EPI|mês" só com as dimensões agrupadas -> {emprestado, devolvido}
+            Map<String, int[]> totais = new TreeMap<>();
+            Map<String, CelulaCubo> chaves = new HashMap<>();
+            for (Emprestimo emprestimo : emprestimos().listar()) {
+                String departamento = departamentos.getOrDefault(emprestimo.idFuncionario, "");
+                if ((consulta.departamento != null && !consulta.departamento.equals(departamento))
+                        || (consulta.idEpi != null && consulta.idEpi != emprestimo.idEpi)) {
+                    continue;
+                }
+                somarCubo(consulta, totais, chaves, departamento, emprestimo.idEpi,
+                        YearMonth.from(emprestimo.dataEmprestimo), emprestimo.quantidade, 0);
+                if (emprestimo.dataDevolucaoReal != null && Emprestimo.DEVOLVIDO.equals(emprestimo.status)) {
+                    somarCubo(consulta, totais, chaves, departamento, emprestimo.idEpi,
+                            YearMonth.from(emprestimo.dataDevolucaoReal), 0, emprestimo.quantidade);
+                }
+            }
+
+            List<CelulaCubo> resultado = new ArrayList<>();
+            for (Map.Entry<String, int[]> item : totais.entrySet()) {
+                CelulaCubo celula = chaves.get(item.getKey());
+                resultado.add(new CelulaCubo(celula.departamento, celula.idEpi, celula.mes,
+                        item.getValue()[0], item.getValue()[1]));
+            }
+            return resultado;
+        }
+
+        private static void somarCubo(ConsultaCubo consulta, Map<String, int[]> totais, Map<String, CelulaCubo> chaves,
+                                      String departamento, int idEpi, YearMonth mes, int emprestado, int devolvido) {
+            if ((consulta.de != null && mes.isBefore(consulta.de)) || (consulta.ate != null && mes.isAfter(consulta.ate))) {
+                return;
+            }
+            CelulaCubo celula = new CelulaCubo(consulta.porDepartamento ? departamento : null,
+                    consulta.porEpi ? idEpi : null, consulta.porMes ? mes : null, 0, 0);
+            String chave = celula.departamento + "|" + celula.idEpi + "|" + celula.mes;
+            chaves.putIfAbsent(chave, celula);
+            int[] total = totais.computeIfAbsent(chave, k -> new int[2]);
+            total[0] += emprestado;
+            total[1] += devolvido;
+        }
+    }
+
+    // ---------- Implementação JDBC (MySQL) ----------
+
+    /**
+     * Armazenamento no MySQL configurado em URL/USUARIO/SENHA
+     */
+    static class ArmazenamentoJdbc implements Armazenamento {
+        private final EPIRepositorio epis = new EPIRepositorioJdbc();
+        private final FuncionarioRepositorio funcionarios = new FuncionarioRepositorioJdbc();
+        private final EmprestimoRepositorio emprestimos = new EmprestimoRepositorioJdbc();
+
+        public EPIRepositorio epis() {
+            return epis;
+        }
+
+        public FuncionarioRepositorio funcionarios() {
+            return funcionarios;
+        }
+
+        public EmprestimoRepositorio emprestimos() {
+            return emprestimos;
+        }
+
+        public void verificarDisponibilidade() throws SQLException {
+            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA)) {
+                // Apenas abre e fecha a conexão
+            }
+        }
+
+        public String descricao() {
+            return "MySQL (" + URL + ")";
+        }
+
+        @Override
+        public ResumoPainel resumoPainel(LocalDate hoje) throws SQLException {
+            // Uma única consulta: uma passada agregada em emprestimo e outra em epi
+            String sql = "SELECT emp.ativos, emp.atrasados, est.vencendo, est.vencidos, est.sem_estoque " +
+                    "FROM (SELECT COUNT(*) AS ativos, " +
+                    "             COALESCE(SUM(data_devolucao_prevista < CURDATE()), 0) AS atrasados " +
+                    "      FROM emprestimo WHERE status = 'Ativo') emp " +
+                    "CROSS JOIN " +
+                    "     (SELECT COALESCE(SUM(validade BETWEEN CURDATE() AND DATE_ADD(CURDATE(), INTERVAL 30 DAY)), 0) AS vencendo, " +
+                    "             COALESCE(SUM(validade < CURDATE() AND quantidade > 0), 0) AS vencidos, " +
+                    "             COALESCE(SUM(quantidade <= 0), 0) AS sem_estoque " +
+                    "      FROM epi) est";
+
+            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
+                 Statement stmt = conexao.createStatement();
+                 ResultSet rs = stmt.executeQuery(sql)) {
+
+                rs.next();
+                return new ResumoPainel(
+                        rs.getInt("ativos"),
+                        rs.getInt("atrasados"),
+                        rs.getInt("vencendo"),
+                        rs.getInt("vencidos"),
+                        rs.getInt("sem_estoque"),
+                        System.currentTimeMillis());
+            }
+        }
+
+        /**
+         * Consumo por EPI (e departamento) de um período (parâmetros: início e fim).
+         * Lê só a consolidação diária: no máximo dias x EPIs x departamentos linhas
+         */
+        private static String selectConsumo(boolean porDepartamento) {
+            String colunas = porDepartamento ? "id_epi, departamento" : "id_epi";
+            return "SELECT " + colunas + ", SUM(emprestado) AS emprestado, SUM(devolvido) AS devolvido " +
+                    "FROM consumo_diario WHERE dia BETWEEN ? AND ? " +
+                    "GROUP BY " + colunas + " ORDER BY " + colunas;
+        }
+
+        @Override
+        public List<ConsumoEpi> consumo(LocalDate inicio, LocalDate fim, boolean porDepartamento)
+                throws SQLException {
+            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
+                 PreparedStatement stmt = conexao.prepareStatement(selectConsumo(porDepartamento))) {
+
+                stmt.setDate(1, Date.valueOf(inicio));
+                stmt.setDate(2, Date.valueOf(fim));
+
+                List<ConsumoEpi> resultado = new ArrayList<>();
+                try (ResultSet rs = ExecucaoRelatorio.consultar(stmt)) {
+                    while (rs.next()) {
+                        resultado.add(new ConsumoEpi(rs.getInt("id_epi"),
+                                porDepartamento ? rs.getString("departamento") : null,
+                                rs.getInt("emprestado"), rs.getInt("devolvido")));
+                    }
+                }
+                return resultado;
+            }
+        }
+
+        /**
+         * Consulta do cubo de consumo: preenche os parâmetros na ordem dos "?".
+         * Lê só a consolidação mensal: meses x EPIs x departamentos linhas no máximo
+         */
+        private static String selectCubo(ConsultaCubo consulta, List<Object> parametros) {
+            List<String> colunas = new ArrayList<>();
+            if (consulta.porDepartamento) {
+                colunas.add("departamento");
+            }
+            if (consulta.porEpi) {
+                colunas.add("id_epi");
+            }
+            if (consulta.porMes) {
+                colunas.add("mes");
+            }
+
+            StringBuilder sql = new StringBuilder("SELECT ");
+            for (String coluna : colunas) {
+                sql.append(coluna).append(", ");
+            }
+            sql.append("SUM(emprestado) AS emprestado, SUM(devolvido) AS devolvido FROM consumo_mensal WHERE 1 = 1");
+            if (consulta.departamento != null) {
+                sql.append(" AND departamento = ?");
+                parametros.add(consulta.departamento);
+            }
+            if (consulta.idEpi != null) {
+                sql.append(" AND id_epi = ?");
+                parametros.add(consulta.idEpi);
+            }
+            if (consulta.de != null) {
+                sql.append(" AND mes >= ?");
+                parametros.add(Date.valueOf(consulta.de.atDay(1)));
+            }
+            if (consulta.ate != null) {
+                sql.append(" AND mes <= ?");
+                parametros.add(Date.valueOf(consulta.ate.atDay(1)));
+            }
+            if (!colunas.isEmpty()) {
+                String agrupamento = String.join(", ", colunas);
+                sql.append(" GROUP BY ").append(agrupamento).append(" ORDER BY ").append(agrupamento);
+            }
+            return sql.toString();
+        }
+
+        @Override
+        public List<CelulaCubo> cubo(ConsultaCubo consulta) throws SQLException {
+            List<Object> parametros = new ArrayList<>();
+            String sql = selectCubo(consulta, parametros);
+
+            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
+                 PreparedStatement stmt = conexao.prepareStatement(sql)) {
+
+                for (int i = 0; i < parametros.size(); i++) {
+                    stmt.setObject(i + 1, parametros.get(i));
+                }
+
+                List<CelulaCubo> resultado = new ArrayList<>();
+                try (ResultSet rs = ExecucaoRelatorio.consultar(stmt)) {
+                    while (rs.next()) {
+                        resultado.add(new CelulaCubo(
+                                consulta.porDepartamento ? rs.getString("departamento") : null,
+                                consulta.porEpi ? (Integer) rs.getInt("id_epi") : null,
+                                consulta.porMes ? YearMonth.from(rs.getDate("mes").toLocalDate()) : null,
+                                rs.getInt("emprestado"), rs.getInt("devolvido")));
+                    }
+                }
+                return resultado;
+            }
+        }
+
+        static LocalDate data(ResultSet rs, String coluna) throws SQLException {
+            Date data = rs.getDate(coluna);
+            return data != null ? data.toLocalDate() : null;
+        }
+
+        // Linhas trazidas por ida ao servidor nas listagens percorridas
+        private static final int LINHAS_POR_IDA = 500;
+
+        /**
+         * Converte a linha atual do ResultSet em um registro
+         */
+        interface LeitorLinha<T> {
+            T ler(ResultSet rs) throws SQLException;
+        }
+
+        /**
+         * Percorre o resultado de uma consulta sem parâmetros até o fim ou até o visitante
+         * devolver false. As linhas vêm de um cursor no servidor (useCursorFetch), em blocos
+         * de LINHAS_POR_IDA: parar no meio só fecha o cursor, sem trazer o restante.
+         */
+        static <T> void percorrer(String sql, LeitorLinha<T> leitor, Predicate<T> visitante) throws SQLException {
+            Properties propriedades = new Properties();
+            propriedades.setProperty("user", USUARIO);
+            propriedades.setProperty("password", SENHA);
+            propriedades.setProperty("useCursorFetch", "true");
+
+            try (Connection conexao = DriverManager.getConnection(URL, propriedades);
+                 PreparedStatement stmt = conexao.prepareStatement(sql,
+                         ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+
+                stmt.setFetchSize(LINHAS_POR_IDA);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        if (!visitante.test(leitor.ler(rs))) {
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * EPIs no MySQL
+     */
+    static class EPIRepositorioJdbc implements EPIRepositorio {
+        // Busca e ajuste pelo nome (importação de estoque); conferidos por --verificar-planos
+        private static final String SELECT_POR_NOME = "SELECT * FROM epi WHERE nome = ? LIMIT 1";
+        private static final String AJUSTAR_POR_NOME = "UPDATE epi SET quantidade = quantidade + ? WHERE nome = ?";
+
+        public int inserir(String nome, String descricao, LocalDate validade, int quantidade) throws SQLException {
+            String sql = "INSERT INTO epi (nome, descricao, validade, quantidade) VALUES (?, ?, ?, ?)";
+
+            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
+                 PreparedStatement stmt = conexao.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+
+                stmt.setString(1, nome);
+                stmt.setString(2, descricao);
+                stmt.setDate(3, validade != null ? Date.valueOf(validade) : null);
+                stmt.setInt(4, quantidade);
+                stmt.executeUpdate();
+
+                // Recupera o ID gerado
+                try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
+                    return generatedKeys.next() ? generatedKeys.getInt(1) : 0;
+                }
+            }
+        }
+
+        public Epi buscarPorId(int id) throws SQLException {
+            List<Epi> epis = consultar("SELECT * FROM epi WHERE id = ?", id);
+            return epis.isEmpty() ? null : epis.get(0);
+        }
+
+        public Epi buscarPorNome(String nome) throws SQLException {
+            List<Epi> epis = consultar(SELECT_POR_NOME, nome);
+            return epis.isEmpty() ? null : epis.get(0);
+        }
+
+        public List<Epi> listar() throws SQLException {
+            return consultar("SELECT * FROM epi ORDER BY nome");
+        }
+
+        @Override
+        public void percorrer(Predicate<Epi> visitante) throws SQLException {
+            ArmazenamentoJdbc.percorrer("SELECT * FROM epi ORDER BY nome", EPIRepositorioJdbc::ler, visitante);
+        }
+
+        public List<Epi> listarDisponiveis() throws SQLException {
+            return consultar("SELECT * FROM epi WHERE quantidade > 0 ORDER BY nome");
+        }
+
+        public List<Epi> listarVencidos(LocalDate hoje) throws SQLException {
+            return consultar("SELECT * FROM epi WHERE validade < ? ORDER BY validade", Date.valueOf(hoje));
+        }
+
+        public List<Epi> listarComValidadeEntre(LocalDate inicio, LocalDate fim) throws SQLException {
+            return consultar("SELECT * FROM epi WHERE validade BETWEEN ? AND ? ORDER BY validade",
+                    Date.valueOf(inicio), Date.valueOf(fim));
+        }
+
+        public boolean atualizar(int id, String nome, String descricao, LocalDate validade, Integer quantidade)
+                throws SQLException {
+            // Construir a query dinamicamente com base nos campos que serão atualizados
+            StringBuilder sql = new StringBuilder("UPDATE epi SET ");
+            List<Object> parametros = new ArrayList<>();
+
+            if (nome != null) {
+                sql.append("nome = ?, ");
+                parametros.add(nome);
+            }
+            if (descricao != null) {
+                sql.append("descricao = ?, ");
+                parametros.add(descricao);
+            }
+            if (validade != null) {
+                sql.append("validade = ?, ");
+                parametros.add(Date.valueOf(validade));
+            }
+            if (quantidade != null) {
+                sql.append("quantidade = ?, ");
+                parametros.add(quantidade);
+            }
+
+            if (parametros.isEmpty()) {
+                return false;
+            }
+
+            // Remove a última vírgula e espaço
+            sql.delete(sql.length() - 2, sql.length());
+            sql.append(" WHERE id = ?");
+            parametros.add(id);
+
+            return executar(sql.toString(), parametros.toArray()) > 0;
+        }
+
+        public boolean remover(int id) throws SQLException {
+            return executar("DELETE FROM epi WHERE id = ?", id) > 0;
+        }
+
+        public boolean ajustarQuantidade(int id, int delta) throws SQLException {
+            return executar("UPDATE epi SET quantidade = quantidade + ? WHERE id = ?", delta, id) > 0;
+        }
+
+        public boolean ajustarQuantidadePorNome(String nome, int delta) throws SQLException {
+            return executar(AJUSTAR_POR_NOME, delta, nome) > 0;
+        }
+
+        private List<Epi> consultar(String sql, Object... parametros) throws SQLException {
+            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
+                 PreparedStatement stmt = conexao.prepareStatement(sql)) {
+
+                for (int i = 0; i < parametros.length; i++) {
+                    stmt.setObject(i + 1, parametros[i]);
+                }
+
+                List<Epi> epis = new ArrayList<>();
+                try (ResultSet rs = ExecucaoRelatorio.consultar(stmt)) {
+                    while (rs.next()) {
+                        epis.add(ler(rs));
+                    }
+                }
+                return epis;
+            }
+        }
+
+        private static Epi ler(ResultSet rs) throws SQLException {
+            return new Epi(rs.getInt("id"), rs.getString("nome"), rs.getString("descricao"),
+                    ArmazenamentoJdbc.data(rs, "validade"), rs.getInt("quantidade"));
+        }
+
+        static int executar(String sql, Object... parametros) throws SQLException {
+            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
+                 PreparedStatement stmt = conexao.prepareStatement(sql)) {
+
+                for (int i = 0; i < parametros.length; i++) {
+                    stmt.setObject(i + 1, parametros[i]);
+                }
+                return stmt.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Funcionários no MySQL
+     */
+    static class FuncionarioRepositorioJdbc implements FuncionarioRepositorio {
+        private static final String SELECT_POR_CPF = "SELECT * FROM funcionario WHERE cpf = ?";
+
+        public int inserir(String nome, String cpf, String cargo, String departamento) throws SQLException {
+            String sql = "INSERT INTO funcionario (nome, cpf, cargo, departamento) VALUES (?, ?, ?, ?)";
+
+            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
+                 PreparedStatement stmt = conexao.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+
+                stmt.setString(1, nome);
+                stmt.setString(2, cpf);
+                stmt.setString(3, cargo);
+                stmt.setString(4, departamento);
+                stmt.executeUpdate();
+
+                FiltroBloom filtro = filtroCpfs;
+                if (filtro != null) {
+                    filtro.adicionar(cpf);
+                    if (!filtro.dentroDaCapacidade()) {
+                        carregarFiltroCpfs();
+                    }
+                }
+
+                // Recupera o ID gerado
+                try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
+                    return generatedKeys.next() ? generatedKeys.getInt(1) : 0;
+                }
+            }
+        }
+
+        public Funcionario buscarPorId(int id) throws SQLException {
+            List<Funcionario> funcionarios = consultar("SELECT * FROM funcionario WHERE id = ?", id);
+            return funcionarios.isEmpty() ? null : funcionarios.get(0);
+        }
+
+        public Funcionario buscarPorCpf(String cpf) throws SQLException {
+            // "Não contém" no filtro é definitivo: só os possíveis acertos vão ao banco
+            FiltroBloom filtro = filtroCpfs;
+            if (filtro != null && !filtro.talvezContenha(cpf)) {
+                return null;
+            }
+            List<Funcionario> funcionarios = consultar(SELECT_POR_CPF, cpf);
+            return funcionarios.isEmpty() ? null : funcionarios.get(0);
+        }
+
+        public List<Funcionario> listar() throws SQLException {
+            return consultar("SELECT * FROM funcionario ORDER BY nome");
+        }
+
+        @Override
+        public void percorrer(Predicate<Funcionario> visitante) throws SQLException {
+            ArmazenamentoJdbc.percorrer("SELECT * FROM funcionario ORDER BY nome", FuncionarioRepositorioJdbc::ler,
+                    visitante);
+        }
+
+        public boolean atualizar(int id, String nome, String cpf, String cargo, String departamento)
+                throws SQLException {
+            // Construir a query dinamicamente com base nos campos que serão atualizados
+            StringBuilder sql = new StringBuilder("UPDATE funcionario SET ");
+            List<Object> parametros = new ArrayList<>();
+
+            if (nome != null) {
+                sql.append("nome = ?, ");
+                parametros.add(nome);
+            }
+            if (cpf != null) {
+                sql.append("cpf = ?, ");
+                parametros.add(cpf);
+            }
+            if (cargo != null) {
+                sql.append("cargo = ?, ");
+                parametros.add(cargo);
+            }
+            if (departamento != null) {
+                sql.append("departamento = ?, ");
+                parametros.add(departamento);
+            }
+
+            if (parametros.isEmpty()) {
+                return false;
+            }
+
+            // Remove a última vírgula e espaço
+            sql.delete(sql.length() - 2, sql.length());
+            sql.append(" WHERE id = ?");
+            parametros.add(id);
+
+            boolean atualizado = EPIRepositorioJdbc.executar(sql.toString(), parametros.toArray()) > 0;
+            if (atualizado && cpf != null) {
+                substituirNoFiltro(cpf);
+            }
+            return atualizado;
+        }
+
+        public boolean remover(int id) throws SQLException {
+            boolean removido = EPIRepositorioJdbc.executar("DELETE FROM funcionario WHERE id = ?", id) > 0;
+            if (removido) {
+                substituirNoFiltro(null);
+            }
+            return removido;
+        }
+
+        /**
+         * O CPF anterior fica no filtro (o filtro não tem remoção), só conta para a
+         * capacidade; passando dela, o filtro é remontado a partir do banco
+         */
+        private static void substituirNoFiltro(String cpfNovo) {
+            FiltroBloom filtro = filtroCpfs;
+            if (filtro == null) {
+                return;
+            }
+            filtro.descartar();
+            if (cpfNovo != null) {
+                filtro.adicionar(cpfNovo);
+            }
+            if (!filtro.dentroDaCapacidade()) {
+                carregarFiltroCpfs();
+            }
+        }
+
+        private List<Funcionario> consultar(String sql, Object... parametros) throws SQLException {
+            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
+                 PreparedStatement stmt = conexao.prepareStatement(sql)) {
+
+                for (int i = 0; i < parametros.length; i++) {
+                    stmt.setObject(i + 1, parametros[i]);
+                }
+
+                List<Funcionario> funcionarios = new ArrayList<>();
+                try (ResultSet rs = ExecucaoRelatorio.consultar(stmt)) {
+                    while (rs.next()) {
+                        funcionarios.add(ler(rs));
+                    }
+                }
+                return funcionarios;
+            }
+        }
+
+        private static Funcionario ler(ResultSet rs) throws SQLException {
+            return new Funcionario(rs.getInt("id"), rs.getString("nome"), rs.getString("cpf"),
+                    rs.getString("cargo"), rs.getString("departamento"));
+        }
+    }
+
+    /**
+     * Empréstimos no MySQL
+     */
+    static class EmprestimoRepositorioJdbc implements EmprestimoRepositorio {
+        private static final String SELECT_COM_NOMES =
+                "SELECT e.*, f.nome AS funcionario, ep.nome AS epi " +
+                "FROM emprestimo e " +
+                "JOIN funcionario f ON e.id_funcionario = f.id " +
+                "JOIN epi ep ON e.id_epi = ep.id ";
+        // Colunas explícitas, para o UNION com emprestimo_historico ({t} = apelido da tabela)
+        private static final String COLUNAS_COM_NOMES =
+                "{t}.id, {t}.id_funcionario, {t}.id_epi, {t}.data_emprestimo, {t}.data_devolucao_prevista, " +
+                "{t}.data_devolucao_real, {t}.quantidade, {t}.status, f.nome AS funcionario, ep.nome AS epi";
+        // Consultas fixas (também conferidas por --verificar-planos)
+        private static final String SELECT_ENTRE =
+                SELECT_COM_NOMES + "WHERE e.data_emprestimo BETWEEN ? AND ? ORDER BY e.data_emprestimo DESC";
+        private static final String SELECT_ATIVOS =
+                SELECT_COM_NOMES + "WHERE e.status = 'Ativo' ORDER BY e.data_devolucao_prevista";
+        private static final String SELECT_VENCIMENTO_ENTRE = SELECT_COM_NOMES + "WHERE e.status = 'Ativo' " +
+                "AND e.data_devolucao_prevista BETWEEN ? AND ? ORDER BY e.data_devolucao_prevista";
+        private static final String SELECT_POR_FUNCIONARIO =
+                SELECT_COM_NOMES + "WHERE e.id_funcionario = ? ORDER BY e.data_emprestimo DESC";
+        private static final String SELECT_POR_EPI =
+                SELECT_COM_NOMES + "WHERE e.id_epi = ? ORDER BY e.data_emprestimo DESC";
+        private static final String SELECT_ATIVO_POR_FUNCIONARIO =
+                "SELECT 1 FROM emprestimo WHERE id_funcionario = ? AND status = 'Ativo' LIMIT 1";
+        private static final String SELECT_ATIVO_POR_EPI =
+                "SELECT 1 FROM emprestimo WHERE id_epi = ? AND status = 'Ativo' LIMIT 1";
+        private static final String SELECT_ATIVO_PARA_DEVOLUCAO =
+                "SELECT * FROM emprestimo WHERE id = ? AND status = 'Ativo' FOR UPDATE";
+        private static final String SELECT_TOTAIS_POR_EPI =
+                "SELECT id_epi, SUM(quantidade) FROM emprestimo WHERE data_emprestimo >= ? GROUP BY id_epi";
+        private static final String SELECT_TOTAIS_POR_FUNCIONARIO =
+                "SELECT id_funcionario, COUNT(*) FROM emprestimo WHERE data_emprestimo >= ? GROUP BY id_funcionario";
+
+        public int inserir(int idFuncionario, int idEpi, LocalDate dataEmprestimo, LocalDate dataDevolucaoPrevista,
+                           int quantidade) throws SQLException {
+            String sql = "INSERT INTO emprestimo (id_funcionario, id_epi, data_emprestimo, " +
+                    "data_devolucao_prevista, quantidade, status) VALUES (?, ?, ?, ?, ?, ?)";
+
+            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA)) {
+                // Verificação do desligamento e gravação na mesma transação
+                conexao.setAutoCommit(false);
+                int id;
+                try (PreparedStatement stmt = conexao.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                    if (funcionarioDesligado(conexao, idFuncionario)) {
+                        throw new FuncionarioDesligadoException();
+                    }
+
+                    stmt.setInt(1, idFuncionario);
+                    stmt.setInt(2, idEpi);
+                    stmt.setDate(3, Date.valueOf(dataEmprestimo));
+                    stmt.setDate(4, Date.valueOf(dataDevolucaoPrevista));
+                    stmt.setInt(5, quantidade);
+                    stmt.setString(6, Emprestimo.ATIVO);
+                    stmt.executeUpdate();
+
+                    // Recupera o ID gerado
+                    try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
+                        id = generatedKeys.next() ? generatedKeys.getInt(1) : 0;
+                    }
+                    conexao.commit();
+                } catch (SQLException e) {
+                    conexao.rollback();
+                    throw e;
+                }
+
+                INDICE_EMPRESTIMOS_ATIVOS.adicionar(id, idFuncionario, idEpi);
+                MAIS_EMPRESTADOS.registrar(id, idFuncionario, idEpi, quantidade, dataEmprestimo);
+                return id;
+            }
+        }
+
+        public Emprestimo buscarPorId(int id) throws SQLException {
+            List<Emprestimo> emprestimos = consultar(SELECT_COM_NOMES + "WHERE e.id = ?", id);
+            return emprestimos.isEmpty() ? null : emprestimos.get(0);
+        }
+
+        public List<Emprestimo> listar() throws SQLException {
+            return consultar(SELECT_COM_NOMES + "ORDER BY e.data_emprestimo DESC");
+        }
+
+        @Override
+        public void percorrer(Predicate<Emprestimo> visitante) throws SQLException {
+            ArmazenamentoJdbc.percorrer(SELECT_COM_NOMES + "ORDER BY e.data_emprestimo DESC", rs -> ler(rs, true),
+                    visitante);
+        }
+
+        @Override
+        public List<Emprestimo> listarEntre(LocalDate inicio, LocalDate fim) throws SQLException {
+            return consultar(SELECT_ENTRE, Date.valueOf(inicio), Date.valueOf(fim));
+        }
+
+        @Override
+        public Map<Integer, Long> totaisDesde(LocalDate desde, boolean porEpi) throws SQLException {
+            // Agrupa no banco, pelo índice de data_emprestimo: só os totais trafegam
+            String sql = porEpi ? SELECT_TOTAIS_POR_EPI : SELECT_TOTAIS_POR_FUNCIONARIO;
+
+            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
+                 PreparedStatement stmt = conexao.prepareStatement(sql)) {
+
+                stmt.setDate(1, Date.valueOf(desde));
+                Map<Integer, Long> totais = new HashMap<>();
+                try (ResultSet rs = ExecucaoRelatorio.consultar(stmt)) {
+                    while (rs.next()) {
+                        totais.put(rs.getInt(1), rs.getLong(2));
+                    }
+                }
+                return totais;
+            }
+        }
+
+        public List<Emprestimo> listarAtivos() throws SQLException {
+            return consultar(SELECT_ATIVOS);
+        }
+
+        public List<Emprestimo> listarAtivosComVencimentoEntre(LocalDate inicio, LocalDate fim) throws SQLException {
+            return consultar(SELECT_VENCIMENTO_ENTRE, Date.valueOf(inicio), Date.valueOf(fim));
+        }
+
+        public List<Emprestimo> listarAtivosPorFuncionario(int idFuncionario) throws SQLException {
+            int[] ids = INDICE_EMPRESTIMOS_ATIVOS.ativosPorFuncionario(idFuncionario);
+            if (ids == null) {
+                return consultar(SELECT_COM_NOMES + "WHERE e.id_funcionario = ? AND e.status = 'Ativo' " +
+                        "ORDER BY e.data_devolucao_prevista", idFuncionario);
+            }
+            if (ids.length == 0) {
+                return new ArrayList<>();
+            }
+
+            // Os IDs vêm do índice: a consulta vira uma busca pela chave primária
+            Object[] parametros = new Object[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                parametros[i] = ids[i];
+            }
+            return consultar(SELECT_COM_NOMES + "WHERE e.id IN (" +
+                    String.join(", ", Collections.nCopies(ids.length, "?")) + ") AND e.status = 'Ativo' " +
+                    "ORDER BY e.data_devolucao_prevista", parametros);
+        }
+
+        public List<Emprestimo> listarPorFuncionario(int idFuncionario) throws SQLException {
+            return consultar(SELECT_POR_FUNCIONARIO, idFuncionario);
+        }
+
+        public List<Emprestimo> listarPorEPI(int idEpi) throws SQLException {
+            return consultar(SELECT_POR_EPI, idEpi);
+        }
+
+        @Override
+        public List<Emprestimo> listarPorFuncionario(int idFuncionario, LocalDate desde) throws SQLException {
+            return historico("id_funcionario", idFuncionario, desde);
+        }
+
+        @Override
+        public List<Emprestimo> listarPorEPI(int idEpi, LocalDate desde) throws SQLException {
+            return historico("id_epi", idEpi, desde);
+        }
+
+        /**
+         * Histórico filtrado por funcionário ou EPI. emprestimo_historico entra sempre no
+         * UNION, em vez de depender do corte de arquivamento desta instância (o job pode
+         * ter rodado com outro -Depi.arquivamento.dias): a parte arquivada é uma faixa do
+         * índice (coluna, data_emprestimo), que volta vazia quando o período não chega lá.
+         */
+        private List<Emprestimo> historico(String coluna, int id, LocalDate desde) throws SQLException {
+            if (desde == null) {
+                return consultar(coluna.equals("id_funcionario") ? SELECT_POR_FUNCIONARIO : SELECT_POR_EPI, id);
+            }
+
+            List<Emprestimo> resultado;
+            try {
+                resultado = consultar(selectHistorico(coluna, true), id, Date.valueOf(desde), id, Date.valueOf(desde));
+            } catch (SQLException e) {
+                if (!"42S02".equals(e.getSQLState())) {
+                    throw e;
+                }
+                // Banco sem emprestimo_historico (script anterior à versão 5): nada arquivado
+                resultado = consultar(selectHistorico(coluna, false), id, Date.valueOf(desde));
+            }
+            if (!desde.isBefore(HistoricoFrio.limite())) {
+                return resultado;
+            }
+
+            // Anos já exportados para os arquivos colunares
+            try {
+                resultado.addAll(HISTORICO_FRIO.consultar(coluna.equals("id_funcionario"), id, desde));
+            } catch (IOException e) {
+                throw new SQLException("Erro ao ler o histórico compactado: " + e.getMessage(), e);
+            }
+            resultado.sort(Comparator.comparing((Emprestimo e) -> e.dataEmprestimo).reversed());
+            return resultado;
+        }
+
+        /**
+         * Histórico desde uma data (parâmetros: id e data); com os arquivados, une
+         * emprestimo_historico e os parâmetros se repetem
+         * @param coluna id_funcionario ou id_epi
+         */
+        private static String selectHistorico(String coluna, boolean comArquivados) {
+            String recentes = "SELECT " + COLUNAS_COM_NOMES.replace("{t}", "e") + " FROM emprestimo e " +
+                    "JOIN funcionario f ON e.id_funcionario = f.id JOIN epi ep ON e.id_epi = ep.id " +
+                    "WHERE e." + coluna + " = ? AND e.data_emprestimo >= ? ";
+            if (!comArquivados) {
+                return recentes + "ORDER BY data_emprestimo DESC";
+            }
+
+            String arquivados = "SELECT " + COLUNAS_COM_NOMES.replace("{t}", "h") + " FROM emprestimo_historico h " +
+                    "JOIN funcionario f ON h.id_funcionario = f.id JOIN epi ep ON h.id_epi = ep.id " +
+                    "WHERE h." + coluna + " = ? AND h.data_emprestimo >= ? ";
+            return recentes + "UNION ALL " + arquivados + "ORDER BY data_emprestimo DESC";
+        }
+
+        public boolean existeAtivoPorFuncionario(int idFuncionario) throws SQLException {
+            int ativos = INDICE_EMPRESTIMOS_ATIVOS.contarPorFuncionario(idFuncionario);
+            if (ativos >= 0) {
+                return ativos > 0;
+            }
+            return existe(SELECT_ATIVO_POR_FUNCIONARIO, idFuncionario);
+        }
+
+        public boolean existeAtivoPorEPI(int idEpi) throws SQLException {
+            int ativos = INDICE_EMPRESTIMOS_ATIVOS.contarPorEPI(idEpi);
+            if (ativos >= 0) {
+                return ativos > 0;
+            }
+            return existe(SELECT_ATIVO_POR_EPI, idEpi);
+        }
+
+        public Emprestimo registrarDevolucao(int id, LocalDate data) throws SQLException {
+            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA)) {
+                conexao.setAutoCommit(false);
+
+                try {
+                    Emprestimo emprestimo = null;
+                    try (PreparedStatement stmt = conexao.prepareStatement(SELECT_ATIVO_PARA_DEVOLUCAO)) {
+                        stmt.setInt(1, id);
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            if (rs.next()) {
+                                emprestimo = ler(rs, false);
+                            }
+                        }
+                    }
+
+                    if (emprestimo != null) {
+                        try (PreparedStatement stmt = conexao.prepareStatement(
+                                "UPDATE emprestimo SET data_devolucao_real = ?, status = 'Devolvido' WHERE id = ?")) {
+                            stmt.setDate(1, Date.valueOf(data));
+                            stmt.setInt(2, id);
+                            stmt.executeUpdate();
+                        }
+                    }
+
+                    conexao.commit();
+                    if (emprestimo != null) {
+                        INDICE_EMPRESTIMOS_ATIVOS.remover(id);
+                    }
+                    return emprestimo;
+                } catch (SQLException e) {
+                    conexao.rollback();
+                    throw e;
+                }
+            }
+        }
+
+        public List<EpiEmprestado> listarEPIsEmprestados() throws SQLException {
+            String sql = "SELECT ep.id, ep.nome, ep.descricao, SUM(e.quantidade) AS total_emprestado " +
+                    "FROM epi ep " +
+                    "JOIN emprestimo e ON ep.id = e.id_epi " +
+                    "WHERE e.status = 'Ativo' " +
+                    "GROUP BY ep.id, ep.nome, ep.descricao " +
+                    "ORDER BY ep.nome";
+
+            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
+                 Statement stmt = conexao.createStatement();
+                 ResultSet rs = ExecucaoRelatorio.consultar(stmt, sql)) {
+
+                List<EpiEmprestado> resultado = new ArrayList<>();
+                while (rs.next()) {
+                    resultado.add(new EpiEmprestado(rs.getInt("id"), rs.getString("nome"),
+                            rs.getString("descricao"), rs.getInt("total_emprestado")));
+                }
+                return resultado;
+            }
+        }
+
+        private boolean existe(String sql, int id) throws SQLException {
+            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
+                 PreparedStatement stmt = conexao.prepareStatement(sql)) {
+
+                stmt.setInt(1, id);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs.next();
+                }
+            }
+        }
+
+        private List<Emprestimo> consultar(String sql, Object... parametros) throws SQLException {
+            try (Connection conexao = DriverManager.getConnection(URL, USUARIO, SENHA);
+                 PreparedStatement stmt = conexao.prepareStatement(sql)) {
+
+                for (int i = 0; i < parametros.length; i++) {
+                    stmt.setObject(i + 1, parametros[i]);
+                }
+
+                List<Emprestimo> emprestimos = new ArrayList<>();
+                try (ResultSet rs = ExecucaoRelatorio.consultar(stmt)) {
+                    while (rs.next()) {
+                        emprestimos.add(ler(rs, true));
+                    }
+                }
+                return emprestimos;
+            }
+        }
+
+        private static Emprestimo ler(ResultSet rs, boolean comNomes) throws SQLException {
+            return new Emprestimo(
+                    rs.getInt("id"),
+                    rs.getInt("id_funcionario"),
+                    rs.getInt("id_epi"),
+                    ArmazenamentoJdbc.data(rs, "data_emprestimo"),
+                    ArmazenamentoJdbc.data(rs, "data_devolucao_prevista"),
+                    ArmazenamentoJdbc.data(rs, "data_devolucao_real"),
+                    rs.getInt("quantidade"),
+                    rs.getString("status"),
+                    comNomes ? rs.getString("funcionario") : null,
+                    comNomes ? rs.getString("epi") : null);
+        }
+    }
+
+    // ---------- Implementação em memória ----------
+
+    /**
+     * Armazenamento em memória, sem servidor de banco de dados. Serve para testes,
+     * benchmarks e instalações pequenas. Os três repositórios compartilham um único
+     * ReadWriteLock, o que mantém consistentes as verificações entre tabelas (chaves
+     * estrangeiras) e os "JOINs" de nomes; as leituras podem ocorrer em paralelo.
+     *
+     * Toda alteração passa por aoGravar/aoRemover (com a trava de escrita, antes de
+     * ser aplicada), onde um armazenamento persistente pode gravá-la ou recusá-la.
+     */
+    static class ArmazenamentoMemoria implements Armazenamento {
+        static final byte TABELA_EPI = 1;
+        static final byte TABELA_FUNCIONARIO = 2;
+        static final byte TABELA_EMPRESTIMO = 3;
+
+        final ReentrantReadWriteLock trava = new ReentrantReadWriteLock();
+        final EPIRepositorioMemoria epis = new EPIRepositorioMemoria(this);
+        final FuncionarioRepositorioMemoria funcionarios = new FuncionarioRepositorioMemoria(this);
+        final EmprestimoRepositorioMemoria emprestimos = new EmprestimoRepositorioMemoria(this);
+
+        public EPIRepositorio epis() {
+            return epis;
+        }
+
+        public FuncionarioRepositorio funcionarios() {
+            return funcionarios;
+        }
+
+        public EmprestimoRepositorio emprestimos() {
+            return emprestimos;
+        }
+
+        public void verificarDisponibilidade() throws SQLException {
+            // Sempre disponível
+        }
+
+        public String descricao() {
+            return "memória (os dados não são gravados em disco)";
+        }
+
+        void aoGravar(Epi epi) throws SQLException {
+            // Nada a persistir em memória
+        }
+
+        void aoGravar(Funcionario funcionario) throws SQLException {
+            // Nada a persistir em memória
+        }
+
+        void aoGravar(Emprestimo emprestimo) throws SQLException {
+            // Nada a persistir em memória
+        }
+
+        void aoRemover(byte tabela, int id) throws SQLException {
+            // Nada a persistir em memória
+        }
+    }
+
+    /**
+     * EPIs em memória, indexados por ID (mapa de chave int) e por nome (índice
+     * ordenado, sem diferenciar maiúsculas, como a collation padrão do MySQL)
+     */
+    static class EPIRepositorioMemoria implements EPIRepositorio {
+        private final ArmazenamentoMemoria armazenamento;
+        private final MapaInt<Epi> porId = new MapaInt<>();
+        private final TreeMap<String, ListaInt> porNome = new TreeMap<>();
+        private int proximoId = 1;
+
+        EPIRepositorioMemoria(ArmazenamentoMemoria armazenamento) {
+            this.armazenamento = armazenamento;
+        }
+
+        public int inserir(String nome, String descricao, LocalDate validade, int quantidade) throws SQLException {
+            armazenamento.trava.writeLock().lock();
+            try {
+                Epi epi = new Epi(proximoId, nome, descricao, validade, quantidade);
+                armazenamento.aoGravar(epi);
+                restaurar(epi);
+                return epi.id;
+            } finally {
+                armazenamento.trava.writeLock().unlock();
+            }
+        }
+
+        public Epi buscarPorId(int id) {
+            armazenamento.trava.readLock().lock();
+            try {
+                return porId.obter(id);
+            } finally {
+                armazenamento.trava.readLock().unlock();
+            }
+        }
+
+        public Epi buscarPorNome(String nome) {
+            armazenamento.trava.readLock().lock();
+            try {
+                ListaInt ids = porNome.get(chaveNome(nome));
+                return ids != null ? porId.obter(ids.obter(0)) : null;
+            } finally {
+                armazenamento.trava.readLock().unlock();
+            }
+        }
+
+        public List<Epi> listar() {
+            return filtrar(epi -> true, POR_NOME);
+        }
+
+        public List<Epi> listarDisponiveis() {
+            return filtrar(epi -> epi.quantidade > 0, POR_NOME);
+        }
+
+        public List<Epi> listarVencidos(LocalDate hoje) {
+            return filtrar(epi -> epi.vencido(hoje), POR_VALIDADE);
+        }
+
+        public List<Epi> listarComValidadeEntre(LocalDate inicio, LocalDate fim) {
+            return filtrar(epi -> epi.validade != null && !epi.validade.isBefore(inicio) && !epi.validade.isAfter(fim),
+                    POR_VALIDADE);
+        }
+
+        public boolean atualizar(int id, String nome, String descricao, LocalDate validade, Integer quantidade)
+                throws SQLException {
+            armazenamento.trava.writeLock().lock();
+            try {
+                Epi atual = porId.obter(id);
+                if (atual == null) {
+                    return false;
+                }
+                substituir(atual, new Epi(id,
+                        nome != null ? nome : atual.nome,
+                        descricao != null ? descricao : atual.descricao,
+                        validade != null ? validade : atual.validade,
+                        quantidade != null ? quantidade : atual.quantidade));
+                return true;
+            } finally {
+                armazenamento.trava.writeLock().unlock();
+            }
+        }
+
+        public boolean remover(int id) throws SQLException {
+            armazenamento.trava.writeLock().lock();
+            try {
+                if (armazenamento.emprestimos.referenciaEPI(id)) {
+                    throw new SQLIntegrityConstraintViolationException(
+                            "Não é possível remover: o EPI " + id + " é referenciado por empréstimos");
+                }
+                Epi removido = porId.obter(id);
+                if (removido == null) {
+                    return false;
+                }
+                armazenamento.aoRemover(ArmazenamentoMemoria.TABELA_EPI, id);
+                porId.remover(id);
+                desindexarNome(removido);
+                return true;
+            } finally {
+                armazenamento.trava.writeLock().unlock();
+            }
+        }
+
+        public boolean ajustarQuantidade(int id, int delta) throws SQLException {
+            armazenamento.trava.writeLock().lock();
+            try {
+                Epi atual = porId.obter(id);
+                if (atual == null) {
+                    return false;
+                }
+                substituir(atual, new Epi(id, atual.nome, atual.descricao, atual.validade, atual.quantidade + delta));
+                return true;
+            } finally {
+                armazenamento.trava.writeLock().unlock();
+            }
+        }
+
+        public boolean ajustarQuantidadePorNome(String nome, int delta) throws SQLException {
+            armazenamento.trava.writeLock().lock();
+            try {
+                ListaInt ids = porNome.get(chaveNome(nome));
+                if (ids == null) {
+                    return false;
+                }
+                for (int id : ids.copiar()) {
+                    Epi epi = porId.obter(id);
+                    substituir(epi, new Epi(id, epi.nome, epi.descricao, epi.validade, epi.quantidade + delta));
+                }
+                return true;
+            } finally {
+                armazenamento.trava.writeLock().unlock();
+            }
+        }
+
+        /**
+         * Inclui um EPI já gravado (carga inicial ou inserção), mantendo os índices
+         * e a sequência de IDs; chamado com a trava de escrita adquirida
+         */
+        void restaurar(Epi epi) {
+            porId.colocar(epi.id, epi);
+            porNome.computeIfAbsent(chaveNome(epi.nome), n -> new ListaInt()).adicionar(epi.id);
+            proximoId = Math.max(proximoId, epi.id + 1);
+        }
+
+        /** EPI pelo ID; chamado com a trava já adquirida */
+        Epi porIdSemTrava(int id) {
+            return porId.obter(id);
+        }
+
+        /** Nome do EPI para os "JOINs"; chamado com a trava já adquirida */
+        String nome(int id) {
+            Epi epi = porId.obter(id);
+            return epi != null ? epi.nome : null;
+        }
+
+        private void substituir(Epi atual, Epi novo) throws SQLException {
+            armazenamento.aoGravar(novo);
+            porId.colocar(novo.id, novo);
+            if (!chaveNome(atual.nome).equals(chaveNome(novo.nome))) {
+                desindexarNome(atual);
+                porNome.computeIfAbsent(chaveNome(novo.nome), n -> new ListaInt()).adicionar(novo.id);
+            }
+        }
+
+        private void desindexarNome(Epi epi) {
+            String chave = chaveNome(epi.nome);
+            ListaInt ids = porNome.get(chave);
+            ids.removerValor(epi.id);
+            if (ids.tamanho() == 0) {
+                porNome.remove(chave);
+            }
+        }
+
+        private static String chaveNome(String nome) {
+            return nome.toLowerCase(Locale.ROOT);
+        }
+
+        private static final Comparator<Epi> POR_NOME =
+                Comparator.comparing((Epi epi) -> epi.nome, String.CASE_INSENSITIVE_ORDER).thenComparingInt(epi -> epi.id);
+        private static final Comparator<Epi> POR_VALIDADE =
+                Comparator.comparing((Epi epi) -> epi.validade).thenComparingInt(epi -> epi.id);
+
+        private List<Epi> filtrar(Predicate<Epi> filtro, Comparator<Epi> ordem) {
+            armazenamento.trava.readLock().lock();
+            try {
+                List<Epi> resultado = new ArrayList<>();
+                for (Epi epi : porId.valores()) {
+                    if (filtro.test(epi)) {
+                        resultado.add(epi);
+                    }
+                }
+                resultado.sort(ordem);
+                return resultado;
+            } finally {
+                armazenamento.trava.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Funcionários em memória, indexados por ID (mapa de chave int) e por CPF (único)
+     */
+    static class FuncionarioRepositorioMemoria implements FuncionarioRepositorio {
+        private final ArmazenamentoMemoria armazenamento;
+        private final MapaInt<Funcionario> porId = new MapaInt<>();
+        private final Map<String, Integer> idPorCpf = new HashMap<>();
+        private int proximoId = 1;
+
+        FuncionarioRepositorioMemoria(ArmazenamentoMemoria armazenamento) {
+            this.armazenamento = armazenamento;
+        }
+
+        public int inserir(String nome, String cpf, String cargo, String departamento) throws SQLException {
+            armazenamento.trava.writeLock().lock();
+            try {
+                if (idPorCpf.containsKey(cpf)) {
+                    throw new SQLIntegrityConstraintViolationException("CPF duplicado: " + cpf);
+                }
+                Funcionario funcionario = new Funcionario(proximoId, nome, cpf, cargo, departamento);
+                armazenamento.aoGravar(funcionario);
+                restaurar(funcionario);
+                return funcionario.id;
+            } finally {
+                armazenamento.trava.writeLock().unlock();
+            }
+        }
+
+        public Funcionario buscarPorId(int id) {
+            armazenamento.trava.readLock().lock();
+            try {
+                return porId.obter(id);
+            } finally {
+                armazenamento.trava.readLock().unlock();
+            }
+        }
+
+        public Funcionario buscarPorCpf(String cpf) {
+            armazenamento.trava.readLock().lock();
+            try {
+                Integer id = idPorCpf.get(cpf);
+                return id != null ? porId.obter(id) : null;
+            } finally {
+                armazenamento.trava.readLock().unlock();
+            }
+        }
+
+        public List<Funcionario> listar() {
+            armazenamento.trava.readLock().lock();
+            try {
+                List<Funcionario> resultado = porId.valores();
+                resultado.sort(Comparator.comparing((Funcionario f) -> f.nome, String.CASE_INSENSITIVE_ORDER)
+                        .thenComparingInt(f -> f.id));
+                return resultado;
+            } finally {
+                armazenamento.trava.readLock().unlock();
+            }
+        }
+
+        public boolean atualizar(int id, String nome, String cpf, String cargo, String departamento)
+                throws SQLException {
+            armazenamento.trava.writeLock().lock();
+            try {
+                Funcionario atual = porId.obter(id);
+                if (atual == null) {
+                    return false;
+                }
+                boolean trocaCpf = cpf != null && !cpf.equals(atual.cpf);
+                if (trocaCpf && idPorCpf.containsKey(cpf)) {
+                    throw new SQLIntegrityConstraintViolationException("CPF duplicado: " + cpf);
+                }
+
+                Funcionario novo = new Funcionario(id,
+                        nome != null ? nome : atual.nome,
+                        cpf != null ? cpf : atual.cpf,
+                        cargo != null ? cargo : atual.cargo,
+                        departamento != null ? departamento : atual.departamento);
+                armazenamento.aoGravar(novo);
+
+                if (trocaCpf) {
+                    idPorCpf.remove(atual.cpf);
+                    idPorCpf.put(cpf, id);
+                }
+                porId.colocar(id, novo);
+                return true;
+            } finally {
+                armazenamento.trava.writeLock().unlock();
+            }
+        }
+
+        public boolean remover(int id) throws SQLException {
+            armazenamento.trava.writeLock().lock();
+            try {
+                if (armazenamento.emprestimos.referenciaFuncionario(id)) {
+                    throw new SQLIntegrityConstraintViolationException(
+                            "Não é possível remover: o funcionário " + id + " é referenciado por empréstimos");
+                }
+                Funcionario removido = porId.obter(id);
+                if (removido == null) {
+                    return false;
+                }
+                armazenamento.aoRemover(ArmazenamentoMemoria.TABELA_FUNCIONARIO, id);
+                porId.remover(id);
+                idPorCpf.remove(removido.cpf);
+                return true;
+            } finally {
+                armazenamento.trava.writeLock().unlock();
+            }
+        }
+
+        /**
+         * Inclui um funcionário já gravado (carga inicial ou inserção), mantendo os
+         * índices e a sequência de IDs; chamado com a trava de escrita adquirida
+         */
+        void restaurar(Funcionario funcionario) {
+            porId.colocar(funcionario.id, funcionario);
+            idPorCpf.put(funcionario.cpf, funcionario.id);
+            proximoId = Math.max(proximoId, funcionario.id + 1);
+        }
+
+        /** Nome do funcionário para os "JOINs"; chamado com a trava já adquirida */
+        String nome(int id) {
+            Funcionario funcionario = porId.obter(id);
+            return funcionario != null ? funcionario.nome : null;
+        }
+    }
+
+    /**
+     * Empréstimos em memória. Além do mapa principal por ID, mantém índices
+     * secundários por status (ativos), por data prevista de devolução (somente
+     * ativos), por funcionário e por EPI (todos e somente ativos), com chaves e
+     * listas de int.
+     */
+    static class EmprestimoRepositorioMemoria implements EmprestimoRepositorio {
+        private final ArmazenamentoMemoria armazenamento;
+        private final MapaInt<Emprestimo> porId = new MapaInt<>();
+        private final MapaInt<Emprestimo> ativos = new MapaInt<>();
+        private final TreeMap<LocalDate, ListaInt> ativosPorVencimento = new TreeMap<>();
+        private final MapaInt<ListaInt> porFuncionario = new MapaInt<>();
+        private final MapaInt<ListaInt> porEPI = new MapaInt<>();
+        private final MapaInt<ListaInt> ativosPorFuncionario = new MapaInt<>();
+        private final MapaInt<ListaInt> ativosPorEPI = new MapaInt<>();
+        private int proximoId = 1;
+
+        private static final Comparator<Emprestimo> MAIS_RECENTES =
+                Comparator.comparing((Emprestimo e) -> e.dataEmprestimo).reversed().thenComparingInt(e -> e.id);
+        private static final Comparator<Emprestimo> POR_VENCIMENTO =
+                Comparator.comparing((Emprestimo e) -> e.dataDevolucaoPrevista).thenComparingInt(e -> e.id);
+
+        EmprestimoRepositorioMemoria(ArmazenamentoMemoria armazenamento) {
+            this.armazenamento = armazenamento;
+        }
+
+        public int inserir(int idFuncionario, int idEpi, LocalDate dataEmprestimo, LocalDate dataDevolucaoPrevista,
+                           int quantidade) throws SQLException {
+            armazenamento.trava.writeLock().lock();
+            try {
+                if (armazenamento.funcionarios.nome(idFuncionario) == null || armazenamento.epis.nome(idEpi) == null) {
+                    throw new SQLIntegrityConstraintViolationException("Funcionário ou EPI inexistente");
+                }
+                Emprestimo emprestimo = new Emprestimo(proximoId, idFuncionario, idEpi, dataEmprestimo,
+                        dataDevolucaoPrevista, null, quantidade, Emprestimo.ATIVO, null, null);
+                armazenamento.aoGravar(emprestimo);
+                restaurar(emprestimo);
+                MAIS_EMPRESTADOS.registrar(emprestimo.id, idFuncionario, idEpi, quantidade, dataEmprestimo);
+                return emprestimo.id;
+            } finally {
+                armazenamento.trava.writeLock().unlock();
+            }
+        }
+
+        public Emprestimo buscarPorId(int id) {
+            armazenamento.trava.readLock().lock();
+            try {
+                Emprestimo emprestimo = porId.obter(id);
+                return emprestimo != null ? comNomes(emprestimo) : null;
+            } finally {
+                armazenamento.trava.readLock().unlock();
+            }
+        }
+
+        public List<Emprestimo> listar() {
+            armazenamento.trava.readLock().lock();
+            try {
+                return ordenarComNomes(porId.valores(), MAIS_RECENTES);
+            } finally {
+                armazenamento.trava.readLock().unlock();
+            }
+        }
+
+        public List<Emprestimo> listarAtivos() {
+            armazenamento.trava.readLock().lock();
+            try {
+                return ordenarComNomes(ativos.valores(), POR_VENCIMENTO);
+            } finally {
+                armazenamento.trava.readLock().unlock();
+            }
+        }
+
+        public List<Emprestimo> listarAtivosComVencimentoEntre(LocalDate inicio, LocalDate fim) {
+            armazenamento.trava.readLock().lock();
+            try {
+                // Percorre só as datas do intervalo no índice por vencimento
+                List<Emprestimo> resultado = new ArrayList<>();
+                for (ListaInt ids : ativosPorVencimento.subMap(inicio, true, fim, true).values()) {
+                    for (int i = 0; i < ids.tamanho(); i++) {
+                        resultado.add(porId.obter(ids.obter(i)));
+                    }
+                }
+                return ordenarComNomes(resultado, POR_VENCIMENTO);
+            } finally {
+                armazenamento.trava.readLock().unlock();
+            }
+        }
+
+        public List<Emprestimo> listarAtivosPorFuncionario(int idFuncionario) {
+            armazenamento.trava.readLock().lock();
+            try {
+                return ordenarComNomes(doIndice(ativosPorFuncionario, idFuncionario), POR_VENCIMENTO);
+            } finally {
+                armazenamento.trava.readLock().unlock();
+            }
+        }
+
+        public List<Emprestimo> listarPorFuncionario(int idFuncionario) {
+            armazenamento.trava.readLock().lock();
+            try {
+                return ordenarComNomes(doIndice(porFuncionario, idFuncionario), MAIS_RECENTES);
+            } finally {
+                armazenamento.trava.readLock().unlock();
+            }
+        }
+
+        public List<Emprestimo> listarPorEPI(int idEpi) {
+            armazenamento.trava.readLock().lock();
+            try {
+                return ordenarComNomes(doIndice(porEPI, idEpi), MAIS_RECENTES);
+            } finally {
+                armazenamento.trava.readLock().unlock();
+            }
+        }
+
+        public boolean existeAtivoPorFuncionario(int idFuncionario) {
+            armazenamento.trava.readLock().lock();
+            try {
+                return temItens(ativosPorFuncionario, idFuncionario);
+            } finally {
+                armazenamento.trava.readLock().unlock();
+            }
+        }
+
+        public boolean existeAtivoPorEPI(int idEpi) {
+            armazenamento.trava.readLock().lock();
+            try {
+                return temItens(ativosPorEPI, idEpi);
+            } finally {
+                armazenamento.trava.readLock().unlock();
+            }
+        }
+
+        public Emprestimo registrarDevolucao(int id, LocalDate data) throws SQLException {
+            armazenamento.trava.writeLock().lock();
+            try {
+                Emprestimo emprestimo = ativos.obter(id);
+                if (emprestimo == null) {
+                    return null;
+                }
+                Emprestimo devolvido = emprestimo.devolvido(data);
+                armazenamento.aoGravar(devolvido);
+
+                porId.colocar(id, devolvido);
+                desindexarAtivo(emprestimo);
+                return emprestimo;
+            } finally {
+                armazenamento.trava.writeLock().unlock();
+            }
+        }
+
+        public List<EpiEmprestado> listarEPIsEmprestados() {
+            armazenamento.trava.readLock().lock();
+            try {
+                List<EpiEmprestado> resultado = new ArrayList<>();
+                for (int idEpi : ativosPorEPI.chaves()) {
+                    ListaInt ids = ativosPorEPI.obter(idEpi);
+                    int total = 0;
+                    for (int i = 0; i < ids.tamanho(); i++) {
+                        total += porId.obter(ids.obter(i)).quantidade;
+                    }
+                    Epi epi = armazenamento.epis.porIdSemTrava(idEpi);
+                    resultado.add(new EpiEmprestado(idEpi, epi.nome, epi.descricao, total));
+                }
+                resultado.sort(Comparator.comparing((EpiEmprestado e) -> e.nome, String.CASE_INSENSITIVE_ORDER));
+                return resultado;
+            } finally {
+                armazenamento.trava.readLock().unlock();
+            }
+        }
+
+        /**
+         * Inclui um empréstimo já gravado (carga inicial ou inserção) em todos os
+         * índices e ajusta a sequência de IDs; chamado com a trava de escrita adquirida
+         */
+        void restaurar(Emprestimo emprestimo) {
+            porId.colocar(emprestimo.id, emprestimo);
+            lista(porFuncionario, emprestimo.idFuncionario).adicionar(emprestimo.id);
+            lista(porEPI, emprestimo.idEpi).adicionar(emprestimo.id);
+            if (emprestimo.ativo()) {
+                ativos.colocar(emprestimo.id, emprestimo);
+                ativosPorVencimento.computeIfAbsent(emprestimo.dataDevolucaoPrevista, d -> new ListaInt())
+                        .adicionar(emprestimo.id);
+                lista(ativosPorFuncionario, emprestimo.idFuncionario).adicionar(emprestimo.id);
+                lista(ativosPorEPI, emprestimo.idEpi).adicionar(emprestimo.id);
+            }
+            proximoId = Math.max(proximoId, emprestimo.id + 1);
+        }
+
+        /** Usado pelas "chaves estrangeiras"; chamado com a trava já adquirida */
+        boolean referenciaFuncionario(int idFuncionario) {
+            return temItens(porFuncionario, idFuncionario);
+        }
+
+        /** Usado pelas "chaves estrangeiras"; chamado com a trava já adquirida */
+        boolean referenciaEPI(int idEpi) {
+            return temItens(porEPI, idEpi);
+        }
+
+        private void desindexarAtivo(Emprestimo emprestimo) {
+            ativos.remover(emprestimo.id);
+            ListaInt doDia = ativosPorVencimento.get(emprestimo.dataDevolucaoPrevista);
+            doDia.removerValor(emprestimo.id);
+            if (doDia.tamanho() == 0) {
+                ativosPorVencimento.remove(emprestimo.dataDevolucaoPrevista);
+            }
+            retirar(ativosPorFuncionario, emprestimo.idFuncionario, emprestimo.id);
+            retirar(ativosPorEPI, emprestimo.idEpi, emprestimo.id);
+        }
+
+        private static ListaInt lista(MapaInt<ListaInt> indice, int chave) {
+            ListaInt ids = indice.obter(chave);
+            if (ids == null) {
+                ids = new ListaInt();
+                indice.colocar(chave, ids);
+            }
+            return ids;
+        }
+
+        private static void retirar(MapaInt<ListaInt> indice, int chave, int id) {
+            ListaInt ids = indice.obter(chave);
+            ids.removerValor(id);
+            if (ids.tamanho() == 0) {
+                indice.remover(chave);
+            }
+        }
+
+        private static boolean temItens(MapaInt<ListaInt> indice, int chave) {
+            ListaInt ids = indice.obter(chave);
+            return ids != null && ids.tamanho() > 0;
+        }
+
+        private List<Emprestimo> doIndice(MapaInt<ListaInt> indice, int chave) {
+            ListaInt ids = indice.obter(chave);
+            List<Emprestimo> resultado = new ArrayList<>(ids != null ? ids.tamanho() : 0);
+            if (ids != null) {
+                for (int i = 0; i < ids.tamanho(); i++) {
+                    resultado.add(porId.obter(ids.obter(i)));
+                }
+            }
+            return resultado;
+        }
+
+        private Emprestimo comNomes(Emprestimo emprestimo) {
+            return emprestimo.comNomes(armazenamento.funcionarios.nome(emprestimo.idFuncionario),
+                    armazenamento.epis.nome(emprestimo.idEpi));
+        }
+
+        private List<Emprestimo> ordenarComNomes(List<Emprestimo> emprestimos, Comparator<Emprestimo> ordem) {
+            List<Emprestimo> resultado = new ArrayList<>(emprestimos.size());
+            for (Emprestimo emprestimo : emprestimos) {
+                resultado.add(comNomes(emprestimo));
+            }
+            resultado.sort(ordem);
+            return resultado;
+        }
+    }
+
+    // ---------- Implementação embutida em arquivos ----------
+
+    /**
+     * Armazenamento embutido em arquivos locais, para quiosques sem servidor MySQL.
+     *
+     * Cada tabela é um arquivo mapeado em memória (TabelaArquivo), dividido em páginas
+     * de registros de tamanho fixo. Toda alteração é gravada primeiro no diário
+     * (write-ahead log com CRC, sincronizado com o disco) e só depois na página; na
+     * abertura o diário é reaplicado, recuperando alterações cujas páginas não chegaram
+     * ao disco antes de uma queda. As entradas vão ao diário em transações terminadas
+     * por uma marca de confirmação (uma alteração avulsa é uma transação de uma entrada;
+     * emTransacao agrupa várias) e só transações confirmadas são reaplicadas. O espaço
+     * na página é reservado antes da gravação no diário, então uma alteração recusada
+     * (arquivo no tamanho máximo) não chega ao diário. Quando o diário cresce, as páginas são descarregadas
+     * e o diário é zerado. Os índices (ID, CPF, nome, empréstimos ativos por
+     * funcionário/EPI e por vencimento) são os do armazenamento em memória,
+     * reconstruídos a partir das páginas na abertura.
+     */
+    static class ArmazenamentoArquivo extends ArmazenamentoMemoria {
+        // Tamanho do diário a partir do qual as páginas são descarregadas e o diário zerado
+        private static final long LIMITE_DIARIO = 4L * 1024 * 1024;
+
+        // Entrada do diário: tamanho dos dados, tabela, operação, ID, dados, CRC32.
+        // A marca de confirmação fecha a transação e traz no ID o número de entradas dela
+        private static final int CABECALHO_DIARIO = 4 + 1 + 1 + 4;
+        private static final byte GRAVAR = 1;
+        private static final byte REMOVER = 2;
+        private static final byte CONFIRMAR = 3;
+
+        // Tamanho dos registros (byte de ocupação + campos; textos em UTF-16 com prefixo de tamanho)
+        private static final int TAMANHO_EPI = 1 + 4 + texto(100) + texto(255) + 4 + 4;
+        private static final int TAMANHO_FUNCIONARIO = 1 + 4 + texto(100) + texto(14) + texto(50) + texto(50);
+        private static final int TAMANHO_EMPRESTIMO = 1 + 4 * 7 + texto(20);
+
+        private final Path diretorio;
+        private TabelaArquivo tabelaEpis;
+        private TabelaArquivo tabelaFuncionarios;
+        private TabelaArquivo tabelaEmprestimos;
+        private FileChannel diario;
+        private FileLock bloqueio;
+        // Entradas da transação em andamento (null fora de emTransacao)
+        private List<EntradaDiario> pendentes;
+        // Uma transação já aplicada em memória não chegou ao diário: só reabrindo
+        private boolean inconsistente;
+
+        /** Alteração de um registro, como gravada no diário */
+        private static final class EntradaDiario {
+            final byte tabela;
+            final byte operacao;
+            final int id;
+            final byte[] dados;
+
+            EntradaDiario(byte tabela, byte operacao, int id, byte[] dados) {
+                this.tabela = tabela;
+                this.operacao = operacao;
+                this.id = id;
+                this.dados = dados;
+            }
+        }
+
+        ArmazenamentoArquivo(Path diretorio) {
+            this.diretorio = diretorio;
+        }
+
+        /**
+         * Abre os arquivos na primeira chamada (reaplicando o diário e carregando os índices)
+         */
+        @Override
+        public synchronized void verificarDisponibilidade() throws SQLException {
+            if (diario != null) {
+                return;
+            }
+            try {
+                abrir();
+            } catch (IOException e) {
+                throw new SQLException("não foi possível abrir os arquivos em " + diretorio.toAbsolutePath() +
+                        ": " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public String descricao() {
+            return "arquivos locais (" + diretorio.toAbsolutePath() + ")";
+        }
+
+        /**
+         * Acumula as entradas das alterações e as grava no diário de uma vez, com a marca
+         * de confirmação. Se a operação falhar no meio, o que ela já alterou em memória é
+         * confirmado assim mesmo (a memória não desfaz alterações), para o disco seguir a memória
+         */
+        @Override
+        public <T> T emTransacao(Transacao<T> transacao) throws SQLException {
+            trava.writeLock().lock();
+            try {
+                if (pendentes != null) {
+                    // Transação aninhada: faz parte da externa
+                    return transacao.executar();
+                }
+                pendentes = new ArrayList<>();
+                try {
+                    T resultado;
+                    try {
+                        resultado = transacao.executar();
+                    } catch (SQLException | RuntimeException e) {
+                        try {
+                            confirmarPendentes();
+                        } catch (SQLException falha) {
+                            e.addSuppressed(falha);
+                        }
+                        throw e;
+                    }
+                    confirmarPendentes();
+                    return resultado;
+                } finally {
+                    pendentes = null;
+                }
+            } finally {
+                trava.writeLock().unlock();
+            }
+        }
+
+        private void confirmarPendentes() throws SQLException {
+            List<EntradaDiario> entradas = pendentes;
+            pendentes = null;
+            if (entradas == null || entradas.isEmpty()) {
+                return;
+            }
+            try {
+                confirmar(entradas);
+            } catch (SQLException e) {
+                inconsistente = true;
+                throw e;
+            }
+        }
+
+        @Override
+        void aoGravar(Epi epi) throws SQLException {
+            ByteBuffer dados = ByteBuffer.allocate(TAMANHO_EPI - 1);
+            dados.putInt(epi.id);
+            escreverTexto(dados, epi.nome, 100, "nome");
+            escreverTexto(dados, epi.descricao, 255, "descricao");
+            escreverData(dados, epi.validade);
+            dados.putInt(epi.quantidade);
+            registrar(TABELA_EPI, GRAVAR, epi.id, dados.array());
+        }
+
+        @Override
+        void aoGravar(Funcionario funcionario) throws SQLException {
+            ByteBuffer dados = ByteBuffer.allocate(TAMANHO_FUNCIONARIO - 1);
+            dados.putInt(funcionario.id);
+            escreverTexto(dados, funcionario.nome, 100, "nome");
+            escreverTexto(dados, funcionario.cpf, 14, "cpf");
+            escreverTexto(dados, funcionario.cargo, 50, "cargo");
+            escreverTexto(dados, funcionario.departamento, 50, "departamento");
+            registrar(TABELA_FUNCIONARIO, GRAVAR, funcionario.id, dados.array());
+        }
+
+        @Override
+        void aoGravar(Emprestimo emprestimo) throws SQLException {
+            ByteBuffer dados = ByteBuffer.allocate(TAMANHO_EMPRESTIMO - 1);
+            dados.putInt(emprestimo.id);
+            dados.putInt(emprestimo.idFuncionario);
+            dados.putInt(emprestimo.idEpi);
+            escreverData(dados, emprestimo.dataEmprestimo);
+            escreverData(dados, emprestimo.dataDevolucaoPrevista);
+            escreverData(dados, emprestimo.dataDevolucaoReal);
+            dados.putInt(emprestimo.quantidade);
+            escreverTexto(dados, emprestimo.status, 20, "status");
+            registrar(TABELA_EMPRESTIMO, GRAVAR, emprestimo.id, dados.array());
+        }
+
+        @Override
+        void aoRemover(byte tabela, int id) throws SQLException {
+            registrar(tabela, REMOVER, id, new byte[0]);
+        }
+
+        private void abrir() throws IOException {
+            Files.createDirectories(diretorio);
+
+            // O bloqueio do diário impede duas instâncias sobre os mesmos arquivos
+            FileChannel canal = FileChannel.open(diretorio.resolve("diario.wal"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileLock bloqueioDiario;
+            try {
+                bloqueioDiario = canal.tryLock();
+            } catch (OverlappingFileLockException e) {
+                bloqueioDiario = null;
+            }
+            if (bloqueioDiario == null) {
+                canal.close();
+                throw new IOException("os arquivos já estão em uso por outra instância");
+            }
+
+            tabelaEpis = new TabelaArquivo(diretorio.resolve("epi.dat"), TAMANHO_EPI);
+            tabelaFuncionarios = new TabelaArquivo(diretorio.resolve("funcionario.dat"), TAMANHO_FUNCIONARIO);
+            tabelaEmprestimos = new TabelaArquivo(diretorio.resolve("emprestimo.dat"), TAMANHO_EMPRESTIMO);
+            diario = canal;
+            bloqueio = bloqueioDiario;
+
+            trava.writeLock().lock();
+            try {
+                int recuperadas = reaplicarDiario();
+                if (recuperadas > 0) {
+                    System.out.println(AMARELO + "⚠️ Diário reaplicado: " + recuperadas +
+                            " alterações recuperadas da última execução." + RESET);
+                }
+                carregar();
+            } finally {
+                trava.writeLock().unlock();
+            }
+
+            Runtime.getRuntime().addShutdownHook(new Thread(this::fechar, "fechamento-armazenamento"));
+        }
+
+        /**
+         * Aplica às páginas as transações confirmadas do diário; uma entrada incompleta
+         * ou com CRC inválido (gravação interrompida) encerra a leitura, e as entradas
+         * de uma transação sem marca de confirmação são descartadas
+         * @return Quantidade de entradas reaplicadas
+         */
+        private int reaplicarDiario() throws IOException {
+            ByteBuffer conteudo = ByteBuffer.allocate((int) diario.size());
+            while (conteudo.hasRemaining() && diario.read(conteudo, conteudo.position()) >= 0) {
+                // Lê o diário inteiro (limitado por LIMITE_DIARIO)
+            }
+            conteudo.flip();
+
+            int aplicadas = 0;
+            List<EntradaDiario> transacao = new ArrayList<>();
+            boolean confirmacoes = false;
+            CRC32 crc = new CRC32();
+            while (conteudo.remaining() >= CABECALHO_DIARIO + 8) {
+                int inicio = conteudo.position();
+                int tamanhoDados = conteudo.getInt();
+                byte tabela = conteudo.get();
+                byte operacao = conteudo.get();
+                int id = conteudo.getInt();
+                if (tamanhoDados < 0 || conteudo.remaining() < tamanhoDados + 8) {
+                    break;
+                }
+                byte[] dados = new byte[tamanhoDados];
+                conteudo.get(dados);
+
+                crc.reset();
+                crc.update(conteudo.array(), inicio, CABECALHO_DIARIO + tamanhoDados);
+                if (crc.getValue() != conteudo.getLong()) {
+                    break;
+                }
+
+                if (operacao != CONFIRMAR) {
+                    transacao.add(new EntradaDiario(tabela, operacao, id, dados));
+                    continue;
+                }
+                if (id != transacao.size()) {
+                    break;
+                }
+                for (EntradaDiario entrada : transacao) {
+                    aplicar(entrada);
+                }
+                aplicadas += transacao.size();
+                transacao.clear();
+                confirmacoes = true;
+            }
+
+            // Diário sem nenhuma marca é do formato anterior, em que cada entrada valia sozinha
+            if (!confirmacoes) {
+                for (EntradaDiario entrada : transacao) {
+                    aplicar(entrada);
+                }
+                aplicadas += transacao.size();
+            }
+
+            descarregar();
+            return aplicadas;
+        }
+
+        /**
+         * Reconstrói os repositórios em memória (e seus índices) a partir das páginas
+         */
+        private void carregar() {
+            for (int id = 1; id <= tabelaEpis.capacidade(); id++) {
+                if (tabelaEpis.ocupado(id)) {
+                    ByteBuffer dados = tabelaEpis.ler(id);
+                    epis.restaurar(new Epi(dados.getInt(), lerTexto(dados, 100), lerTexto(dados, 255),
+                            lerData(dados), dados.getInt()));
+                }
+            }
+            for (int id = 1; id <= tabelaFuncionarios.capacidade(); id++) {
+                if (tabelaFuncionarios.ocupado(id)) {
+                    ByteBuffer dados = tabelaFuncionarios.ler(id);
+                    funcionarios.restaurar(new Funcionario(dados.getInt(), lerTexto(dados, 100), lerTexto(dados, 14),
+                            lerTexto(dados, 50), lerTexto(dados, 50)));
+                }
+            }
+            for (int id = 1; id <= tabelaEmprestimos.capacidade(); id++) {
+                if (tabelaEmprestimos.ocupado(id)) {
+                    ByteBuffer dados = tabelaEmprestimos.ler(id);
+                    emprestimos.restaurar(new Emprestimo(dados.getInt(), dados.getInt(), dados.getInt(),
+                            lerData(dados), lerData(dados), lerData(dados), dados.getInt(), lerTexto(dados, 20),
+                            null, null));
+                }
+            }
+        }
+
+        /**
+         * Reserva o espaço na página e grava a alteração no diário (com fsync) e depois
+         * na página mapeada; dentro de emTransacao, só a acumula para a confirmação.
+         * Chamado com a trava de escrita adquirida, antes da alteração em memória.
+         */
+        private void registrar(byte tabela, byte operacao, int id, byte[] dados) throws SQLException {
+            if (diario == null) {
+                throw new SQLException("armazenamento em arquivos não foi aberto");
+            }
+            if (inconsistente) {
+                throw new SQLException("falha anterior de gravação em " + diretorio.toAbsolutePath() +
+                        "; reinicie o programa para recarregar os dados confirmados");
+            }
+            if (operacao == GRAVAR) {
+                try {
+                    arquivo(tabela).reservar(id);
+                } catch (IOException e) {
+                    throw new SQLException("erro de gravação em " + diretorio.toAbsolutePath() + ": " +
+                            e.getMessage(), e);
+                }
+            }
+
+            EntradaDiario entrada = new EntradaDiario(tabela, operacao, id, dados);
+            if (pendentes != null) {
+                pendentes.add(entrada);
+            } else {
+                confirmar(Collections.singletonList(entrada));
+            }
+        }
+
+        /**
+         * Grava as entradas e a marca de confirmação no diário (com fsync) e as aplica
+         * às páginas. Se a gravação falhar, o diário volta ao tamanho anterior
+         */
+        private void confirmar(List<EntradaDiario> entradas) throws SQLException {
+            int tamanho = CABECALHO_DIARIO + 8;
+            for (EntradaDiario entrada : entradas) {
+                tamanho += CABECALHO_DIARIO + entrada.dados.length + 8;
+            }
+            ByteBuffer lote = ByteBuffer.allocate(tamanho);
+            CRC32 crc = new CRC32();
+            for (EntradaDiario entrada : entradas) {
+                escreverEntrada(lote, crc, entrada.tabela, entrada.operacao, entrada.id, entrada.dados);
+            }
+            escreverEntrada(lote, crc, (byte) 0, CONFIRMAR, entradas.size(), new byte[0]);
+            lote.flip();
+
+            long tamanhoAnterior = -1;
+            try {
+                tamanhoAnterior = diario.size();
+                while (lote.hasRemaining()) {
+                    diario.write(lote);
+                }
+                diario.force(false);
+            } catch (IOException e) {
+                try {
+                    if (tamanhoAnterior >= 0) {
+                        diario.truncate(tamanhoAnterior);
+                        diario.position(tamanhoAnterior);
+                    }
+                } catch (IOException falha) {
+                    e.addSuppressed(falha);
+                }
+                throw new SQLException("erro de gravação em " + diretorio.toAbsolutePath() + ": " + e.getMessage(), e);
+            }
+
+            try {
+                for (EntradaDiario entrada : entradas) {
+                    aplicar(entrada);
+                }
+                if (diario.size() > LIMITE_DIARIO) {
+                    descarregar();
+                }
+            } catch (IOException e) {
+                throw new SQLException("erro de gravação em " + diretorio.toAbsolutePath() + ": " + e.getMessage(), e);
+            }
+        }
+
+        private static void escreverEntrada(ByteBuffer destino, CRC32 crc, byte tabela, byte operacao, int id,
+                                            byte[] dados) {
+            int inicio = destino.position();
+            destino.putInt(dados.length).put(tabela).put(operacao).putInt(id).put(dados);
+            crc.reset();
+            crc.update(destino.array(), inicio, destino.position() - inicio);
+            destino.putLong(crc.getValue());
+        }
+
+        private TabelaArquivo arquivo(byte tabela) {
+            return tabela == TABELA_EPI ? tabelaEpis
+                    : tabela == TABELA_FUNCIONARIO ? tabelaFuncionarios
+                    : tabelaEmprestimos;
+        }
+
+        private void aplicar(EntradaDiario entrada) throws IOException {
+            TabelaArquivo arquivo = arquivo(entrada.tabela);
+            if (entrada.operacao == GRAVAR) {
+                arquivo.gravar(entrada.id, entrada.dados);
+            } else {
+                arquivo.limpar(entrada.id);
+            }
+        }
+
+        /**
+         * Ponto de verificação: leva as páginas ao disco e só então zera o diário
+         */
+        private void descarregar() throws IOException {
+            tabelaEpis.forcar();
+            tabelaFuncionarios.forcar();
+            tabelaEmprestimos.forcar();
+            diario.truncate(0);
+            diario.position(0);
+            diario.force(true);
+        }
+
+        /**
+         * Fechamento ao encerrar o programa: descarrega as páginas e libera os arquivos
+         */
+        private void fechar() {
+            trava.writeLock().lock();
+            try {
+                descarregar();
+                tabelaEpis.fechar();
+                tabelaFuncionarios.fechar();
+                tabelaEmprestimos.fechar();
+                bloqueio.release();
+                diario.close();
+                diario = null;
+            } catch (IOException e) {
+                System.err.println(VERMELHO + "Erro ao fechar os arquivos de dados: " + e.getMessage() + RESET);
+            } finally {
+                trava.writeLock().unlock();
+            }
+        }
+
+        private static int texto(int caracteres) {
+            return 2 + 2 * caracteres;
+        }
+
+        private static void escreverTexto(ByteBuffer destino, String valor, int maximo, String coluna)
+                throws SQLException {
+            int inicio = destino.position();
+            if (valor == null) {
+                destino.putShort((short) -1);
+            } else {
+                if (valor.length() > maximo) {
+                    throw new SQLDataException("Valor muito longo para a coluna '" + coluna + "' (máximo " +
+                            maximo + " caracteres)");
+                }
+                destino.putShort((short) valor.length());
+                for (int i = 0; i < valor.length(); i++) {
+                    destino.putChar(valor.charAt(i));
+                }
+            }
+            destino.position(inicio + texto(maximo));
+        }
+
+        private static String lerTexto(ByteBuffer origem, int maximo) {
+            int inicio = origem.position();
+            short tamanho = origem.getShort();
+            String valor = null;
+            if (tamanho >= 0) {
+                char[] caracteres = new char[tamanho];
+                for (int i = 0; i < tamanho; i++) {
+                    caracteres[i] = origem.getChar();
+                }
+                valor = new String(caracteres);
+            }
+            origem.position(inicio + texto(maximo));
+            return valor;
+        }
+
+        private static void escreverData(ByteBuffer destino, LocalDate data) {
+            destino.putInt(data != null ? (int) data.toEpochDay() : Integer.MIN_VALUE);
+        }
+
+        private static LocalDate lerData(ByteBuffer origem) {
+            int dia = origem.getInt();
+            return dia != Integer.MIN_VALUE ? LocalDate.ofEpochDay(dia) : null;
+        }
+    }
+
+    /**
+     * Arquivo de registros de tamanho fixo mapeado em memória. A página 0 guarda o
+     * cabeçalho (assinatura e tamanho do registro); o registro de ID n fica na página
+     * 1 + (n - 1) / registrosPorPagina. Cada registro começa com um byte de ocupação
+     * (0 = livre). O arquivo cresce dobrando o número de páginas. Não é thread-safe:
+     * o ArmazenamentoArquivo só o acessa com a trava de escrita.
+     */
+    static class TabelaArquivo {
+        static final int TAMANHO_PAGINA = 4096;
+        private static final int ASSINATURA = 0x45504931; // "EPI1"
+
+        private final Path arquivo;
+        private final FileChannel canal;
+        private final int tamanhoRegistro;
+        private final int registrosPorPagina;
+        private MappedByteBuffer mapa;
+        private int paginas;
+
+        TabelaArquivo(Path arquivo, int tamanhoRegistro) throws IOException {
+            this.arquivo = arquivo;
+            this.tamanhoRegistro = tamanhoRegistro;
+            this.registrosPorPagina = TAMANHO_PAGINA / tamanhoRegistro;
+            this.canal = FileChannel.open(arquivo,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            long tamanho = canal.size();
+            paginas = (int) Math.max(2, (tamanho + TAMANHO_PAGINA - 1) / TAMANHO_PAGINA);
+            mapear();
+
+            if (tamanho == 0) {
+                mapa.putInt(0, ASSINATURA);
+                mapa.putInt(4, tamanhoRegistro);
+            } else if (mapa.getInt(0) != ASSINATURA || mapa.getInt(4) != tamanhoRegistro) {
+                canal.close();
+                throw new IOException(arquivo.getFileName() + " não é um arquivo de dados compatível");
+            }
+        }
+
+        /** Maior ID que cabe nas páginas atuais */
+        int capacidade() {
+            return (paginas - 1) * registrosPorPagina;
+        }
+
+        boolean ocupado(int id) {
+            return id <= capacidade() && mapa.get(posicao(id)) == 1;
+        }
+
+        /** Campos do registro (após o byte de ocupação) */
+        ByteBuffer ler(int id) {
+            int inicio = posicao(id) + 1;
+            return mapa.slice(inicio, tamanhoRegistro - 1);
+        }
+
+        /** Garante páginas para o ID, crescendo o arquivo se preciso (falha no tamanho máximo) */
+        void reservar(int id) throws IOException {
+            if (id > capacidade()) {
+                crescer(id);
+            }
+        }
+
+        void gravar(int id, byte[] dados) throws IOException {
+            reservar(id);
+            int inicio = posicao(id);
+            mapa.put(inicio + 1, dados);
+            mapa.put(inicio, (byte) 1);
+        }
+
+        void limpar(int id) {
+            if (id <= capacidade()) {
+                mapa.put(posicao(id), (byte) 0);
+            }
+        }
+
+        void forcar() {
+            mapa.force();
+        }
+
+        void fechar() throws IOException {
+            mapa.force();
+            canal.close();
+        }
+
+        private int posicao(int id) {
+            int indice = id - 1;
+            return (1 + indice / registrosPorPagina) * TAMANHO_PAGINA + (indice % registrosPorPagina) * tamanhoRegistro;
+        }
+
+        private void crescer(int id) throws IOException {
+            mapa.force();
+            int necessarias = 2 + (id - 1) / registrosPorPagina;
+            long novas = Math.max(necessarias, (long) paginas * 2);
+            if (novas * TAMANHO_PAGINA > Integer.MAX_VALUE) {
+                throw new IOException(arquivo.getFileName() + " atingiu o tamanho máximo");
+            }
+            paginas = (int) novas;
+            mapear();
+        }
+
+        private void mapear() throws IOException {
+            mapa = canal.map(FileChannel.MapMode.READ_WRITE, 0, (long) paginas * TAMANHO_PAGINA);
+        }
+    }
+
+    /**
+     * Mapa de chave int (endereçamento aberto com sondagem linear), sem o custo de
+     * Integer e das entradas do HashMap. Não é thread-safe: quem usa controla o acesso.
+     */
+    static class MapaInt<V> {
+        private int[] chaves;
+        private Object[] valores;
+        private int tamanho;
+
+        MapaInt() {
+            this(16);
+        }
+
+        MapaInt(int capacidadeInicial) {
+            int capacidade = Integer.highestOneBit(Math.max(4, capacidadeInicial) * 2 - 1);
+            chaves = new int[capacidade];
+            valores = new Object[capacidade];
+        }
+
+        int tamanho() {
+            return tamanho;
+        }
+
+        @SuppressWarnings("unchecked")
+        V obter(int chave) {
+            int mascara = chaves.length - 1;
+            for (int i = espalhar(chave) & mascara; valores[i] != null; i = (i + 1) & mascara) {
+                if (chaves[i] == chave) {
+                    return (V) valores[i];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Associa o valor (não nulo) à chave
+         * @return O valor anterior, ou null
+         */
+        @SuppressWarnings("unchecked")
+        V colocar(int chave, V valor) {
+            if ((tamanho + 1) * 2 > chaves.length) {
+                redimensionar(chaves.length * 2);
+            }
+            int mascara = chaves.length - 1;
+            int i = espalhar(chave) & mascara;
+            for (; valores[i] != null; i = (i + 1) & mascara) {
+                if (chaves[i] == chave) {
+                    V anterior = (V) valores[i];
+                    valores[i] = valor;
+                    return anterior;
+                }
+            }
+            chaves[i] = chave;
+            valores[i] = valor;
+            tamanho++;
+            return null;
+        }
+
+        /**
+         * Remove a chave, reposicionando as entradas seguintes do mesmo agrupamento
+         * @return O valor removido, ou null
+         */
+        @SuppressWarnings("unchecked")
+        V remover(int chave) {
+            int mascara = chaves.length - 1;
+            int i = espalhar(chave) & mascara;
+            while (valores[i] != null && chaves[i] != chave) {
+                i = (i + 1) & mascara;
+            }
+            if (valores[i] == null) {
+                return null;
+            }
+
+            V removido = (V) valores[i];
+            valores[i] = null;
+            tamanho--;
+
+            // Desloca para trás as entradas que dependiam da posição liberada
+            for (int j = (i + 1) & mascara; valores[j] != null; j = (j + 1) & mascara) {
+                int ideal = espalhar(chaves[j]) & mascara;
+                boolean fora = i <= j ? (ideal <= i || ideal > j) : (ideal <= i && ideal > j);
+                if (fora) {
+                    chaves[i] = chaves[j];
+                    valores[i] = valores[j];
+                    valores[j] = null;
+                    i = j;
+                }
+            }
+            return removido;
+        }
+
+        /** Cópia dos valores, em ordem arbitrária */
+        @SuppressWarnings("unchecked")
+        List<V> valores() {
+            List<V> resultado = new ArrayList<>(tamanho);
+            for (Object valor : valores) {
+                if (valor != null) {
+                    resultado.add((V) valor);
+                }
+            }
+            return resultado;
+        }
+
+        /** Cópia das chaves, em ordem arbitrária */
+        int[] chaves() {
+            int[] resultado = new int[tamanho];
+            int n = 0;
+            for (int i = 0; i < chaves.length; i++) {
+                if (valores[i] != null) {
+                    resultado[n++] = chaves[i];
+                }
+            }
+            return resultado;
+        }
+
+        private void redimensionar(int capacidade) {
+            int[] chavesAntigas = chaves;
+            Object[] valoresAntigos = valores;
+            chaves = new int[capacidade];
+            valores = new Object[capacidade];
+            int mascara = capacidade - 1;
+            for (int i = 0; i < chavesAntigas.length; i++) {
+                if (valoresAntigos[i] != null) {
+                    int j = espalhar(chavesAntigas[i]) & mascara;
+                    while (valores[j] != null) {
+                        j = (j + 1) & mascara;
+                    }
+                    chaves[j] = chavesAntigas[i];
+                    valores[j] = valoresAntigos[i];
+                }
+            }
+        }
+
+        private static int espalhar(int chave) {
+            int h = chave * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * Mapa de chave int e valor long (endereçamento aberto com sondagem linear), no
+     * mesmo formato do MapaInt, sem nenhum objeto por entrada. Não é thread-safe.
+     */
+    static class MapaIntLong {
+        private int[] chaves;
+        private long[] valores;
+        private boolean[] ocupados;
+        private int tamanho;
+
+        MapaIntLong() {
+            chaves = new int[16];
+            valores = new long[16];
+            ocupados = new boolean[16];
+        }
+
+        int tamanho() {
+            return tamanho;
+        }
+
+        boolean contem(int chave) {
+            return posicao(chave) >= 0;
+        }
+
+        /** @return O valor associado, ou 0 se a chave não existe */
+        long obter(int chave) {
+            int i = posicao(chave);
+            return i >= 0 ? valores[i] : 0;
+        }
+
+        void colocar(int chave, long valor) {
+            if ((tamanho + 1) * 2 > chaves.length) {
+                redimensionar(chaves.length * 2);
+            }
+            int mascara = chaves.length - 1;
+            int i = MapaInt.espalhar(chave) & mascara;
+            for (; ocupados[i]; i = (i + 1) & mascara) {
+                if (chaves[i] == chave) {
+                    valores[i] = valor;
+                    return;
+                }
+            }
+            chaves[i] = chave;
+            valores[i] = valor;
+            ocupados[i] = true;
+            tamanho++;
+        }
+
+        /**
+         * Remove a chave, reposicionando as entradas seguintes do mesmo agrupamento
+         * @return O valor removido, ou 0 se a chave não existia
+         */
+        long remover(int chave) {
+            int i = posicao(chave);
+            if (i < 0) {
+                return 0;
+            }
+
+            long removido = valores[i];
+            ocupados[i] = false;
+            tamanho--;
+
+            int mascara = chaves.length - 1;
+            for (int j = (i + 1) & mascara; ocupados[j]; j = (j + 1) & mascara) {
+                int ideal = MapaInt.espalhar(chaves[j]) & mascara;
+                boolean fora = i <= j ? (ideal <= i || ideal > j) : (ideal <= i && ideal > j);
+                if (fora) {
+                    chaves[i] = chaves[j];
+                    valores[i] = valores[j];
+                    ocupados[i] = true;
+                    ocupados[j] = false;
+                    i = j;
+                }
+            }
+            return removido;
+        }
+
+        private int posicao(int chave) {
+            int mascara = chaves.length - 1;
+            for (int i = MapaInt.espalhar(chave) & mascara; ocupados[i]; i = (i + 1) & mascara) {
+                if (chaves[i] == chave) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void redimensionar(int capacidade) {
+            int[] chavesAntigas = chaves;
+            long[] valoresAntigos = valores;
+            boolean[] ocupadosAntigos = ocupados;
+            chaves = new int[capacidade];
+            valores = new long[capacidade];
+            ocupados = new boolean[capacidade];
+            int mascara = capacidade - 1;
+            for (int i = 0; i < chavesAntigas.length; i++) {
+                if (ocupadosAntigos[i]) {
+                    int j = MapaInt.espalhar(chavesAntigas[i]) & mascara;
+                    while (ocupados[j]) {
+                        j = (j + 1) & mascara;
+                    }
+                    chaves[j] = chavesAntigas[i];
+                    valores[j] = valoresAntigos[i];
+                    ocupados[j] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Lista de int que cresce sob demanda (sem Integer)
+     */
+    static class ListaInt {
+        private int[] itens = new int[4];
+        private int tamanho;
+
+        int tamanho() {
+            return tamanho;
+        }
+
+        int obter(int indice) {
+            return itens[indice];
+        }
+
+        void adicionar(int valor) {
+            if (tamanho == itens.length) {
+                itens = Arrays.copyOf(itens, tamanho * 2);
+            }
+            itens[tamanho++] = valor;
+        }
+
+        /**
+         * Remove a primeira ocorrência do valor (a ordem dos demais não é preservada)
+         * @return true se o valor estava na lista
+         */
+        boolean removerValor(int valor) {
+            for (int i = 0; i < tamanho; i++) {
+                if (itens[i] == valor) {
+                    itens[i] = itens[--tamanho];
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Cópia dos valores */
+        int[] copiar() {
+            return Arrays.copyOf(itens, tamanho);
+        }
+
+        boolean contem(int valor) {
+            for (int i = 0; i < tamanho; i++) {
+                if (itens[i] == valor) {
+                    return true;
+                }
+            }
+            return false;
         }
     }
 }